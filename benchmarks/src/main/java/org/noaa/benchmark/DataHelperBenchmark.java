@@ -0,0 +1,57 @@
+/*
+ * ________________________________________________________________________
+ * METRO.IO CONFIDENTIAL
+ * ________________________________________________________________________
+ *
+ * Copyright (c) 2018.
+ * Metro Labs Incorporated
+ * All Rights Reserved.
+ *
+ * NOTICE: All information contained herein is, and remains
+ * the property of Metro Labs Incorporated and its suppliers,
+ * if any. The intellectual and technical concepts contained
+ * herein are proprietary to Metro Labs Incorporated
+ * and its suppliers and may be covered by U.S. and Foreign Patents,
+ * patents in process, and are protected by trade secret or copyright law.
+ * Dissemination of this information or reproduction of this material
+ * is strictly forbidden unless prior written permission is obtained
+ * from Metro Labs Incorporated.
+ */
+
+package org.noaa.benchmark;
+
+import org.noaa.IntegratedSurfaceData.DataHelper;
+import org.openjdk.jmh.annotations.*;
+
+import java.time.LocalDateTime;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Per-value conversions the CSVRecord constructor makes for every row.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class DataHelperBenchmark {
+    String[] values = {"-0150", "+9999", "0036", "10312", "-0021"};
+    String[] dates = {"2018-01-01T00:15:00", "2018-07-14T13:53:00", "2018-12-31T23:59:00"};
+    int index;
+
+    @Benchmark
+    public Double toDoubleScaled() {
+        return DataHelper.toDouble(values[index++ % values.length], 10d);
+    }
+
+    @Benchmark
+    public Double toDouble() {
+        return DataHelper.toDouble(values[index++ % values.length]);
+    }
+
+    @Benchmark
+    public LocalDateTime toDate() {
+        return DataHelper.toDate(dates[index++ % dates.length]);
+    }
+}
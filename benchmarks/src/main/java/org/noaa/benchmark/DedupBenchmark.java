@@ -0,0 +1,100 @@
+/*
+ * ________________________________________________________________________
+ * METRO.IO CONFIDENTIAL
+ * ________________________________________________________________________
+ *
+ * Copyright (c) 2018.
+ * Metro Labs Incorporated
+ * All Rights Reserved.
+ *
+ * NOTICE: All information contained herein is, and remains
+ * the property of Metro Labs Incorporated and its suppliers,
+ * if any. The intellectual and technical concepts contained
+ * herein are proprietary to Metro Labs Incorporated
+ * and its suppliers and may be covered by U.S. and Foreign Patents,
+ * patents in process, and are protected by trade secret or copyright law.
+ * Dissemination of this information or reproduction of this material
+ * is strictly forbidden unless prior written permission is obtained
+ * from Metro Labs Incorporated.
+ */
+
+package org.noaa.benchmark;
+
+import org.noaa.DedupPolicy;
+import org.noaa.HourlyDeduplicator;
+import org.noaa.IntegratedSurfaceData;
+import org.noaa.IntegratedSurfaceDataReader;
+import org.noaa.IsdCsvParser;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Hourly dedup over already parsed rows: the original String.format key in a LinkedHashMap
+ * against the comparison with the previous row and {@link HourlyDeduplicator}'s epoch-hour key.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class DedupBenchmark {
+    @Param({"10000", "100000"})
+    int rows;
+
+    List<IntegratedSurfaceData> parsed;
+
+    @Setup
+    public void setup() throws IOException {
+        parsed = new ArrayList<>(rows);
+        try (IsdCsvParser parser = new IsdCsvParser(new ByteArrayInputStream(IsdFixtures.csv(rows)))) {
+            while (parser.next()) parsed.add(parser.toIntegratedSurfaceData());
+        }
+    }
+
+    @Benchmark
+    public Collection<IntegratedSurfaceData> stringKeyMap() {
+        Map<String, IntegratedSurfaceData> collection = new LinkedHashMap<>();
+        for (IntegratedSurfaceData i : parsed) {
+            String key = String.format("%d%d%d%d",
+                    i.getObservationYear(), i.getObservationMonth(),
+                    i.getObservationDay(), i.getObservationHour());
+
+            if (!collection.containsKey(key)) collection.put(key, i);
+        }
+        return collection.values();
+    }
+
+    @Benchmark
+    public Collection<IntegratedSurfaceData> adjacentHour() {
+        List<IntegratedSurfaceData> collection = new ArrayList<>();
+        IntegratedSurfaceData last = null;
+        for (IntegratedSurfaceData i : parsed) {
+            if (i.equals(last)) continue;
+            collection.add(i);
+            last = i;
+        }
+        return collection;
+    }
+
+    @Benchmark
+    public List<IntegratedSurfaceData> epochHourSortAndDedup() {
+        return HourlyDeduplicator.dedup(parsed, DedupPolicy.BEST_QUALITY);
+    }
+
+    @Benchmark
+    public int reader() throws IOException {
+        int count = 0;
+        try (IntegratedSurfaceDataReader reader = new IntegratedSurfaceDataReader(new ByteArrayInputStream(IsdFixtures.csv(rows)))) {
+            while (reader.hasNext()) {
+                reader.next();
+                count++;
+            }
+        }
+        return count;
+    }
+}
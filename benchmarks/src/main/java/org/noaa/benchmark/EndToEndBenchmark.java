@@ -0,0 +1,68 @@
+/*
+ * ________________________________________________________________________
+ * METRO.IO CONFIDENTIAL
+ * ________________________________________________________________________
+ *
+ * Copyright (c) 2018.
+ * Metro Labs Incorporated
+ * All Rights Reserved.
+ *
+ * NOTICE: All information contained herein is, and remains
+ * the property of Metro Labs Incorporated and its suppliers,
+ * if any. The intellectual and technical concepts contained
+ * herein are proprietary to Metro Labs Incorporated
+ * and its suppliers and may be covered by U.S. and Foreign Patents,
+ * patents in process, and are protected by trade secret or copyright law.
+ * Dissemination of this information or reproduction of this material
+ * is strictly forbidden unless prior written permission is obtained
+ * from Metro Labs Incorporated.
+ */
+
+package org.noaa.benchmark;
+
+import org.noaa.IntegratedSurfaceData;
+import org.noaa.IntegratedSurfaceDataReader;
+import org.noaa.IsdSeries;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Whole station-year loads from an in-memory stream, i.e. everything getIntegratedSurfaceData does
+ * after the bytes arrive. Throughput is reported in station-years per second.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class EndToEndBenchmark {
+    @Param({"10000", "100000"})
+    int rows;
+
+    byte[] csv;
+
+    @Setup
+    public void setup() {
+        csv = IsdFixtures.csv(rows);
+    }
+
+    @Benchmark
+    public List<IntegratedSurfaceData> collection() throws IOException {
+        List<IntegratedSurfaceData> collection = new ArrayList<>();
+        try (IntegratedSurfaceDataReader reader = new IntegratedSurfaceDataReader(new ByteArrayInputStream(csv))) {
+            reader.forEachRemaining(collection::add);
+        }
+        return collection;
+    }
+
+    @Benchmark
+    public IsdSeries series() throws IOException {
+        return IsdSeries.read(new ByteArrayInputStream(csv));
+    }
+}
@@ -0,0 +1,70 @@
+/*
+ * ________________________________________________________________________
+ * METRO.IO CONFIDENTIAL
+ * ________________________________________________________________________
+ *
+ * Copyright (c) 2018.
+ * Metro Labs Incorporated
+ * All Rights Reserved.
+ *
+ * NOTICE: All information contained herein is, and remains
+ * the property of Metro Labs Incorporated and its suppliers,
+ * if any. The intellectual and technical concepts contained
+ * herein are proprietary to Metro Labs Incorporated
+ * and its suppliers and may be covered by U.S. and Foreign Patents,
+ * patents in process, and are protected by trade secret or copyright law.
+ * Dissemination of this information or reproduction of this material
+ * is strictly forbidden unless prior written permission is obtained
+ * from Metro Labs Incorporated.
+ */
+
+package org.noaa.benchmark;
+
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.util.Random;
+
+/**
+ * Synthetic global-hourly CSV files shaped like the real ones: quoted fields, the same header, one
+ * FM-15 report per hour plus, after every fourth hour, an FM-16 report for that hour so the dedup has
+ * work to do (every fifth row is a duplicate, 20% of the rows), and a sprinkling of missing values.
+ */
+public final class IsdFixtures {
+    static final String HEADER = "\"STATION\",\"DATE\",\"SOURCE\",\"LATITUDE\",\"LONGITUDE\",\"ELEVATION\",\"NAME\"," +
+            "\"REPORT_TYPE\",\"CALL_SIGN\",\"QUALITY_CONTROL\",\"WND\",\"CIG\",\"VIS\",\"TMP\",\"DEW\",\"SLP\",\"AA1\",\"GA1\",\"MA1\"\n";
+
+    private IsdFixtures() {
+    }
+
+    /**
+     * @param rows number of data rows, duplicates included
+     */
+    public static byte[] csv(int rows) {
+        Random random = new Random(rows);
+        StringBuilder csv = new StringBuilder(HEADER.length() + rows * 260).append(HEADER);
+        LocalDateTime date = LocalDateTime.of(2018, 1, 1, 0, 53);
+        for (int row = 0; row < rows; row++) {
+            // rows 0-3 of each group of five are four new hours, row 4 repeats the last of them
+            boolean extra = row % 5 == 4;
+            LocalDateTime at = extra ? date.minusHours(1).plusMinutes(5) : date;
+
+            int tmp = random.nextInt(20) == 0 ? 9999 : random.nextInt(600) - 300;
+            int dew = tmp == 9999 ? 9999 : tmp - random.nextInt(100);
+            int slp = random.nextInt(4) == 0 ? 99999 : 9800 + random.nextInt(600);
+            int dir = random.nextInt(10) == 0 ? 999 : 10 * (1 + random.nextInt(36));
+            int spd = random.nextInt(150);
+
+            csv.append("\"72054500169\",\"").append(at).append(at.getSecond() == 0 ? ":00" : "").append("\",\"4\",")
+                    .append("\"40.6128\",\"-91.1214\",\"203.0\",\"FORT MADISON MUNICIPAL AIRPORT, IA US\",")
+                    .append(extra ? "\"FM-16\"" : "\"FM-15\"").append(",\"99999\",\"V020\",")
+                    .append(String.format("\"%03d,1,N,%04d,1\",", dir, spd))
+                    .append("\"22000,1,9,N\",\"016093,1,9,9\",")
+                    .append(String.format("\"%+05d,1\",\"%+05d,1\",\"%05d,1\",", tmp, dew, slp))
+                    .append("\"01,0000,9,1\",\"08,1,+00610,1,99,9\",\"99999,9,09852,1\"\n");
+
+            if (!extra) date = date.plusHours(1);
+        }
+
+        return csv.toString().getBytes(StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,68 @@
+/*
+ * ________________________________________________________________________
+ * METRO.IO CONFIDENTIAL
+ * ________________________________________________________________________
+ *
+ * Copyright (c) 2018.
+ * Metro Labs Incorporated
+ * All Rights Reserved.
+ *
+ * NOTICE: All information contained herein is, and remains
+ * the property of Metro Labs Incorporated and its suppliers,
+ * if any. The intellectual and technical concepts contained
+ * herein are proprietary to Metro Labs Incorporated
+ * and its suppliers and may be covered by U.S. and Foreign Patents,
+ * patents in process, and are protected by trade secret or copyright law.
+ * Dissemination of this information or reproduction of this material
+ * is strictly forbidden unless prior written permission is obtained
+ * from Metro Labs Incorporated.
+ */
+
+package org.noaa.benchmark;
+
+import org.noaa.IsdParallelParser;
+import org.noaa.IsdSeries;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Scaling of IsdParallelParser with the size of its pool, for a station-year already in memory.
+ * Compare with EndToEndBenchmark.series for the single-threaded parse.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ParallelParseBenchmark {
+    @Param({"100000", "1000000"})
+    int rows;
+
+    @Param({"1", "2", "4", "8", "16", "32"})
+    int parallelism;
+
+    byte[] csv;
+    ForkJoinPool pool;
+    IsdParallelParser parser;
+
+    @Setup
+    public void setup() {
+        csv = IsdFixtures.csv(rows);
+        pool = new ForkJoinPool(parallelism);
+        parser = new IsdParallelParser().setPool(pool).setMinChunkBytes(256 * 1024);
+    }
+
+    @TearDown
+    public void tearDown() {
+        pool.shutdown();
+    }
+
+    @Benchmark
+    public IsdSeries parse() throws IOException {
+        return parser.parse(csv);
+    }
+}
@@ -0,0 +1,85 @@
+/*
+ * ________________________________________________________________________
+ * METRO.IO CONFIDENTIAL
+ * ________________________________________________________________________
+ *
+ * Copyright (c) 2018.
+ * Metro Labs Incorporated
+ * All Rights Reserved.
+ *
+ * NOTICE: All information contained herein is, and remains
+ * the property of Metro Labs Incorporated and its suppliers,
+ * if any. The intellectual and technical concepts contained
+ * herein are proprietary to Metro Labs Incorporated
+ * and its suppliers and may be covered by U.S. and Foreign Patents,
+ * patents in process, and are protected by trade secret or copyright law.
+ * Dissemination of this information or reproduction of this material
+ * is strictly forbidden unless prior written permission is obtained
+ * from Metro Labs Incorporated.
+ */
+
+package org.noaa.benchmark;
+
+import org.apache.commons.csv.CSVFormat;
+import org.apache.commons.csv.CSVRecord;
+import org.noaa.IntegratedSurfaceData;
+import org.noaa.IntegratedSurfaceData.Field;
+import org.noaa.IsdCsvParser;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Row parsing: commons-csv plus the CSVRecord constructor against the hand-written parser.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ParseBenchmark {
+    @Param({"1000", "10000", "100000"})
+    int rows;
+
+    byte[] csv;
+
+    @Setup
+    public void setup() {
+        csv = IsdFixtures.csv(rows);
+    }
+
+    @Benchmark
+    public void commonsCsvConstructor(Blackhole blackhole) throws IOException {
+        try (Reader reader = new InputStreamReader(new ByteArrayInputStream(csv), StandardCharsets.UTF_8)) {
+            for (CSVRecord record : CSVFormat.DEFAULT.withFirstRecordAsHeader().parse(reader)) {
+                blackhole.consume(new IntegratedSurfaceData(record));
+            }
+        }
+    }
+
+    @Benchmark
+    public void isdCsvParserObjects(Blackhole blackhole) throws IOException {
+        try (IsdCsvParser parser = new IsdCsvParser(new ByteArrayInputStream(csv))) {
+            while (parser.next()) blackhole.consume(parser.toIntegratedSurfaceData());
+        }
+    }
+
+    @Benchmark
+    public double isdCsvParserPrimitives() throws IOException {
+        double sum = 0;
+        try (IsdCsvParser parser = new IsdCsvParser(new ByteArrayInputStream(csv))) {
+            while (parser.next()) {
+                if (!parser.isMissing(Field.AIR_TEMPERATURE)) sum += parser.getValue(Field.AIR_TEMPERATURE);
+                sum += parser.getEpochHour();
+            }
+        }
+        return sum;
+    }
+}
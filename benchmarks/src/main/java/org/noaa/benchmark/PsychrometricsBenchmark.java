@@ -0,0 +1,95 @@
+/*
+ * ________________________________________________________________________
+ * METRO.IO CONFIDENTIAL
+ * ________________________________________________________________________
+ *
+ * Copyright (c) 2018.
+ * Metro Labs Incorporated
+ * All Rights Reserved.
+ *
+ * NOTICE: All information contained herein is, and remains
+ * the property of Metro Labs Incorporated and its suppliers,
+ * if any. The intellectual and technical concepts contained
+ * herein are proprietary to Metro Labs Incorporated
+ * and its suppliers and may be covered by U.S. and Foreign Patents,
+ * patents in process, and are protected by trade secret or copyright law.
+ * Dissemination of this information or reproduction of this material
+ * is strictly forbidden unless prior written permission is obtained
+ * from Metro Labs Incorporated.
+ */
+
+package org.noaa.benchmark;
+
+import org.noaa.IntegratedSurfaceData;
+import org.noaa.IsdPsychrometrics;
+import org.noaa.IsdPsychrometrics.Variable;
+import org.noaa.IsdSeries;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Heat index over a batch: per object with boxed Doubles against the primitive kernel, on one thread and on
+ * the pool.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class PsychrometricsBenchmark {
+    @Param({"100000", "1000000"})
+    int rows;
+
+    IsdSeries series;
+    List<IntegratedSurfaceData> objects;
+    double[] out;
+    ForkJoinPool pool;
+    IsdPsychrometrics sequential;
+    IsdPsychrometrics parallel;
+
+    @Setup
+    public void setup() throws IOException {
+        series = IsdSeries.read(new ByteArrayInputStream(IsdFixtures.csv(rows)));
+        objects = new ArrayList<>(series.asList());
+        out = new double[series.size()];
+        pool = new ForkJoinPool();
+        sequential = new IsdPsychrometrics().setMinChunkRows(Integer.MAX_VALUE);
+        parallel = new IsdPsychrometrics().setPool(pool);
+    }
+
+    @TearDown
+    public void tearDown() {
+        pool.shutdown();
+    }
+
+    @Benchmark
+    public double[] boxed() {
+        for (int i = 0; i < objects.size(); i++) {
+            IntegratedSurfaceData o = objects.get(i);
+            Double t = o.getAirTemperature();
+            Double td = o.getDewPointTemperature();
+            out[i] = t == null || td == null ? Double.NaN
+                    : IsdPsychrometrics.heatIndex(t, IsdPsychrometrics.relativeHumidity(t, td));
+        }
+        return out;
+    }
+
+    @Benchmark
+    public double[] kernel() {
+        sequential.compute(Variable.HEAT_INDEX, series.airTemperatures(), series.dewPointTemperatures(), null, null, out);
+        return out;
+    }
+
+    @Benchmark
+    public double[] kernelParallel() {
+        parallel.compute(Variable.HEAT_INDEX, series.airTemperatures(), series.dewPointTemperatures(), null, null, out);
+        return out;
+    }
+}
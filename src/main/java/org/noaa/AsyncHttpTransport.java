@@ -0,0 +1,330 @@
+/*
+ * ________________________________________________________________________
+ * METRO.IO CONFIDENTIAL
+ * ________________________________________________________________________
+ *
+ * Copyright (c) 2018.
+ * Metro Labs Incorporated
+ * All Rights Reserved.
+ *
+ * NOTICE: All information contained herein is, and remains
+ * the property of Metro Labs Incorporated and its suppliers,
+ * if any. The intellectual and technical concepts contained
+ * herein are proprietary to Metro Labs Incorporated
+ * and its suppliers and may be covered by U.S. and Foreign Patents,
+ * patents in process, and are protected by trade secret or copyright law.
+ * Dissemination of this information or reproduction of this material
+ * is strictly forbidden unless prior written permission is obtained
+ * from Metro Labs Incorporated.
+ */
+
+package org.noaa;
+
+import org.apache.http.Header;
+import org.apache.http.HttpResponse;
+import org.apache.http.client.config.RequestConfig;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.concurrent.FutureCallback;
+import org.apache.http.impl.nio.client.CloseableHttpAsyncClient;
+import org.apache.http.impl.nio.client.HttpAsyncClients;
+import org.apache.http.impl.nio.conn.PoolingNHttpClientConnectionManager;
+import org.apache.http.impl.nio.reactor.DefaultConnectingIOReactor;
+import org.apache.http.impl.nio.reactor.IOReactorConfig;
+import org.apache.http.nio.IOControl;
+import org.apache.http.nio.client.methods.AsyncByteConsumer;
+import org.apache.http.nio.client.methods.HttpAsyncMethods;
+import org.apache.http.nio.reactor.IOReactorException;
+import org.apache.http.protocol.HttpContext;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.net.URISyntaxException;
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+
+/**
+ * Non-blocking transport on Apache HttpAsyncClient. A handful of I/O reactor threads serve every
+ * download; connections are pooled per host and kept alive between requests, and gzip bodies are
+ * inflated incrementally as chunks arrive.
+ *
+ * {@link #executeAsync} runs the consumer on the I/O threads, so the consumer must not block.
+ * {@link #execute} adapts the push model to a stream with flow control: when the caller falls more than
+ * {@link #getBufferSize()} bytes behind, the connection stops reading until it catches up.
+ */
+public class AsyncHttpTransport implements NoaaTransport {
+    private final CloseableHttpAsyncClient client;
+    private final PoolingNHttpClientConnectionManager connections;
+    private int bufferSize = 256 * 1024;
+
+    public AsyncHttpTransport() throws IOReactorException {
+        this(Math.max(1, Runtime.getRuntime().availableProcessors() / 2), 64, 8);
+    }
+
+    /**
+     * @param ioThreads reactor threads shared by all downloads
+     * @param maxConnections pooled connections across all hosts
+     * @param maxConnectionsPerHost pooled connections to a single host
+     */
+    public AsyncHttpTransport(int ioThreads, int maxConnections, int maxConnectionsPerHost) throws IOReactorException {
+        IOReactorConfig reactor = IOReactorConfig.custom()
+                .setIoThreadCount(ioThreads)
+                .setSoKeepAlive(true)
+                .build();
+        connections = new PoolingNHttpClientConnectionManager(new DefaultConnectingIOReactor(reactor));
+        connections.setMaxTotal(maxConnections);
+        connections.setDefaultMaxPerRoute(maxConnectionsPerHost);
+
+        client = HttpAsyncClients.custom()
+                .setConnectionManager(connections)
+                .build();
+        client.start();
+    }
+
+    public int getBufferSize() {
+        return bufferSize;
+    }
+
+    /**
+     * @param bufferSize bytes {@link #execute} buffers ahead of the reader before pausing the connection
+     */
+    public AsyncHttpTransport setBufferSize(int bufferSize) {
+        this.bufferSize = bufferSize;
+        return this;
+    }
+
+    @Override
+    public NoaaResponse execute(NoaaRequest request) throws IOException {
+        Pipe pipe = new Pipe();
+        CompletableFuture<NoaaResponse> headers = new CompletableFuture<>();
+        CompletableFuture<Void> done = executeAsync(request, new PipeConsumer(pipe, headers));
+        pipe.request = done;
+        done.whenComplete((v, e) -> {
+            if (e != null) {
+                headers.completeExceptionally(e);
+                pipe.end(e);
+            }
+        });
+
+        try {
+            return headers.get();
+        }
+        catch (InterruptedException e) {
+            done.cancel(true);
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted waiting for " + request);
+        }
+        catch (ExecutionException e) {
+            throw unwrap(e.getCause());
+        }
+    }
+
+    @Override
+    public <T> CompletableFuture<T> executeAsync(NoaaRequest request, NoaaResponseConsumer<T> consumer) {
+        CompletableFuture<T> result = new CompletableFuture<>();
+        HttpGet get;
+        try {
+            get = new HttpGet(request.getUrl().toURI());
+        }
+        catch (URISyntaxException e) {
+            result.completeExceptionally(new IOException(e));
+            return result;
+        }
+
+        get.setConfig(RequestConfig.custom()
+                .setConnectTimeout(request.getConnectTimeout())
+                .setSocketTimeout(request.getReadTimeout())
+                .build());
+        get.setHeader("Accept-Encoding", "gzip");
+        for (Map.Entry<String, String> header : request.getHeaders().entrySet()) {
+            get.setHeader(header.getKey(), header.getValue());
+        }
+
+        Future<T> future = client.execute(HttpAsyncMethods.create(get), new ByteConsumer<>(consumer), new FutureCallback<T>() {
+            @Override
+            public void completed(T value) {
+                result.complete(value);
+            }
+
+            @Override
+            public void failed(Exception e) {
+                result.completeExceptionally(e);
+            }
+
+            @Override
+            public void cancelled() {
+                result.cancel(false);
+            }
+        });
+        result.whenComplete((v, e) -> {
+            if (result.isCancelled()) future.cancel(true);
+        });
+
+        return result;
+    }
+
+    private static IOException unwrap(Throwable e) {
+        if (e instanceof IOException) return (IOException) e;
+
+        return new IOException(e.getMessage(), e);
+    }
+
+    @Override
+    public void close() throws IOException {
+        client.close();
+    }
+
+    /**
+     * Adapts HttpAsyncClient's byte consumer to {@link NoaaResponseConsumer}, inflating gzip on the way.
+     */
+    private static class ByteConsumer<T> extends AsyncByteConsumer<T> {
+        private final NoaaResponseConsumer<T> consumer;
+        private GzipDecoder gzip;
+
+        ByteConsumer(NoaaResponseConsumer<T> consumer) {
+            this.consumer = consumer;
+        }
+
+        @Override
+        protected void onResponseReceived(HttpResponse response) throws IOException {
+            Map<String, String> headers = new LinkedHashMap<>();
+            for (Header header : response.getAllHeaders()) headers.putIfAbsent(header.getName(), header.getValue());
+
+            int status = response.getStatusLine().getStatusCode();
+            Header encoding = response.getFirstHeader("Content-Encoding");
+            if (encoding != null && "gzip".equalsIgnoreCase(encoding.getValue())) gzip = new GzipDecoder(consumer::data);
+
+            consumer.start(new NoaaResponse(status, headers, null));
+        }
+
+        @Override
+        protected void onByteReceived(ByteBuffer data, IOControl control) throws IOException {
+            if (consumer instanceof PipeConsumer) ((PipeConsumer) consumer).pipe.control = control;
+
+            if (gzip != null) gzip.decode(data);
+            else consumer.data(data);
+        }
+
+        @Override
+        protected T buildResult(HttpContext context) throws Exception {
+            if (gzip != null) gzip.finish();
+
+            return consumer.complete();
+        }
+    }
+
+    /**
+     * Feeds {@link #execute}'s body stream from the I/O thread.
+     */
+    private static class PipeConsumer implements NoaaResponseConsumer<Void> {
+        private final Pipe pipe;
+        private final CompletableFuture<NoaaResponse> headers;
+
+        PipeConsumer(Pipe pipe, CompletableFuture<NoaaResponse> headers) {
+            this.pipe = pipe;
+            this.headers = headers;
+        }
+
+        @Override
+        public void start(NoaaResponse response) {
+            headers.complete(new NoaaResponse(response.getStatus(), response.getHeaders(), pipe));
+        }
+
+        @Override
+        public void data(ByteBuffer data) {
+            pipe.write(data);
+        }
+
+        @Override
+        public Void complete() {
+            pipe.end(null);
+            return null;
+        }
+    }
+
+    /**
+     * Body stream fed by the I/O thread. Writes never block the reactor; once more than bufferSize bytes
+     * are queued the request's connection is suspended and resumed when the reader drains it.
+     */
+    private class Pipe extends InputStream {
+        private final ArrayDeque<ByteBuffer> chunks = new ArrayDeque<>();
+        private long buffered;
+        private boolean ended;
+        private Throwable error;
+        IOControl control;
+        private boolean suspended;
+        volatile CompletableFuture<Void> request;
+
+        synchronized void write(ByteBuffer data) {
+            ByteBuffer copy = ByteBuffer.allocate(data.remaining());
+            copy.put(data).flip();
+            chunks.add(copy);
+            buffered += copy.remaining();
+            if (buffered > bufferSize && control != null && !ended) {
+                control.suspendInput();
+                suspended = true;
+            }
+            notifyAll();
+        }
+
+        synchronized void end(Throwable error) {
+            if (ended) return;
+
+            this.ended = true;
+            this.error = error;
+            notifyAll();
+        }
+
+        @Override
+        public int read() throws IOException {
+            byte[] one = new byte[1];
+            return read(one, 0, 1) < 0 ? -1 : one[0] & 0xff;
+        }
+
+        @Override
+        public synchronized int read(byte[] b, int off, int len) throws IOException {
+            if (len == 0) return 0;
+
+            try {
+                while (chunks.isEmpty() && !ended) wait();
+            }
+            catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException();
+            }
+
+            if (chunks.isEmpty()) {
+                if (error != null) throw unwrap(error);
+                return -1;
+            }
+
+            ByteBuffer chunk = chunks.peek();
+            int n = Math.min(len, chunk.remaining());
+            chunk.get(b, off, n);
+            if (!chunk.hasRemaining()) chunks.poll();
+            buffered -= n;
+            if (suspended && buffered <= bufferSize / 2) {
+                control.requestInput();
+                suspended = false;
+            }
+            return n;
+        }
+
+        @Override
+        public synchronized int available() {
+            return (int) Math.min(buffered, Integer.MAX_VALUE);
+        }
+
+        @Override
+        public void close() {
+            CompletableFuture<Void> r = request;
+            if (r != null && !r.isDone()) r.cancel(true);
+            end(null);
+        }
+    }
+}
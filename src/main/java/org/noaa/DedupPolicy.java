@@ -0,0 +1,118 @@
+/*
+ * ________________________________________________________________________
+ * METRO.IO CONFIDENTIAL
+ * ________________________________________________________________________
+ *
+ * Copyright (c) 2018.
+ * Metro Labs Incorporated
+ * All Rights Reserved.
+ *
+ * NOTICE: All information contained herein is, and remains
+ * the property of Metro Labs Incorporated and its suppliers,
+ * if any. The intellectual and technical concepts contained
+ * herein are proprietary to Metro Labs Incorporated
+ * and its suppliers and may be covered by U.S. and Foreign Patents,
+ * patents in process, and are protected by trade secret or copyright law.
+ * Dissemination of this information or reproduction of this material
+ * is strictly forbidden unless prior written permission is obtained
+ * from Metro Labs Incorporated.
+ */
+
+package org.noaa;
+
+/**
+ * Chooses which observation is kept when a station reports more than once in the same hour.
+ *
+ * Every policy reduces a row to an int score and keeps the row with the higher score; ties keep the row
+ * already held, so every policy falls back to first-wins among equals.
+ */
+public enum DedupPolicy {
+    /**
+     * Keep the first row of the hour in file order.
+     */
+    FIRST_WINS,
+    /**
+     * Keep the last row of the hour in file order.
+     */
+    LAST_WINS,
+    /**
+     * Keep the row whose air temperature has the best TMP quality code.
+     */
+    BEST_QUALITY,
+    /**
+     * Keep the routine hourly METAR (REPORT_TYPE FM-15) over specials and synoptic reports.
+     */
+    PREFER_FM15;
+
+    public static final String FM15 = "FM-15";
+
+    public int score(IsdCsvParser parser) {
+        switch (this) {
+            case BEST_QUALITY:
+                return quality(parser.getAirTemperatureQuality(), parser.isMissing(IntegratedSurfaceData.Field.AIR_TEMPERATURE));
+            case PREFER_FM15:
+                return parser.isReportType(FM15) ? 1 : 0;
+            default:
+                return 0;
+        }
+    }
+
+    public int score(IntegratedSurfaceData i) {
+        switch (this) {
+            case BEST_QUALITY:
+                Character quality = i.getAirTemperatureQuality();
+                return quality(quality == null ? 0 : quality, i.getAirTemperature() == null);
+            case PREFER_FM15:
+                return FM15.equals(i.getReportType()) ? 1 : 0;
+            default:
+                return 0;
+        }
+    }
+
+    /**
+     * @return true when a row scoring {@code candidate} should replace the kept row scoring {@code kept}
+     */
+    public boolean replaces(int kept, int candidate) {
+        switch (this) {
+            case FIRST_WINS:
+                return false;
+            case LAST_WINS:
+                return true;
+            default:
+                return candidate > kept;
+        }
+    }
+
+    /**
+     * Ranks ISD quality codes: passed all checks, then passed gross limits, then accepted or edited values,
+     * then suspect, then missing, then erroneous.
+     */
+    static int quality(char code, boolean missing) {
+        if (missing) return 1;
+
+        switch (code) {
+            case '1':
+            case '5':
+                return 5;
+            case '0':
+            case '4':
+                return 4;
+            case 'A':
+            case 'C':
+            case 'I':
+            case 'M':
+            case 'P':
+            case 'R':
+            case 'U':
+                return 3;
+            case '2':
+            case '6':
+                return 2;
+            case '3':
+            case '7':
+                return 0;
+            default:
+                return 1;
+        }
+    }
+}
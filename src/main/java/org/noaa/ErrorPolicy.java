@@ -0,0 +1,43 @@
+/*
+ * ________________________________________________________________________
+ * METRO.IO CONFIDENTIAL
+ * ________________________________________________________________________
+ *
+ * Copyright (c) 2018.
+ * Metro Labs Incorporated
+ * All Rights Reserved.
+ *
+ * NOTICE: All information contained herein is, and remains
+ * the property of Metro Labs Incorporated and its suppliers,
+ * if any. The intellectual and technical concepts contained
+ * herein are proprietary to Metro Labs Incorporated
+ * and its suppliers and may be covered by U.S. and Foreign Patents,
+ * patents in process, and are protected by trade secret or copyright law.
+ * Dissemination of this information or reproduction of this material
+ * is strictly forbidden unless prior written permission is obtained
+ * from Metro Labs Incorporated.
+ */
+
+package org.noaa;
+
+/**
+ * What a parser does with a data row it cannot decode, e.g. a {@code WND} with fewer than four sub-fields
+ * or an unparsable {@code DATE}. Every bad value is reported as an {@link IsdRowError} whatever the policy.
+ */
+public enum ErrorPolicy {
+    /**
+     * Drops the row and carries on with the next one.
+     */
+    SKIP_ROW,
+
+    /**
+     * Stops at the first bad row with an {@link IsdParseException}.
+     */
+    FAIL_FAST,
+
+    /**
+     * Keeps the row with the undecodable fields marked missing. A row whose {@code DATE} cannot be
+     * decoded has no place in time and is dropped as with {@link #SKIP_ROW}.
+     */
+    SUBSTITUTE_MISSING
+}
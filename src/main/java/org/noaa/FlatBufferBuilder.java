@@ -0,0 +1,196 @@
+/*
+ * ________________________________________________________________________
+ * METRO.IO CONFIDENTIAL
+ * ________________________________________________________________________
+ *
+ * Copyright (c) 2018.
+ * Metro Labs Incorporated
+ * All Rights Reserved.
+ *
+ * NOTICE: All information contained herein is, and remains
+ * the property of Metro Labs Incorporated and its suppliers,
+ * if any. The intellectual and technical concepts contained
+ * herein are proprietary to Metro Labs Incorporated
+ * and its suppliers and may be covered by U.S. and Foreign Patents,
+ * patents in process, and are protected by trade secret or copyright law.
+ * Dissemination of this information or reproduction of this material
+ * is strictly forbidden unless prior written permission is obtained
+ * from Metro Labs Incorporated.
+ */
+
+package org.noaa;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Just enough of a FlatBuffers builder to write Arrow IPC metadata without depending on the FlatBuffers
+ * runtime. Like the reference implementation it fills a little-endian buffer from the back, so children
+ * are written before the tables that point at them. Vtables are not shared and every field that is set is
+ * written, including defaults.
+ */
+class FlatBufferBuilder {
+    private ByteBuffer bb;
+    private int space;
+    private int minAlign = 1;
+    private int[] vtable;
+    private int objectStart;
+    private int vectorLength;
+
+    FlatBufferBuilder(int capacity) {
+        bb = ByteBuffer.allocate(capacity).order(ByteOrder.LITTLE_ENDIAN);
+        space = capacity;
+    }
+
+    /**
+     * @return bytes written so far, which is how offsets are expressed until the buffer is finished
+     */
+    int offset() {
+        return bb.capacity() - space;
+    }
+
+    private void prep(int size, int additionalBytes) {
+        if (size > minAlign) minAlign = size;
+
+        int alignSize = (~(bb.capacity() - space + additionalBytes) + 1) & (size - 1);
+        while (space < alignSize + size + additionalBytes) grow();
+        for (int i = 0; i < alignSize; i++) bb.put(--space, (byte) 0);
+    }
+
+    private void grow() {
+        int old = bb.capacity();
+        ByteBuffer bigger = ByteBuffer.allocate(old * 2).order(ByteOrder.LITTLE_ENDIAN);
+        System.arraycopy(bb.array(), 0, bigger.array(), old, old);
+        space += old;
+        bb = bigger;
+    }
+
+    void addByte(byte x) {
+        prep(1, 0);
+        bb.put(--space, x);
+    }
+
+    void addShort(short x) {
+        prep(2, 0);
+        bb.putShort(space -= 2, x);
+    }
+
+    void addInt(int x) {
+        prep(4, 0);
+        bb.putInt(space -= 4, x);
+    }
+
+    void addLong(long x) {
+        prep(8, 0);
+        bb.putLong(space -= 8, x);
+    }
+
+    void addOffset(int offset) {
+        prep(4, 0);
+        int relative = offset() - offset + 4;
+        bb.putInt(space -= 4, relative);
+    }
+
+    void startTable(int fields) {
+        vtable = new int[fields];
+        objectStart = offset();
+    }
+
+    void addBoolean(int slot, boolean x) {
+        addByte(x ? (byte) 1 : 0);
+        vtable[slot] = offset();
+    }
+
+    void addByte(int slot, byte x) {
+        addByte(x);
+        vtable[slot] = offset();
+    }
+
+    void addShort(int slot, short x) {
+        addShort(x);
+        vtable[slot] = offset();
+    }
+
+    void addInt(int slot, int x) {
+        addInt(x);
+        vtable[slot] = offset();
+    }
+
+    void addLong(int slot, long x) {
+        addLong(x);
+        vtable[slot] = offset();
+    }
+
+    void addOffset(int slot, int offset) {
+        addOffset(offset);
+        vtable[slot] = offset();
+    }
+
+    int endTable() {
+        addInt(0);
+        int table = offset();
+
+        int used = vtable.length;
+        while (used > 0 && vtable[used - 1] == 0) used--;
+        for (int i = used - 1; i >= 0; i--) {
+            addShort((short) (vtable[i] != 0 ? table - vtable[i] : 0));
+        }
+        addShort((short) (table - objectStart));
+        addShort((short) ((used + 2) * 2));
+
+        // the table starts with the signed distance back to its vtable
+        bb.putInt(bb.capacity() - table, offset() - table);
+        vtable = null;
+        return table;
+    }
+
+    /**
+     * Starts a vector; the elements must then be added last to first.
+     */
+    void startVector(int elementSize, int count, int alignment) {
+        vectorLength = count;
+        prep(4, elementSize * count);
+        prep(alignment, elementSize * count);
+    }
+
+    int endVector() {
+        prep(4, 0);
+        bb.putInt(space -= 4, vectorLength);
+        return offset();
+    }
+
+    /**
+     * Adds a struct of two longs, e.g. an Arrow FieldNode or Buffer, to the vector being built.
+     */
+    void addStruct(long first, long second) {
+        prep(8, 16);
+        bb.putLong(space -= 8, second);
+        bb.putLong(space -= 8, first);
+    }
+
+    int createOffsetVector(int[] offsets) {
+        startVector(4, offsets.length, 4);
+        for (int i = offsets.length - 1; i >= 0; i--) addOffset(offsets[i]);
+        return endVector();
+    }
+
+    int createString(String s) {
+        byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+        addByte((byte) 0);
+        startVector(1, bytes.length, 1);
+        space -= bytes.length;
+        System.arraycopy(bytes, 0, bb.array(), space, bytes.length);
+        return endVector();
+    }
+
+    /**
+     * @return the finished buffer, root table offset first
+     */
+    byte[] finish(int root) {
+        prep(minAlign, 4);
+        addOffset(root);
+        return Arrays.copyOfRange(bb.array(), space, bb.capacity());
+    }
+}
@@ -0,0 +1,41 @@
+/*
+ * ________________________________________________________________________
+ * METRO.IO CONFIDENTIAL
+ * ________________________________________________________________________
+ *
+ * Copyright (c) 2018.
+ * Metro Labs Incorporated
+ * All Rights Reserved.
+ *
+ * NOTICE: All information contained herein is, and remains
+ * the property of Metro Labs Incorporated and its suppliers,
+ * if any. The intellectual and technical concepts contained
+ * herein are proprietary to Metro Labs Incorporated
+ * and its suppliers and may be covered by U.S. and Foreign Patents,
+ * patents in process, and are protected by trade secret or copyright law.
+ * Dissemination of this information or reproduction of this material
+ * is strictly forbidden unless prior written permission is obtained
+ * from Metro Labs Incorporated.
+ */
+
+package org.noaa;
+
+/**
+ * How {@link IsdGapFiller} estimates a value for an hour without one.
+ */
+public enum GapFillPolicy {
+    /**
+     * Leave missing hours missing; only regularize onto the hourly grid.
+     */
+    NONE,
+    /**
+     * Copy the closest observed value, the earlier one on a tie.
+     */
+    NEAREST,
+    /**
+     * Interpolate linearly between the observations either side of the gap. Wind direction and sky
+     * condition are not continuous and are filled as {@link #NEAREST}; edges of the year copy the
+     * closest observation.
+     */
+    LINEAR
+}
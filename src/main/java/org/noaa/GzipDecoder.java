@@ -0,0 +1,168 @@
+/*
+ * ________________________________________________________________________
+ * METRO.IO CONFIDENTIAL
+ * ________________________________________________________________________
+ *
+ * Copyright (c) 2018.
+ * Metro Labs Incorporated
+ * All Rights Reserved.
+ *
+ * NOTICE: All information contained herein is, and remains
+ * the property of Metro Labs Incorporated and its suppliers,
+ * if any. The intellectual and technical concepts contained
+ * herein are proprietary to Metro Labs Incorporated
+ * and its suppliers and may be covered by U.S. and Foreign Patents,
+ * patents in process, and are protected by trade secret or copyright law.
+ * Dissemination of this information or reproduction of this material
+ * is strictly forbidden unless prior written permission is obtained
+ * from Metro Labs Incorporated.
+ */
+
+package org.noaa;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+import java.util.zip.ZipException;
+
+/**
+ * Incremental gzip decoder for bodies that arrive in chunks: compressed bytes go in through
+ * {@link #decode(ByteBuffer)}, decompressed bytes come out to the sink as soon as they are available.
+ * Handles optional header fields, multi-member streams and verifies each member's CRC and size.
+ */
+final class GzipDecoder {
+    private static final int HEADER = 0;
+    private static final int BODY = 1;
+    private static final int TRAILER = 2;
+
+    /**
+     * Receives decompressed bytes; the buffer is only valid during the call.
+     */
+    interface Sink {
+        void data(ByteBuffer data) throws IOException;
+    }
+
+    private final Sink sink;
+    private final Inflater inflater = new Inflater(true);
+    private final CRC32 crc = new CRC32();
+    private final byte[] output = new byte[64 * 1024];
+    private byte[] carry = new byte[0];
+    private int state = HEADER;
+
+    GzipDecoder(Sink sink) {
+        this.sink = sink;
+    }
+
+    void decode(ByteBuffer data) throws IOException {
+        byte[] input;
+        if (carry.length == 0) {
+            input = new byte[data.remaining()];
+            data.get(input);
+        }
+        else {
+            input = Arrays.copyOf(carry, carry.length + data.remaining());
+            data.get(input, carry.length, input.length - carry.length);
+            carry = new byte[0];
+        }
+
+        int offset = 0;
+        while (offset < input.length) {
+            if (state == HEADER) {
+                int length = headerLength(input, offset);
+                if (length < 0) break;
+
+                offset += length;
+                inflater.reset();
+                crc.reset();
+                state = BODY;
+            }
+            else if (state == BODY) {
+                inflater.setInput(input, offset, input.length - offset);
+                inflate();
+                offset = input.length - inflater.getRemaining();
+                if (inflater.finished()) state = TRAILER;
+            }
+            else {
+                if (input.length - offset < 8) break;
+
+                long expectedCrc = readInt(input, offset) & 0xffffffffL;
+                long expectedSize = readInt(input, offset + 4) & 0xffffffffL;
+                if (expectedCrc != crc.getValue()) throw new ZipException("Corrupt gzip stream: CRC mismatch");
+                if (expectedSize != (inflater.getBytesWritten() & 0xffffffffL)) throw new ZipException("Corrupt gzip stream: size mismatch");
+
+                offset += 8;
+                state = HEADER;
+            }
+        }
+
+        if (offset < input.length) carry = Arrays.copyOfRange(input, offset, input.length);
+    }
+
+    /**
+     * @throws ZipException if the input ended in the middle of a member
+     */
+    void finish() throws ZipException {
+        inflater.end();
+        if (state != HEADER || carry.length > 0) throw new ZipException("Unexpected end of gzip stream");
+    }
+
+    private void inflate() throws IOException {
+        try {
+            while (true) {
+                int n = inflater.inflate(output);
+                if (n > 0) {
+                    crc.update(output, 0, n);
+                    sink.data(ByteBuffer.wrap(output, 0, n));
+                }
+                else if (inflater.finished() || inflater.needsInput()) {
+                    return;
+                }
+                else if (inflater.needsDictionary()) {
+                    throw new ZipException("Corrupt gzip stream: dictionary required");
+                }
+            }
+        }
+        catch (DataFormatException e) {
+            throw new ZipException("Corrupt gzip stream: " + e.getMessage());
+        }
+    }
+
+    /**
+     * @return the length of the member header starting at offset, or -1 if it is not complete yet
+     */
+    private static int headerLength(byte[] b, int offset) throws ZipException {
+        int available = b.length - offset;
+        if (available < 10) return -1;
+        if ((b[offset] & 0xff) != 0x1f || (b[offset + 1] & 0xff) != 0x8b) throw new ZipException("Not in gzip format");
+        if (b[offset + 2] != 8) throw new ZipException("Unsupported gzip compression method");
+
+        int flags = b[offset + 3] & 0xff;
+        int i = 10;
+        if ((flags & 4) != 0) { // FEXTRA
+            if (available < i + 2) return -1;
+            i += 2 + ((b[offset + i] & 0xff) | (b[offset + i + 1] & 0xff) << 8);
+        }
+        if ((flags & 8) != 0) { // FNAME
+            while (true) {
+                if (i >= available) return -1;
+                if (b[offset + i++] == 0) break;
+            }
+        }
+        if ((flags & 16) != 0) { // FCOMMENT
+            while (true) {
+                if (i >= available) return -1;
+                if (b[offset + i++] == 0) break;
+            }
+        }
+        if ((flags & 2) != 0) i += 2; // FHCRC
+
+        return i <= available ? i : -1;
+    }
+
+    private static int readInt(byte[] b, int offset) {
+        return (b[offset] & 0xff) | (b[offset + 1] & 0xff) << 8 | (b[offset + 2] & 0xff) << 16 | (b[offset + 3] & 0xff) << 24;
+    }
+}
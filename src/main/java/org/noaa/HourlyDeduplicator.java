@@ -0,0 +1,136 @@
+/*
+ * ________________________________________________________________________
+ * METRO.IO CONFIDENTIAL
+ * ________________________________________________________________________
+ *
+ * Copyright (c) 2018.
+ * Metro Labs Incorporated
+ * All Rights Reserved.
+ *
+ * NOTICE: All information contained herein is, and remains
+ * the property of Metro Labs Incorporated and its suppliers,
+ * if any. The intellectual and technical concepts contained
+ * herein are proprietary to Metro Labs Incorporated
+ * and its suppliers and may be covered by U.S. and Foreign Patents,
+ * patents in process, and are protected by trade secret or copyright law.
+ * Dissemination of this information or reproduction of this material
+ * is strictly forbidden unless prior written permission is obtained
+ * from Metro Labs Incorporated.
+ */
+
+package org.noaa;
+
+import org.noaa.IntegratedSurfaceData.DataHelper;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Reduces a run of observations to one per hour, keyed by the primitive epoch hour.
+ *
+ * Streaming callers feed each row's epoch hour and {@link DedupPolicy#score score} to {@link #offer} and act
+ * on the returned {@link Decision}; only the hour and score of the row currently kept are remembered, so
+ * nothing is allocated per row. NOAA files are written in time order, which makes duplicates adjacent.
+ * A row that goes back in time is appended and clears {@link #isSorted()}; {@link #dedup(List, DedupPolicy)}
+ * sorts and reduces a whole collection for those cases.
+ */
+public class HourlyDeduplicator {
+    public enum Decision {
+        /**
+         * The row starts a new hour: whatever was kept for the previous hour is final.
+         */
+        APPEND,
+        /**
+         * The row replaces the row kept for the current hour.
+         */
+        REPLACE,
+        /**
+         * The row is a duplicate and is dropped.
+         */
+        DROP
+    }
+
+    private final DedupPolicy policy;
+    private int epochHour = Integer.MIN_VALUE;
+    private int score;
+    private boolean started;
+    private boolean sorted = true;
+    private long duplicates;
+
+    public HourlyDeduplicator(DedupPolicy policy) {
+        this.policy = policy;
+    }
+
+    public DedupPolicy getPolicy() {
+        return policy;
+    }
+
+    public Decision offer(int epochHour, int score) {
+        if (started && epochHour == this.epochHour) {
+            duplicates++;
+            if (!policy.replaces(this.score, score)) return Decision.DROP;
+
+            this.score = score;
+            return Decision.REPLACE;
+        }
+
+        if (started && epochHour < this.epochHour) sorted = false;
+        started = true;
+        this.epochHour = epochHour;
+        this.score = score;
+        return Decision.APPEND;
+    }
+
+    /**
+     * @return false once a row arrived earlier in time than the one before it
+     */
+    public boolean isSorted() {
+        return sorted;
+    }
+
+    /**
+     * @return rows dropped or replaced so far
+     */
+    public long getDuplicates() {
+        return duplicates;
+    }
+
+    /**
+     * Sorts observations by time, stably so that file order breaks ties, and keeps one per hour. A list that
+     * is already strictly increasing is returned as is.
+     */
+    public static List<IntegratedSurfaceData> dedup(List<IntegratedSurfaceData> data, DedupPolicy policy) {
+        int n = data.size();
+        int[] hours = new int[n];
+        boolean increasing = true;
+        for (int i = 0; i < n; i++) {
+            hours[i] = DataHelper.toEpochHour(data.get(i));
+            if (i > 0 && hours[i] <= hours[i - 1]) increasing = false;
+        }
+        if (increasing) return data;
+
+        // epoch hour in the high word and position in the low word sorts by time, then by file order
+        long[] order = new long[n];
+        for (int i = 0; i < n; i++) order[i] = (long) hours[i] << 32 | i;
+        Arrays.sort(order);
+
+        List<IntegratedSurfaceData> result = new ArrayList<>(n);
+        HourlyDeduplicator deduplicator = new HourlyDeduplicator(policy);
+        for (long key : order) {
+            IntegratedSurfaceData i = data.get((int) key);
+            switch (deduplicator.offer((int) (key >> 32), policy.score(i))) {
+                case APPEND:
+                    result.add(i);
+                    break;
+                case REPLACE:
+                    result.set(result.size() - 1, i);
+                    break;
+                default:
+                    break;
+            }
+        }
+
+        return result;
+    }
+}
@@ -22,10 +22,14 @@ package org.noaa;
 
 import org.apache.commons.csv.CSVRecord;
 
+import java.time.LocalDate;
 import java.time.LocalDateTime;
+import java.time.Year;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.Objects;
+import java.util.function.BiConsumer;
+import java.util.function.Function;
 
 public class IntegratedSurfaceData {
     /**
@@ -112,6 +116,24 @@ public class IntegratedSurfaceData {
      * 
      */
     private Double precipitationDepthSixHour;
+    /**
+     * TMP quality code, e.g. 1 passed all quality control checks, 5 passed all checks from an NCEI source,
+     * 2 suspect, 3 erroneous, 9 missing. Null when the file has no TMP quality sub-field.
+     */
+    private Character airTemperatureQuality;
+    /**
+     * REPORT_TYPE: the source of the observation, e.g. FM-15 (METAR), FM-16 (SPECI), FM-12 (SYNOP).
+     * Null when the file has no REPORT_TYPE column.
+     */
+    private String reportType;
+    /**
+     * AA1-AA4, GA1-GA6, MA1 and other additional data sections, decoded on first access. Null when the
+     * observation has none.
+     */
+    private IsdAdditionalData additionalData;
+
+    public IntegratedSurfaceData() {
+    }
 
     public IntegratedSurfaceData(CSVRecord c) {
         LocalDateTime date = DataHelper.toDate(c.get("DATE"));
@@ -132,6 +154,7 @@ public class IntegratedSurfaceData {
          */
         String[] TMP = c.get("TMP").split(",");
         airTemperature = DataHelper.toDouble(TMP[0], 10d);
+        airTemperatureQuality = TMP.length > 1 && TMP[1].length() == 1 ? TMP[1].charAt(0) : null;
         /*
          * DEW: DEW POINT AIR-TEMPERATURE-OBSERVATION
          * AIR TEMPERATURE
@@ -193,6 +216,8 @@ public class IntegratedSurfaceData {
         skyCondition = DataHelper.toDouble(VIS[0]);
         precipitationDepthOneHour = 0d;
         precipitationDepthSixHour = 0d;
+        reportType = c.isMapped("REPORT_TYPE") ? c.get("REPORT_TYPE").trim() : null;
+        additionalData = IsdAdditionalData.of(c);
     }
 
     public int getObservationYear() {
@@ -303,6 +328,33 @@ public class IntegratedSurfaceData {
         return this;
     }
 
+    public Character getAirTemperatureQuality() {
+        return airTemperatureQuality;
+    }
+
+    public IntegratedSurfaceData setAirTemperatureQuality(Character airTemperatureQuality) {
+        this.airTemperatureQuality = airTemperatureQuality;
+        return this;
+    }
+
+    public String getReportType() {
+        return reportType;
+    }
+
+    public IntegratedSurfaceData setReportType(String reportType) {
+        this.reportType = reportType;
+        return this;
+    }
+
+    public IsdAdditionalData getAdditionalData() {
+        return additionalData;
+    }
+
+    public IntegratedSurfaceData setAdditionalData(IsdAdditionalData additionalData) {
+        this.additionalData = additionalData;
+        return this;
+    }
+
     public enum SkyCondition {
         NONE                (0, "None, SKC or CLR"),
         ONE_OKTA            (1, "1/10 or less but not zero"),
@@ -353,6 +405,42 @@ public class IntegratedSurfaceData {
         }
     }
 
+    /**
+     * The measurements of an observation together with the scaling factor NOAA encodes them with.
+     */
+    public enum Field {
+        AIR_TEMPERATURE             (10, IntegratedSurfaceData::getAirTemperature, IntegratedSurfaceData::setAirTemperature),
+        DEW_POINT_TEMPERATURE       (10, IntegratedSurfaceData::getDewPointTemperature, IntegratedSurfaceData::setDewPointTemperature),
+        SEA_LEVEL_PRESSURE          (10, IntegratedSurfaceData::getSeaLevelPressure, IntegratedSurfaceData::setSeaLevelPressure),
+        WIND_DIRECTION              (1, IntegratedSurfaceData::getWindDirection, IntegratedSurfaceData::setWindDirection),
+        WIND_SPEED_RATE             (10, IntegratedSurfaceData::getWindSpeedRate, IntegratedSurfaceData::setWindSpeedRate),
+        SKY_CONDITION               (1, IntegratedSurfaceData::getSkyCondition, IntegratedSurfaceData::setSkyCondition),
+        PRECIPITATION_DEPTH_ONE_HOUR(10, IntegratedSurfaceData::getPrecipitationDepthOneHour, IntegratedSurfaceData::setPrecipitationDepthOneHour),
+        PRECIPITATION_DEPTH_SIX_HOUR(10, IntegratedSurfaceData::getPrecipitationDepthSixHour, IntegratedSurfaceData::setPrecipitationDepthSixHour);
+
+        int scale;
+        Function<IntegratedSurfaceData, Double> getter;
+        BiConsumer<IntegratedSurfaceData, Double> setter;
+
+        Field(int scale, Function<IntegratedSurfaceData, Double> getter, BiConsumer<IntegratedSurfaceData, Double> setter) {
+            this.scale = scale;
+            this.getter = getter;
+            this.setter = setter;
+        }
+
+        public int getScale() {
+            return scale;
+        }
+
+        public Double get(IntegratedSurfaceData i) {
+            return getter.apply(i);
+        }
+
+        public void set(IntegratedSurfaceData i, Double value) {
+            setter.accept(i, value);
+        }
+    }
+
     public static class DataHelper {
 
         public static Double toDouble(String value) {
@@ -374,6 +462,50 @@ public class IntegratedSurfaceData {
         public static LocalDateTime toDate(String value) {
             return LocalDateTime.parse(value);
         }
+
+        /**
+         * @return hours since 1970-01-01T00:00 for the given UTC date and hour
+         */
+        public static int toEpochHour(int year, int month, int day, int hour) {
+            return (int) toEpochDay(year, month, day) * 24 + hour;
+        }
+
+        public static int toEpochHour(IntegratedSurfaceData i) {
+            return toEpochHour(i.getObservationYear(), i.getObservationMonth(), i.getObservationDay(), i.getObservationHour());
+        }
+
+        /**
+         * Same as {@link java.time.LocalDate#toEpochDay()} without creating a LocalDate.
+         */
+        public static long toEpochDay(int year, int month, int day) {
+            long y = year;
+            long m = month;
+            long total = 365 * y;
+            if (y >= 0) {
+                total += (y + 3) / 4 - (y + 99) / 100 + (y + 399) / 400;
+            }
+            else {
+                total -= y / -4 - y / -100 + y / -400;
+            }
+            total += (367 * m - 362) / 12;
+            total += day - 1;
+            if (m > 2) {
+                total--;
+                if (!Year.isLeap(year)) total--;
+            }
+            return total - 719528;
+        }
+
+        /**
+         * Sets the observation year, month, day and hour from hours since 1970-01-01T00:00 UTC.
+         */
+        public static IntegratedSurfaceData setEpochHour(IntegratedSurfaceData i, int epochHour) {
+            LocalDate date = LocalDate.ofEpochDay(Math.floorDiv(epochHour, 24));
+            return i.setObservationYear(date.getYear())
+                    .setObservationMonth(date.getMonthValue())
+                    .setObservationDay(date.getDayOfMonth())
+                    .setObservationHour(Math.floorMod(epochHour, 24));
+        }
     }
 
     @Override
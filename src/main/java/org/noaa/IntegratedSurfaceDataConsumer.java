@@ -0,0 +1,179 @@
+/*
+ * ________________________________________________________________________
+ * METRO.IO CONFIDENTIAL
+ * ________________________________________________________________________
+ *
+ * Copyright (c) 2018.
+ * Metro Labs Incorporated
+ * All Rights Reserved.
+ *
+ * NOTICE: All information contained herein is, and remains
+ * the property of Metro Labs Incorporated and its suppliers,
+ * if any. The intellectual and technical concepts contained
+ * herein are proprietary to Metro Labs Incorporated
+ * and its suppliers and may be covered by U.S. and Foreign Patents,
+ * patents in process, and are protected by trade secret or copyright law.
+ * Dissemination of this information or reproduction of this material
+ * is strictly forbidden unless prior written permission is obtained
+ * from Metro Labs Incorporated.
+ */
+
+package org.noaa;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.function.Consumer;
+
+/**
+ * Parses a pushed response body chunk by chunk and hands each hour's observation, chosen by a
+ * {@link DedupPolicy}, to an action: the push-mode counterpart of {@link IntegratedSurfaceDataReader}.
+ *
+ * Like the blocking path, the body is recognised by its first bytes as plain, gzip or zstd. Gzip is decoded
+ * as it arrives; zstd has no incremental decoder here, so a zstd body is buffered and parsed once complete.
+ */
+class IntegratedSurfaceDataConsumer implements NoaaResponseConsumer<Void> {
+    private final NoaaRequest request;
+    private final Consumer<IntegratedSurfaceData> action;
+    private final IsdCsvParser parser = new IsdCsvParser();
+    private final HourlyDeduplicator deduplicator;
+    private IntegratedSurfaceData pending;
+    private StationYear key;
+    private NoaaMetrics metrics = NoaaMetrics.NOOP;
+    private long started;
+    private long bytes;
+    private long nanos;
+    private final byte[] head = new byte[4];
+    private int headLength;
+    private NoaaCompression compression;
+    private GzipDecoder gzip;
+    private ByteArrayOutputStream zstd;
+
+    IntegratedSurfaceDataConsumer(NoaaRequest request, DedupPolicy policy, ErrorPolicy errorPolicy, Consumer<IntegratedSurfaceData> action) {
+        this.request = request;
+        this.parser.setErrorPolicy(errorPolicy);
+        this.deduplicator = new HourlyDeduplicator(policy);
+        this.action = action;
+    }
+
+    /**
+     * @see IsdCsvParser#setMaxErrors(int)
+     */
+    IntegratedSurfaceDataConsumer setMaxErrors(int maxErrors) {
+        parser.setMaxErrors(maxErrors);
+        return this;
+    }
+
+    /**
+     * Reports the download and the parse to the metrics when the body is complete. Time spent in the
+     * action counts as parse time.
+     */
+    IntegratedSurfaceDataConsumer setMetrics(StationYear key, NoaaMetrics metrics) {
+        this.key = key;
+        this.metrics = metrics;
+        this.started = metrics == NoaaMetrics.NOOP ? 0 : System.nanoTime();
+        return this;
+    }
+
+    @Override
+    public void start(NoaaResponse response) throws IOException {
+        response.checkSuccess(request);
+    }
+
+    @Override
+    public void data(ByteBuffer data) throws IOException {
+        if (metrics == NoaaMetrics.NOOP) {
+            decode(data);
+            return;
+        }
+
+        long start = System.nanoTime();
+        bytes += data.remaining();
+        decode(data);
+        nanos += System.nanoTime() - start;
+    }
+
+    private void decode(ByteBuffer data) throws IOException {
+        if (compression == null) {
+            int n = Math.min(head.length - headLength, data.remaining());
+            data.get(head, headLength, n);
+            headLength += n;
+            if (headLength < head.length) return;
+
+            detect();
+        }
+        route(data);
+    }
+
+    private void detect() throws IOException {
+        compression = NoaaCompression.detect(head, headLength);
+        if (compression == NoaaCompression.GZIP) gzip = new GzipDecoder(this::parse);
+        else if (compression == NoaaCompression.ZSTD) zstd = new ByteArrayOutputStream();
+        route(ByteBuffer.wrap(head, 0, headLength));
+    }
+
+    private void route(ByteBuffer data) throws IOException {
+        switch (compression) {
+            case GZIP:
+                gzip.decode(data);
+                break;
+            case ZSTD:
+                byte[] bytes = new byte[data.remaining()];
+                data.get(bytes);
+                zstd.write(bytes, 0, bytes.length);
+                break;
+            default:
+                parse(data);
+                break;
+        }
+    }
+
+    private void parse(ByteBuffer data) throws IOException {
+        parser.feed(data);
+        drain();
+    }
+
+    @Override
+    public Void complete() throws IOException {
+        long start = metrics == NoaaMetrics.NOOP ? 0 : System.nanoTime();
+        if (compression == null) detect();
+        if (gzip != null) gzip.finish();
+        if (zstd != null) {
+            try (InputStream in = NoaaCompression.ZSTD.decode(new ByteArrayInputStream(zstd.toByteArray()))) {
+                byte[] chunk = new byte[64 * 1024];
+                for (int n; (n = in.read(chunk)) != -1; ) parse(ByteBuffer.wrap(chunk, 0, n));
+            }
+        }
+        parser.finish();
+        drain();
+        if (!parser.isHeaderRead()) throw new IOException("Missing header record");
+        if (pending != null) action.accept(pending);
+        pending = null;
+
+        if (metrics != NoaaMetrics.NOOP) {
+            long end = System.nanoTime();
+            metrics.downloaded(key, bytes, end - started);
+            long rejected = parser.getRejectedCount();
+            metrics.parsed(key, parser.getRecordNumber() - rejected, rejected, deduplicator.getDuplicates(), nanos + end - start);
+        }
+        return null;
+    }
+
+    private void drain() throws IOException {
+        while (parser.next()) {
+            switch (deduplicator.offer(parser.getEpochHour(), deduplicator.getPolicy().score(parser))) {
+                case APPEND:
+                    if (pending != null) action.accept(pending);
+                    pending = parser.toIntegratedSurfaceData();
+                    break;
+                case REPLACE:
+                    pending = parser.toIntegratedSurfaceData();
+                    break;
+                default:
+                    break;
+            }
+        }
+    }
+}
@@ -0,0 +1,222 @@
+/*
+ * ________________________________________________________________________
+ * METRO.IO CONFIDENTIAL
+ * ________________________________________________________________________
+ *
+ * Copyright (c) 2018.
+ * Metro Labs Incorporated
+ * All Rights Reserved.
+ *
+ * NOTICE: All information contained herein is, and remains
+ * the property of Metro Labs Incorporated and its suppliers,
+ * if any. The intellectual and technical concepts contained
+ * herein are proprietary to Metro Labs Incorporated
+ * and its suppliers and may be covered by U.S. and Foreign Patents,
+ * patents in process, and are protected by trade secret or copyright law.
+ * Dissemination of this information or reproduction of this material
+ * is strictly forbidden unless prior written permission is obtained
+ * from Metro Labs Incorporated.
+ */
+
+package org.noaa;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+/**
+ * Streams {@link IntegratedSurfaceData} out of a NOAA global-hourly CSV as the rows are parsed.
+ *
+ * Only one observation per hour is emitted, chosen by a {@link DedupPolicy} ({@link DedupPolicy#FIRST_WINS}
+ * unless given). NOAA files are written in time order, so duplicates are always adjacent and the reader
+ * only holds the observation kept for the current hour, which keeps memory flat regardless of the size
+ * of the file. An hour is emitted once the first row of the next hour has been read. Rows that go back in
+ * time are passed through in file order; {@link HourlyDeduplicator#dedup} sorts a collected result.
+ *
+ * An {@link IsdQuery} limits the rows and fields that are decoded; the reader ends at the first row past the
+ * query's window without reading the rest of the stream.
+ *
+ * The reader owns the underlying stream and must be closed. Closing it reports the rows, duplicates and
+ * parse time to the {@link NoaaMetrics}, if any.
+ */
+public class IntegratedSurfaceDataReader implements Iterator<IntegratedSurfaceData>, Closeable {
+    private final IsdCsvParser parser;
+    private final HourlyDeduplicator deduplicator;
+    private IntegratedSurfaceData next;
+    private IntegratedSurfaceData pending;
+    private final StationYear key;
+    private final NoaaMetrics metrics;
+    private final boolean metered;
+    private final MeteredInputStream stream;
+    private long nanos;
+    private boolean closed;
+
+    public IntegratedSurfaceDataReader(InputStream in) throws IOException {
+        this(in, DedupPolicy.FIRST_WINS);
+    }
+
+    public IntegratedSurfaceDataReader(InputStream in, DedupPolicy policy) throws IOException {
+        this(in, policy, null, NoaaMetrics.NOOP);
+    }
+
+    /**
+     * @param key the station-year being read, passed on to the metrics; may be null
+     * @param metrics receives the counts on close; time blocked reading the stream only counts as parse
+     * time when the client did not meter the stream itself
+     */
+    public IntegratedSurfaceDataReader(InputStream in, DedupPolicy policy, StationYear key, NoaaMetrics metrics) throws IOException {
+        this.parser = new IsdCsvParser(in);
+        this.deduplicator = new HourlyDeduplicator(policy);
+        this.key = key;
+        this.metrics = metrics;
+        this.metered = metrics != NoaaMetrics.NOOP;
+        this.stream = in instanceof MeteredInputStream ? (MeteredInputStream) in : null;
+    }
+
+    @Override
+    public boolean hasNext() {
+        long start = metered ? System.nanoTime() : 0;
+        try {
+            while (next == null && parser.next()) {
+                switch (deduplicator.offer(parser.getEpochHour(), deduplicator.getPolicy().score(parser))) {
+                    case APPEND:
+                        next = pending;
+                        pending = parser.toIntegratedSurfaceData();
+                        break;
+                    case REPLACE:
+                        pending = parser.toIntegratedSurfaceData();
+                        break;
+                    default:
+                        break;
+                }
+            }
+        }
+        catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        finally {
+            if (metered) nanos += System.nanoTime() - start;
+        }
+
+        if (next == null && pending != null) {
+            next = pending;
+            pending = null;
+        }
+
+        return next != null;
+    }
+
+    @Override
+    public IntegratedSurfaceData next() {
+        if (!hasNext()) throw new NoSuchElementException();
+
+        IntegratedSurfaceData i = next;
+        next = null;
+        return i;
+    }
+
+    /**
+     * @param errorPolicy handles rows that cannot be decoded, {@link ErrorPolicy#FAIL_FAST} by default
+     */
+    public IntegratedSurfaceDataReader setErrorPolicy(ErrorPolicy errorPolicy) {
+        parser.setErrorPolicy(errorPolicy);
+        return this;
+    }
+
+    /**
+     * @param query the window and fields to decode, everything by default
+     */
+    public IntegratedSurfaceDataReader setQuery(IsdQuery query) {
+        parser.setQuery(query);
+        return this;
+    }
+
+    /**
+     * @param maxErrors how many {@link IsdRowError}s are kept, 100 by default
+     */
+    public IntegratedSurfaceDataReader setMaxErrors(int maxErrors) {
+        parser.setMaxErrors(maxErrors);
+        return this;
+    }
+
+    /**
+     * @return the first bad values, in file order
+     */
+    public List<IsdRowError> getErrors() {
+        return parser.getErrors();
+    }
+
+    public long getErrorCount() {
+        return parser.getErrorCount();
+    }
+
+    /**
+     * @return rows dropped so far because they could not be decoded
+     */
+    public long getRejectedCount() {
+        return parser.getRejectedCount();
+    }
+
+    /**
+     * @return data rows read so far, including rejected and duplicate ones
+     */
+    public long getRowCount() {
+        return parser.getRecordNumber();
+    }
+
+    /**
+     * @return rows read so far that fall outside the query's window
+     */
+    public long getFilteredCount() {
+        return parser.getFilteredCount();
+    }
+
+    /**
+     * @return rows dropped or replaced so far
+     */
+    public long getDuplicates() {
+        return deduplicator.getDuplicates();
+    }
+
+    /**
+     * @return a sequential stream over the remaining observations; closing the stream closes this reader
+     */
+    public Stream<IntegratedSurfaceData> stream() {
+        Spliterator<IntegratedSurfaceData> spliterator = Spliterators.spliteratorUnknownSize(this,
+                Spliterator.ORDERED | Spliterator.NONNULL | Spliterator.DISTINCT);
+
+        return StreamSupport.stream(spliterator, false).onClose(() -> {
+            try {
+                close();
+            }
+            catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        });
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (closed) return;
+
+        closed = true;
+        try {
+            parser.close();
+        }
+        finally {
+            if (metered) {
+                long io = stream == null ? 0 : stream.getReadNanos();
+                long rejected = parser.getRejectedCount();
+                metrics.parsed(key, parser.getRecordNumber() - rejected - parser.getFilteredCount(), rejected, deduplicator.getDuplicates(), Math.max(0, nanos - io));
+            }
+        }
+    }
+}
@@ -0,0 +1,426 @@
+/*
+ * ________________________________________________________________________
+ * METRO.IO CONFIDENTIAL
+ * ________________________________________________________________________
+ *
+ * Copyright (c) 2018.
+ * Metro Labs Incorporated
+ * All Rights Reserved.
+ *
+ * NOTICE: All information contained herein is, and remains
+ * the property of Metro Labs Incorporated and its suppliers,
+ * if any. The intellectual and technical concepts contained
+ * herein are proprietary to Metro Labs Incorporated
+ * and its suppliers and may be covered by U.S. and Foreign Patents,
+ * patents in process, and are protected by trade secret or copyright law.
+ * Dissemination of this information or reproduction of this material
+ * is strictly forbidden unless prior written permission is obtained
+ * from Metro Labs Incorporated.
+ */
+
+package org.noaa;
+
+import org.apache.commons.csv.CSVRecord;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * The additional data sections of an observation, kept as the raw text of each column and decoded the
+ * first time a section is asked for.
+ *
+ * All sections of a row share a single byte array, so a row that is never inspected costs one copy of a
+ * few dozen bytes. Decoded sections are cached; decoding is idempotent, so concurrent first reads at worst
+ * decode twice. Values use the units of the ISD format document with scaling applied and read null where
+ * the document defines a missing value or the text is not a number. A section the row does not carry reads null.
+ *
+ * <ul>
+ * <li>AA1-AA4 LIQUID-PRECIPITATION: {@link #getLiquidPrecipitation(int)}</li>
+ * <li>GA1-GA6 SKY-COVER-LAYER: {@link #getSkyCoverLayer(int)}</li>
+ * <li>MA1 ATMOSPHERIC-PRESSURE-OBSERVATION: {@link #getAtmosphericPressure()}</li>
+ * </ul>
+ */
+public final class IsdAdditionalData {
+    public enum Section {
+        AA1, AA2, AA3, AA4,
+        GA1, GA2, GA3, GA4, GA5, GA6,
+        MA1
+    }
+
+    private static final Section[] SECTIONS = Section.values();
+
+    private final byte[] raw;
+    private final int[] offsets;
+    private final Object[] decoded = new Object[SECTIONS.length];
+
+    /**
+     * @param offsets section {@code s} is {@code raw[offsets[s], offsets[s + 1])}, empty when absent
+     */
+    IsdAdditionalData(byte[] raw, int[] offsets) {
+        this.raw = raw;
+        this.offsets = offsets;
+    }
+
+    /**
+     * @return the sections of the record, or null when it has none
+     */
+    static IsdAdditionalData of(CSVRecord c) {
+        byte[][] values = new byte[SECTIONS.length][];
+        int length = 0;
+        for (Section section : SECTIONS) {
+            String value = c.isMapped(section.name()) && c.isSet(section.name()) ? c.get(section.name()) : "";
+            // sized in encoded bytes, a non-ASCII character takes more than one
+            byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+            values[section.ordinal()] = bytes;
+            length += bytes.length;
+        }
+        if (length == 0) return null;
+
+        byte[] raw = new byte[length];
+        int[] offsets = new int[SECTIONS.length + 1];
+        for (int s = 0; s < SECTIONS.length; s++) {
+            System.arraycopy(values[s], 0, raw, offsets[s], values[s].length);
+            offsets[s + 1] = offsets[s] + values[s].length;
+        }
+
+        return new IsdAdditionalData(raw, offsets);
+    }
+
+    /**
+     * @return the text of all sections back to back, see {@link #getOffsets()}
+     */
+    byte[] getBytes() {
+        return raw;
+    }
+
+    /**
+     * @return the start of each section in {@link #getBytes()}, followed by the end of the last one
+     */
+    int[] getOffsets() {
+        return offsets;
+    }
+
+    public boolean has(Section section) {
+        return offsets[section.ordinal() + 1] > offsets[section.ordinal()];
+    }
+
+    /**
+     * @return the undecoded column text, or null when the section is absent
+     */
+    public String getRaw(Section section) {
+        int s = section.ordinal();
+        return has(section) ? new String(raw, offsets[s], offsets[s + 1] - offsets[s], StandardCharsets.UTF_8) : null;
+    }
+
+    /**
+     * @param n 1 to 4, for AA1 to AA4
+     */
+    public LiquidPrecipitation getLiquidPrecipitation(int n) {
+        return (LiquidPrecipitation) section(repeat(Section.AA1, n, 4));
+    }
+
+    /**
+     * @return the depth of the first AA section measured over the period, or null when none reports it
+     */
+    public Double getPrecipitationDepth(int periodHours) {
+        for (int n = 1; n <= 4; n++) {
+            LiquidPrecipitation p = getLiquidPrecipitation(n);
+            if (p != null && p.getPeriodHours() != null && p.getPeriodHours() == periodHours) return p.getDepth();
+        }
+
+        return null;
+    }
+
+    /**
+     * @param n 1 to 6, for GA1 to GA6
+     */
+    public SkyCoverLayer getSkyCoverLayer(int n) {
+        return (SkyCoverLayer) section(repeat(Section.GA1, n, 6));
+    }
+
+    public AtmosphericPressure getAtmosphericPressure() {
+        return (AtmosphericPressure) section(Section.MA1);
+    }
+
+    private static Section repeat(Section first, int n, int count) {
+        if (n < 1 || n > count) throw new IllegalArgumentException(first.name().substring(0, 2) + n + " does not exist");
+
+        return SECTIONS[first.ordinal() + n - 1];
+    }
+
+    private Object section(Section section) {
+        Object value = decoded[section.ordinal()];
+        if (value == null && has(section)) {
+            String[] v = getRaw(section).split(",", -1);
+            switch (section) {
+                case MA1:
+                    value = new AtmosphericPressure(v);
+                    break;
+                case GA1:
+                case GA2:
+                case GA3:
+                case GA4:
+                case GA5:
+                case GA6:
+                    value = new SkyCoverLayer(v);
+                    break;
+                default:
+                    value = new LiquidPrecipitation(v);
+                    break;
+            }
+            decoded[section.ordinal()] = value;
+        }
+
+        return value;
+    }
+
+    private static String part(String[] values, int index) {
+        return index < values.length ? values[index] : "";
+    }
+
+    /**
+     * @return null for the missing value and for text that is not a number, so a malformed sub-field reads as
+     * missing instead of failing the lookup
+     */
+    private static Integer toInteger(String value, int missing) {
+        if (value.isEmpty()) return null;
+
+        int i;
+        try {
+            i = Integer.parseInt(value.startsWith("+") ? value.substring(1) : value);
+        }
+        catch (NumberFormatException e) {
+            return null;
+        }
+        return i == missing ? null : i;
+    }
+
+    private static Double toDouble(String value, int missing, double scale) {
+        Integer i = toInteger(value, missing);
+        return i == null ? null : i / scale;
+    }
+
+    private static Character toCode(String value) {
+        return value.length() == 1 ? value.charAt(0) : null;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder s = new StringBuilder("IsdAdditionalData{");
+        for (Section section : SECTIONS) {
+            if (!has(section)) continue;
+            if (s.charAt(s.length() - 1) != '{') s.append(", ");
+            s.append(section).append('=').append(getRaw(section));
+        }
+
+        return s.append('}').toString();
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+        IsdAdditionalData that = (IsdAdditionalData) o;
+        for (Section section : SECTIONS) {
+            int s = section.ordinal();
+            if (!Arrays.equals(Arrays.copyOfRange(raw, offsets[s], offsets[s + 1]),
+                    Arrays.copyOfRange(that.raw, that.offsets[s], that.offsets[s + 1]))) return false;
+        }
+
+        return true;
+    }
+
+    @Override
+    public int hashCode() {
+        int hash = 1;
+        for (int s = 0; s < SECTIONS.length; s++) {
+            for (int i = offsets[s]; i < offsets[s + 1]; i++) hash = 31 * hash + raw[i];
+            hash = 31 * hash + s;
+        }
+
+        return hash;
+    }
+
+    /**
+     * AA1-AA4: LIQUID-PRECIPITATION-OCCURRENCE
+     *
+     * period quantity  depth dimension  condition code  quality code
+     * ---------------- ---------------- --------------- -------------
+     * 01               0003             2               1
+     */
+    public static class LiquidPrecipitation {
+        private final Integer periodHours;
+        private final Double depth;
+        private final Character conditionCode;
+        private final Character qualityCode;
+
+        LiquidPrecipitation(String[] v) {
+            periodHours = toInteger(part(v, 0), 99);
+            depth = toDouble(part(v, 1), 9999, 10d);
+            conditionCode = toCode(part(v, 2));
+            qualityCode = toCode(part(v, 3));
+        }
+
+        /**
+         * @return hours over which the precipitation was measured, 0 to 98
+         */
+        public Integer getPeriodHours() {
+            return periodHours;
+        }
+
+        /**
+         * @return millimeters, scaling factor 10 applied
+         */
+        public Double getDepth() {
+            return depth;
+        }
+
+        /**
+         * @return 2 for a trace, 1 measurement impossible or inaccurate, 3 to 8 accumulated, deleted or missing
+         * period markers, E estimated, I incomplete, 9 missing
+         */
+        public Character getConditionCode() {
+            return conditionCode;
+        }
+
+        public boolean isTrace() {
+            return conditionCode != null && conditionCode == '2';
+        }
+
+        public Character getQualityCode() {
+            return qualityCode;
+        }
+
+        @Override
+        public String toString() {
+            return "LiquidPrecipitation{" +
+                    "periodHours=" + periodHours +
+                    ", depth=" + depth +
+                    ", conditionCode=" + conditionCode +
+                    ", qualityCode=" + qualityCode +
+                    '}';
+        }
+    }
+
+    /**
+     * GA1-GA6: SKY-COVER-LAYER
+     *
+     * coverage code  quality  base height dimension  quality  cloud type code  quality
+     * -------------- -------- ---------------------- -------- ---------------- --------
+     * 08             1        +00610                 1        99               9
+     */
+    public static class SkyCoverLayer {
+        private final Integer coverage;
+        private final Character coverageQualityCode;
+        private final Double baseHeight;
+        private final Character baseHeightQualityCode;
+        private final Integer cloudType;
+        private final Character cloudTypeQualityCode;
+
+        SkyCoverLayer(String[] v) {
+            coverage = toInteger(part(v, 0), 99);
+            coverageQualityCode = toCode(part(v, 1));
+            baseHeight = toDouble(part(v, 2), 99999, 1d);
+            baseHeightQualityCode = toCode(part(v, 3));
+            cloudType = toInteger(part(v, 4), 99);
+            cloudTypeQualityCode = toCode(part(v, 5));
+        }
+
+        /**
+         * @return oktas 0 to 8, 9 obscured, 10 partial obscuration
+         */
+        public Integer getCoverage() {
+            return coverage;
+        }
+
+        public IntegratedSurfaceData.SkyCondition getSkyCondition() {
+            return coverage == null ? null : IntegratedSurfaceData.SkyCondition.code(coverage);
+        }
+
+        public Character getCoverageQualityCode() {
+            return coverageQualityCode;
+        }
+
+        /**
+         * @return meters relative to the station, -400 to 35000
+         */
+        public Double getBaseHeight() {
+            return baseHeight;
+        }
+
+        public Character getBaseHeightQualityCode() {
+            return baseHeightQualityCode;
+        }
+
+        /**
+         * @return WMO cloud type code, 00 cirrus to 23 cumulonimbus, see the format document
+         */
+        public Integer getCloudType() {
+            return cloudType;
+        }
+
+        public Character getCloudTypeQualityCode() {
+            return cloudTypeQualityCode;
+        }
+
+        @Override
+        public String toString() {
+            return "SkyCoverLayer{" +
+                    "coverage=" + coverage +
+                    ", baseHeight=" + baseHeight +
+                    ", cloudType=" + cloudType +
+                    '}';
+        }
+    }
+
+    /**
+     * MA1: ATMOSPHERIC-PRESSURE-OBSERVATION
+     *
+     * altimeter setting rate  quality  station pressure rate  quality
+     * ----------------------- -------- ---------------------- --------
+     * 10255                   1        09934                  1
+     */
+    public static class AtmosphericPressure {
+        private final Double altimeterSetting;
+        private final Character altimeterQualityCode;
+        private final Double stationPressure;
+        private final Character stationPressureQualityCode;
+
+        AtmosphericPressure(String[] v) {
+            altimeterSetting = toDouble(part(v, 0), 99999, 10d);
+            altimeterQualityCode = toCode(part(v, 1));
+            stationPressure = toDouble(part(v, 2), 99999, 10d);
+            stationPressureQualityCode = toCode(part(v, 3));
+        }
+
+        /**
+         * @return hectopascals, scaling factor 10 applied
+         */
+        public Double getAltimeterSetting() {
+            return altimeterSetting;
+        }
+
+        public Character getAltimeterQualityCode() {
+            return altimeterQualityCode;
+        }
+
+        /**
+         * @return hectopascals at the station's elevation, scaling factor 10 applied
+         */
+        public Double getStationPressure() {
+            return stationPressure;
+        }
+
+        public Character getStationPressureQualityCode() {
+            return stationPressureQualityCode;
+        }
+
+        @Override
+        public String toString() {
+            return "AtmosphericPressure{" +
+                    "altimeterSetting=" + altimeterSetting +
+                    ", stationPressure=" + stationPressure +
+                    '}';
+        }
+    }
+}
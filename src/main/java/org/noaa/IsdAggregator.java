@@ -0,0 +1,303 @@
+/*
+ * ________________________________________________________________________
+ * METRO.IO CONFIDENTIAL
+ * ________________________________________________________________________
+ *
+ * Copyright (c) 2018.
+ * Metro Labs Incorporated
+ * All Rights Reserved.
+ *
+ * NOTICE: All information contained herein is, and remains
+ * the property of Metro Labs Incorporated and its suppliers,
+ * if any. The intellectual and technical concepts contained
+ * herein are proprietary to Metro Labs Incorporated
+ * and its suppliers and may be covered by U.S. and Foreign Patents,
+ * patents in process, and are protected by trade secret or copyright law.
+ * Dissemination of this information or reproduction of this material
+ * is strictly forbidden unless prior written permission is obtained
+ * from Metro Labs Incorporated.
+ */
+
+package org.noaa;
+
+import org.noaa.IntegratedSurfaceData.DataHelper;
+
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+import java.util.stream.Collector;
+
+/**
+ * Single-pass rollup of observations into hourly, daily, monthly or yearly {@link IsdRollup}s.
+ *
+ * Every observation lands in one bucket of the chosen {@link Granularity} and in one day. Day buckets are
+ * always kept, because heating and cooling degree-days are defined on daily mean temperatures; they are
+ * summed into the coarser buckets when {@link #getRollups()} is called. Input in time order touches the
+ * bucket maps only when the bucket changes, so the per-row cost is a range check and a few additions.
+ *
+ * Aggregators are mergeable: split stations or years across threads, aggregate each part and
+ * {@link #merge} the parts, or use {@link #collector} with a parallel stream or {@link #reduce} on the
+ * fork/join pool. A merged aggregator describes all of its inputs together; merging several stations
+ * yields regional statistics, with degree-days taken on the combined daily mean.
+ *
+ * <pre>
+ * IsdAggregator monthly = new IsdAggregator(Granularity.MONTH).setHistogram(true);
+ * monthly.accept(client.loadSeries(2018, "720545-00169"));
+ * for (IsdRollup month : monthly.getRollups()) {
+ *     month.getHeatingDegreeDays();
+ *     ...
+ * }
+ * </pre>
+ */
+public class IsdAggregator implements Consumer<IntegratedSurfaceData> {
+    public static final double DEFAULT_BASE_TEMPERATURE = 18.0;
+
+    public enum Granularity {
+        HOUR, DAY, MONTH, YEAR;
+
+        /**
+         * @return the first hour of the bucket containing the epoch hour
+         */
+        public int start(int epochHour) {
+            switch (this) {
+                case HOUR:
+                    return epochHour;
+                case DAY:
+                    return Math.floorDiv(epochHour, 24) * 24;
+                case MONTH:
+                    return toEpochHour(LocalDate.ofEpochDay(Math.floorDiv(epochHour, 24)).withDayOfMonth(1));
+                default:
+                    return toEpochHour(LocalDate.ofEpochDay(Math.floorDiv(epochHour, 24)).withDayOfYear(1));
+            }
+        }
+
+        /**
+         * @return the first hour after the bucket starting at {@code start}
+         */
+        public int end(int start) {
+            switch (this) {
+                case HOUR:
+                    return start + 1;
+                case DAY:
+                    return start + 24;
+                case MONTH:
+                    return toEpochHour(LocalDate.ofEpochDay(Math.floorDiv(start, 24)).plusMonths(1));
+                default:
+                    return toEpochHour(LocalDate.ofEpochDay(Math.floorDiv(start, 24)).plusYears(1));
+            }
+        }
+
+        private static int toEpochHour(LocalDate date) {
+            return Math.toIntExact(date.toEpochDay() * 24);
+        }
+    }
+
+    private final Granularity granularity;
+    private double heatingBase = DEFAULT_BASE_TEMPERATURE;
+    private double coolingBase = DEFAULT_BASE_TEMPERATURE;
+    private boolean histogram;
+
+    private final TreeMap<Integer, IsdRollup> buckets = new TreeMap<>();
+    private final TreeMap<Integer, IsdRollup> days;
+    private IsdRollup bucket;
+    private IsdRollup day;
+
+    public IsdAggregator(Granularity granularity) {
+        this.granularity = granularity;
+        this.days = granularity == Granularity.DAY ? buckets : new TreeMap<>();
+    }
+
+    /**
+     * @return a collector that aggregates a stream, in parallel when the stream is parallel
+     */
+    public static Collector<IntegratedSurfaceData, ?, IsdAggregator> collector(Supplier<IsdAggregator> factory) {
+        return Collector.of(factory, IsdAggregator::accept, IsdAggregator::merge, Collector.Characteristics.UNORDERED);
+    }
+
+    /**
+     * Aggregates each series in its own fork/join task and merges the results pairwise.
+     */
+    public static IsdAggregator reduce(List<IsdSeries> series, Supplier<IsdAggregator> factory) {
+        return ForkJoinPool.commonPool().invoke(new ReduceTask(series, 0, series.size(), factory));
+    }
+
+    public Granularity getGranularity() {
+        return granularity;
+    }
+
+    public double getHeatingBase() {
+        return heatingBase;
+    }
+
+    /**
+     * @param heatingBase degrees Celsius below which a day's mean adds heating degree-days, 18 by default
+     */
+    public IsdAggregator setHeatingBase(double heatingBase) {
+        this.heatingBase = heatingBase;
+        return this;
+    }
+
+    public double getCoolingBase() {
+        return coolingBase;
+    }
+
+    /**
+     * @param coolingBase degrees Celsius above which a day's mean adds cooling degree-days, 18 by default
+     */
+    public IsdAggregator setCoolingBase(double coolingBase) {
+        this.coolingBase = coolingBase;
+        return this;
+    }
+
+    public boolean isHistogram() {
+        return histogram;
+    }
+
+    /**
+     * @param histogram keep a temperature histogram per bucket for {@link IsdRollup#getTemperaturePercentile};
+     * costs about 7 KB per bucket
+     */
+    public IsdAggregator setHistogram(boolean histogram) {
+        this.histogram = histogram;
+        return this;
+    }
+
+    @Override
+    public void accept(IntegratedSurfaceData i) {
+        add(DataHelper.toEpochHour(i),
+                toDouble(i.getAirTemperature()),
+                toDouble(i.getDewPointTemperature()),
+                toDouble(i.getSeaLevelPressure()),
+                toDouble(i.getWindDirection()),
+                toDouble(i.getWindSpeedRate()));
+    }
+
+    public IsdAggregator accept(IsdSeries series) {
+        int[] hours = series.epochHours();
+        double[] temperature = series.airTemperatures();
+        double[] dewPoint = series.dewPointTemperatures();
+        double[] pressure = series.seaLevelPressures();
+        double[] windDirection = series.windDirections();
+        double[] windSpeed = series.windSpeedRates();
+        for (int row = 0; row < series.size(); row++) {
+            add(hours[row], temperature[row], dewPoint[row], pressure[row], windDirection[row], windSpeed[row]);
+        }
+
+        return this;
+    }
+
+    /**
+     * Adds one observation; missing values are {@link Double#NaN}.
+     */
+    public void add(int epochHour, double temperature, double dewPoint, double pressure, double windDirection, double windSpeed) {
+        if (bucket == null || epochHour < bucket.getStart() || epochHour >= bucket.getEnd()) {
+            bucket = rollup(buckets, granularity, epochHour, histogram);
+        }
+        bucket.add(temperature, dewPoint, pressure, windDirection, windSpeed);
+
+        if (days != buckets) {
+            if (day == null || epochHour < day.getStart() || epochHour >= day.getEnd()) {
+                day = rollup(days, Granularity.DAY, epochHour, false);
+            }
+            day.add(temperature, dewPoint, pressure, windDirection, windSpeed);
+        }
+    }
+
+    /**
+     * Folds another aggregator's buckets into this one. Both must use the same granularity.
+     *
+     * @return this aggregator
+     */
+    public IsdAggregator merge(IsdAggregator other) {
+        if (other.granularity != granularity) {
+            throw new IllegalArgumentException("Cannot merge " + other.granularity + " into " + granularity);
+        }
+
+        merge(buckets, other.buckets, granularity);
+        if (days != buckets) merge(days, other.days, Granularity.DAY);
+        bucket = null;
+        day = null;
+        return this;
+    }
+
+    private void merge(TreeMap<Integer, IsdRollup> into, TreeMap<Integer, IsdRollup> from, Granularity granularity) {
+        for (Map.Entry<Integer, IsdRollup> e : from.entrySet()) {
+            IsdRollup rollup = into.get(e.getKey());
+            if (rollup == null) {
+                rollup = new IsdRollup(granularity, e.getKey(), e.getValue().getEnd(), false);
+                into.put(e.getKey(), rollup);
+            }
+            rollup.merge(e.getValue());
+        }
+    }
+
+    /**
+     * @return the buckets in time order, with degree-days computed from the daily means seen so far
+     */
+    public List<IsdRollup> getRollups() {
+        if (granularity != Granularity.HOUR) {
+            for (IsdRollup rollup : buckets.values()) rollup.clearDegreeDays();
+
+            IsdRollup target = null;
+            for (IsdRollup d : days.values()) {
+                if (d.getTemperatureCount() == 0) continue;
+                if (target == null || d.getStart() < target.getStart() || d.getStart() >= target.getEnd()) {
+                    target = buckets.get(granularity.start(d.getStart()));
+                }
+                target.addDegreeDay(d.getMeanTemperature(), heatingBase, coolingBase);
+            }
+        }
+
+        return new ArrayList<>(buckets.values());
+    }
+
+    private static IsdRollup rollup(TreeMap<Integer, IsdRollup> map, Granularity granularity, int epochHour, boolean histogram) {
+        int start = granularity.start(epochHour);
+        IsdRollup rollup = map.get(start);
+        if (rollup == null) {
+            rollup = new IsdRollup(granularity, start, granularity.end(start), histogram);
+            map.put(start, rollup);
+        }
+
+        return rollup;
+    }
+
+    private static double toDouble(Double value) {
+        return value == null ? Double.NaN : value;
+    }
+
+    private static class ReduceTask extends RecursiveTask<IsdAggregator> {
+        private final List<IsdSeries> series;
+        private final int from;
+        private final int to;
+        private final Supplier<IsdAggregator> factory;
+
+        ReduceTask(List<IsdSeries> series, int from, int to, Supplier<IsdAggregator> factory) {
+            this.series = series;
+            this.from = from;
+            this.to = to;
+            this.factory = factory;
+        }
+
+        @Override
+        protected IsdAggregator compute() {
+            if (to - from <= 1) {
+                IsdAggregator aggregator = factory.get();
+                if (to > from) aggregator.accept(series.get(from));
+                return aggregator;
+            }
+
+            int middle = (from + to) >>> 1;
+            ReduceTask left = new ReduceTask(series, from, middle, factory);
+            left.fork();
+            IsdAggregator right = new ReduceTask(series, middle, to, factory).compute();
+            return left.join().merge(right);
+        }
+    }
+}
@@ -0,0 +1,406 @@
+/*
+ * ________________________________________________________________________
+ * METRO.IO CONFIDENTIAL
+ * ________________________________________________________________________
+ *
+ * Copyright (c) 2018.
+ * Metro Labs Incorporated
+ * All Rights Reserved.
+ *
+ * NOTICE: All information contained herein is, and remains
+ * the property of Metro Labs Incorporated and its suppliers,
+ * if any. The intellectual and technical concepts contained
+ * herein are proprietary to Metro Labs Incorporated
+ * and its suppliers and may be covered by U.S. and Foreign Patents,
+ * patents in process, and are protected by trade secret or copyright law.
+ * Dissemination of this information or reproduction of this material
+ * is strictly forbidden unless prior written permission is obtained
+ * from Metro Labs Incorporated.
+ */
+
+package org.noaa;
+
+import org.noaa.IntegratedSurfaceData.DataHelper;
+import org.noaa.IntegratedSurfaceData.Field;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+
+/**
+ * Writes observations as an Apache Arrow IPC stream, the format read by {@code pyarrow.ipc.open_stream},
+ * Arrow's {@code ArrowStreamReader}, DuckDB, Polars and Spark.
+ *
+ * Columns:
+ * <ul>
+ * <li>{@code station}: utf8, dictionary-encoded with int32 indices</li>
+ * <li>{@code time}: timestamp[s, tz=UTC], the observation hour</li>
+ * <li>one nullable float64 per {@link Field}, named in snake case, e.g. {@code air_temperature}; missing
+ * values are null in the validity bitmap</li>
+ * </ul>
+ *
+ * Rows are buffered in primitive arrays and written as a record batch every {@code batchSize} rows, so
+ * memory stays bounded however many stations and years go through. Station ids seen for the first time in
+ * a batch are sent just before it as a dictionary batch, a delta after the first one. The metadata is
+ * encoded with a small built-in FlatBuffers writer, so there is no Arrow dependency.
+ *
+ * <pre>
+ * try (IsdArrowWriter writer = new IsdArrowWriter(Files.newOutputStream(path))) {
+ *     for (StationYear request : requests) {
+ *         try (IntegratedSurfaceDataReader reader = client.open(request.getYear(), request.getStation())) {
+ *             writer.write(request.getStation(), reader);
+ *         }
+ *     }
+ * }
+ * </pre>
+ */
+public class IsdArrowWriter implements Closeable, Flushable {
+    private static final Field[] FIELDS = Field.values();
+    private static final int CONTINUATION = 0xFFFFFFFF;
+    private static final short METADATA_V5 = 4;
+    private static final byte HEADER_SCHEMA = 1;
+    private static final byte HEADER_DICTIONARY_BATCH = 2;
+    private static final byte HEADER_RECORD_BATCH = 3;
+    private static final byte TYPE_INT = 2;
+    private static final byte TYPE_FLOATING_POINT = 3;
+    private static final byte TYPE_UTF8 = 5;
+    private static final byte TYPE_TIMESTAMP = 10;
+    private static final short PRECISION_DOUBLE = 2;
+    private static final short TIME_UNIT_SECOND = 0;
+    private static final long STATION_DICTIONARY = 0;
+
+    private final OutputStream out;
+    private int batchSize = 64 * 1024;
+
+    private final Map<String, Integer> stations = new HashMap<>();
+    private final List<String> newStations = new ArrayList<>();
+    private boolean dictionaryWritten;
+    private boolean schemaWritten;
+    private boolean closed;
+
+    private int size;
+    private int[] stationIndices;
+    private int[] epochHours;
+    private double[][] values;
+    private long rowCount;
+    private int batchCount;
+
+    /**
+     * @param out receives the stream and is closed with the writer
+     */
+    public IsdArrowWriter(OutputStream out) {
+        this.out = out instanceof BufferedOutputStream ? out : new BufferedOutputStream(out, 64 * 1024);
+    }
+
+    public int getBatchSize() {
+        return batchSize;
+    }
+
+    /**
+     * @param batchSize rows per record batch, 65536 by default
+     */
+    public IsdArrowWriter setBatchSize(int batchSize) {
+        if (batchSize < 1) throw new IllegalArgumentException("batchSize must be positive");
+        if (stationIndices != null) throw new IllegalStateException("Batch size must be set before the first row");
+
+        this.batchSize = batchSize;
+        return this;
+    }
+
+    /**
+     * @return rows written or buffered so far
+     */
+    public long getRowCount() {
+        return rowCount;
+    }
+
+    public int getBatchCount() {
+        return batchCount;
+    }
+
+    public IsdArrowWriter write(String station, IntegratedSurfaceData i) throws IOException {
+        int row = next(station);
+        epochHours[row] = DataHelper.toEpochHour(i);
+        for (Field field : FIELDS) {
+            Double value = field.get(i);
+            values[field.ordinal()][row] = value == null ? Double.NaN : value;
+        }
+
+        return this;
+    }
+
+    /**
+     * Writes the observations as they come, e.g. straight from an {@link IntegratedSurfaceDataReader}.
+     */
+    public IsdArrowWriter write(String station, Iterator<? extends IntegratedSurfaceData> data) throws IOException {
+        while (data.hasNext()) write(station, data.next());
+        return this;
+    }
+
+    public IsdArrowWriter write(String station, Collection<? extends IntegratedSurfaceData> data) throws IOException {
+        return write(station, data.iterator());
+    }
+
+    public IsdArrowWriter write(String station, IsdSeries series) throws IOException {
+        for (int r = 0; r < series.size(); r++) {
+            int row = next(station);
+            epochHours[row] = series.getEpochHour(r);
+            for (int f = 0; f < FIELDS.length; f++) {
+                values[f][row] = series.values(FIELDS[f])[r];
+            }
+        }
+
+        return this;
+    }
+
+    private int next(String station) throws IOException {
+        if (closed) throw new IOException("Writer is closed");
+        if (stationIndices == null) {
+            stationIndices = new int[batchSize];
+            epochHours = new int[batchSize];
+            values = new double[FIELDS.length][batchSize];
+        }
+        if (size == batchSize) writeBatch();
+
+        Integer index = stations.get(station);
+        if (index == null) {
+            index = stations.size();
+            stations.put(station, index);
+            newStations.add(station);
+        }
+        stationIndices[size] = index;
+        rowCount++;
+        return size++;
+    }
+
+    /**
+     * Writes the buffered rows as a record batch.
+     */
+    @Override
+    public void flush() throws IOException {
+        if (size > 0) writeBatch();
+        out.flush();
+    }
+
+    /**
+     * Writes the buffered rows and the end-of-stream marker, then closes the output.
+     */
+    @Override
+    public void close() throws IOException {
+        if (closed) return;
+
+        try {
+            if (size > 0) writeBatch();
+            if (!schemaWritten) writeSchema();
+            writeInt(CONTINUATION);
+            writeInt(0);
+            out.flush();
+        }
+        finally {
+            closed = true;
+            out.close();
+        }
+    }
+
+    private void writeBatch() throws IOException {
+        if (!schemaWritten) writeSchema();
+        if (!newStations.isEmpty()) writeDictionary();
+
+        Body body = new Body();
+        List<long[]> nodes = new ArrayList<>();
+        nodes.add(new long[]{size, 0});
+        body.add(new byte[0], 0);
+        body.add(ints(stationIndices, size), size * 4);
+
+        nodes.add(new long[]{size, 0});
+        body.add(new byte[0], 0);
+        ByteBuffer seconds = ByteBuffer.allocate(size * 8).order(ByteOrder.LITTLE_ENDIAN);
+        for (int i = 0; i < size; i++) seconds.putLong(epochHours[i] * 3600L);
+        body.add(seconds.array(), size * 8);
+
+        for (int f = 0; f < FIELDS.length; f++) {
+            double[] column = values[f];
+            byte[] validity = new byte[(size + 7) >>> 3];
+            int nulls = 0;
+            ByteBuffer data = ByteBuffer.allocate(size * 8).order(ByteOrder.LITTLE_ENDIAN);
+            for (int i = 0; i < size; i++) {
+                if (column[i] != column[i]) {
+                    nulls++;
+                    data.putDouble(0d);
+                }
+                else {
+                    validity[i >>> 3] |= 1 << (i & 7);
+                    data.putDouble(column[i]);
+                }
+            }
+            nodes.add(new long[]{size, nulls});
+            if (nulls == 0) body.add(new byte[0], 0);
+            else body.add(validity, validity.length);
+            body.add(data.array(), size * 8);
+        }
+
+        FlatBufferBuilder b = new FlatBufferBuilder(1024);
+        int batch = recordBatch(b, size, nodes, body);
+        writeMessage(b, HEADER_RECORD_BATCH, batch, body);
+
+        batchCount++;
+        size = 0;
+    }
+
+    private void writeDictionary() throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        int[] offsets = new int[newStations.size() + 1];
+        for (int i = 0; i < newStations.size(); i++) {
+            byte[] s = newStations.get(i).getBytes(StandardCharsets.UTF_8);
+            bytes.write(s, 0, s.length);
+            offsets[i + 1] = bytes.size();
+        }
+
+        Body body = new Body();
+        body.add(new byte[0], 0);
+        body.add(ints(offsets, offsets.length), offsets.length * 4);
+        body.add(bytes.toByteArray(), bytes.size());
+
+        FlatBufferBuilder b = new FlatBufferBuilder(512);
+        int data = recordBatch(b, newStations.size(), Collections.singletonList(new long[]{newStations.size(), 0}), body);
+        b.startTable(3);
+        b.addLong(0, STATION_DICTIONARY);
+        b.addOffset(1, data);
+        b.addBoolean(2, dictionaryWritten);
+        int dictionary = b.endTable();
+        writeMessage(b, HEADER_DICTIONARY_BATCH, dictionary, body);
+
+        dictionaryWritten = true;
+        newStations.clear();
+    }
+
+    private static int recordBatch(FlatBufferBuilder b, long length, List<long[]> nodes, Body body) {
+        b.startVector(16, nodes.size(), 8);
+        for (int i = nodes.size() - 1; i >= 0; i--) b.addStruct(nodes.get(i)[0], nodes.get(i)[1]);
+        int nodeVector = b.endVector();
+
+        b.startVector(16, body.buffers.size(), 8);
+        for (int i = body.buffers.size() - 1; i >= 0; i--) b.addStruct(body.buffers.get(i)[0], body.buffers.get(i)[1]);
+        int bufferVector = b.endVector();
+
+        b.startTable(3);
+        b.addLong(0, length);
+        b.addOffset(1, nodeVector);
+        b.addOffset(2, bufferVector);
+        return b.endTable();
+    }
+
+    private void writeSchema() throws IOException {
+        FlatBufferBuilder b = new FlatBufferBuilder(2048);
+        int[] fields = new int[2 + FIELDS.length];
+
+        // station: dictionary-encoded utf8
+        int name = b.createString("station");
+        b.startTable(2);
+        b.addInt(0, 32);
+        b.addBoolean(1, true);
+        int indexType = b.endTable();
+        b.startTable(4);
+        b.addLong(0, STATION_DICTIONARY);
+        b.addOffset(1, indexType);
+        b.addBoolean(2, false);
+        int dictionary = b.endTable();
+        b.startTable(0);
+        int utf8 = b.endTable();
+        fields[0] = field(b, name, false, TYPE_UTF8, utf8, dictionary);
+
+        // time: timestamp in seconds, UTC
+        name = b.createString("time");
+        int zone = b.createString("UTC");
+        b.startTable(2);
+        b.addShort(0, TIME_UNIT_SECOND);
+        b.addOffset(1, zone);
+        int timestamp = b.endTable();
+        fields[1] = field(b, name, false, TYPE_TIMESTAMP, timestamp, 0);
+
+        for (int f = 0; f < FIELDS.length; f++) {
+            name = b.createString(FIELDS[f].name().toLowerCase(Locale.ROOT));
+            b.startTable(1);
+            b.addShort(0, PRECISION_DOUBLE);
+            int type = b.endTable();
+            fields[2 + f] = field(b, name, true, TYPE_FLOATING_POINT, type, 0);
+        }
+
+        int fieldVector = b.createOffsetVector(fields);
+        b.startTable(4);
+        b.addShort(0, (short) 0);
+        b.addOffset(1, fieldVector);
+        int schema = b.endTable();
+        writeMessage(b, HEADER_SCHEMA, schema, new Body());
+        schemaWritten = true;
+    }
+
+    private static int field(FlatBufferBuilder b, int name, boolean nullable, byte typeType, int type, int dictionary) {
+        int children = b.createOffsetVector(new int[0]);
+        b.startTable(7);
+        b.addOffset(0, name);
+        b.addBoolean(1, nullable);
+        b.addByte(2, typeType);
+        b.addOffset(3, type);
+        if (dictionary != 0) b.addOffset(4, dictionary);
+        b.addOffset(5, children);
+        return b.endTable();
+    }
+
+    /**
+     * Encapsulated message: continuation marker, padded metadata length, metadata, body.
+     */
+    private void writeMessage(FlatBufferBuilder b, byte headerType, int header, Body body) throws IOException {
+        b.startTable(5);
+        b.addShort(0, METADATA_V5);
+        b.addByte(1, headerType);
+        b.addOffset(2, header);
+        b.addLong(3, body.length);
+        byte[] metadata = b.finish(b.endTable());
+
+        int padded = (metadata.length + 8 + 7 & ~7) - 8;
+        writeInt(CONTINUATION);
+        writeInt(padded);
+        out.write(metadata);
+        for (int i = metadata.length; i < padded; i++) out.write(0);
+        body.writeTo(out);
+    }
+
+    private void writeInt(int value) throws IOException {
+        out.write(value);
+        out.write(value >>> 8);
+        out.write(value >>> 16);
+        out.write(value >>> 24);
+    }
+
+    private static byte[] ints(int[] values, int count) {
+        ByteBuffer buffer = ByteBuffer.allocate(count * 4).order(ByteOrder.LITTLE_ENDIAN);
+        for (int i = 0; i < count; i++) buffer.putInt(values[i]);
+        return buffer.array();
+    }
+
+    /**
+     * Message body: buffers back to back, each padded to 8 bytes.
+     */
+    private static class Body {
+        private final List<byte[]> data = new ArrayList<>();
+        private final List<long[]> buffers = new ArrayList<>();
+        private long length;
+
+        void add(byte[] bytes, int count) {
+            buffers.add(new long[]{length, count});
+            data.add(bytes);
+            length += count + 7 & ~7;
+        }
+
+        void writeTo(OutputStream out) throws IOException {
+            for (int i = 0; i < data.size(); i++) {
+                int count = (int) buffers.get(i)[1];
+                out.write(data.get(i), 0, count);
+                for (int p = count; p < (count + 7 & ~7); p++) out.write(0);
+            }
+        }
+    }
+}
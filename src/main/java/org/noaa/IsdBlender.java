@@ -0,0 +1,352 @@
+/*
+ * ________________________________________________________________________
+ * METRO.IO CONFIDENTIAL
+ * ________________________________________________________________________
+ *
+ * Copyright (c) 2018.
+ * Metro Labs Incorporated
+ * All Rights Reserved.
+ *
+ * NOTICE: All information contained herein is, and remains
+ * the property of Metro Labs Incorporated and its suppliers,
+ * if any. The intellectual and technical concepts contained
+ * herein are proprietary to Metro Labs Incorporated
+ * and its suppliers and may be covered by U.S. and Foreign Patents,
+ * patents in process, and are protected by trade secret or copyright law.
+ * Dissemination of this information or reproduction of this material
+ * is strictly forbidden unless prior written permission is obtained
+ * from Metro Labs Incorporated.
+ */
+
+package org.noaa;
+
+import org.noaa.IntegratedSurfaceData.Field;
+import org.noaa.NoaaStationRegistry.Neighbor;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.HttpURLConnection;
+import java.time.Clock;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Estimates hourly weather at an arbitrary point by blending the surrounding stations.
+ *
+ * The nearest stations whose inventory covers the year are taken from the {@link NoaaStationRegistry}, each
+ * loaded onto an {@link IsdHourlyGrid} by an {@link IsdGapFiller}, so every station shares the same row for the
+ * same hour. Station {@code i} then weighs {@code availability / distance^power} per field, where availability
+ * is the share of the year's hours it actually observed. The blend is one pass per field over the primitive
+ * columns, summing weighted values and weights per row; an hour a station is missing simply drops out of that
+ * hour's sum, so the other stations are renormalized. Wind direction is blended as a weighted mean of unit
+ * vectors, ignoring the variable/calm codes above 360.
+ *
+ * Station grids are kept in a {@link NoaaMemoryCache}, so a dense grid of sites sharing neighbors loads and
+ * aligns each station-year once. A station-year that cannot be loaded or parsed is left out of the blend and
+ * skipped for {@link #getRetryAfter()}; one the server does not have ({@code 404}/{@code 410}) is skipped for
+ * good.
+ *
+ * <pre>
+ * IsdBlender blender = client.blender(NoaaStationRegistry.download()).setNeighbors(4).setMaxDistance(100);
+ * IsdBlender.Blend site = blender.blend(41.6, -91.5, 2018);
+ * double[] temperature = site.getGrid().airTemperatures();
+ * </pre>
+ */
+public class IsdBlender {
+    private static Logger LOG = LoggerFactory.getLogger(IsdBlender.class);
+    private static final Field[] FIELDS = Field.values();
+
+    private final NoaaStationRegistry registry;
+    private final NoaaMemoryCache<IsdHourlyGrid> grids;
+    private final ConcurrentMap<StationYear, Long> failed = new ConcurrentHashMap<>();
+    private int neighbors = 4;
+    private double power = 2;
+    private double maxDistance = 150;
+    private double minDistance = 1;
+    private Duration retryAfter = Duration.ofMinutes(10);
+    private Clock clock = Clock.systemUTC();
+
+    /**
+     * Loads stations through the client with {@link GapFillPolicy#LINEAR} and caches up to 512 MiB of grids.
+     */
+    public IsdBlender(NoaaClient client, NoaaStationRegistry registry) {
+        this(registry, grids(client, GapFillPolicy.LINEAR, 512L << 20));
+    }
+
+    /**
+     * @param grids loads and caches the station-year grids, keyed by {@link NoaaStationHistory#getId()}
+     */
+    public IsdBlender(NoaaStationRegistry registry, NoaaMemoryCache<IsdHourlyGrid> grids) {
+        this.registry = registry;
+        this.grids = grids;
+    }
+
+    /**
+     * @return a cache of station-years loaded by the client and regularized with the policy
+     */
+    public static NoaaMemoryCache<IsdHourlyGrid> grids(NoaaClient client, GapFillPolicy policy, long maxBytes) {
+        return new NoaaMemoryCache<>(key -> new IsdGapFiller(policy).fill(client.loadSeries(key.getYear(), key.getStation()), key.getYear()),
+                grid -> NoaaMemoryCache.estimateBytes(grid) * 3 / 2, maxBytes);
+    }
+
+    public NoaaMemoryCache<IsdHourlyGrid> getGrids() {
+        return grids;
+    }
+
+    public int getNeighbors() {
+        return neighbors;
+    }
+
+    /**
+     * @param neighbors stations blended per site, 4 by default
+     */
+    public IsdBlender setNeighbors(int neighbors) {
+        if (neighbors < 1) throw new IllegalArgumentException("neighbors must be positive");
+
+        this.neighbors = neighbors;
+        return this;
+    }
+
+    public double getPower() {
+        return power;
+    }
+
+    /**
+     * @param power exponent of the inverse distance weight, 2 by default
+     */
+    public IsdBlender setPower(double power) {
+        this.power = power;
+        return this;
+    }
+
+    public double getMaxDistance() {
+        return maxDistance;
+    }
+
+    /**
+     * @param maxDistance stations further than this many kilometres are not used, 150 by default
+     */
+    public IsdBlender setMaxDistance(double maxDistance) {
+        this.maxDistance = maxDistance;
+        return this;
+    }
+
+    public double getMinDistance() {
+        return minDistance;
+    }
+
+    /**
+     * @param minDistance distances below this many kilometres count as this, 1 by default, so a station at the
+     * site dominates without taking an infinite weight
+     */
+    public IsdBlender setMinDistance(double minDistance) {
+        if (minDistance <= 0) throw new IllegalArgumentException("minDistance must be positive");
+
+        this.minDistance = minDistance;
+        return this;
+    }
+
+    public Duration getRetryAfter() {
+        return retryAfter;
+    }
+
+    /**
+     * @param retryAfter how long a station-year that failed to load is left out before it is tried again,
+     * 10 minutes by default
+     */
+    public IsdBlender setRetryAfter(Duration retryAfter) {
+        this.retryAfter = retryAfter;
+        return this;
+    }
+
+    public Clock getClock() {
+        return clock;
+    }
+
+    public IsdBlender setClock(Clock clock) {
+        this.clock = clock;
+        return this;
+    }
+
+    /**
+     * Blends the nearest stations that load successfully for the year.
+     *
+     * @throws IOException when no station within {@link #getMaxDistance()} could be loaded
+     */
+    public Blend blend(double latitude, double longitude, int year) throws IOException {
+        List<Neighbor> used = new ArrayList<>(neighbors);
+        List<IsdHourlyGrid> loaded = new ArrayList<>(neighbors);
+        for (Neighbor neighbor : registry.nearest(latitude, longitude, neighbors * 2, year)) {
+            if (used.size() == neighbors || neighbor.getDistance() > maxDistance) break;
+
+            StationYear key = StationYear.of(neighbor.getStation().getId(), year);
+            Long until = failed.get(key);
+            if (until != null) {
+                if (clock.millis() < until) continue;
+                failed.remove(key, until);
+            }
+            try {
+                loaded.add(grids.get(key));
+                used.add(neighbor);
+            }
+            catch (IOException | UncheckedIOException | IsdParseException e) {
+                LOG.warn("Leaving {} out of the blend: {}", key, e.toString());
+                failed.put(key, isMissing(e) ? Long.MAX_VALUE : clock.millis() + retryAfter.toMillis());
+            }
+        }
+        if (loaded.isEmpty()) {
+            throw new IOException(String.format("No station within %.0f km of %.4f,%.4f could be loaded for %d",
+                    maxDistance, latitude, longitude, year));
+        }
+
+        return merge(year, used, loaded);
+    }
+
+    /**
+     * @return true when the server does not have the file, which will not change by asking again
+     */
+    private static boolean isMissing(Throwable e) {
+        for (Throwable cause = e; cause != null; cause = cause.getCause()) {
+            if (cause instanceof NoaaHttpException) {
+                int status = ((NoaaHttpException) cause).getStatus();
+                return status == HttpURLConnection.HTTP_NOT_FOUND || status == HttpURLConnection.HTTP_GONE;
+            }
+        }
+
+        return false;
+    }
+
+    private Blend merge(int year, List<Neighbor> used, List<IsdHourlyGrid> loaded) {
+        IsdHourlyGrid first = loaded.get(0);
+        int size = first.size();
+        int words = (size + 63) >>> 6;
+        int[] epochHours = first.epochHours().clone();
+        double[][] values = new double[FIELDS.length][];
+        long[][] missing = new long[FIELDS.length][];
+        long[][] filled = new long[FIELDS.length][];
+        double[][] weights = new double[FIELDS.length][loaded.size()];
+
+        double[] sum = new double[size];
+        double[] weight = new double[size];
+        double[] cos = new double[size];
+        for (Field field : FIELDS) {
+            int f = field.ordinal();
+            boolean circular = field == Field.WIND_DIRECTION;
+            double total = 0;
+            for (int s = 0; s < loaded.size(); s++) {
+                IsdHourlyGrid grid = loaded.get(s);
+                int observed = size - grid.missingCount(field) - grid.filledCount(field);
+                weights[f][s] = (double) observed / size / Math.pow(Math.max(used.get(s).getDistance(), minDistance), power);
+                total += weights[f][s];
+            }
+
+            Arrays.fill(sum, 0);
+            Arrays.fill(weight, 0);
+            if (circular) Arrays.fill(cos, 0);
+            filled[f] = new long[words];
+            for (int s = 0; s < loaded.size(); s++) {
+                double w = weights[f][s];
+                if (w == 0) continue;
+
+                double[] v = loaded.get(s).values(field);
+                long[] estimated = loaded.get(s).filledMask(field);
+                long[] out = filled[f];
+                if (circular) {
+                    for (int r = 0; r < size; r++) {
+                        double x = v[r];
+                        if (!(x >= 0 && x <= 360)) continue;
+
+                        double radians = Math.toRadians(x);
+                        sum[r] += w * Math.sin(radians);
+                        cos[r] += w * Math.cos(radians);
+                        weight[r] += w;
+                        out[r >>> 6] |= estimated[r >>> 6] & 1L << (r & 63);
+                    }
+                }
+                else {
+                    for (int r = 0; r < size; r++) {
+                        double x = v[r];
+                        if (x != x) continue;
+
+                        sum[r] += w * x;
+                        weight[r] += w;
+                        out[r >>> 6] |= estimated[r >>> 6] & 1L << (r & 63);
+                    }
+                }
+            }
+
+            double[] result = new double[size];
+            long[] absent = new long[words];
+            for (int r = 0; r < size; r++) {
+                if (weight[r] > 0) {
+                    result[r] = circular ? (Math.toDegrees(Math.atan2(sum[r], cos[r])) + 360) % 360 : sum[r] / weight[r];
+                }
+                else {
+                    result[r] = Double.NaN;
+                    absent[r >>> 6] |= 1L << (r & 63);
+                }
+            }
+            values[f] = result;
+            missing[f] = absent;
+
+            if (total > 0) {
+                for (int s = 0; s < loaded.size(); s++) weights[f][s] /= total;
+            }
+        }
+
+        return new Blend(new IsdHourlyGrid(year, epochHours, values, missing, filled), used, weights);
+    }
+
+    /**
+     * The blended grid and the stations that went into it.
+     */
+    public static class Blend {
+        private final IsdHourlyGrid grid;
+        private final List<Neighbor> neighbors;
+        private final double[][] weights;
+
+        Blend(IsdHourlyGrid grid, List<Neighbor> neighbors, double[][] weights) {
+            this.grid = grid;
+            this.neighbors = Collections.unmodifiableList(neighbors);
+            this.weights = weights;
+        }
+
+        /**
+         * @return the estimate for every hour of the year; an hour is filled when any station's contribution to
+         * it was itself gap-filled, and missing when no station had a value
+         */
+        public IsdHourlyGrid getGrid() {
+            return grid;
+        }
+
+        /**
+         * @return the stations used, nearest first
+         */
+        public List<Neighbor> getNeighbors() {
+            return neighbors;
+        }
+
+        /**
+         * @return each station's share of the field, in the order of {@link #getNeighbors()}, before the
+         * per-hour renormalization over the stations that have a value
+         */
+        public double[] getWeights(Field field) {
+            return weights[field.ordinal()].clone();
+        }
+
+        @Override
+        public String toString() {
+            return "Blend{" +
+                    "year=" + grid.getYear() +
+                    ", neighbors=" + neighbors +
+                    '}';
+        }
+    }
+}
@@ -0,0 +1,141 @@
+/*
+ * ________________________________________________________________________
+ * METRO.IO CONFIDENTIAL
+ * ________________________________________________________________________
+ *
+ * Copyright (c) 2018.
+ * Metro Labs Incorporated
+ * All Rights Reserved.
+ *
+ * NOTICE: All information contained herein is, and remains
+ * the property of Metro Labs Incorporated and its suppliers,
+ * if any. The intellectual and technical concepts contained
+ * herein are proprietary to Metro Labs Incorporated
+ * and its suppliers and may be covered by U.S. and Foreign Patents,
+ * patents in process, and are protected by trade secret or copyright law.
+ * Dissemination of this information or reproduction of this material
+ * is strictly forbidden unless prior written permission is obtained
+ * from Metro Labs Incorporated.
+ */
+
+package org.noaa;
+
+import org.noaa.IntegratedSurfaceData.Field;
+
+/**
+ * Layout of the binary columnar station-year file shared by {@link IsdColumnarWriter} and
+ * {@link IsdColumnarReader}. All values are little-endian and every section starts on an 8 byte boundary.
+ *
+ * <pre>
+ * header      magic int, version int, rows int, field count int
+ * epoch hour  int[rows]             hours since 1970-01-01T00:00 UTC
+ * per field   short[rows]|int[rows] value * scale, 0 when missing
+ *             long[(rows + 63) / 64] missing-value bitmap, bit set when the value is null
+ * quality     byte[rows]            air temperature quality code, 0 when null
+ * report type byte[rows]            1-based index into the report type dictionary, 0 when null
+ * additional  section count int, int[rows + 1] file offset of each row's additional data, then of the end
+ * dictionary  count int, then per report type its UTF-8 length short and bytes
+ * additional  per row with additional data, the UTF-8 length of each section as an unsigned short, then the
+ *             text of all sections back to back; a row without additional data takes no bytes
+ * </pre>
+ *
+ * Fields are stored in {@link Field} declaration order; a value is decoded as {@code (double) stored / scale},
+ * which is the same arithmetic {@link IntegratedSurfaceData.DataHelper} uses, so parsed values round-trip exactly.
+ * A {@code -0000} in the source parses as {@code -0.0}, which has no integer of its own; it is stored as the
+ * smallest value of the column, which no real value uses.
+ */
+final class IsdColumnarFormat {
+    static final int MAGIC = 0x43445349; // "ISDC"
+    static final int VERSION = 3;
+    static final int HEADER_BYTES = 16;
+    /**
+     * Report types a file can hold; NOAA uses a few dozen.
+     */
+    static final int MAX_REPORT_TYPES = 255;
+    /**
+     * Longest additional data section a file can hold.
+     */
+    static final int MAX_SECTION_BYTES = 0xffff;
+
+    private static final int FIELD_COUNT = Field.values().length;
+    /**
+     * Indexes into {@link #layout(int)} after the fields.
+     */
+    static final int QUALITY = FIELD_COUNT;
+    static final int REPORT_TYPE = FIELD_COUNT + 1;
+    static final int ADDITIONAL_DATA = FIELD_COUNT + 2;
+    static final int DICTIONARY = FIELD_COUNT + 3;
+
+    private IsdColumnarFormat() {
+    }
+
+    /**
+     * @return bytes per value of the field's column
+     */
+    static int width(Field field) {
+        switch (field) {
+            case AIR_TEMPERATURE:
+            case DEW_POINT_TEMPERATURE:
+            case WIND_DIRECTION:
+            case WIND_SPEED_RATE:
+                return Short.BYTES;
+            default:
+                return Integer.BYTES;
+        }
+    }
+
+    /**
+     * @return the stored value that stands for {@code -0.0}
+     */
+    static int negativeZero(Field field) {
+        return width(field) == Short.BYTES ? Short.MIN_VALUE : Integer.MIN_VALUE;
+    }
+
+    /**
+     * @return the value of a stored integer
+     */
+    static double decode(Field field, int stored) {
+        return stored == negativeZero(field) ? -0.0 : (double) stored / field.getScale();
+    }
+
+    static int align(long offset) {
+        return (int) ((offset + 7) & ~7L);
+    }
+
+    static int bitmapLongs(int rows) {
+        return (rows + 63) >>> 6;
+    }
+
+    static int epochHourOffset() {
+        return HEADER_BYTES;
+    }
+
+    /**
+     * @return byte offsets of each field's values, indexed by ordinal, then of the {@link #QUALITY},
+     * {@link #REPORT_TYPE} and {@link #ADDITIONAL_DATA} columns and of the {@link #DICTIONARY}, where the fixed
+     * size part of the file ends
+     */
+    static int[] layout(int rows) {
+        int[] offsets = new int[DICTIONARY + 1];
+        long offset = align(epochHourOffset() + (long) rows * Integer.BYTES);
+        for (Field field : Field.values()) {
+            offsets[field.ordinal()] = (int) offset;
+            offset = align(offset + (long) rows * width(field));
+            offset += (long) bitmapLongs(rows) * Long.BYTES;
+        }
+        offsets[QUALITY] = (int) offset;
+        offset = align(offset + rows);
+        offsets[REPORT_TYPE] = (int) offset;
+        offset = align(offset + rows);
+        offsets[ADDITIONAL_DATA] = (int) offset;
+        offset = align(offset + Integer.BYTES + (rows + 1L) * Integer.BYTES);
+        if (offset > Integer.MAX_VALUE) throw new IllegalArgumentException("Too many rows: " + rows);
+
+        offsets[DICTIONARY] = (int) offset;
+        return offsets;
+    }
+
+    static int bitmapOffset(int valuesOffset, Field field, int rows) {
+        return align(valuesOffset + (long) rows * width(field));
+    }
+}
@@ -0,0 +1,236 @@
+/*
+ * ________________________________________________________________________
+ * METRO.IO CONFIDENTIAL
+ * ________________________________________________________________________
+ *
+ * Copyright (c) 2018.
+ * Metro Labs Incorporated
+ * All Rights Reserved.
+ *
+ * NOTICE: All information contained herein is, and remains
+ * the property of Metro Labs Incorporated and its suppliers,
+ * if any. The intellectual and technical concepts contained
+ * herein are proprietary to Metro Labs Incorporated
+ * and its suppliers and may be covered by U.S. and Foreign Patents,
+ * patents in process, and are protected by trade secret or copyright law.
+ * Dissemination of this information or reproduction of this material
+ * is strictly forbidden unless prior written permission is obtained
+ * from Metro Labs Incorporated.
+ */
+
+package org.noaa;
+
+import org.noaa.IntegratedSurfaceData.DataHelper;
+import org.noaa.IntegratedSurfaceData.Field;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Reads a file written by {@link IsdColumnarWriter} through a read-only memory mapping.
+ *
+ * The primitive accessors read straight out of the mapping without allocating; {@link #get(int)} and
+ * {@link #readAll()} rebuild {@link IntegratedSurfaceData} objects equal, field for field, to the ones written.
+ * The mapping stays valid until the reader is garbage collected, closing only releases the file handle.
+ */
+public class IsdColumnarReader implements Closeable {
+    private final FileChannel channel;
+    private final ByteBuffer buffer;
+    private final int rows;
+    private final int[] values;
+    private final int[] bitmaps;
+    private final int quality;
+    private final int reportType;
+    private final int additionalData;
+    private final String[] reportTypes;
+
+    public IsdColumnarReader(Path path) throws IOException {
+        channel = FileChannel.open(path, StandardOpenOption.READ);
+        try {
+            buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()).order(ByteOrder.LITTLE_ENDIAN);
+            this.rows = readHeader(buffer, path);
+        }
+        catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+
+        Field[] fields = Field.values();
+        int[] offsets = IsdColumnarFormat.layout(rows);
+        values = new int[fields.length];
+        bitmaps = new int[fields.length];
+        for (Field field : fields) {
+            values[field.ordinal()] = offsets[field.ordinal()];
+            bitmaps[field.ordinal()] = IsdColumnarFormat.bitmapOffset(offsets[field.ordinal()], field, rows);
+        }
+        quality = offsets[IsdColumnarFormat.QUALITY];
+        reportType = offsets[IsdColumnarFormat.REPORT_TYPE];
+        additionalData = offsets[IsdColumnarFormat.ADDITIONAL_DATA];
+        try {
+            if (buffer.getInt(additionalData) != IsdAdditionalData.Section.values().length) {
+                throw new IOException("Unexpected additional data section count in " + path);
+            }
+            reportTypes = readDictionary(buffer, offsets[IsdColumnarFormat.DICTIONARY], path);
+        }
+        catch (IndexOutOfBoundsException e) {
+            channel.close();
+            throw new IOException("Truncated columnar file: " + path, e);
+        }
+        catch (IOException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    private static String[] readDictionary(ByteBuffer buffer, int offset, Path path) throws IOException {
+        try {
+            int count = buffer.getInt(offset);
+            if (count < 0 || count > IsdColumnarFormat.MAX_REPORT_TYPES) throw new IOException("Corrupt report type dictionary in " + path);
+
+            String[] dictionary = new String[count + 1];
+            offset += Integer.BYTES;
+            for (int n = 1; n <= count; n++) {
+                byte[] bytes = new byte[buffer.getShort(offset)];
+                ByteBuffer entry = buffer.duplicate();
+                entry.position(offset + Short.BYTES);
+                entry.get(bytes);
+                dictionary[n] = new String(bytes, StandardCharsets.UTF_8);
+                offset += Short.BYTES + bytes.length;
+            }
+            return dictionary;
+        }
+        catch (IndexOutOfBoundsException | BufferUnderflowException | NegativeArraySizeException e) {
+            throw new IOException("Truncated columnar file: " + path, e);
+        }
+    }
+
+    private static int readHeader(ByteBuffer buffer, Path path) throws IOException {
+        if (buffer.capacity() < IsdColumnarFormat.HEADER_BYTES || buffer.getInt(0) != IsdColumnarFormat.MAGIC) {
+            throw new IOException("Not a columnar ISD file: " + path);
+        }
+        if (buffer.getInt(4) != IsdColumnarFormat.VERSION) {
+            throw new IOException(String.format("Unsupported columnar ISD version %d: %s", buffer.getInt(4), path));
+        }
+        if (buffer.getInt(12) != Field.values().length) {
+            throw new IOException("Unexpected field count in " + path);
+        }
+
+        return buffer.getInt(8);
+    }
+
+    public int size() {
+        return rows;
+    }
+
+    /**
+     * @return hours since 1970-01-01T00:00 UTC of the row
+     */
+    public int getEpochHour(int row) {
+        return buffer.getInt(IsdColumnarFormat.epochHourOffset() + checkRow(row) * Integer.BYTES);
+    }
+
+    public boolean isMissing(Field field, int row) {
+        long bits = buffer.getLong(bitmaps[field.ordinal()] + (checkRow(row) >>> 6) * Long.BYTES);
+        return (bits & 1L << (row & 63)) != 0;
+    }
+
+    /**
+     * @return the stored value multiplied by the field's scale, 0 when missing
+     */
+    public int getScaled(Field field, int row) {
+        int stored = getStored(field, row);
+        return stored == IsdColumnarFormat.negativeZero(field) ? 0 : stored;
+    }
+
+    private int getStored(Field field, int row) {
+        int offset = values[field.ordinal()];
+        return IsdColumnarFormat.width(field) == Short.BYTES
+                ? buffer.getShort(offset + checkRow(row) * Short.BYTES)
+                : buffer.getInt(offset + checkRow(row) * Integer.BYTES);
+    }
+
+    /**
+     * @return the value, or {@link Double#NaN} when missing
+     */
+    public double getDouble(Field field, int row) {
+        if (isMissing(field, row)) return Double.NaN;
+
+        return IsdColumnarFormat.decode(field, getStored(field, row));
+    }
+
+    /**
+     * @return the air temperature quality code, or null when the row has none
+     */
+    public Character getAirTemperatureQuality(int row) {
+        byte code = buffer.get(quality + checkRow(row));
+        return code == 0 ? null : (char) code;
+    }
+
+    /**
+     * @return the report type, e.g. {@code FM-15}, or null when the row has none
+     */
+    public String getReportType(int row) {
+        int n = buffer.get(reportType + checkRow(row)) & 0xff;
+        return n < reportTypes.length ? reportTypes[n] : null;
+    }
+
+    /**
+     * @return the additional data sections, or null when the row has none
+     */
+    public IsdAdditionalData getAdditionalData(int row) {
+        int entry = additionalData + Integer.BYTES + checkRow(row) * Integer.BYTES;
+        int start = buffer.getInt(entry);
+        if (start == buffer.getInt(entry + Integer.BYTES)) return null;
+
+        int sections = IsdAdditionalData.Section.values().length;
+        int[] offsets = new int[sections + 1];
+        for (int s = 0; s < sections; s++) {
+            offsets[s + 1] = offsets[s] + (buffer.getShort(start + s * Short.BYTES) & 0xffff);
+        }
+        byte[] raw = new byte[offsets[sections]];
+        ByteBuffer text = buffer.duplicate();
+        text.position(start + sections * Short.BYTES);
+        text.get(raw);
+
+        return new IsdAdditionalData(raw, offsets);
+    }
+
+    public IntegratedSurfaceData get(int row) {
+        IntegratedSurfaceData i = DataHelper.setEpochHour(new IntegratedSurfaceData(), getEpochHour(row));
+        for (Field field : Field.values()) {
+            field.set(i, isMissing(field, row) ? null : IsdColumnarFormat.decode(field, getStored(field, row)));
+        }
+        i.setAirTemperatureQuality(getAirTemperatureQuality(row));
+        i.setReportType(getReportType(row));
+        i.setAdditionalData(getAdditionalData(row));
+
+        return i;
+    }
+
+    public List<IntegratedSurfaceData> readAll() {
+        List<IntegratedSurfaceData> collection = new ArrayList<>(rows);
+        for (int row = 0; row < rows; row++) collection.add(get(row));
+
+        return collection;
+    }
+
+    private int checkRow(int row) {
+        if (row < 0 || row >= rows) throw new IndexOutOfBoundsException("Row " + row + " of " + rows);
+
+        return row;
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+}
@@ -0,0 +1,192 @@
+/*
+ * ________________________________________________________________________
+ * METRO.IO CONFIDENTIAL
+ * ________________________________________________________________________
+ *
+ * Copyright (c) 2018.
+ * Metro Labs Incorporated
+ * All Rights Reserved.
+ *
+ * NOTICE: All information contained herein is, and remains
+ * the property of Metro Labs Incorporated and its suppliers,
+ * if any. The intellectual and technical concepts contained
+ * herein are proprietary to Metro Labs Incorporated
+ * and its suppliers and may be covered by U.S. and Foreign Patents,
+ * patents in process, and are protected by trade secret or copyright law.
+ * Dissemination of this information or reproduction of this material
+ * is strictly forbidden unless prior written permission is obtained
+ * from Metro Labs Incorporated.
+ */
+
+package org.noaa;
+
+import org.noaa.IntegratedSurfaceData.DataHelper;
+import org.noaa.IntegratedSurfaceData.Field;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Writes a station-year of {@link IntegratedSurfaceData} in the columnar format described by
+ * {@link IsdColumnarFormat}, to be loaded back with {@link IsdColumnarReader}.
+ *
+ * Values must be representable exactly as {@code stored / scale} in their column; anything else,
+ * e.g. a temperature with two decimals set by hand, is rejected rather than silently rounded.
+ */
+public class IsdColumnarWriter {
+
+    private IsdColumnarWriter() {
+    }
+
+    /**
+     * Writes the observations in iteration order, replacing the target file atomically.
+     */
+    public static void write(Path path, Collection<IntegratedSurfaceData> data) throws IOException {
+        ByteBuffer buffer = encode(data);
+
+        Path dir = path.toAbsolutePath().getParent();
+        Path temp = Files.createTempFile(dir, path.getFileName().toString(), ".tmp");
+        try {
+            try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.WRITE)) {
+                while (buffer.hasRemaining()) channel.write(buffer);
+                channel.force(true);
+            }
+            Files.move(temp, path, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        }
+        finally {
+            Files.deleteIfExists(temp);
+        }
+    }
+
+    static ByteBuffer encode(Collection<IntegratedSurfaceData> data) {
+        int rows = data.size();
+        int[] offsets = IsdColumnarFormat.layout(rows);
+        Field[] fields = Field.values();
+
+        Map<String, Integer> reportTypes = new HashMap<>();
+        List<byte[]> dictionary = new ArrayList<>();
+        int dictionaryBytes = Integer.BYTES;
+        for (IntegratedSurfaceData i : data) {
+            String reportType = i.getReportType();
+            if (reportType == null || reportTypes.containsKey(reportType)) continue;
+
+            byte[] bytes = reportType.getBytes(StandardCharsets.UTF_8);
+            if (dictionary.size() == IsdColumnarFormat.MAX_REPORT_TYPES || bytes.length > Short.MAX_VALUE) {
+                throw new IllegalArgumentException("Cannot store report type " + reportType);
+            }
+            dictionary.add(bytes);
+            reportTypes.put(reportType, dictionary.size());
+            dictionaryBytes += Short.BYTES + bytes.length;
+        }
+
+        int sections = IsdAdditionalData.Section.values().length;
+        long heap = (long) offsets[IsdColumnarFormat.DICTIONARY] + dictionaryBytes;
+        long size = heap;
+        for (IntegratedSurfaceData i : data) {
+            if (i.getAdditionalData() != null) size += sections * Short.BYTES + i.getAdditionalData().getOffsets()[sections];
+        }
+        if (size > Integer.MAX_VALUE) throw new IllegalArgumentException("Too much additional data in " + rows + " rows");
+
+        ByteBuffer buffer = ByteBuffer.allocate((int) size).order(ByteOrder.LITTLE_ENDIAN);
+        buffer.putInt(IsdColumnarFormat.MAGIC)
+                .putInt(IsdColumnarFormat.VERSION)
+                .putInt(rows)
+                .putInt(fields.length);
+
+        int additionalData = offsets[IsdColumnarFormat.ADDITIONAL_DATA];
+        buffer.putInt(additionalData, sections);
+        int entry = (int) heap;
+        int row = 0;
+        for (IntegratedSurfaceData i : data) {
+            buffer.putInt(IsdColumnarFormat.epochHourOffset() + row * Integer.BYTES, DataHelper.toEpochHour(i));
+
+            for (Field field : fields) {
+                int values = offsets[field.ordinal()];
+                Double value = field.get(i);
+                if (value == null) {
+                    int bitmap = IsdColumnarFormat.bitmapOffset(values, field, rows) + (row >>> 6) * Long.BYTES;
+                    buffer.putLong(bitmap, buffer.getLong(bitmap) | 1L << (row & 63));
+                    continue;
+                }
+
+                int scaled = scale(field, value);
+                if (IsdColumnarFormat.width(field) == Short.BYTES) buffer.putShort(values + row * Short.BYTES, (short) scaled);
+                else buffer.putInt(values + row * Integer.BYTES, scaled);
+            }
+
+            Character quality = i.getAirTemperatureQuality();
+            if (quality != null) {
+                if (quality == 0 || quality > 0x7f) throw new IllegalArgumentException("Cannot store quality code " + (int) quality);
+                buffer.put(offsets[IsdColumnarFormat.QUALITY] + row, (byte) quality.charValue());
+            }
+            if (i.getReportType() != null) {
+                buffer.put(offsets[IsdColumnarFormat.REPORT_TYPE] + row, (byte) (int) reportTypes.get(i.getReportType()));
+            }
+
+            buffer.putInt(additionalData + Integer.BYTES + row * Integer.BYTES, entry);
+            if (i.getAdditionalData() != null) entry = putAdditionalData(buffer, entry, i.getAdditionalData());
+            row++;
+        }
+        buffer.putInt(additionalData + Integer.BYTES + rows * Integer.BYTES, entry);
+
+        buffer.position(offsets[IsdColumnarFormat.DICTIONARY]);
+        buffer.putInt(dictionary.size());
+        for (byte[] bytes : dictionary) buffer.putShort((short) bytes.length).put(bytes);
+
+        buffer.position(0);
+        return buffer;
+    }
+
+    /**
+     * @return the offset after the entry
+     */
+    private static int putAdditionalData(ByteBuffer buffer, int offset, IsdAdditionalData additionalData) {
+        int[] sections = additionalData.getOffsets();
+        byte[] bytes = additionalData.getBytes();
+        for (int s = 0; s + 1 < sections.length; s++) {
+            int length = sections[s + 1] - sections[s];
+            if (length > IsdColumnarFormat.MAX_SECTION_BYTES) {
+                throw new IllegalArgumentException("Cannot store " + length + " bytes of " + IsdAdditionalData.Section.values()[s]);
+            }
+            buffer.putShort(offset, (short) length);
+            offset += Short.BYTES;
+        }
+        buffer.position(offset);
+        buffer.put(bytes, 0, sections[sections.length - 1]);
+
+        return buffer.position();
+    }
+
+    /**
+     * @return the integer stored for the value, {@link IsdColumnarFormat#negativeZero} for {@code -0.0}
+     */
+    static int scale(Field field, double value) {
+        if (Double.doubleToRawLongBits(value) == Double.doubleToRawLongBits(-0.0)) return IsdColumnarFormat.negativeZero(field);
+
+        int scale = field.getScale();
+        long scaled = Math.round(value * scale);
+        // the smallest value of the column is taken by -0.0
+        boolean fits = IsdColumnarFormat.width(field) == Short.BYTES
+                ? scaled > Short.MIN_VALUE && scaled <= Short.MAX_VALUE
+                : scaled > Integer.MIN_VALUE && scaled <= Integer.MAX_VALUE;
+
+        if (!fits || (double) scaled / scale != value) {
+            throw new IllegalArgumentException(String.format("%s value %s cannot be stored with scale %d",
+                    field, value, scale));
+        }
+
+        return (int) scaled;
+    }
+}
@@ -0,0 +1,770 @@
+/*
+ * ________________________________________________________________________
+ * METRO.IO CONFIDENTIAL
+ * ________________________________________________________________________
+ *
+ * Copyright (c) 2018.
+ * Metro Labs Incorporated
+ * All Rights Reserved.
+ *
+ * NOTICE: All information contained herein is, and remains
+ * the property of Metro Labs Incorporated and its suppliers,
+ * if any. The intellectual and technical concepts contained
+ * herein are proprietary to Metro Labs Incorporated
+ * and its suppliers and may be covered by U.S. and Foreign Patents,
+ * patents in process, and are protected by trade secret or copyright law.
+ * Dissemination of this information or reproduction of this material
+ * is strictly forbidden unless prior written permission is obtained
+ * from Metro Labs Incorporated.
+ */
+
+package org.noaa;
+
+import org.noaa.IntegratedSurfaceData.DataHelper;
+import org.noaa.IntegratedSurfaceData.Field;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.time.Year;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Hand-written parser for NOAA global-hourly CSV files.
+ *
+ * Each record is scanned once over the raw bytes to find the field boundaries, then DATE and the
+ * first sub-fields of TMP, DEW, SLP, WND and VIS are decoded straight into primitives. Nothing is
+ * allocated per row on that path: the buffers are reused and no String, array or boxed value is built.
+ * The values are exactly those produced by {@link IntegratedSurfaceData#IntegratedSurfaceData(org.apache.commons.csv.CSVRecord)};
+ * inputs outside the fast path (non-integer numbers, unusual date forms, escaped quotes) fall back to the
+ * same {@link Double#valueOf(String)} and {@link LocalDateTime#parse(CharSequence)} calls the constructor makes.
+ *
+ * A row that cannot be decoded is handled by the {@link ErrorPolicy}, {@link ErrorPolicy#FAIL_FAST} by
+ * default. Each bad value is recorded as an {@link IsdRowError}; the first {@code maxErrors} are kept.
+ *
+ * An {@link IsdQuery} narrows the work further: rows outside its window are skipped as soon as DATE is
+ * decoded, the parser stops at the first row past the end of the window, and fields it does not select
+ * are left missing without being decoded.
+ *
+ * <pre>
+ * try (IsdCsvParser parser = new IsdCsvParser(in)) {
+ *     while (parser.next()) {
+ *         double t = parser.getValue(Field.AIR_TEMPERATURE);
+ *         ...
+ *     }
+ * }
+ * </pre>
+ */
+public class IsdCsvParser implements Closeable {
+    private static final int MISSING = 9999;
+    private static final int MISSING_UNSCALED = -9999;
+    private static final Field[] FIELDS = Field.values();
+    private static final IsdAdditionalData.Section[] SECTIONS = IsdAdditionalData.Section.values();
+
+    private final InputStream in;
+    private byte[] buffer = new byte[64 * 1024];
+    private int position;
+    private int limit;
+    private boolean eof;
+
+    private final Map<String, Integer> header = new HashMap<>();
+    private String[] columnNames = new String[0];
+    private int[] fieldStart = new int[32];
+    private int[] fieldEnd = new int[32];
+    private boolean[] fieldQuoted = new boolean[32];
+    private int fieldCount;
+    private long recordNumber;
+
+    private boolean headerRead;
+    private int dateColumn;
+    private int tmpColumn;
+    private int dewColumn;
+    private int slpColumn;
+    private int wndColumn;
+    private int visColumn;
+    private int reportTypeColumn;
+    private final int[] sectionColumns = new int[SECTIONS.length];
+    private String reportType;
+
+    private int year;
+    private int month;
+    private int day;
+    private int hour;
+    private int minute;
+    private char airTemperatureQuality;
+    private final double[] values = new double[FIELDS.length];
+    private final boolean[] missing = new boolean[FIELDS.length];
+
+    private ErrorPolicy errorPolicy = ErrorPolicy.FAIL_FAST;
+    private int maxErrors = 100;
+    private final List<IsdRowError> errors = new ArrayList<>();
+    private long errorCount;
+    private long rejectedCount;
+
+    private int fromEpochHour = Integer.MIN_VALUE;
+    private int toEpochHour = Integer.MAX_VALUE;
+    private final boolean[] selected = new boolean[FIELDS.length];
+    private long filteredCount;
+    private boolean pastWindow;
+
+    public IsdCsvParser(InputStream in) throws IOException {
+        this.in = in;
+        Arrays.fill(selected, true);
+        if (!readHeader()) throw new IOException("Missing header record");
+    }
+
+    /**
+     * Creates a parser in push mode: input arrives through {@link #feed(ByteBuffer)} and {@link #next()}
+     * returns false whenever no complete record is buffered, until {@link #finish()} is called.
+     */
+    public IsdCsvParser() {
+        this.in = null;
+        Arrays.fill(selected, true);
+    }
+
+    /**
+     * Appends input in push mode.
+     */
+    public void feed(ByteBuffer data) {
+        if (in != null) throw new IllegalStateException("Parser reads from a stream");
+
+        if (position > 0) {
+            System.arraycopy(buffer, position, buffer, 0, limit - position);
+            limit -= position;
+            position = 0;
+        }
+        ensureCapacity(limit + data.remaining());
+        int n = data.remaining();
+        data.get(buffer, limit, n);
+        limit += n;
+    }
+
+    /**
+     * Marks the end of input in push mode; a final record without a line terminator becomes available.
+     */
+    public void finish() {
+        eof = true;
+    }
+
+    private boolean readHeader() throws IOException {
+        if (!readRecord()) return false;
+
+        columnNames = new String[fieldCount];
+        for (int i = 0; i < fieldCount; i++) {
+            columnNames[i] = text(i);
+            header.put(columnNames[i], i);
+        }
+        recordNumber = 0;
+        headerRead = true;
+
+        dateColumn = column("DATE");
+        tmpColumn = column("TMP");
+        dewColumn = column("DEW");
+        slpColumn = column("SLP");
+        wndColumn = column("WND");
+        visColumn = column("VIS");
+        Integer index = header.get("REPORT_TYPE");
+        reportTypeColumn = index == null ? -1 : index;
+        for (IsdAdditionalData.Section section : SECTIONS) {
+            index = header.get(section.name());
+            sectionColumns[section.ordinal()] = index == null ? -1 : index;
+        }
+        return true;
+    }
+
+    private int column(String name) {
+        Integer index = header.get(name);
+        if (index == null) throw new IllegalArgumentException(String.format("Missing column %s in header %s", name, header.keySet()));
+
+        return index;
+    }
+
+    /**
+     * @return whether the header record has been read; in push mode it is read by the first {@link #next()}
+     */
+    boolean isHeaderRead() {
+        return headerRead;
+    }
+
+    public ErrorPolicy getErrorPolicy() {
+        return errorPolicy;
+    }
+
+    public IsdCsvParser setErrorPolicy(ErrorPolicy errorPolicy) {
+        this.errorPolicy = errorPolicy;
+        return this;
+    }
+
+    public int getMaxErrors() {
+        return maxErrors;
+    }
+
+    /**
+     * @param maxErrors how many {@link IsdRowError}s are kept, 100 by default; later ones are only counted
+     */
+    public IsdCsvParser setMaxErrors(int maxErrors) {
+        this.maxErrors = maxErrors;
+        return this;
+    }
+
+    /**
+     * Pushes the query's window and fields down into decoding. Fields that are not selected read as
+     * missing. Files are written in time order, so the first row at or past the end of the window ends
+     * the input.
+     */
+    public IsdCsvParser setQuery(IsdQuery query) {
+        fromEpochHour = query.getFromEpochHour();
+        toEpochHour = query.getToEpochHour();
+        for (Field field : FIELDS) {
+            selected[field.ordinal()] = query.isSelected(field);
+            if (!selected[field.ordinal()]) {
+                missing[field.ordinal()] = true;
+                values[field.ordinal()] = 0d;
+            }
+        }
+        return this;
+    }
+
+    /**
+     * @return rows skipped so far because they fall outside the query's window, including the row that ends it
+     */
+    public long getFilteredCount() {
+        return filteredCount;
+    }
+
+    /**
+     * @return true once a row past the end of the query's window has been read
+     */
+    public boolean isPastWindow() {
+        return pastWindow;
+    }
+
+    /**
+     * @return the first bad values, in file order
+     */
+    public List<IsdRowError> getErrors() {
+        return errors;
+    }
+
+    /**
+     * @return bad values seen so far, kept or not
+     */
+    public long getErrorCount() {
+        return errorCount;
+    }
+
+    /**
+     * @return rows dropped so far because they could not be decoded
+     */
+    public long getRejectedCount() {
+        return rejectedCount;
+    }
+
+    /**
+     * Advances to and decodes the next record, handling records that cannot be decoded by the
+     * {@link ErrorPolicy}.
+     *
+     * @return false at the end of the input or of the query's window, or in push mode when more input is needed
+     * @throws IsdParseException under {@link ErrorPolicy#FAIL_FAST}
+     */
+    public boolean next() throws IOException {
+        if (!headerRead) {
+            if (!readHeader()) return false;
+        }
+        while (!pastWindow && readRecord()) {
+            if (decodeRecord()) return true;
+        }
+
+        return false;
+    }
+
+    /**
+     * @return false when the record is rejected or outside the window
+     */
+    private boolean decodeRecord() {
+        try {
+            decodeDate();
+        }
+        catch (RuntimeException e) {
+            return reject(dateColumn, e);
+        }
+
+        int epochHour = getEpochHour();
+        if (epochHour < fromEpochHour) {
+            filteredCount++;
+            return false;
+        }
+        if (epochHour >= toEpochHour) {
+            filteredCount++;
+            pastWindow = true;
+            return false;
+        }
+
+        if (!decodeField(Field.AIR_TEMPERATURE, tmpColumn, 0, 10)) return false;
+        decodeQuality();
+        if (!decodeField(Field.DEW_POINT_TEMPERATURE, dewColumn, 0, 10)) return false;
+        if (!decodeField(Field.SEA_LEVEL_PRESSURE, slpColumn, 0, 10)) return false;
+        if (!decodeField(Field.WIND_DIRECTION, wndColumn, 0, 1)) return false;
+        if (!decodeField(Field.WIND_SPEED_RATE, wndColumn, 3, 10)) return false;
+        if (!decodeField(Field.SKY_CONDITION, visColumn, 0, 1)) return false;
+        if (selected[Field.PRECIPITATION_DEPTH_ONE_HOUR.ordinal()]) values[Field.PRECIPITATION_DEPTH_ONE_HOUR.ordinal()] = 0d;
+        if (selected[Field.PRECIPITATION_DEPTH_SIX_HOUR.ordinal()]) values[Field.PRECIPITATION_DEPTH_SIX_HOUR.ordinal()] = 0d;
+
+        return true;
+    }
+
+    /**
+     * Fields the query does not select stay missing, as set by {@link #setQuery}.
+     */
+    private boolean decodeField(Field field, int column, int index, int scale) {
+        if (!selected[field.ordinal()]) return true;
+
+        try {
+            decode(field, column, index, scale);
+            return true;
+        }
+        catch (RuntimeException e) {
+            if (errorPolicy != ErrorPolicy.SUBSTITUTE_MISSING) return reject(column, e);
+
+            record(column, e);
+            missing[field.ordinal()] = true;
+            values[field.ordinal()] = 0d;
+            return true;
+        }
+    }
+
+    private boolean reject(int column, RuntimeException e) {
+        IsdRowError error = record(column, e);
+        rejectedCount++;
+        if (errorPolicy == ErrorPolicy.FAIL_FAST) throw new IsdParseException(error, e);
+
+        return false;
+    }
+
+    private IsdRowError record(int column, RuntimeException e) {
+        IsdRowError error = new IsdRowError(recordNumber + 1, columnNames[column],
+                column < fieldCount ? text(column) : null, e.getMessage() == null ? e.toString() : e.getMessage());
+        errorCount++;
+        if (errors.size() < maxErrors) errors.add(error);
+
+        return error;
+    }
+
+    /**
+     * @return the 1-based number of the current data record, not counting the header
+     */
+    public long getRecordNumber() {
+        return recordNumber;
+    }
+
+    public int getYear() {
+        return year;
+    }
+
+    public int getMonth() {
+        return month;
+    }
+
+    public int getDay() {
+        return day;
+    }
+
+    public int getHour() {
+        return hour;
+    }
+
+    public int getMinute() {
+        return minute;
+    }
+
+    /**
+     * @return hours since 1970-01-01T00:00 UTC of the current record
+     */
+    public int getEpochHour() {
+        return DataHelper.toEpochHour(year, month, day, hour);
+    }
+
+    /**
+     * @return the TMP quality code of the current record, or 0 when there is none
+     */
+    public char getAirTemperatureQuality() {
+        return airTemperatureQuality;
+    }
+
+    /**
+     * Compares the current record's REPORT_TYPE, ignoring surrounding spaces, without building a String.
+     *
+     * @return false when the file has no REPORT_TYPE column
+     */
+    public boolean isReportType(String type) {
+        if (reportTypeColumn < 0 || reportTypeColumn >= fieldCount) return false;
+
+        int s = fieldStart[reportTypeColumn];
+        int e = fieldEnd[reportTypeColumn];
+        while (s < e && buffer[s] == ' ') s++;
+        while (e > s && buffer[e - 1] == ' ') e--;
+        if (e - s != type.length()) return false;
+
+        for (int i = 0; i < type.length(); i++) {
+            if (buffer[s + i] != type.charAt(i)) return false;
+        }
+
+        return true;
+    }
+
+    /**
+     * @return the current record's trimmed REPORT_TYPE, or null when the file has no such column; repeated
+     * values return the same instance
+     */
+    public String getReportType() {
+        if (reportTypeColumn < 0 || reportTypeColumn >= fieldCount) return null;
+        if (reportType != null && isReportType(reportType)) return reportType;
+
+        reportType = text(reportTypeColumn).trim();
+        return reportType;
+    }
+
+    /**
+     * Copies the raw additional data sections of the current record into one array; nothing is decoded
+     * until a section is read.
+     *
+     * @return null when the record has none
+     */
+    public IsdAdditionalData getAdditionalData() {
+        int length = 0;
+        for (int column : sectionColumns) {
+            if (column >= 0 && column < fieldCount) length += fieldEnd[column] - fieldStart[column];
+        }
+        if (length == 0) return null;
+
+        byte[] raw = new byte[length];
+        int[] offsets = new int[SECTIONS.length + 1];
+        for (int s = 0; s < SECTIONS.length; s++) {
+            int column = sectionColumns[s];
+            int n = column >= 0 && column < fieldCount ? fieldEnd[column] - fieldStart[column] : 0;
+            if (n > 0) System.arraycopy(buffer, fieldStart[column], raw, offsets[s], n);
+            offsets[s + 1] = offsets[s] + n;
+        }
+
+        return new IsdAdditionalData(raw, offsets);
+    }
+
+    public boolean isMissing(Field field) {
+        return missing[field.ordinal()];
+    }
+
+    /**
+     * @return the decoded value, or {@link Double#NaN} when it is missing
+     */
+    public double getValue(Field field) {
+        return missing[field.ordinal()] ? Double.NaN : values[field.ordinal()];
+    }
+
+    /**
+     * @return the current record as an object, equal field for field to what the CSVRecord constructor builds
+     */
+    public IntegratedSurfaceData toIntegratedSurfaceData() {
+        IntegratedSurfaceData i = new IntegratedSurfaceData()
+                .setObservationYear(year)
+                .setObservationMonth(month)
+                .setObservationDay(day)
+                .setObservationHour(hour)
+                .setAirTemperatureQuality(airTemperatureQuality == 0 ? null : airTemperatureQuality)
+                .setReportType(getReportType())
+                .setAdditionalData(getAdditionalData());
+        for (Field field : FIELDS) {
+            field.set(i, missing[field.ordinal()] ? null : values[field.ordinal()]);
+        }
+
+        return i;
+    }
+
+    private void decodeDate() {
+        checkColumn(dateColumn, "DATE");
+        int s = fieldStart[dateColumn];
+        int length = fieldEnd[dateColumn] - s;
+        byte[] b = buffer;
+
+        // yyyy-MM-ddTHH:mm[:ss]
+        if ((length == 16 || length == 19)
+                && b[s + 4] == '-' && b[s + 7] == '-' && b[s + 10] == 'T' && b[s + 13] == ':'
+                && (length == 16 || b[s + 16] == ':')) {
+            int y = digits(b, s, 4);
+            int m = digits(b, s + 5, 2);
+            int d = digits(b, s + 8, 2);
+            int h = digits(b, s + 11, 2);
+            int mi = digits(b, s + 14, 2);
+            int sec = length == 19 ? digits(b, s + 17, 2) : 0;
+            if (y >= 0 && m >= 1 && m <= 12 && d >= 1 && d <= lengthOfMonth(y, m)
+                    && h >= 0 && h <= 23 && mi >= 0 && mi <= 59 && sec >= 0 && sec <= 59) {
+                year = y;
+                month = m;
+                day = d;
+                hour = h;
+                minute = mi;
+                return;
+            }
+        }
+
+        LocalDateTime date = DataHelper.toDate(text(dateColumn));
+        year = date.getYear();
+        month = date.getMonthValue();
+        day = date.getDayOfMonth();
+        hour = date.getHour();
+        minute = date.getMinute();
+    }
+
+    private static int lengthOfMonth(int year, int month) {
+        switch (month) {
+            case 2:
+                return Year.isLeap(year) ? 29 : 28;
+            case 4:
+            case 6:
+            case 9:
+            case 11:
+                return 30;
+            default:
+                return 31;
+        }
+    }
+
+    /**
+     * @return the unsigned decimal value of exactly count digits, or -1 if any byte is not a digit
+     */
+    private static int digits(byte[] b, int start, int count) {
+        int value = 0;
+        for (int i = start; i < start + count; i++) {
+            int digit = b[i] - '0';
+            if (digit < 0 || digit > 9) return -1;
+            value = value * 10 + digit;
+        }
+
+        return value;
+    }
+
+    /**
+     * Decodes sub-field {@code index} of a comma-packed column the way {@link DataHelper#toDouble} does:
+     * scaled values are missing when the raw value is 9999, unscaled ones when it is -9999.
+     */
+    private void decode(Field field, int column, int index, int scale) {
+        checkColumn(column, field.name());
+        int end = fieldEnd[column];
+        int s = fieldStart[column];
+        for (int i = 0; i < index; i++) {
+            while (s < end && buffer[s] != ',') s++;
+            if (s == end) {
+                throw new ArrayIndexOutOfBoundsException(String.format("Record %d: %s has no sub-field %d",
+                        recordNumber, field, index));
+            }
+            s++;
+        }
+        int e = s;
+        while (e < end && buffer[e] != ',') e++;
+
+        int o = field.ordinal();
+        long raw = parseInteger(s, e);
+        if (raw != Long.MIN_VALUE) {
+            // "-0000" is negative zero to Double.valueOf
+            double d = raw == 0 && buffer[s] == '-' ? -0d : raw;
+            missing[o] = raw == (scale == 1 ? MISSING_UNSCALED : MISSING);
+            values[o] = scale == 1 ? d : d / scale;
+            return;
+        }
+
+        // not a plain integer: fall back to exactly what DataHelper does
+        String value = new String(buffer, s, e - s, StandardCharsets.UTF_8);
+        if (fieldQuoted[column]) value = value.replace("\"\"", "\"");
+        Double d = scale == 1 ? DataHelper.toDouble(value) : DataHelper.toDouble(value, scale);
+        missing[o] = d == null;
+        values[o] = d == null ? 0d : d;
+    }
+
+    /**
+     * Reads the TMP quality code, the single character after the first comma.
+     */
+    private void decodeQuality() {
+        if (tmpColumn >= fieldCount) {
+            airTemperatureQuality = 0;
+            return;
+        }
+
+        int s = fieldStart[tmpColumn];
+        int end = fieldEnd[tmpColumn];
+        while (s < end && buffer[s] != ',') s++;
+        airTemperatureQuality = end - s >= 2 && (s + 2 == end || buffer[s + 2] == ',') ? (char) buffer[s + 1] : 0;
+    }
+
+    /**
+     * @return the value of an optionally signed run of at most 9 digits, or Long.MIN_VALUE for anything else
+     */
+    private long parseInteger(int start, int end) {
+        int i = start;
+        boolean negative = false;
+        if (i < end && (buffer[i] == '+' || buffer[i] == '-')) {
+            negative = buffer[i] == '-';
+            i++;
+        }
+        if (i == end || end - i > 9) return Long.MIN_VALUE;
+
+        long value = 0;
+        for (; i < end; i++) {
+            int digit = buffer[i] - '0';
+            if (digit < 0 || digit > 9) return Long.MIN_VALUE;
+            value = value * 10 + digit;
+        }
+
+        return negative ? -value : value;
+    }
+
+    private void checkColumn(int column, String name) {
+        if (column >= fieldCount) {
+            throw new IllegalArgumentException(String.format("Record %d: index for header '%s' is %d but the record only has %d values",
+                    recordNumber, name, column, fieldCount));
+        }
+    }
+
+    private String text(int column) {
+        String value = new String(buffer, fieldStart[column], fieldEnd[column] - fieldStart[column], StandardCharsets.UTF_8);
+        return fieldQuoted[column] ? value.replace("\"\"", "\"") : value;
+    }
+
+    /**
+     * Finds the boundaries of the next non-empty record. Field contents exclude the surrounding quotes.
+     */
+    private boolean readRecord() throws IOException {
+        while (true) {
+            int scan = position;
+            while (true) {
+                int end = scanRecord(scan);
+                if (end >= 0) {
+                    position = end;
+                    if (isBlank()) break;
+
+                    recordNumber++;
+                    return true;
+                }
+                if (eof) {
+                    if (position == limit) return false;
+
+                    // last record without a trailing newline
+                    scanRecordToLimit(position);
+                    position = limit;
+                    if (isBlank()) break;
+
+                    recordNumber++;
+                    return true;
+                }
+                if (in == null) return false;
+
+                fill();
+                scan = position;
+            }
+        }
+    }
+
+    private boolean isBlank() {
+        return fieldCount == 1 && fieldStart[0] == fieldEnd[0] && !fieldQuoted[0];
+    }
+
+    /**
+     * @return the position after the record's line terminator, or -1 if the buffer ends first
+     */
+    private int scanRecord(int start) {
+        byte[] b = buffer;
+        int count = 0;
+        int i = start;
+        while (true) {
+            if (i >= limit) return -1;
+
+            boolean quoted = b[i] == '"';
+            int s;
+            int e;
+            if (quoted) {
+                s = ++i;
+                while (true) {
+                    if (i >= limit) return -1;
+                    if (b[i] == '"') {
+                        if (i + 1 >= limit) {
+                            if (!eof) return -1;
+                            break;
+                        }
+                        if (b[i + 1] != '"') break;
+                        i++;
+                    }
+                    i++;
+                }
+                e = i++;
+                // anything between the closing quote and the delimiter is ignored
+                while (i < limit && b[i] != ',' && b[i] != '\n') i++;
+            }
+            else {
+                s = i;
+                while (i < limit && b[i] != ',' && b[i] != '\n') i++;
+                e = i;
+                if (e > s && i < limit && b[i] == '\n' && b[e - 1] == '\r') e--;
+            }
+
+            if (i >= limit) return -1;
+
+            count = setField(count, s, e, quoted);
+            if (b[i++] == '\n') {
+                fieldCount = count;
+                return i;
+            }
+        }
+    }
+
+    private void scanRecordToLimit(int start) {
+        // append a virtual newline by treating limit as the terminator
+        ensureCapacity(limit + 1);
+        buffer[limit] = '\n';
+        limit++;
+        scanRecord(start);
+        limit--;
+    }
+
+    private int setField(int count, int start, int end, boolean quoted) {
+        if (count == fieldStart.length) {
+            fieldStart = Arrays.copyOf(fieldStart, count * 2);
+            fieldEnd = Arrays.copyOf(fieldEnd, count * 2);
+            fieldQuoted = Arrays.copyOf(fieldQuoted, count * 2);
+        }
+        fieldStart[count] = start;
+        fieldEnd[count] = end;
+        fieldQuoted[count] = quoted;
+        return count + 1;
+    }
+
+    /**
+     * Moves the partial record to the front of the buffer and reads more input behind it.
+     */
+    private void fill() throws IOException {
+        int remaining = limit - position;
+        if (position > 0) {
+            System.arraycopy(buffer, position, buffer, 0, remaining);
+            position = 0;
+            limit = remaining;
+        }
+        if (limit == buffer.length) ensureCapacity(buffer.length * 2);
+
+        int n = in.read(buffer, limit, buffer.length - limit);
+        if (n < 0) eof = true;
+        else limit += n;
+    }
+
+    private void ensureCapacity(int capacity) {
+        if (capacity > buffer.length) buffer = Arrays.copyOf(buffer, Math.max(capacity, buffer.length * 2));
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (in != null) in.close();
+    }
+}
@@ -0,0 +1,202 @@
+/*
+ * ________________________________________________________________________
+ * METRO.IO CONFIDENTIAL
+ * ________________________________________________________________________
+ *
+ * Copyright (c) 2018.
+ * Metro Labs Incorporated
+ * All Rights Reserved.
+ *
+ * NOTICE: All information contained herein is, and remains
+ * the property of Metro Labs Incorporated and its suppliers,
+ * if any. The intellectual and technical concepts contained
+ * herein are proprietary to Metro Labs Incorporated
+ * and its suppliers and may be covered by U.S. and Foreign Patents,
+ * patents in process, and are protected by trade secret or copyright law.
+ * Dissemination of this information or reproduction of this material
+ * is strictly forbidden unless prior written permission is obtained
+ * from Metro Labs Incorporated.
+ */
+
+package org.noaa;
+
+import org.noaa.IntegratedSurfaceData.DataHelper;
+import org.noaa.IntegratedSurfaceData.Field;
+
+import java.time.Year;
+import java.util.Arrays;
+import java.util.EnumSet;
+import java.util.Set;
+
+/**
+ * Regularizes a station-year onto an {@link IsdHourlyGrid} and fills the holes.
+ *
+ * Observations are scattered onto the grid by epoch hour, then every field gets one linear pass that
+ * remembers the last observed row: when the next observation arrives the gap between them is filled
+ * according to the {@link GapFillPolicy}, provided it is no longer than {@code maxGap} hours. Gaps that
+ * are still open afterwards take the neighbor station's value for the same hour, shifted by the mean
+ * difference between the two stations over the hours both observed. Precipitation is an accumulation and
+ * is never filled.
+ *
+ * <pre>
+ * IsdHourlyGrid grid = new IsdGapFiller(GapFillPolicy.LINEAR)
+ *         .setMaxGap(6)
+ *         .setNeighbor(client.loadSeries(2018, "725300-94846"))
+ *         .fill(client.loadSeries(2018, "720545-00169"), 2018);
+ * </pre>
+ */
+public class IsdGapFiller {
+    private static final Field[] FIELDS = Field.values();
+
+    private final GapFillPolicy policy;
+    private int maxGap = 6;
+    private IsdSeries neighbor;
+    private Set<Field> fields = EnumSet.complementOf(EnumSet.of(
+            Field.PRECIPITATION_DEPTH_ONE_HOUR, Field.PRECIPITATION_DEPTH_SIX_HOUR));
+
+    public IsdGapFiller(GapFillPolicy policy) {
+        this.policy = policy;
+    }
+
+    public GapFillPolicy getPolicy() {
+        return policy;
+    }
+
+    public int getMaxGap() {
+        return maxGap;
+    }
+
+    /**
+     * @param maxGap the longest run of missing hours the policy bridges, 6 by default
+     */
+    public IsdGapFiller setMaxGap(int maxGap) {
+        if (maxGap < 0) throw new IllegalArgumentException("maxGap must not be negative");
+
+        this.maxGap = maxGap;
+        return this;
+    }
+
+    public IsdSeries getNeighbor() {
+        return neighbor;
+    }
+
+    /**
+     * @param neighbor a nearby station's observations used for the gaps the policy leaves open, may be null
+     */
+    public IsdGapFiller setNeighbor(IsdSeries neighbor) {
+        this.neighbor = neighbor;
+        return this;
+    }
+
+    public Set<Field> getFields() {
+        return fields;
+    }
+
+    /**
+     * @param fields the fields to fill; the others are only regularized
+     */
+    public IsdGapFiller setFields(Set<Field> fields) {
+        this.fields = EnumSet.copyOf(fields);
+        return this;
+    }
+
+    /**
+     * Builds the grid for the year from the series; rows outside the year are ignored.
+     */
+    public IsdHourlyGrid fill(IsdSeries series, int year) {
+        int start = DataHelper.toEpochHour(year, 1, 1, 0);
+        int size = Year.isLeap(year) ? 8784 : 8760;
+        int words = (size + 63) >>> 6;
+
+        int[] epochHours = new int[size];
+        for (int row = 0; row < size; row++) epochHours[row] = start + row;
+
+        double[][] values = new double[FIELDS.length][];
+        long[][] missing = new long[FIELDS.length][];
+        long[][] filled = new long[FIELDS.length][];
+        for (Field field : FIELDS) {
+            int f = field.ordinal();
+            values[f] = scatter(series, field, start, size);
+            missing[f] = new long[words];
+            filled[f] = new long[words];
+
+            if (fields.contains(field)) {
+                GapFillPolicy p = policy == GapFillPolicy.LINEAR && !isContinuous(field) ? GapFillPolicy.NEAREST : policy;
+                interpolate(values[f], filled[f], p);
+                if (neighbor != null) borrow(values[f], filled[f], field, start);
+            }
+
+            for (int row = 0; row < size; row++) {
+                if (Double.isNaN(values[f][row])) missing[f][row >>> 6] |= 1L << (row & 63);
+            }
+        }
+
+        return new IsdHourlyGrid(year, epochHours, values, missing, filled);
+    }
+
+    private static boolean isContinuous(Field field) {
+        return field != Field.WIND_DIRECTION && field != Field.SKY_CONDITION;
+    }
+
+    private static double[] scatter(IsdSeries series, Field field, int start, int size) {
+        double[] grid = new double[size];
+        Arrays.fill(grid, Double.NaN);
+
+        int[] hours = series.epochHours();
+        double[] values = series.values(field);
+        for (int i = 0; i < series.size(); i++) {
+            int row = hours[i] - start;
+            if (row >= 0 && row < size && values[i] == values[i]) grid[row] = values[i];
+        }
+
+        return grid;
+    }
+
+    /**
+     * One pass over the field, filling each gap once the observation closing it is reached.
+     */
+    private void interpolate(double[] v, long[] filled, GapFillPolicy p) {
+        if (p == GapFillPolicy.NONE) return;
+
+        int last = -1;
+        for (int row = 0; row <= v.length; row++) {
+            if (row < v.length && v[row] != v[row]) continue;
+
+            int gap = row - last - 1;
+            if (gap > 0 && gap <= maxGap && (last >= 0 || row < v.length)) {
+                for (int r = last + 1; r < row; r++) {
+                    if (last < 0) v[r] = v[row];
+                    else if (row == v.length) v[r] = v[last];
+                    else if (p == GapFillPolicy.LINEAR) v[r] = v[last] + (v[row] - v[last]) * (r - last) / (row - last);
+                    else v[r] = r - last <= row - r ? v[last] : v[row];
+
+                    filled[r >>> 6] |= 1L << (r & 63);
+                }
+            }
+            last = row;
+        }
+    }
+
+    private void borrow(double[] v, long[] filled, Field field, int start) {
+        double[] other = scatter(neighbor, field, start, v.length);
+
+        // bias from hours both stations observed, before any of this station's hours were filled
+        double sum = 0;
+        int count = 0;
+        for (int row = 0; row < v.length; row++) {
+            boolean observed = (filled[row >>> 6] & 1L << (row & 63)) == 0;
+            if (observed && v[row] == v[row] && other[row] == other[row]) {
+                sum += v[row] - other[row];
+                count++;
+            }
+        }
+        double bias = count == 0 || !isContinuous(field) ? 0 : sum / count;
+
+        for (int row = 0; row < v.length; row++) {
+            if (v[row] != v[row] && other[row] == other[row]) {
+                v[row] = other[row] + bias;
+                filled[row >>> 6] |= 1L << (row & 63);
+            }
+        }
+    }
+}
@@ -0,0 +1,79 @@
+/*
+ * ________________________________________________________________________
+ * METRO.IO CONFIDENTIAL
+ * ________________________________________________________________________
+ *
+ * Copyright (c) 2018.
+ * Metro Labs Incorporated
+ * All Rights Reserved.
+ *
+ * NOTICE: All information contained herein is, and remains
+ * the property of Metro Labs Incorporated and its suppliers,
+ * if any. The intellectual and technical concepts contained
+ * herein are proprietary to Metro Labs Incorporated
+ * and its suppliers and may be covered by U.S. and Foreign Patents,
+ * patents in process, and are protected by trade secret or copyright law.
+ * Dissemination of this information or reproduction of this material
+ * is strictly forbidden unless prior written permission is obtained
+ * from Metro Labs Incorporated.
+ */
+
+package org.noaa;
+
+import org.noaa.IntegratedSurfaceData.DataHelper;
+import org.noaa.IntegratedSurfaceData.Field;
+
+/**
+ * A station-year on a dense hourly grid: row {@code r} is hour {@code r} of the year, 8760 rows or 8784
+ * in a leap year. Hours that were estimated rather than observed have their bit set in a per-field
+ * filled mask, next to the missing mask inherited from {@link IsdSeries}.
+ */
+public class IsdHourlyGrid extends IsdSeries {
+    private final int year;
+    private final int start;
+    private final long[][] filled;
+
+    IsdHourlyGrid(int year, int[] epochHours, double[][] values, long[][] missing, long[][] filled) {
+        super(epochHours.length, epochHours, values, missing);
+        this.year = year;
+        this.start = DataHelper.toEpochHour(year, 1, 1, 0);
+        this.filled = filled;
+    }
+
+    public int getYear() {
+        return year;
+    }
+
+    /**
+     * @return the epoch hour of row 0, January 1st 00:00 UTC
+     */
+    public int getStart() {
+        return start;
+    }
+
+    /**
+     * @return the row of the epoch hour, or -1 when it is outside the year
+     */
+    public int row(int epochHour) {
+        int row = epochHour - start;
+        return row >= 0 && row < size() ? row : -1;
+    }
+
+    /**
+     * @return the filled bitmap of the field: bit {@code row & 63} of word {@code row >>> 6}
+     */
+    public long[] filledMask(Field field) {
+        return filled[field.ordinal()];
+    }
+
+    public boolean isFilled(Field field, int row) {
+        return (filled[field.ordinal()][row >>> 6] & 1L << (row & 63)) != 0;
+    }
+
+    public int filledCount(Field field) {
+        int count = 0;
+        for (long word : filled[field.ordinal()]) count += Long.bitCount(word);
+
+        return count;
+    }
+}
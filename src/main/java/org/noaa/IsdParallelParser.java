@@ -0,0 +1,391 @@
+/*
+ * ________________________________________________________________________
+ * METRO.IO CONFIDENTIAL
+ * ________________________________________________________________________
+ *
+ * Copyright (c) 2018.
+ * Metro Labs Incorporated
+ * All Rights Reserved.
+ *
+ * NOTICE: All information contained herein is, and remains
+ * the property of Metro Labs Incorporated and its suppliers,
+ * if any. The intellectual and technical concepts contained
+ * herein are proprietary to Metro Labs Incorporated
+ * and its suppliers and may be covered by U.S. and Foreign Patents,
+ * patents in process, and are protected by trade secret or copyright law.
+ * Dissemination of this information or reproduction of this material
+ * is strictly forbidden unless prior written permission is obtained
+ * from Metro Labs Incorporated.
+ */
+
+package org.noaa;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.function.IntConsumer;
+
+/**
+ * Parses a CSV that is already in memory or on local disk on several cores at once.
+ *
+ * The data is cut into line-aligned chunks. A line break only ends a record outside quotes, so the
+ * chunks first count their quote characters in parallel; a prefix sum of the counts gives the quote
+ * state at every nominal cut, and each cut is moved forward to the first line break outside quotes.
+ * The chunks are then parsed as independent fork/join tasks, each with its own {@link IsdCsvParser}
+ * fed the header followed by the chunk, and deduplicated locally.
+ *
+ * The chunk results are concatenated in file order and run through the same {@link HourlyDeduplicator}
+ * pass as {@link IsdSeries#read(java.io.InputStream, DedupPolicy)}, so an hour split across two chunks
+ * is resolved exactly as a sequential parse would resolve it and the result is identical to it,
+ * whatever the number of chunks.
+ *
+ * Rows that cannot be decoded are handled by the {@link ErrorPolicy} as in a sequential parse. The chunks
+ * number their records from their own copy of the header, so the {@link IsdRowError}s are shifted by the
+ * records of the chunks before them and carry the same line numbers as in a sequential parse; under
+ * {@link ErrorPolicy#FAIL_FAST} the first bad row in file order is thrown.
+ *
+ * <pre>
+ * IsdSeries series = new IsdParallelParser(DedupPolicy.BEST_QUALITY).parse(path);
+ * </pre>
+ */
+public class IsdParallelParser {
+    private final DedupPolicy policy;
+    private ForkJoinPool pool = ForkJoinPool.commonPool();
+    private int minChunkBytes = 1024 * 1024;
+    private NoaaMetrics metrics = NoaaMetrics.NOOP;
+    private ErrorPolicy errorPolicy = ErrorPolicy.FAIL_FAST;
+    private int maxErrors = 100;
+    private List<IsdRowError> errors = Collections.emptyList();
+    private long errorCount;
+    private long rejectedCount;
+
+    public IsdParallelParser() {
+        this(DedupPolicy.FIRST_WINS);
+    }
+
+    public IsdParallelParser(DedupPolicy policy) {
+        this.policy = policy;
+    }
+
+    public DedupPolicy getPolicy() {
+        return policy;
+    }
+
+    public ForkJoinPool getPool() {
+        return pool;
+    }
+
+    /**
+     * @param pool runs the chunks, the common pool by default; its parallelism bounds the chunk count
+     */
+    public IsdParallelParser setPool(ForkJoinPool pool) {
+        this.pool = pool;
+        return this;
+    }
+
+    public int getMinChunkBytes() {
+        return minChunkBytes;
+    }
+
+    /**
+     * @param minChunkBytes smallest chunk worth a task, 1 MiB by default; smaller files are parsed in one
+     */
+    public IsdParallelParser setMinChunkBytes(int minChunkBytes) {
+        if (minChunkBytes < 1) throw new IllegalArgumentException("minChunkBytes must be positive");
+
+        this.minChunkBytes = minChunkBytes;
+        return this;
+    }
+
+    public IsdParallelParser setMetrics(NoaaMetrics metrics) {
+        this.metrics = metrics == null ? NoaaMetrics.NOOP : metrics;
+        return this;
+    }
+
+    public ErrorPolicy getErrorPolicy() {
+        return errorPolicy;
+    }
+
+    /**
+     * @param errorPolicy handles rows that cannot be decoded, {@link ErrorPolicy#FAIL_FAST} by default
+     */
+    public IsdParallelParser setErrorPolicy(ErrorPolicy errorPolicy) {
+        this.errorPolicy = errorPolicy;
+        return this;
+    }
+
+    public int getMaxErrors() {
+        return maxErrors;
+    }
+
+    /**
+     * @param maxErrors how many {@link IsdRowError}s are kept, 100 by default; later ones are only counted
+     */
+    public IsdParallelParser setMaxErrors(int maxErrors) {
+        this.maxErrors = maxErrors;
+        return this;
+    }
+
+    /**
+     * @return the first bad values of the last parse, in file order
+     */
+    public List<IsdRowError> getErrors() {
+        return errors;
+    }
+
+    public long getErrorCount() {
+        return errorCount;
+    }
+
+    /**
+     * @return rows dropped by the last parse because they could not be decoded
+     */
+    public long getRejectedCount() {
+        return rejectedCount;
+    }
+
+    public IsdSeries parse(Path file) throws IOException {
+        return parse(Files.readAllBytes(file));
+    }
+
+    public IsdSeries parse(byte[] data) throws IOException {
+        return parse(data, null);
+    }
+
+    IsdSeries parse(byte[] data, StationYear key) throws IOException {
+        long start = metrics == NoaaMetrics.NOOP ? 0 : System.nanoTime();
+
+        int headerEnd = lineEnd(data, 0, data.length, false);
+        int[] bounds = split(data, headerEnd);
+        int chunks = bounds.length - 1;
+        ByteBuffer header = ByteBuffer.wrap(data, 0, headerEnd).asReadOnlyBuffer();
+
+        Part[] parts = new Part[chunks];
+        try {
+            run(chunks, c -> parts[c] = parseChunk(header.duplicate(), data, bounds[c], bounds[c + 1]));
+        }
+        catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+
+        collectErrors(parts);
+
+        IsdSeries series = merge(parts);
+        if (start != 0) {
+            long rows = -rejectedCount;
+            for (Part part : parts) rows += part.rows;
+            metrics.parsed(key, rows, rejectedCount, rows - series.size(), System.nanoTime() - start);
+        }
+        return series;
+    }
+
+    /**
+     * Gathers the chunks' errors in file order with their line numbers shifted by the records of the chunks
+     * before them, and throws the first one when the chunk failed fast.
+     */
+    private void collectErrors(Part[] parts) {
+        List<IsdRowError> collected = new ArrayList<>();
+        long count = 0;
+        long rejected = 0;
+        long records = 0;
+        for (Part part : parts) {
+            count += part.errorCount;
+            rejected += part.rejected;
+            for (IsdRowError error : part.errors) {
+                if (collected.size() < maxErrors) collected.add(shift(error, records));
+            }
+            if (part.failure != null) throw new IsdParseException(shift(part.failure.getError(), records), part.failure.getCause());
+
+            records += part.rows;
+        }
+
+        this.errors = collected;
+        this.errorCount = count;
+        this.rejectedCount = rejected;
+    }
+
+    private static IsdRowError shift(IsdRowError error, long lines) {
+        return new IsdRowError(error.getLineNumber() + lines, error.getColumn(), error.getValue(), error.getReason());
+    }
+
+    /**
+     * @return chunk boundaries, from the end of the header to the end of the data
+     */
+    private int[] split(byte[] data, int from) {
+        int length = data.length - from;
+        int chunks = (int) Math.max(1, Math.min(pool.getParallelism() * 4L, length / minChunkBytes));
+        int[] nominal = new int[chunks + 1];
+        for (int c = 0; c <= chunks; c++) nominal[c] = from + (int) ((long) length * c / chunks);
+        if (chunks == 1) return nominal;
+
+        int[] quotes = new int[chunks];
+        run(chunks, c -> {
+            int count = 0;
+            for (int i = nominal[c], end = nominal[c + 1]; i < end; i++) {
+                if (data[i] == '"') count++;
+            }
+            quotes[c] = count;
+        });
+
+        int[] bounds = new int[chunks + 1];
+        bounds[0] = from;
+        bounds[chunks] = data.length;
+        long seen = 0;
+        for (int c = 1; c < chunks; c++) {
+            seen += quotes[c - 1];
+            bounds[c] = Math.max(bounds[c - 1], lineEnd(data, nominal[c], data.length, (seen & 1) == 1));
+        }
+
+        return bounds;
+    }
+
+    /**
+     * @return the position after the first line break outside quotes at or after {@code from}
+     */
+    private static int lineEnd(byte[] data, int from, int to, boolean quoted) {
+        for (int i = from; i < to; i++) {
+            byte b = data[i];
+            if (b == '"') quoted = !quoted;
+            else if (b == '\n' && !quoted) return i + 1;
+        }
+
+        return to;
+    }
+
+    private void run(int chunks, IntConsumer work) {
+        if (chunks == 1) work.accept(0);
+        else pool.invoke(new ChunkTask(0, chunks, work));
+    }
+
+    private Part parseChunk(ByteBuffer header, byte[] data, int from, int to) {
+        IsdSeries.Builder builder = new IsdSeries.Builder((to - from) / 128);
+        HourlyDeduplicator deduplicator = new HourlyDeduplicator(policy);
+        int[] scores = new int[64];
+
+        IsdCsvParser parser = new IsdCsvParser().setErrorPolicy(errorPolicy).setMaxErrors(maxErrors);
+        parser.feed(header);
+        parser.feed(ByteBuffer.wrap(data, from, to - from));
+        parser.finish();
+        try {
+            while (parser.next()) {
+                int score = policy.score(parser);
+                switch (deduplicator.offer(parser.getEpochHour(), score)) {
+                    case APPEND:
+                        builder.add(parser);
+                        break;
+                    case REPLACE:
+                        builder.set(builder.size() - 1, parser);
+                        break;
+                    default:
+                        continue;
+                }
+                if (scores.length < builder.size()) scores = Arrays.copyOf(scores, scores.length * 2);
+                scores[builder.size() - 1] = score;
+            }
+        }
+        catch (IsdParseException e) {
+            // rethrown once every chunk is done and its line in the whole file is known
+            return new Part(builder.build(), scores, parser, e);
+        }
+        catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+
+        return new Part(builder.build(), scores, parser, null);
+    }
+
+    /**
+     * Concatenates the chunks in file order through one more dedup pass, which resolves hours split
+     * across a boundary, then falls back to the stable sort when the file was out of order.
+     */
+    private IsdSeries merge(Part[] parts) {
+        int capacity = 0;
+        for (Part part : parts) capacity += part.series.size();
+        if (parts.length == 1 && isSorted(parts[0].series)) return parts[0].series;
+
+        IsdSeries.Builder builder = new IsdSeries.Builder(capacity);
+        HourlyDeduplicator deduplicator = new HourlyDeduplicator(policy);
+        int[] scores = new int[capacity];
+        for (Part part : parts) {
+            IsdSeries series = part.series;
+            for (int r = 0; r < series.size(); r++) {
+                switch (deduplicator.offer(series.getEpochHour(r), part.scores[r])) {
+                    case APPEND:
+                        builder.add(series, r);
+                        break;
+                    case REPLACE:
+                        builder.set(builder.size() - 1, series, r);
+                        break;
+                    default:
+                        continue;
+                }
+                scores[builder.size() - 1] = part.scores[r];
+            }
+        }
+
+        IsdSeries series = builder.build();
+        return deduplicator.isSorted() ? series : IsdSeries.sort(series, scores, policy);
+    }
+
+    private static boolean isSorted(IsdSeries series) {
+        for (int r = 1; r < series.size(); r++) {
+            if (series.getEpochHour(r) <= series.getEpochHour(r - 1)) return false;
+        }
+
+        return true;
+    }
+
+    private static class Part {
+        private final IsdSeries series;
+        private final int[] scores;
+        private final long rows;
+        private final List<IsdRowError> errors;
+        private final long errorCount;
+        private final long rejected;
+        private final IsdParseException failure;
+
+        Part(IsdSeries series, int[] scores, IsdCsvParser parser, IsdParseException failure) {
+            this.series = series;
+            this.scores = scores;
+            this.rows = parser.getRecordNumber();
+            this.errors = parser.getErrors();
+            this.errorCount = parser.getErrorCount();
+            this.rejected = parser.getRejectedCount();
+            this.failure = failure;
+        }
+    }
+
+    private static class ChunkTask extends RecursiveAction {
+        private final int from;
+        private final int to;
+        private final IntConsumer work;
+
+        ChunkTask(int from, int to, IntConsumer work) {
+            this.from = from;
+            this.to = to;
+            this.work = work;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from <= 1) {
+                if (to > from) work.accept(from);
+                return;
+            }
+
+            int middle = (from + to) >>> 1;
+            ChunkTask left = new ChunkTask(from, middle, work);
+            left.fork();
+            new ChunkTask(middle, to, work).compute();
+            left.join();
+        }
+    }
+}
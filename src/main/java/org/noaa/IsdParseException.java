@@ -0,0 +1,37 @@
+/*
+ * ________________________________________________________________________
+ * METRO.IO CONFIDENTIAL
+ * ________________________________________________________________________
+ *
+ * Copyright (c) 2018.
+ * Metro Labs Incorporated
+ * All Rights Reserved.
+ *
+ * NOTICE: All information contained herein is, and remains
+ * the property of Metro Labs Incorporated and its suppliers,
+ * if any. The intellectual and technical concepts contained
+ * herein are proprietary to Metro Labs Incorporated
+ * and its suppliers and may be covered by U.S. and Foreign Patents,
+ * patents in process, and are protected by trade secret or copyright law.
+ * Dissemination of this information or reproduction of this material
+ * is strictly forbidden unless prior written permission is obtained
+ * from Metro Labs Incorporated.
+ */
+
+package org.noaa;
+
+/**
+ * Thrown under {@link ErrorPolicy#FAIL_FAST} for the first row that cannot be decoded.
+ */
+public class IsdParseException extends IllegalArgumentException {
+    private final IsdRowError error;
+
+    public IsdParseException(IsdRowError error, Throwable cause) {
+        super(error.toString(), cause);
+        this.error = error;
+    }
+
+    public IsdRowError getError() {
+        return error;
+    }
+}
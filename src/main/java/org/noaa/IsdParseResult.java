@@ -0,0 +1,92 @@
+/*
+ * ________________________________________________________________________
+ * METRO.IO CONFIDENTIAL
+ * ________________________________________________________________________
+ *
+ * Copyright (c) 2018.
+ * Metro Labs Incorporated
+ * All Rights Reserved.
+ *
+ * NOTICE: All information contained herein is, and remains
+ * the property of Metro Labs Incorporated and its suppliers,
+ * if any. The intellectual and technical concepts contained
+ * herein are proprietary to Metro Labs Incorporated
+ * and its suppliers and may be covered by U.S. and Foreign Patents,
+ * patents in process, and are protected by trade secret or copyright law.
+ * Dissemination of this information or reproduction of this material
+ * is strictly forbidden unless prior written permission is obtained
+ * from Metro Labs Incorporated.
+ */
+
+package org.noaa;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * What a load produced: the data, and a bounded report of the rows that could not be decoded.
+ *
+ * Only the first {@link #getErrors()} are kept, so a file full of bad rows cannot exhaust memory;
+ * {@link #getErrorCount()} still counts all of them.
+ */
+public class IsdParseResult<T> {
+    private final T data;
+    private final List<IsdRowError> errors;
+    private final long errorCount;
+    private final long rowCount;
+    private final long rejectedCount;
+
+    public IsdParseResult(T data, List<IsdRowError> errors, long errorCount, long rowCount, long rejectedCount) {
+        this.data = data;
+        this.errors = Collections.unmodifiableList(errors);
+        this.errorCount = errorCount;
+        this.rowCount = rowCount;
+        this.rejectedCount = rejectedCount;
+    }
+
+    public T getData() {
+        return data;
+    }
+
+    /**
+     * @return the first errors, in file order
+     */
+    public List<IsdRowError> getErrors() {
+        return errors;
+    }
+
+    /**
+     * @return bad values seen, including those beyond the kept ones
+     */
+    public long getErrorCount() {
+        return errorCount;
+    }
+
+    public boolean hasErrors() {
+        return errorCount > 0;
+    }
+
+    /**
+     * @return data rows read, including rejected ones
+     */
+    public long getRowCount() {
+        return rowCount;
+    }
+
+    /**
+     * @return rows dropped because they could not be decoded
+     */
+    public long getRejectedCount() {
+        return rejectedCount;
+    }
+
+    @Override
+    public String toString() {
+        return "IsdParseResult{" +
+                "rowCount=" + rowCount +
+                ", rejectedCount=" + rejectedCount +
+                ", errorCount=" + errorCount +
+                ", errors=" + errors +
+                '}';
+    }
+}
@@ -0,0 +1,330 @@
+/*
+ * ________________________________________________________________________
+ * METRO.IO CONFIDENTIAL
+ * ________________________________________________________________________
+ *
+ * Copyright (c) 2018.
+ * Metro Labs Incorporated
+ * All Rights Reserved.
+ *
+ * NOTICE: All information contained herein is, and remains
+ * the property of Metro Labs Incorporated and its suppliers,
+ * if any. The intellectual and technical concepts contained
+ * herein are proprietary to Metro Labs Incorporated
+ * and its suppliers and may be covered by U.S. and Foreign Patents,
+ * patents in process, and are protected by trade secret or copyright law.
+ * Dissemination of this information or reproduction of this material
+ * is strictly forbidden unless prior written permission is obtained
+ * from Metro Labs Incorporated.
+ */
+
+package org.noaa;
+
+import org.noaa.IntegratedSurfaceData.Field;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Derives psychrometric quantities from the temperature, dew point, sea level pressure and wind columns of an
+ * {@link IsdSeries} or of plain arrays.
+ *
+ * Each {@link Variable} is computed by its own loop over primitive arrays with no allocation, boxing or
+ * virtual calls inside, so the JIT can hoist the bounds checks and unroll it. A missing input is a NaN and
+ * yields a NaN, mostly by plain propagation through the arithmetic; the few branches are written so that a
+ * NaN never takes the defined path. Large batches are split into ranges that run on a {@link ForkJoinPool}.
+ *
+ * Temperatures are in degrees Celsius, pressure in hectopascals and wind speed in metres per second, as in
+ * {@link IsdSeries}. Sea level pressure stands in for station pressure, which ISD does not carry in its
+ * mandatory section; the error is small below a few hundred metres of elevation.
+ *
+ * <pre>
+ * IsdSeries series = client.loadSeries(2018, "720545-00169");
+ * double[] heatIndex = new IsdPsychrometrics().compute(Variable.HEAT_INDEX, series);
+ * </pre>
+ */
+public class IsdPsychrometrics {
+    public static final double STANDARD_PRESSURE = 1013.25;
+
+    public enum Variable {
+        /**
+         * Percent, from temperature and dew point.
+         */
+        RELATIVE_HUMIDITY,
+        /**
+         * Kilograms of water vapour per kilogram of moist air, from dew point and pressure.
+         */
+        SPECIFIC_HUMIDITY,
+        /**
+         * Degrees Celsius by Stull's (2011) fit, from temperature and dew point.
+         */
+        WET_BULB_TEMPERATURE,
+        /**
+         * Degrees Celsius by the NWS Rothfusz regression, from temperature and dew point.
+         */
+        HEAT_INDEX,
+        /**
+         * Degrees Celsius by the NWS/Environment Canada index, from temperature and wind speed.
+         */
+        WIND_CHILL,
+        /**
+         * Kilojoules per kilogram of dry air, from temperature, dew point and pressure.
+         */
+        ENTHALPY
+    }
+
+    private ForkJoinPool pool = ForkJoinPool.commonPool();
+    private int minChunkRows = 16 * 1024;
+    private double missingPressure = Double.NaN;
+
+    public ForkJoinPool getPool() {
+        return pool;
+    }
+
+    /**
+     * @param pool runs the ranges of large batches, the common pool by default
+     */
+    public IsdPsychrometrics setPool(ForkJoinPool pool) {
+        this.pool = pool;
+        return this;
+    }
+
+    public int getMinChunkRows() {
+        return minChunkRows;
+    }
+
+    /**
+     * @param minChunkRows batches up to this size are computed on the calling thread, 16384 by default
+     */
+    public IsdPsychrometrics setMinChunkRows(int minChunkRows) {
+        if (minChunkRows < 1) throw new IllegalArgumentException("minChunkRows must be positive");
+
+        this.minChunkRows = minChunkRows;
+        return this;
+    }
+
+    public double getMissingPressure() {
+        return missingPressure;
+    }
+
+    /**
+     * @param missingPressure used in place of a missing pressure, NaN by default so that the result is missing
+     * too; {@link #STANDARD_PRESSURE} is a reasonable substitute for humidity at low elevations
+     */
+    public IsdPsychrometrics setMissingPressure(double missingPressure) {
+        this.missingPressure = missingPressure;
+        return this;
+    }
+
+    /**
+     * @return one value per row of the series, NaN where an input is missing
+     */
+    public double[] compute(Variable variable, IsdSeries series) {
+        return compute(variable, series.values(Field.AIR_TEMPERATURE), series.values(Field.DEW_POINT_TEMPERATURE),
+                series.values(Field.SEA_LEVEL_PRESSURE), series.values(Field.WIND_SPEED_RATE));
+    }
+
+    /**
+     * @param temperature inputs the variable does not use may be null; the others must have the same length
+     * @return one value per row, NaN where an input is missing
+     */
+    public double[] compute(Variable variable, double[] temperature, double[] dewPoint, double[] pressure, double[] windSpeed) {
+        double[] out = new double[length(variable, temperature, dewPoint, pressure, windSpeed)];
+        compute(variable, temperature, dewPoint, pressure, windSpeed, out);
+        return out;
+    }
+
+    /**
+     * Same as {@link #compute(Variable, double[], double[], double[], double[])} writing into {@code out}.
+     */
+    public void compute(Variable variable, double[] temperature, double[] dewPoint, double[] pressure, double[] windSpeed, double[] out) {
+        int length = length(variable, temperature, dewPoint, pressure, windSpeed);
+        if (out.length < length) throw new IllegalArgumentException(String.format("Output holds %d values, need %d", out.length, length));
+
+        if (length <= minChunkRows || pool.getParallelism() < 2) {
+            kernel(variable, temperature, dewPoint, pressure, windSpeed, out, 0, length, missingPressure);
+            return;
+        }
+
+        int chunks = Math.min((length + minChunkRows - 1) / minChunkRows, pool.getParallelism() * 4);
+        int chunkRows = (length + chunks - 1) / chunks;
+        pool.invoke(new RangeTask(0, length, chunkRows,
+                (from, to) -> kernel(variable, temperature, dewPoint, pressure, windSpeed, out, from, to, missingPressure)));
+    }
+
+    private static int length(Variable variable, double[] temperature, double[] dewPoint, double[] pressure, double[] windSpeed) {
+        switch (variable) {
+            case RELATIVE_HUMIDITY:
+            case WET_BULB_TEMPERATURE:
+            case HEAT_INDEX:
+                return length(require(temperature, "temperature"), require(dewPoint, "dewPoint"));
+            case SPECIFIC_HUMIDITY:
+                return length(require(dewPoint, "dewPoint"), require(pressure, "pressure"));
+            case WIND_CHILL:
+                return length(require(temperature, "temperature"), require(windSpeed, "windSpeed"));
+            default:
+                return length(length(require(temperature, "temperature"), require(dewPoint, "dewPoint")),
+                        require(pressure, "pressure").length);
+        }
+    }
+
+    private static double[] require(double[] values, String name) {
+        if (values == null) throw new IllegalArgumentException(name + " is required");
+
+        return values;
+    }
+
+    private static int length(double[] a, double[] b) {
+        return length(a.length, b.length);
+    }
+
+    private static int length(int a, int b) {
+        if (a != b) throw new IllegalArgumentException(String.format("Input lengths differ: %d and %d", a, b));
+
+        return a;
+    }
+
+    private static void kernel(Variable variable, double[] t, double[] td, double[] p, double[] v, double[] out,
+                               int from, int to, double missingPressure) {
+        switch (variable) {
+            case RELATIVE_HUMIDITY:
+                for (int i = from; i < to; i++) out[i] = relativeHumidity(t[i], td[i]);
+                break;
+            case SPECIFIC_HUMIDITY:
+                for (int i = from; i < to; i++) out[i] = specificHumidity(td[i], pressure(p[i], missingPressure));
+                break;
+            case WET_BULB_TEMPERATURE:
+                for (int i = from; i < to; i++) out[i] = wetBulbTemperature(t[i], relativeHumidity(t[i], td[i]));
+                break;
+            case HEAT_INDEX:
+                for (int i = from; i < to; i++) out[i] = heatIndex(t[i], relativeHumidity(t[i], td[i]));
+                break;
+            case WIND_CHILL:
+                for (int i = from; i < to; i++) out[i] = windChill(t[i], v[i]);
+                break;
+            default:
+                for (int i = from; i < to; i++) out[i] = enthalpy(t[i], td[i], pressure(p[i], missingPressure));
+                break;
+        }
+    }
+
+    private static double pressure(double p, double missingPressure) {
+        return p == p ? p : missingPressure;
+    }
+
+    /**
+     * Bolton's (1980) fit over water.
+     *
+     * @return saturation vapour pressure in hectopascals
+     */
+    public static double saturationVaporPressure(double temperature) {
+        return 6.112 * Math.exp(17.67 * temperature / (temperature + 243.5));
+    }
+
+    /**
+     * @return relative humidity in percent, capped at 100 when the dew point is above the temperature
+     */
+    public static double relativeHumidity(double temperature, double dewPoint) {
+        double rh = 100 * Math.exp(17.67 * dewPoint / (dewPoint + 243.5) - 17.67 * temperature / (temperature + 243.5));
+        return Math.min(rh, 100);
+    }
+
+    /**
+     * @return kilograms of water vapour per kilogram of moist air
+     */
+    public static double specificHumidity(double dewPoint, double pressure) {
+        double e = saturationVaporPressure(dewPoint);
+        return 0.622 * e / (pressure - 0.378 * e);
+    }
+
+    /**
+     * Stull's (2011) empirical fit, within 1 degree for relative humidity between 5 and 99 percent and
+     * temperatures between -20 and 50 degrees at sea level pressure.
+     *
+     * @param relativeHumidity in percent
+     */
+    public static double wetBulbTemperature(double temperature, double relativeHumidity) {
+        double rh = relativeHumidity;
+        return temperature * Math.atan(0.151977 * Math.sqrt(rh + 8.313659))
+                + Math.atan(temperature + rh) - Math.atan(rh - 1.676331)
+                + 0.00391838 * rh * Math.sqrt(rh) * Math.atan(0.023101 * rh) - 4.686035;
+    }
+
+    /**
+     * The NWS heat index: Steadman's simple form when it averages below 80F with the temperature, the Rothfusz
+     * regression with its low and high humidity adjustments above.
+     *
+     * @param relativeHumidity in percent
+     */
+    public static double heatIndex(double temperature, double relativeHumidity) {
+        double t = temperature * 1.8 + 32;
+        double rh = relativeHumidity;
+        double simple = 0.5 * (t + 61 + (t - 68) * 1.2 + rh * 0.094);
+        if (!((simple + t) / 2 >= 80)) return (simple - 32) / 1.8;
+
+        double hi = -42.379 + 2.04901523 * t + 10.14333127 * rh - 0.22475541 * t * rh - 0.00683783 * t * t
+                - 0.05481717 * rh * rh + 0.00122874 * t * t * rh + 0.00085282 * t * rh * rh - 0.00000199 * t * t * rh * rh;
+        if (rh < 13 && t >= 80 && t <= 112) hi -= (13 - rh) / 4 * Math.sqrt((17 - Math.abs(t - 95)) / 17);
+        else if (rh > 85 && t >= 80 && t <= 87) hi += (rh - 85) / 10 * ((87 - t) / 5);
+
+        return (hi - 32) / 1.8;
+    }
+
+    /**
+     * The 2001 NWS/Environment Canada wind chill index, defined for air temperatures of at most 10 degrees. Outside
+     * its range, above 10 degrees or with wind of at most 4.8 km/h, the air temperature is returned.
+     *
+     * @param windSpeed in metres per second
+     */
+    public static double windChill(double temperature, double windSpeed) {
+        if (temperature > 10) return temperature;
+        if (!(windSpeed == windSpeed)) return Double.NaN;
+
+        double kmh = windSpeed * 3.6;
+        if (kmh <= 4.8) return temperature;
+
+        double v = Math.pow(kmh, 0.16);
+        return 13.12 + 0.6215 * temperature - 11.37 * v + 0.3965 * temperature * v;
+    }
+
+    /**
+     * @return specific enthalpy of moist air in kilojoules per kilogram of dry air
+     */
+    public static double enthalpy(double temperature, double dewPoint, double pressure) {
+        double e = saturationVaporPressure(dewPoint);
+        double w = 0.622 * e / (pressure - e);
+        return 1.006 * temperature + w * (2501 + 1.86 * temperature);
+    }
+
+    private interface Range {
+        void compute(int from, int to);
+    }
+
+    private static class RangeTask extends RecursiveAction {
+        private final int from;
+        private final int to;
+        private final int chunkRows;
+        private final Range work;
+
+        RangeTask(int from, int to, int chunkRows, Range work) {
+            this.from = from;
+            this.to = to;
+            this.chunkRows = chunkRows;
+            this.work = work;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from <= chunkRows) {
+                work.compute(from, to);
+                return;
+            }
+
+            int middle = (from + to) >>> 1;
+            RangeTask left = new RangeTask(from, middle, chunkRows, work);
+            left.fork();
+            new RangeTask(middle, to, chunkRows, work).compute();
+            left.join();
+        }
+    }
+}
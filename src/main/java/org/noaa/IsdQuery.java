@@ -0,0 +1,167 @@
+/*
+ * ________________________________________________________________________
+ * METRO.IO CONFIDENTIAL
+ * ________________________________________________________________________
+ *
+ * Copyright (c) 2018.
+ * Metro Labs Incorporated
+ * All Rights Reserved.
+ *
+ * NOTICE: All information contained herein is, and remains
+ * the property of Metro Labs Incorporated and its suppliers,
+ * if any. The intellectual and technical concepts contained
+ * herein are proprietary to Metro Labs Incorporated
+ * and its suppliers and may be covered by U.S. and Foreign Patents,
+ * patents in process, and are protected by trade secret or copyright law.
+ * Dissemination of this information or reproduction of this material
+ * is strictly forbidden unless prior written permission is obtained
+ * from Metro Labs Incorporated.
+ */
+
+package org.noaa;
+
+import org.noaa.IntegratedSurfaceData.Field;
+
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.Set;
+
+/**
+ * A time window and a set of fields pushed down into the {@link IsdCsvParser}.
+ *
+ * Rows outside the window are dropped once their DATE has been decoded, without touching any other
+ * column, and reading stops at the first row past the end of the window. Fields that are not selected
+ * are never split out of their packed column; they come back as missing.
+ *
+ * <pre>
+ * IsdSeries series = client.query("72054500169", IsdQuery.between(from, to)
+ *         .select(Field.AIR_TEMPERATURE).select(IsdQuery.WIND));
+ * </pre>
+ */
+public class IsdQuery {
+    /**
+     * Both sub-fields of the WND column.
+     */
+    public static final Set<Field> WIND = Collections.unmodifiableSet(EnumSet.of(Field.WIND_DIRECTION, Field.WIND_SPEED_RATE));
+
+    private int fromEpochHour = Integer.MIN_VALUE;
+    private int toEpochHour = Integer.MAX_VALUE;
+    private EnumSet<Field> fields;
+
+    /**
+     * @return a query for every row and every field
+     */
+    public static IsdQuery all() {
+        return new IsdQuery();
+    }
+
+    /**
+     * @return a query for every field of the hours in {@code [from, to)}
+     */
+    public static IsdQuery between(Instant from, Instant to) {
+        return new IsdQuery().setWindow(from, to);
+    }
+
+    /**
+     * Sets the window to the hours in {@code [from, to)}, widened to whole hours: an observation is kept when
+     * the hour it was taken in overlaps the window.
+     */
+    public IsdQuery setWindow(Instant from, Instant to) {
+        long end = to.getEpochSecond() + (to.getNano() > 0 ? 1 : 0);
+        return setEpochHours((int) Math.floorDiv(from.getEpochSecond(), 3600), (int) -Math.floorDiv(-end, 3600));
+    }
+
+    /**
+     * @param fromEpochHour first hour kept, inclusive
+     * @param toEpochHour first hour past the window, exclusive
+     */
+    public IsdQuery setEpochHours(int fromEpochHour, int toEpochHour) {
+        if (toEpochHour < fromEpochHour) {
+            throw new IllegalArgumentException(String.format("Window ends at hour %d before it starts at %d", toEpochHour, fromEpochHour));
+        }
+
+        this.fromEpochHour = fromEpochHour;
+        this.toEpochHour = toEpochHour;
+        return this;
+    }
+
+    public int getFromEpochHour() {
+        return fromEpochHour;
+    }
+
+    public int getToEpochHour() {
+        return toEpochHour;
+    }
+
+    /**
+     * @return true when the window has both ends
+     */
+    public boolean isBounded() {
+        return fromEpochHour != Integer.MIN_VALUE && toEpochHour != Integer.MAX_VALUE;
+    }
+
+    public boolean contains(int epochHour) {
+        return epochHour >= fromEpochHour && epochHour < toEpochHour;
+    }
+
+    /**
+     * Adds fields to the selection. Until a field is selected the query returns all of them.
+     */
+    public IsdQuery select(Field... fields) {
+        return select(Arrays.asList(fields));
+    }
+
+    public IsdQuery select(Collection<Field> fields) {
+        if (this.fields == null) this.fields = EnumSet.noneOf(Field.class);
+        this.fields.addAll(fields);
+        return this;
+    }
+
+    /**
+     * @return the selected fields, all of them when none was selected
+     */
+    public Set<Field> getFields() {
+        return fields == null ? EnumSet.allOf(Field.class) : EnumSet.copyOf(fields);
+    }
+
+    public boolean isSelected(Field field) {
+        return fields == null || fields.contains(field);
+    }
+
+    /**
+     * @return the year of the first hour in the window
+     */
+    public int getFirstYear() {
+        checkBounded();
+        return yearOf(fromEpochHour);
+    }
+
+    /**
+     * @return the year of the last hour in the window
+     */
+    public int getLastYear() {
+        checkBounded();
+        return yearOf(Math.max(fromEpochHour, toEpochHour - 1));
+    }
+
+    private void checkBounded() {
+        if (!isBounded()) throw new IllegalStateException("The query has no time window");
+    }
+
+    private static int yearOf(int epochHour) {
+        return Instant.ofEpochSecond(epochHour * 3600L).atZone(ZoneOffset.UTC).getYear();
+    }
+
+    @Override
+    public String toString() {
+        return "IsdQuery{" +
+                "fromEpochHour=" + fromEpochHour +
+                ", toEpochHour=" + toEpochHour +
+                ", fields=" + getFields() +
+                '}';
+    }
+}
@@ -0,0 +1,319 @@
+/*
+ * ________________________________________________________________________
+ * METRO.IO CONFIDENTIAL
+ * ________________________________________________________________________
+ *
+ * Copyright (c) 2018.
+ * Metro Labs Incorporated
+ * All Rights Reserved.
+ *
+ * NOTICE: All information contained herein is, and remains
+ * the property of Metro Labs Incorporated and its suppliers,
+ * if any. The intellectual and technical concepts contained
+ * herein are proprietary to Metro Labs Incorporated
+ * and its suppliers and may be covered by U.S. and Foreign Patents,
+ * patents in process, and are protected by trade secret or copyright law.
+ * Dissemination of this information or reproduction of this material
+ * is strictly forbidden unless prior written permission is obtained
+ * from Metro Labs Incorporated.
+ */
+
+package org.noaa;
+
+import org.noaa.IsdAggregator.Granularity;
+
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.Arrays;
+
+/**
+ * Summary statistics of the observations in one hour, day, month or year, built by {@link IsdAggregator}.
+ *
+ * The state is a handful of primitive sums, counts and extremes, so two rollups of the same bucket can be
+ * merged by adding them up. Means are derived on access and read {@link Double#NaN} when no value was seen.
+ * Temperatures are in degrees Celsius, pressures in hectopascals and wind speeds in meters per second.
+ */
+public class IsdRollup {
+    /**
+     * Temperature histogram: 0.1 degree bins, the resolution of the source data, clamped to this range.
+     */
+    static final double HISTOGRAM_MIN = -100.0;
+    static final double HISTOGRAM_MAX = 70.0;
+    private static final int HISTOGRAM_BINS = (int) Math.round((HISTOGRAM_MAX - HISTOGRAM_MIN) * 10) + 1;
+
+    private final Granularity granularity;
+    private final int start;
+    private final int end;
+
+    private long count;
+    private long temperatureCount;
+    private double temperatureSum;
+    private double temperatureMin = Double.POSITIVE_INFINITY;
+    private double temperatureMax = Double.NEGATIVE_INFINITY;
+    private long dewPointCount;
+    private double dewPointSum;
+    private long pressureCount;
+    private double pressureSum;
+    private long windCount;
+    private double windSum;
+    private double windSumSquares;
+    private double windMax = Double.NEGATIVE_INFINITY;
+    private long windCalmCount;
+    private double windU;
+    private double windV;
+    private long windDirectionCount;
+    private int[] histogram;
+
+    private int days;
+    private double heatingDegreeDays;
+    private double coolingDegreeDays;
+
+    IsdRollup(Granularity granularity, int start, int end, boolean histogram) {
+        this.granularity = granularity;
+        this.start = start;
+        this.end = end;
+        if (histogram) this.histogram = new int[HISTOGRAM_BINS];
+    }
+
+    /**
+     * @param values NaN where missing
+     */
+    void add(double temperature, double dewPoint, double pressure, double windDirection, double windSpeed) {
+        count++;
+        if (temperature == temperature) {
+            temperatureCount++;
+            temperatureSum += temperature;
+            if (temperature < temperatureMin) temperatureMin = temperature;
+            if (temperature > temperatureMax) temperatureMax = temperature;
+            if (histogram != null) histogram[bin(temperature)]++;
+        }
+        if (dewPoint == dewPoint) {
+            dewPointCount++;
+            dewPointSum += dewPoint;
+        }
+        if (pressure == pressure) {
+            pressureCount++;
+            pressureSum += pressure;
+        }
+        if (windSpeed == windSpeed) {
+            windCount++;
+            windSum += windSpeed;
+            windSumSquares += windSpeed * windSpeed;
+            if (windSpeed > windMax) windMax = windSpeed;
+            if (windSpeed == 0) windCalmCount++;
+        }
+        // 999 is the ISD code for a missing or variable direction, calm winds carry no direction either
+        if (windDirection == windDirection && windDirection > 0 && windDirection <= 360 && windSpeed == windSpeed && windSpeed > 0) {
+            double radians = Math.toRadians(windDirection);
+            windU += windSpeed * Math.sin(radians);
+            windV += windSpeed * Math.cos(radians);
+            windDirectionCount++;
+        }
+    }
+
+    void merge(IsdRollup other) {
+        count += other.count;
+        temperatureCount += other.temperatureCount;
+        temperatureSum += other.temperatureSum;
+        temperatureMin = Math.min(temperatureMin, other.temperatureMin);
+        temperatureMax = Math.max(temperatureMax, other.temperatureMax);
+        dewPointCount += other.dewPointCount;
+        dewPointSum += other.dewPointSum;
+        pressureCount += other.pressureCount;
+        pressureSum += other.pressureSum;
+        windCount += other.windCount;
+        windSum += other.windSum;
+        windSumSquares += other.windSumSquares;
+        windMax = Math.max(windMax, other.windMax);
+        windCalmCount += other.windCalmCount;
+        windU += other.windU;
+        windV += other.windV;
+        windDirectionCount += other.windDirectionCount;
+        if (other.histogram != null) {
+            if (histogram == null) histogram = new int[HISTOGRAM_BINS];
+            for (int i = 0; i < HISTOGRAM_BINS; i++) histogram[i] += other.histogram[i];
+        }
+    }
+
+    void addDegreeDay(double meanTemperature, double heatingBase, double coolingBase) {
+        days++;
+        heatingDegreeDays += Math.max(0, heatingBase - meanTemperature);
+        coolingDegreeDays += Math.max(0, meanTemperature - coolingBase);
+    }
+
+    void clearDegreeDays() {
+        days = 0;
+        heatingDegreeDays = 0;
+        coolingDegreeDays = 0;
+    }
+
+    private static int bin(double temperature) {
+        int bin = (int) Math.round((temperature - HISTOGRAM_MIN) * 10);
+        return Math.max(0, Math.min(HISTOGRAM_BINS - 1, bin));
+    }
+
+    public Granularity getGranularity() {
+        return granularity;
+    }
+
+    /**
+     * @return the first hour of the bucket, in hours since 1970-01-01T00:00 UTC
+     */
+    public int getStart() {
+        return start;
+    }
+
+    /**
+     * @return the hour after the bucket, exclusive
+     */
+    public int getEnd() {
+        return end;
+    }
+
+    public LocalDateTime getStartTime() {
+        return LocalDateTime.ofEpochSecond(start * 3600L, 0, ZoneOffset.UTC);
+    }
+
+    /**
+     * @return observations in the bucket, whether or not they had values
+     */
+    public long getCount() {
+        return count;
+    }
+
+    public long getTemperatureCount() {
+        return temperatureCount;
+    }
+
+    public double getMinTemperature() {
+        return temperatureCount == 0 ? Double.NaN : temperatureMin;
+    }
+
+    public double getMaxTemperature() {
+        return temperatureCount == 0 ? Double.NaN : temperatureMax;
+    }
+
+    public double getMeanTemperature() {
+        return temperatureCount == 0 ? Double.NaN : temperatureSum / temperatureCount;
+    }
+
+    public double getMeanDewPointTemperature() {
+        return dewPointCount == 0 ? Double.NaN : dewPointSum / dewPointCount;
+    }
+
+    public double getMeanSeaLevelPressure() {
+        return pressureCount == 0 ? Double.NaN : pressureSum / pressureCount;
+    }
+
+    public long getWindCount() {
+        return windCount;
+    }
+
+    public double getMeanWindSpeed() {
+        return windCount == 0 ? Double.NaN : windSum / windCount;
+    }
+
+    public double getMaxWindSpeed() {
+        return windCount == 0 ? Double.NaN : windMax;
+    }
+
+    /**
+     * @return population standard deviation of the wind speed
+     */
+    public double getWindSpeedStdDev() {
+        if (windCount == 0) return Double.NaN;
+
+        double mean = windSum / windCount;
+        return Math.sqrt(Math.max(0, windSumSquares / windCount - mean * mean));
+    }
+
+    /**
+     * @return share of wind observations reporting calm, between 0 and 1
+     */
+    public double getCalmFraction() {
+        return windCount == 0 ? Double.NaN : (double) windCalmCount / windCount;
+    }
+
+    /**
+     * @return the speed-weighted vector mean of the direction the wind blows from, in degrees 0 to 360
+     */
+    public double getMeanWindDirection() {
+        if (windDirectionCount == 0) return Double.NaN;
+
+        double degrees = Math.toDegrees(Math.atan2(windU, windV));
+        return degrees < 0 ? degrees + 360 : degrees;
+    }
+
+    /**
+     * @return the magnitude of the vector mean wind; close to the mean speed when the direction is steady
+     */
+    public double getResultantWindSpeed() {
+        return windDirectionCount == 0 ? Double.NaN : Math.hypot(windU, windV) / windDirectionCount;
+    }
+
+    /**
+     * @return days in the bucket with at least one temperature; degree-days are summed over these
+     */
+    public int getDays() {
+        return days;
+    }
+
+    /**
+     * @return sum over the days of the bucket of how far the daily mean temperature fell below the heating base;
+     * NaN for hourly buckets
+     */
+    public double getHeatingDegreeDays() {
+        return granularity == Granularity.HOUR ? Double.NaN : heatingDegreeDays;
+    }
+
+    /**
+     * @return sum over the days of the bucket of how far the daily mean temperature rose above the cooling base;
+     * NaN for hourly buckets
+     */
+    public double getCoolingDegreeDays() {
+        return granularity == Granularity.HOUR ? Double.NaN : coolingDegreeDays;
+    }
+
+    public boolean hasHistogram() {
+        return histogram != null;
+    }
+
+    /**
+     * Nearest-rank percentile of the temperatures, exact at the 0.1 degree resolution of the source data.
+     * The 0.4th and 99.6th percentiles of a year are the usual heating and cooling design temperatures.
+     *
+     * @param percentile between 0 and 100
+     * @throws IllegalStateException when the aggregator was not asked to keep histograms
+     */
+    public double getTemperaturePercentile(double percentile) {
+        if (histogram == null) throw new IllegalStateException("Temperature histograms are disabled");
+        if (percentile < 0 || percentile > 100) throw new IllegalArgumentException("Percentile out of range: " + percentile);
+        if (temperatureCount == 0) return Double.NaN;
+
+        long rank = Math.max(1, (long) Math.ceil(percentile / 100 * temperatureCount));
+        long seen = 0;
+        for (int i = 0; i < HISTOGRAM_BINS; i++) {
+            seen += histogram[i];
+            if (seen >= rank) return Math.round((HISTOGRAM_MIN + i / 10d) * 10) / 10d;
+        }
+
+        return temperatureMax;
+    }
+
+    @Override
+    public String toString() {
+        return "IsdRollup{" +
+                "granularity=" + granularity +
+                ", start=" + getStartTime() +
+                ", count=" + count +
+                ", minTemperature=" + getMinTemperature() +
+                ", maxTemperature=" + getMaxTemperature() +
+                ", meanTemperature=" + getMeanTemperature() +
+                ", heatingDegreeDays=" + getHeatingDegreeDays() +
+                ", coolingDegreeDays=" + getCoolingDegreeDays() +
+                ", meanWindSpeed=" + getMeanWindSpeed() +
+                ", maxWindSpeed=" + getMaxWindSpeed() +
+                ", histogram=" + (histogram == null ? "none" : Arrays.stream(histogram).sum() + " values") +
+                '}';
+    }
+}
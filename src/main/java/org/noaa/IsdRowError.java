@@ -0,0 +1,69 @@
+/*
+ * ________________________________________________________________________
+ * METRO.IO CONFIDENTIAL
+ * ________________________________________________________________________
+ *
+ * Copyright (c) 2018.
+ * Metro Labs Incorporated
+ * All Rights Reserved.
+ *
+ * NOTICE: All information contained herein is, and remains
+ * the property of Metro Labs Incorporated and its suppliers,
+ * if any. The intellectual and technical concepts contained
+ * herein are proprietary to Metro Labs Incorporated
+ * and its suppliers and may be covered by U.S. and Foreign Patents,
+ * patents in process, and are protected by trade secret or copyright law.
+ * Dissemination of this information or reproduction of this material
+ * is strictly forbidden unless prior written permission is obtained
+ * from Metro Labs Incorporated.
+ */
+
+package org.noaa;
+
+/**
+ * A value that could not be decoded: where it is and why.
+ */
+public class IsdRowError {
+    private final long lineNumber;
+    private final String column;
+    private final String value;
+    private final String reason;
+
+    public IsdRowError(long lineNumber, String column, String value, String reason) {
+        this.lineNumber = lineNumber;
+        this.column = column;
+        this.value = value;
+        this.reason = reason;
+    }
+
+    /**
+     * @return the 1-based line of the record, counting the header as line 1 and assuming one record per
+     * line, which holds for NOAA files
+     */
+    public long getLineNumber() {
+        return lineNumber;
+    }
+
+    /**
+     * @return the header name of the column, e.g. {@code WND}
+     */
+    public String getColumn() {
+        return column;
+    }
+
+    /**
+     * @return the raw value, or null when the record is too short to have the column
+     */
+    public String getValue() {
+        return value;
+    }
+
+    public String getReason() {
+        return reason;
+    }
+
+    @Override
+    public String toString() {
+        return "line " + lineNumber + ", " + column + (value == null ? "" : " '" + value + "'") + ": " + reason;
+    }
+}
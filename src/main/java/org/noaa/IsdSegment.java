@@ -0,0 +1,423 @@
+/*
+ * ________________________________________________________________________
+ * METRO.IO CONFIDENTIAL
+ * ________________________________________________________________________
+ *
+ * Copyright (c) 2018.
+ * Metro Labs Incorporated
+ * All Rights Reserved.
+ *
+ * NOTICE: All information contained herein is, and remains
+ * the property of Metro Labs Incorporated and its suppliers,
+ * if any. The intellectual and technical concepts contained
+ * herein are proprietary to Metro Labs Incorporated
+ * and its suppliers and may be covered by U.S. and Foreign Patents,
+ * patents in process, and are protected by trade secret or copyright law.
+ * Dissemination of this information or reproduction of this material
+ * is strictly forbidden unless prior written permission is obtained
+ * from Metro Labs Incorporated.
+ */
+
+package org.noaa;
+
+import org.noaa.IntegratedSurfaceData.Field;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.zip.CRC32;
+
+/**
+ * One append-only segment file of a {@link NoaaLocalStore}, holding a station-year. All values are little-endian.
+ *
+ * <pre>
+ * header  magic int, version int, field count int, record bytes int
+ * frame   magic int, rows int, first hour int, last hour int, crc32 of the records int, reserved int
+ *         records sorted by hour: epoch hour int, missing mask short, per field short|int value * scale
+ *         as in {@link IsdColumnarFormat}
+ * frame   ...
+ * </pre>
+ *
+ * Each append writes one frame and forces it to disk before returning. Frames are only ever added at the end,
+ * so a crash can only leave the last frame torn: on open every frame header is checked against the file size
+ * and the last frame against its checksum, and whatever does not check out is truncated away. The frame
+ * headers double as the sparse time index; a range query maps the file read-only, skips the frames outside the
+ * window and binary searches the others.
+ *
+ * Hours present in several frames resolve to the latest frame. {@link #compact()} rewrites the segment as one
+ * sorted frame without the overwritten rows and swaps it in with an atomic move.
+ */
+class IsdSegment {
+    private static Logger LOG = LoggerFactory.getLogger(IsdSegment.class);
+    static final int MAGIC = 0x53445349; // "ISDS"
+    static final int FRAME_MAGIC = 0x46445349; // "ISDF"
+    static final int VERSION = 1;
+    static final int HEADER_BYTES = 16;
+    static final int FRAME_HEADER_BYTES = 24;
+
+    private static final Field[] FIELDS = Field.values();
+    static final int RECORD_BYTES;
+    private static final int[] VALUE_OFFSETS = new int[FIELDS.length];
+
+    static {
+        int offset = Integer.BYTES + Short.BYTES;
+        for (Field field : FIELDS) {
+            VALUE_OFFSETS[field.ordinal()] = offset;
+            offset += IsdColumnarFormat.width(field);
+        }
+        RECORD_BYTES = offset;
+    }
+
+    private final Path path;
+    private long size;
+    private int frames;
+    private int[] frameOffsets = new int[8];
+    private int[] frameRows = new int[8];
+    private int[] frameFirst = new int[8];
+    private int[] frameLast = new int[8];
+    private ByteBuffer mapped;
+
+    IsdSegment(Path path) throws IOException {
+        this.path = path;
+        if (Files.exists(path)) recover();
+    }
+
+    Path getPath() {
+        return path;
+    }
+
+    synchronized int getFrames() {
+        return frames;
+    }
+
+    synchronized int getRows() {
+        int rows = 0;
+        for (int f = 0; f < frames; f++) rows += frameRows[f];
+
+        return rows;
+    }
+
+    /**
+     * @return the newest hour stored, {@link Integer#MIN_VALUE} when empty
+     */
+    synchronized int getLastEpochHour() {
+        int last = Integer.MIN_VALUE;
+        for (int f = 0; f < frames; f++) last = Math.max(last, frameLast[f]);
+
+        return last;
+    }
+
+    synchronized long getSize() {
+        return size;
+    }
+
+    /**
+     * Walks the frame headers, truncating a torn or corrupt tail.
+     */
+    private void recover() throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            long length = channel.size();
+            if (length > Integer.MAX_VALUE) throw new IOException("Segment too large: " + path);
+            if (length < HEADER_BYTES) {
+                LOG.warn("Truncating segment {} with an incomplete header", path);
+                channel.truncate(0);
+                return;
+            }
+
+            ByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, length).order(ByteOrder.LITTLE_ENDIAN);
+            if (buffer.getInt(0) != MAGIC) throw new IOException("Not a segment file: " + path);
+            if (buffer.getInt(4) != VERSION) throw new IOException(String.format("Unsupported segment version %d: %s", buffer.getInt(4), path));
+            if (buffer.getInt(8) != FIELDS.length || buffer.getInt(12) != RECORD_BYTES) {
+                throw new IOException("Unexpected record layout in " + path);
+            }
+
+            int position = HEADER_BYTES;
+            while (position + FRAME_HEADER_BYTES <= length && buffer.getInt(position) == FRAME_MAGIC) {
+                int rows = buffer.getInt(position + 4);
+                long end = position + FRAME_HEADER_BYTES + (long) rows * RECORD_BYTES;
+                if (rows < 0 || end > length) break;
+
+                addFrame(position, rows, buffer.getInt(position + 8), buffer.getInt(position + 12));
+                position = (int) end;
+            }
+            if (frames > 0 && !checksumMatches(buffer, frameOffsets[frames - 1], frameRows[frames - 1])) {
+                frames--;
+                position = frameOffsets[frames];
+            }
+
+            if (position < length) {
+                LOG.warn("Truncating segment {} from {} to {} bytes after an interrupted append", path, length, position);
+                channel.truncate(position);
+                channel.force(true);
+            }
+            size = position;
+        }
+    }
+
+    private static boolean checksumMatches(ByteBuffer buffer, int frame, int rows) {
+        ByteBuffer records = buffer.duplicate();
+        records.position(frame + FRAME_HEADER_BYTES).limit(frame + FRAME_HEADER_BYTES + rows * RECORD_BYTES);
+        CRC32 crc = new CRC32();
+        crc.update(records);
+        return (int) crc.getValue() == buffer.getInt(frame + 16);
+    }
+
+    private void addFrame(int offset, int rows, int first, int last) {
+        if (frames == frameOffsets.length) {
+            frameOffsets = Arrays.copyOf(frameOffsets, frames * 2);
+            frameRows = Arrays.copyOf(frameRows, frames * 2);
+            frameFirst = Arrays.copyOf(frameFirst, frames * 2);
+            frameLast = Arrays.copyOf(frameLast, frames * 2);
+        }
+        frameOffsets[frames] = offset;
+        frameRows[frames] = rows;
+        frameFirst[frames] = first;
+        frameLast[frames] = last;
+        frames++;
+    }
+
+    /**
+     * Appends rows as one frame and forces it to disk.
+     *
+     * @param hours epoch hours, sorted without duplicates
+     * @param values values indexed by row then {@link Field#ordinal()}, {@link Double#NaN} for missing
+     */
+    synchronized void append(int[] hours, double[][] values, int rows) throws IOException {
+        if (rows == 0) return;
+
+        ByteBuffer frame = encodeFrame(hours, values, rows);
+        if (Math.max(size, HEADER_BYTES) + frame.capacity() > Integer.MAX_VALUE) throw new IOException("Segment too large: " + path);
+
+        boolean created = size == 0;
+        Files.createDirectories(path.toAbsolutePath().getParent());
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE)) {
+            if (created) {
+                channel.truncate(0);
+                write(channel, header(), 0);
+                size = HEADER_BYTES;
+            }
+            try {
+                write(channel, frame, size);
+                channel.force(false);
+            }
+            catch (IOException e) {
+                channel.truncate(size);
+                throw e;
+            }
+        }
+
+        addFrame((int) size, rows, hours[0], hours[rows - 1]);
+        size += frame.capacity();
+    }
+
+    private static ByteBuffer header() {
+        ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+        header.putInt(MAGIC).putInt(VERSION).putInt(FIELDS.length).putInt(RECORD_BYTES).flip();
+        return header;
+    }
+
+    private static ByteBuffer encodeFrame(int[] hours, double[][] values, int rows) {
+        ByteBuffer frame = ByteBuffer.allocate(FRAME_HEADER_BYTES + rows * RECORD_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+        frame.putInt(FRAME_MAGIC).putInt(rows).putInt(hours[0]).putInt(hours[rows - 1]).putInt(0).putInt(0);
+        for (int row = 0; row < rows; row++) {
+            if (row > 0 && hours[row] <= hours[row - 1]) throw new IllegalArgumentException("Hours must be sorted and distinct");
+
+            int record = frame.position();
+            frame.putInt(hours[row]);
+            int mask = 0;
+            for (Field field : FIELDS) {
+                double value = values[row][field.ordinal()];
+                int offset = record + VALUE_OFFSETS[field.ordinal()];
+                if (Double.isNaN(value)) {
+                    mask |= 1 << field.ordinal();
+                    if (IsdColumnarFormat.width(field) == Short.BYTES) frame.putShort(offset, (short) 0);
+                    else frame.putInt(offset, 0);
+                    continue;
+                }
+
+                int scaled = IsdColumnarWriter.scale(field, value);
+                if (IsdColumnarFormat.width(field) == Short.BYTES) frame.putShort(offset, (short) scaled);
+                else frame.putInt(offset, scaled);
+            }
+            frame.putShort(record + Integer.BYTES, (short) mask);
+            frame.position(record + RECORD_BYTES);
+        }
+
+        ByteBuffer records = frame.duplicate();
+        records.position(FRAME_HEADER_BYTES);
+        CRC32 crc = new CRC32();
+        crc.update(records);
+        frame.putInt(16, (int) crc.getValue());
+
+        frame.position(0);
+        return frame;
+    }
+
+    private static void write(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) position += channel.write(buffer, position);
+    }
+
+    /**
+     * Passes the rows in {@code [from, to)} to the sink in hour order, the latest frame winning for an hour
+     * written more than once.
+     */
+    synchronized void scan(int from, int to, Sink sink) throws IOException {
+        if (frames == 0) return;
+
+        ByteBuffer buffer = map();
+        int[] offsets = new int[0];
+        int count = 0;
+        boolean sorted = true;
+        int previous = Integer.MIN_VALUE;
+        for (int f = 0; f < frames; f++) {
+            if (frameLast[f] < from || frameFirst[f] >= to) continue;
+
+            int records = frameOffsets[f] + FRAME_HEADER_BYTES;
+            int row = search(buffer, records, frameRows[f], from);
+            for (; row < frameRows[f]; row++) {
+                int record = records + row * RECORD_BYTES;
+                int hour = buffer.getInt(record);
+                if (hour >= to) break;
+
+                if (count == offsets.length) offsets = Arrays.copyOf(offsets, Math.max(64, count * 2));
+                offsets[count++] = record;
+                if (hour <= previous) sorted = false;
+                previous = hour;
+            }
+        }
+
+        if (!sorted) offsets = latestPerHour(buffer, offsets, count);
+        else offsets = Arrays.copyOf(offsets, count);
+
+        double[] row = new double[FIELDS.length];
+        for (int record : offsets) {
+            int mask = buffer.getShort(record + Integer.BYTES);
+            for (Field field : FIELDS) {
+                int o = field.ordinal();
+                if ((mask & 1 << o) != 0) {
+                    row[o] = Double.NaN;
+                    continue;
+                }
+
+                int offset = record + VALUE_OFFSETS[o];
+                int scaled = IsdColumnarFormat.width(field) == Short.BYTES ? buffer.getShort(offset) : buffer.getInt(offset);
+                row[o] = IsdColumnarFormat.decode(field, scaled);
+            }
+            sink.accept(buffer.getInt(record), row);
+        }
+    }
+
+    /**
+     * Orders the records by hour, keeping the one written last for each hour. Records are collected in file
+     * order, so among equal hours the higher index is the later write.
+     */
+    private static int[] latestPerHour(ByteBuffer buffer, int[] offsets, int count) {
+        long[] keys = new long[count];
+        for (int i = 0; i < count; i++) {
+            keys[i] = (long) buffer.getInt(offsets[i]) << 32 | i;
+        }
+        Arrays.sort(keys);
+
+        int[] kept = new int[count];
+        int n = 0;
+        for (int i = 0; i < count; i++) {
+            if (i + 1 < count && keys[i + 1] >> 32 == keys[i] >> 32) continue;
+            kept[n++] = offsets[(int) keys[i]];
+        }
+
+        return Arrays.copyOf(kept, n);
+    }
+
+    /**
+     * @return the first row of the frame at or after the hour
+     */
+    private static int search(ByteBuffer buffer, int records, int rows, int hour) {
+        int low = 0;
+        int high = rows;
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (buffer.getInt(records + middle * RECORD_BYTES) < hour) low = middle + 1;
+            else high = middle;
+        }
+
+        return low;
+    }
+
+    private ByteBuffer map() throws IOException {
+        if (mapped == null || mapped.capacity() < size) {
+            try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+                mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, size).order(ByteOrder.LITTLE_ENDIAN);
+            }
+        }
+
+        return mapped;
+    }
+
+    /**
+     * Rewrites the segment as a single sorted frame holding the latest row of each hour. The new file is forced
+     * to disk before it atomically replaces the old one, so a crash leaves either of the two intact.
+     *
+     * @return false when there was nothing to compact
+     */
+    synchronized boolean compact() throws IOException {
+        if (frames <= 1) return false;
+
+        int rows = getRows();
+        int[] hours = new int[rows];
+        double[][] values = new double[rows][];
+        int[] count = new int[1];
+        scan(Integer.MIN_VALUE, Integer.MAX_VALUE, (hour, row) -> {
+            hours[count[0]] = hour;
+            values[count[0]++] = row.clone();
+        });
+
+        ByteBuffer frame = encodeFrame(hours, values, count[0]);
+        Path temp = Files.createTempFile(path.toAbsolutePath().getParent(), path.getFileName().toString(), ".tmp");
+        try {
+            try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.WRITE)) {
+                write(channel, header(), 0);
+                write(channel, frame, HEADER_BYTES);
+                channel.force(true);
+            }
+            Files.move(temp, path, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        }
+        finally {
+            Files.deleteIfExists(temp);
+        }
+        forceDirectory(path.toAbsolutePath().getParent());
+
+        LOG.debug("Compacted {} from {} frames and {} rows to {} rows", path, frames, rows, count[0]);
+        frames = 0;
+        addFrame(HEADER_BYTES, count[0], hours[0], hours[count[0] - 1]);
+        size = HEADER_BYTES + frame.capacity();
+        mapped = null;
+        return true;
+    }
+
+    /**
+     * Makes a rename durable where the platform allows opening a directory.
+     */
+    private static void forceDirectory(Path dir) {
+        try (FileChannel channel = FileChannel.open(dir, StandardOpenOption.READ)) {
+            channel.force(true);
+        }
+        catch (IOException e) {
+            LOG.trace("Cannot force directory {}", dir, e);
+        }
+    }
+
+    interface Sink {
+        /**
+         * @param row values indexed by {@link Field#ordinal()}, NaN for missing; reused between calls
+         */
+        void accept(int epochHour, double[] row) throws IOException;
+    }
+}
@@ -0,0 +1,408 @@
+/*
+ * ________________________________________________________________________
+ * METRO.IO CONFIDENTIAL
+ * ________________________________________________________________________
+ *
+ * Copyright (c) 2018.
+ * Metro Labs Incorporated
+ * All Rights Reserved.
+ *
+ * NOTICE: All information contained herein is, and remains
+ * the property of Metro Labs Incorporated and its suppliers,
+ * if any. The intellectual and technical concepts contained
+ * herein are proprietary to Metro Labs Incorporated
+ * and its suppliers and may be covered by U.S. and Foreign Patents,
+ * patents in process, and are protected by trade secret or copyright law.
+ * Dissemination of this information or reproduction of this material
+ * is strictly forbidden unless prior written permission is obtained
+ * from Metro Labs Incorporated.
+ */
+
+package org.noaa;
+
+import org.noaa.IntegratedSurfaceData.DataHelper;
+import org.noaa.IntegratedSurfaceData.Field;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * Struct-of-arrays form of a time-ordered run of {@link IntegratedSurfaceData}: one {@code int[]} of epoch
+ * hours plus one {@code double[]} per {@link Field} and a missing-value bitmap per field.
+ *
+ * Missing values read as {@link Double#NaN} in the value arrays and have their bit set in the mask, so
+ * aggregation code can either test the mask or let NaN propagate. An hour costs 68 bytes here against
+ * roughly 200 for the object form with its boxed Doubles.
+ *
+ * The bulk accessors return the backing arrays without copying; callers must not modify them.
+ */
+public class IsdSeries {
+    private static final Field[] FIELDS = Field.values();
+
+    private final int size;
+    private final int[] epochHours;
+    private final double[][] values;
+    private final long[][] missing;
+
+    IsdSeries(int size, int[] epochHours, double[][] values, long[][] missing) {
+        this.size = size;
+        this.epochHours = epochHours;
+        this.values = values;
+        this.missing = missing;
+    }
+
+    /**
+     * Builds a series from objects in iteration order.
+     */
+    public static IsdSeries of(Collection<IntegratedSurfaceData> data) {
+        Builder builder = new Builder(data.size());
+        for (IntegratedSurfaceData i : data) builder.add(i);
+
+        return builder.build();
+    }
+
+    /**
+     * Parses a NOAA CSV straight into a series without creating an object per row, keeping the first
+     * observation of every hour like {@link IntegratedSurfaceDataReader} does. The stream is closed.
+     */
+    public static IsdSeries read(InputStream in) throws IOException {
+        return read(in, DedupPolicy.FIRST_WINS);
+    }
+
+    /**
+     * Parses a NOAA CSV straight into a series sorted by time with one row per hour chosen by the policy.
+     * The stream is closed.
+     */
+    public static IsdSeries read(InputStream in, DedupPolicy policy) throws IOException {
+        return read(in, policy, ErrorPolicy.FAIL_FAST, 100, IsdQuery.all(), null, NoaaMetrics.NOOP);
+    }
+
+    /**
+     * Same as {@link #read(InputStream, DedupPolicy)} decoding only the query's window and fields. The stream is
+     * closed as soon as the window has passed.
+     */
+    public static IsdSeries read(InputStream in, DedupPolicy policy, IsdQuery query) throws IOException {
+        return read(in, policy, ErrorPolicy.FAIL_FAST, 100, query, null, NoaaMetrics.NOOP);
+    }
+
+    /**
+     * Same as {@link #read(InputStream, DedupPolicy, IsdQuery)} handling bad rows by the error policy and
+     * reporting the rows and parse time to the metrics.
+     *
+     * @param maxErrors see {@link IsdCsvParser#setMaxErrors(int)}
+     */
+    static IsdSeries read(InputStream in, DedupPolicy policy, ErrorPolicy errorPolicy, int maxErrors, IsdQuery query,
+                          StationYear key, NoaaMetrics metrics) throws IOException {
+        boolean metered = metrics != NoaaMetrics.NOOP;
+        long start = metered ? System.nanoTime() : 0;
+        Builder builder = new Builder(9000);
+        HourlyDeduplicator deduplicator = new HourlyDeduplicator(policy);
+        int[] scores = new int[0];
+        IsdCsvParser parser;
+        try {
+            parser = new IsdCsvParser(in).setErrorPolicy(errorPolicy).setMaxErrors(maxErrors).setQuery(query);
+        }
+        catch (IOException | RuntimeException e) {
+            in.close();
+            throw e;
+        }
+        try {
+            while (parser.next()) {
+                int score = policy.score(parser);
+                switch (deduplicator.offer(parser.getEpochHour(), score)) {
+                    case APPEND:
+                        builder.add(parser);
+                        break;
+                    case REPLACE:
+                        builder.set(builder.size - 1, parser);
+                        break;
+                    default:
+                        continue;
+                }
+                if (scores.length < builder.size) scores = Arrays.copyOf(scores, builder.epochHours.length);
+                scores[builder.size - 1] = score;
+            }
+        }
+        finally {
+            parser.close();
+        }
+
+        IsdSeries series = builder.build();
+        series = deduplicator.isSorted() ? series : sort(series, scores, policy);
+        if (metered) {
+            long io = in instanceof MeteredInputStream ? ((MeteredInputStream) in).getReadNanos() : 0;
+            long rejected = parser.getRejectedCount();
+            long rows = parser.getRecordNumber() - rejected - parser.getFilteredCount();
+            metrics.parsed(key, rows, rejected, rows - series.size, Math.max(0, System.nanoTime() - start - io));
+        }
+        return series;
+    }
+
+    /**
+     * Stable sort by epoch hour followed by a second dedup pass over the now adjacent duplicates.
+     */
+    static IsdSeries sort(IsdSeries series, int[] scores, DedupPolicy policy) {
+        long[] order = new long[series.size];
+        for (int i = 0; i < order.length; i++) order[i] = (long) series.epochHours[i] << 32 | i;
+        Arrays.sort(order);
+
+        Builder builder = new Builder(series.size);
+        HourlyDeduplicator deduplicator = new HourlyDeduplicator(policy);
+        for (long key : order) {
+            int row = (int) key;
+            switch (deduplicator.offer((int) (key >> 32), scores[row])) {
+                case APPEND:
+                    builder.add(series, row);
+                    break;
+                case REPLACE:
+                    builder.set(builder.size - 1, series, row);
+                    break;
+                default:
+                    break;
+            }
+        }
+
+        return builder.build();
+    }
+
+    public int size() {
+        return size;
+    }
+
+    /**
+     * @return hours since 1970-01-01T00:00 UTC of each row
+     */
+    public int[] epochHours() {
+        return epochHours;
+    }
+
+    public int getEpochHour(int row) {
+        return epochHours[row];
+    }
+
+    /**
+     * @return the field's values, {@link Double#NaN} where missing
+     */
+    public double[] values(Field field) {
+        return values[field.ordinal()];
+    }
+
+    public double[] airTemperatures() {
+        return values(Field.AIR_TEMPERATURE);
+    }
+
+    public double[] dewPointTemperatures() {
+        return values(Field.DEW_POINT_TEMPERATURE);
+    }
+
+    public double[] seaLevelPressures() {
+        return values(Field.SEA_LEVEL_PRESSURE);
+    }
+
+    public double[] windDirections() {
+        return values(Field.WIND_DIRECTION);
+    }
+
+    public double[] windSpeedRates() {
+        return values(Field.WIND_SPEED_RATE);
+    }
+
+    public double[] skyConditions() {
+        return values(Field.SKY_CONDITION);
+    }
+
+    public double[] precipitationDepthsOneHour() {
+        return values(Field.PRECIPITATION_DEPTH_ONE_HOUR);
+    }
+
+    public double[] precipitationDepthsSixHour() {
+        return values(Field.PRECIPITATION_DEPTH_SIX_HOUR);
+    }
+
+    /**
+     * @return the missing-value bitmap of the field: bit {@code row & 63} of word {@code row >>> 6}
+     */
+    public long[] missingMask(Field field) {
+        return missing[field.ordinal()];
+    }
+
+    public boolean isMissing(Field field, int row) {
+        return (missing[field.ordinal()][row >>> 6] & 1L << (row & 63)) != 0;
+    }
+
+    public int missingCount(Field field) {
+        int count = 0;
+        for (long word : missing[field.ordinal()]) count += Long.bitCount(word);
+
+        return count;
+    }
+
+    public IntegratedSurfaceData get(int row) {
+        if (row < 0 || row >= size) throw new IndexOutOfBoundsException("Row " + row + " of " + size);
+
+        IntegratedSurfaceData i = DataHelper.setEpochHour(new IntegratedSurfaceData(), epochHours[row]);
+        for (Field field : FIELDS) {
+            field.set(i, isMissing(field, row) ? null : values[field.ordinal()][row]);
+        }
+
+        return i;
+    }
+
+    /**
+     * @return a read-only view that creates the objects on access
+     */
+    public List<IntegratedSurfaceData> asList() {
+        return new AbstractList<IntegratedSurfaceData>() {
+            @Override
+            public IntegratedSurfaceData get(int index) {
+                return IsdSeries.this.get(index);
+            }
+
+            @Override
+            public int size() {
+                return size;
+            }
+        };
+    }
+
+    /**
+     * Appends rows to growable primitive arrays; {@link #build()} trims them to size.
+     */
+    public static class Builder {
+        private int size;
+        private int[] epochHours;
+        private double[][] values = new double[FIELDS.length][];
+        private long[][] missing = new long[FIELDS.length][];
+
+        public Builder() {
+            this(1024);
+        }
+
+        public Builder(int capacity) {
+            capacity = Math.max(capacity, 64);
+            epochHours = new int[capacity];
+            for (int f = 0; f < FIELDS.length; f++) {
+                values[f] = new double[capacity];
+                missing[f] = new long[(capacity + 63) >>> 6];
+            }
+        }
+
+        public int size() {
+            return size;
+        }
+
+        public Builder add(IntegratedSurfaceData i) {
+            int row = grow();
+            epochHours[row] = DataHelper.toEpochHour(i);
+            for (Field field : FIELDS) {
+                Double value = field.get(i);
+                set(field.ordinal(), row, value == null ? Double.NaN : value, value == null);
+            }
+
+            return this;
+        }
+
+        /**
+         * Appends the parser's current record.
+         */
+        public Builder add(IsdCsvParser parser) {
+            int row = grow();
+            epochHours[row] = parser.getEpochHour();
+            for (Field field : FIELDS) {
+                set(field.ordinal(), row, parser.getValue(field), parser.isMissing(field));
+            }
+
+            return this;
+        }
+
+        /**
+         * Overwrites an existing row with the parser's current record.
+         */
+        public Builder set(int row, IsdCsvParser parser) {
+            checkRow(row);
+            epochHours[row] = parser.getEpochHour();
+            for (Field field : FIELDS) {
+                replace(field.ordinal(), row, parser.getValue(field), parser.isMissing(field));
+            }
+
+            return this;
+        }
+
+        /**
+         * Appends a row copied from another series.
+         */
+        public Builder add(IsdSeries series, int row) {
+            return set(grow(), series, row);
+        }
+
+        /**
+         * Overwrites an existing row with a row copied from another series.
+         */
+        public Builder set(int row, IsdSeries series, int from) {
+            checkRow(row);
+            epochHours[row] = series.epochHours[from];
+            for (int f = 0; f < FIELDS.length; f++) {
+                replace(f, row, series.values[f][from], series.isMissing(FIELDS[f], from));
+            }
+
+            return this;
+        }
+
+        /**
+         * Appends a row from primitives.
+         *
+         * @param row values indexed by {@link Field#ordinal()}, {@link Double#NaN} for missing
+         */
+        public Builder add(int epochHour, double[] row) {
+            int r = grow();
+            epochHours[r] = epochHour;
+            for (int f = 0; f < FIELDS.length; f++) {
+                set(f, r, row[f], Double.isNaN(row[f]));
+            }
+
+            return this;
+        }
+
+        private void set(int field, int row, double value, boolean isMissing) {
+            values[field][row] = value;
+            if (isMissing) missing[field][row >>> 6] |= 1L << (row & 63);
+        }
+
+        private void replace(int field, int row, double value, boolean isMissing) {
+            missing[field][row >>> 6] &= ~(1L << (row & 63));
+            set(field, row, value, isMissing);
+        }
+
+        private void checkRow(int row) {
+            if (row < 0 || row >= size) throw new IndexOutOfBoundsException("Row " + row + ", size " + size);
+        }
+
+        private int grow() {
+            if (size == epochHours.length) {
+                int capacity = size + (size >> 1);
+                epochHours = Arrays.copyOf(epochHours, capacity);
+                for (int f = 0; f < FIELDS.length; f++) {
+                    values[f] = Arrays.copyOf(values[f], capacity);
+                    missing[f] = Arrays.copyOf(missing[f], (capacity + 63) >>> 6);
+                }
+            }
+
+            return size++;
+        }
+
+        public IsdSeries build() {
+            double[][] v = new double[FIELDS.length][];
+            long[][] m = new long[FIELDS.length][];
+            for (int f = 0; f < FIELDS.length; f++) {
+                v[f] = Arrays.copyOf(values[f], size);
+                m[f] = Arrays.copyOf(missing[f], (size + 63) >>> 6);
+            }
+
+            return new IsdSeries(size, Arrays.copyOf(epochHours, size), v, m);
+        }
+    }
+}
@@ -0,0 +1,106 @@
+/*
+ * ________________________________________________________________________
+ * METRO.IO CONFIDENTIAL
+ * ________________________________________________________________________
+ *
+ * Copyright (c) 2018.
+ * Metro Labs Incorporated
+ * All Rights Reserved.
+ *
+ * NOTICE: All information contained herein is, and remains
+ * the property of Metro Labs Incorporated and its suppliers,
+ * if any. The intellectual and technical concepts contained
+ * herein are proprietary to Metro Labs Incorporated
+ * and its suppliers and may be covered by U.S. and Foreign Patents,
+ * patents in process, and are protected by trade secret or copyright law.
+ * Dissemination of this information or reproduction of this material
+ * is strictly forbidden unless prior written permission is obtained
+ * from Metro Labs Incorporated.
+ */
+
+package org.noaa;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Counts the bytes and the time spent blocked in {@code read} so that parse time can be told apart from
+ * I/O. A download is reported to the {@link NoaaMetrics} once, at the end of the stream or on close.
+ * Only used when metrics are enabled.
+ */
+class MeteredInputStream extends FilterInputStream {
+    private final StationYear key;
+    private final NoaaMetrics metrics;
+    private final long started;
+    private final boolean download;
+    private long bytes;
+    private long readNanos;
+    private boolean reported;
+
+    /**
+     * @param started {@link System#nanoTime()} when the request was sent
+     * @param download whether the stream is a response body to report, as opposed to a cached file
+     */
+    MeteredInputStream(InputStream in, StationYear key, NoaaMetrics metrics, long started, boolean download) {
+        super(in);
+        this.key = key;
+        this.metrics = metrics;
+        this.started = started;
+        this.download = download;
+    }
+
+    long getBytes() {
+        return bytes;
+    }
+
+    long getReadNanos() {
+        return readNanos;
+    }
+
+    @Override
+    public int read() throws IOException {
+        long start = System.nanoTime();
+        int b = super.read();
+        readNanos += System.nanoTime() - start;
+        if (b < 0) report();
+        else bytes++;
+
+        return b;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        long start = System.nanoTime();
+        int n = super.read(b, off, len);
+        readNanos += System.nanoTime() - start;
+        if (n < 0) report();
+        else bytes += n;
+
+        return n;
+    }
+
+    @Override
+    public long skip(long n) throws IOException {
+        long skipped = super.skip(n);
+        bytes += skipped;
+        return skipped;
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            super.close();
+        }
+        finally {
+            report();
+        }
+    }
+
+    private void report() {
+        if (reported || !download) return;
+
+        reported = true;
+        metrics.downloaded(key, bytes, System.nanoTime() - started);
+    }
+}
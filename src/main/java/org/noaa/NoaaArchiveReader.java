@@ -0,0 +1,360 @@
+/*
+ * ________________________________________________________________________
+ * METRO.IO CONFIDENTIAL
+ * ________________________________________________________________________
+ *
+ * Copyright (c) 2018.
+ * Metro Labs Incorporated
+ * All Rights Reserved.
+ *
+ * NOTICE: All information contained herein is, and remains
+ * the property of Metro Labs Incorporated and its suppliers,
+ * if any. The intellectual and technical concepts contained
+ * herein are proprietary to Metro Labs Incorporated
+ * and its suppliers and may be covered by U.S. and Foreign Patents,
+ * patents in process, and are protected by trade secret or copyright law.
+ * Dissemination of this information or reproduction of this material
+ * is strictly forbidden unless prior written permission is obtained
+ * from Metro Labs Incorporated.
+ */
+
+package org.noaa;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * Streams the station files out of a NOAA yearly bundle ({@code <year>.tar.gz} from the global-hourly archive)
+ * without unpacking it to disk.
+ *
+ * The bundle may be plain tar, gzip or zstd, see {@link NoaaCompression}. Entries are read in archive order
+ * straight from the decompressed stream; each {@code .csv} entry is exposed as a bounded stream or an
+ * {@link IntegratedSurfaceDataReader} that is only valid until {@link #next()} moves on. The tar reader handles
+ * ustar prefixes, GNU long names and pax path records, and verifies every header checksum.
+ *
+ * <pre>
+ * try (NoaaArchiveReader archive = client.openArchive(Paths.get("2018.tar.gz"))) {
+ *     while (archive.next()) {
+ *         String station = archive.getStation();
+ *         try (IntegratedSurfaceDataReader reader = archive.getReader()) {
+ *             ...
+ *         }
+ *     }
+ * }
+ * </pre>
+ */
+public class NoaaArchiveReader implements Closeable {
+    private static final int BLOCK = 512;
+
+    private final InputStream in;
+    private final DedupPolicy dedupPolicy;
+    private final ErrorPolicy errorPolicy;
+    private final byte[] header = new byte[BLOCK];
+    private String name;
+    private long size;
+    private long remaining;
+    private long padding;
+    private EntryStream current;
+    private boolean finished;
+
+    public NoaaArchiveReader(InputStream in) throws IOException {
+        this(in, DedupPolicy.FIRST_WINS, ErrorPolicy.FAIL_FAST);
+    }
+
+    /**
+     * @param in the bundle, compressed or not; closed with the archive
+     * @param dedupPolicy passed on to the readers of the entries
+     * @param errorPolicy passed on to the readers of the entries
+     */
+    public NoaaArchiveReader(InputStream in, DedupPolicy dedupPolicy, ErrorPolicy errorPolicy) throws IOException {
+        this.in = NoaaCompression.decompress(in);
+        this.dedupPolicy = dedupPolicy;
+        this.errorPolicy = errorPolicy;
+    }
+
+    public static NoaaArchiveReader open(Path bundle) throws IOException {
+        return open(bundle, DedupPolicy.FIRST_WINS, ErrorPolicy.FAIL_FAST);
+    }
+
+    public static NoaaArchiveReader open(Path bundle, DedupPolicy dedupPolicy, ErrorPolicy errorPolicy) throws IOException {
+        InputStream in = Files.newInputStream(bundle);
+        try {
+            return new NoaaArchiveReader(in, dedupPolicy, errorPolicy);
+        }
+        catch (IOException | RuntimeException e) {
+            in.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Skips the rest of the current entry and moves to the next station file.
+     *
+     * @return false at the end of the archive
+     */
+    public boolean next() throws IOException {
+        if (current != null) current.detach();
+        current = null;
+        skip(remaining + padding);
+        remaining = padding = 0;
+
+        String longName = null;
+        while (!finished) {
+            if (!readBlock(header)) {
+                finished = true;
+                break;
+            }
+            if (isZero(header)) {
+                finished = true;
+                break;
+            }
+            checkChecksum();
+
+            long length = number(124, 12);
+            long pad = (BLOCK - length % BLOCK) % BLOCK;
+            byte type = header[156];
+            if (type == 'L' || type == 'x') {
+                String extended = readString(length);
+                skip(pad);
+                longName = type == 'L' ? trimNul(extended) : paxPath(extended, longName);
+                continue;
+            }
+
+            String entry = longName != null ? longName : headerName();
+            longName = null;
+            if ((type == '0' || type == 0 || type == '7') && entry.endsWith(".csv")) {
+                name = entry;
+                size = remaining = length;
+                padding = pad;
+                return true;
+            }
+            skip(length + pad);
+        }
+
+        name = null;
+        size = 0;
+        return false;
+    }
+
+    /**
+     * @return the path of the current entry inside the archive
+     */
+    public String getName() {
+        checkEntry();
+        return name;
+    }
+
+    /**
+     * @return the uncompressed size of the current entry in bytes
+     */
+    public long getSize() {
+        checkEntry();
+        return size;
+    }
+
+    /**
+     * @return the station of the current entry as {@code USAF-WBAN}, as in {@link NoaaStationRegistry}, when the
+     * file is named by its 11 digit id; otherwise the file name without {@code .csv}
+     */
+    public String getStation() {
+        String file = getName().substring(name.lastIndexOf('/') + 1);
+        String id = file.substring(0, file.length() - ".csv".length());
+        return id.length() == 11 && id.chars().allMatch(Character::isDigit) ? id.substring(0, 6) + "-" + id.substring(6) : id;
+    }
+
+    /**
+     * @return the bytes of the current entry; closing the stream does not close the archive
+     */
+    public InputStream getStream() {
+        checkEntry();
+        if (current == null) current = new EntryStream();
+        return current;
+    }
+
+    /**
+     * @return a reader over the current entry with the archive's policies
+     */
+    public IntegratedSurfaceDataReader getReader() throws IOException {
+        return new IntegratedSurfaceDataReader(getStream(), dedupPolicy).setErrorPolicy(errorPolicy);
+    }
+
+    private void checkEntry() {
+        if (name == null) throw new IllegalStateException("No current entry, call next() first");
+    }
+
+    private String headerName() {
+        String file = text(0, 100);
+        boolean ustar = header[257] == 'u' && header[258] == 's' && header[259] == 't' && header[260] == 'a' && header[261] == 'r';
+        String prefix = ustar ? text(345, 155) : "";
+        return prefix.isEmpty() ? file : prefix + "/" + file;
+    }
+
+    private String text(int offset, int length) {
+        int end = offset;
+        while (end < offset + length && header[end] != 0) end++;
+        return new String(header, offset, end - offset, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Octal, NUL or space terminated, or big-endian binary when the high bit of the first byte is set.
+     */
+    private long number(int offset, int length) throws IOException {
+        if ((header[offset] & 0x80) != 0) {
+            long value = header[offset] & 0x7f;
+            for (int i = offset + 1; i < offset + length; i++) value = value << 8 | (header[i] & 0xff);
+            return value;
+        }
+
+        long value = 0;
+        int i = offset;
+        while (i < offset + length && header[i] == ' ') i++;
+        for (; i < offset + length && header[i] != 0 && header[i] != ' '; i++) {
+            int digit = header[i] - '0';
+            if (digit < 0 || digit > 7) throw new IOException("Corrupt tar header: bad number in " + text(0, 100));
+            value = value << 3 | digit;
+        }
+
+        return value;
+    }
+
+    private void checkChecksum() throws IOException {
+        long expected = number(148, 8);
+        long sum = 0;
+        for (int i = 0; i < BLOCK; i++) sum += i >= 148 && i < 156 ? ' ' : header[i] & 0xff;
+        if (sum != expected) throw new IOException("Corrupt tar header checksum for " + text(0, 100));
+    }
+
+    private static boolean isZero(byte[] block) {
+        for (byte b : block) {
+            if (b != 0) return false;
+        }
+
+        return true;
+    }
+
+    /**
+     * @return the {@code path} record of pax extended headers, or the previous name when there is none
+     */
+    private static String paxPath(String records, String previous) {
+        int i = 0;
+        while (i < records.length()) {
+            int space = records.indexOf(' ', i);
+            if (space < 0) break;
+
+            int length = Integer.parseInt(records.substring(i, space));
+            String record = records.substring(space + 1, Math.min(records.length(), i + length - 1));
+            if (record.startsWith("path=")) return record.substring("path=".length());
+            i += length;
+        }
+
+        return previous;
+    }
+
+    private static String trimNul(String value) {
+        int nul = value.indexOf(0);
+        return nul < 0 ? value : value.substring(0, nul);
+    }
+
+    private String readString(long length) throws IOException {
+        if (length > 1 << 20) throw new IOException("Tar extended header too large: " + length);
+
+        byte[] bytes = new byte[(int) length];
+        readFully(bytes, 0, bytes.length);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private boolean readBlock(byte[] block) throws IOException {
+        int n = 0;
+        while (n < block.length) {
+            int read = in.read(block, n, block.length - n);
+            if (read < 0) {
+                if (n == 0) return false;
+                throw new EOFException("Truncated tar header");
+            }
+            n += read;
+        }
+
+        return true;
+    }
+
+    private void readFully(byte[] bytes, int offset, int length) throws IOException {
+        while (length > 0) {
+            int read = in.read(bytes, offset, length);
+            if (read < 0) throw new EOFException("Truncated tar entry");
+            offset += read;
+            length -= read;
+        }
+    }
+
+    private void skip(long count) throws IOException {
+        byte[] scratch = null;
+        while (count > 0) {
+            long skipped = in.skip(count);
+            if (skipped <= 0) {
+                if (scratch == null) scratch = new byte[8192];
+                int read = in.read(scratch, 0, (int) Math.min(scratch.length, count));
+                if (read < 0) throw new EOFException("Truncated tar entry");
+                skipped = read;
+            }
+            count -= skipped;
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        in.close();
+    }
+
+    /**
+     * The current entry's bytes, cut off at its size.
+     */
+    private class EntryStream extends InputStream {
+        private boolean detached;
+
+        void detach() {
+            detached = true;
+        }
+
+        @Override
+        public int read() throws IOException {
+            byte[] one = new byte[1];
+            return read(one, 0, 1) < 0 ? -1 : one[0] & 0xff;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (detached) throw new IOException("Archive has moved past " + name);
+            if (remaining == 0) return -1;
+            if (len == 0) return 0;
+
+            int n = in.read(b, off, (int) Math.min(len, remaining));
+            if (n < 0) throw new EOFException("Truncated tar entry " + name);
+            remaining -= n;
+            return n;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            if (detached) throw new IOException("Archive has moved past " + name);
+
+            long skipped = in.skip(Math.min(n, remaining));
+            remaining -= skipped;
+            return skipped;
+        }
+
+        @Override
+        public int available() throws IOException {
+            return detached ? 0 : (int) Math.min(in.available(), remaining);
+        }
+
+        @Override
+        public void close() {
+            // the archive owns the stream
+        }
+    }
+}
@@ -0,0 +1,325 @@
+/*
+ * ________________________________________________________________________
+ * METRO.IO CONFIDENTIAL
+ * ________________________________________________________________________
+ *
+ * Copyright (c) 2018.
+ * Metro Labs Incorporated
+ * All Rights Reserved.
+ *
+ * NOTICE: All information contained herein is, and remains
+ * the property of Metro Labs Incorporated and its suppliers,
+ * if any. The intellectual and technical concepts contained
+ * herein are proprietary to Metro Labs Incorporated
+ * and its suppliers and may be covered by U.S. and Foreign Patents,
+ * patents in process, and are protected by trade secret or copyright law.
+ * Dissemination of this information or reproduction of this material
+ * is strictly forbidden unless prior written permission is obtained
+ * from Metro Labs Incorporated.
+ */
+
+package org.noaa;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * Fetches many station-years concurrently and hands the results back in completion order.
+ *
+ * <ul>
+ * <li>Downloads run on the configured {@link ExecutorService}, or on a private pool sized to
+ * {@code maxInFlight} that is shut down with the results.</li>
+ * <li>No more than {@code maxConcurrentPerHost} downloads hit the same host at once.</li>
+ * <li>At most {@code maxInFlight} requests are running or waiting to be consumed. New requests are only
+ * submitted as the caller takes results, so a slow consumer throttles the downloads instead of
+ * piling parsed station-years up in memory.</li>
+ * <li>Each request gets {@code taskTimeout} from the moment it acquires its host permit, after which it
+ * fails with a {@link TimeoutException}. Retries by the client's {@link RetryPolicy} stop at the same time.</li>
+ * <li>A failed request is reported as a {@link Result} carrying its error; it never stops the others.</li>
+ * </ul>
+ *
+ * <pre>
+ * try (NoaaBulkFetch.Results results = client.bulk().setMaxInFlight(16).start(requests)) {
+ *     while (results.hasNext()) {
+ *         NoaaBulkFetch.Result r = results.next();
+ *         ...
+ *     }
+ * }
+ * </pre>
+ */
+public class NoaaBulkFetch {
+    private static Logger LOG = LoggerFactory.getLogger(NoaaBulkFetch.class);
+
+    private final NoaaClient client;
+    private final ConcurrentMap<String, Semaphore> hostPermits = new ConcurrentHashMap<>();
+    private ExecutorService executor;
+    private int maxConcurrentPerHost = 4;
+    private int maxInFlight = 16;
+    private long taskTimeout = TimeUnit.MINUTES.toMillis(5);
+
+    public NoaaBulkFetch(NoaaClient client) {
+        this.client = client;
+    }
+
+    public ExecutorService getExecutor() {
+        return executor;
+    }
+
+    /**
+     * @param executor runs the downloads; it is not shut down by the fetch
+     */
+    public NoaaBulkFetch setExecutor(ExecutorService executor) {
+        this.executor = executor;
+        return this;
+    }
+
+    public int getMaxConcurrentPerHost() {
+        return maxConcurrentPerHost;
+    }
+
+    public NoaaBulkFetch setMaxConcurrentPerHost(int maxConcurrentPerHost) {
+        if (maxConcurrentPerHost < 1) throw new IllegalArgumentException("maxConcurrentPerHost must be positive");
+
+        this.maxConcurrentPerHost = maxConcurrentPerHost;
+        return this;
+    }
+
+    public int getMaxInFlight() {
+        return maxInFlight;
+    }
+
+    public NoaaBulkFetch setMaxInFlight(int maxInFlight) {
+        if (maxInFlight < 1) throw new IllegalArgumentException("maxInFlight must be positive");
+
+        this.maxInFlight = maxInFlight;
+        return this;
+    }
+
+    public long getTaskTimeout() {
+        return taskTimeout;
+    }
+
+    public NoaaBulkFetch setTaskTimeout(long taskTimeout, TimeUnit unit) {
+        this.taskTimeout = unit.toMillis(taskTimeout);
+        return this;
+    }
+
+    /**
+     * Starts fetching. Requests are read lazily from the collection's iterator.
+     */
+    public Results start(Collection<StationYear> requests) {
+        return new Results(requests.iterator());
+    }
+
+    private Result fetch(StationYear request) {
+        long started = System.currentTimeMillis();
+        Semaphore permits = null;
+        try {
+            String host = client.toUrl(request.getYear(), request.getStation()).getHost();
+            permits = hostPermits.computeIfAbsent(host, h -> new Semaphore(maxConcurrentPerHost, true));
+            permits.acquire();
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return new Result(request, null, e, System.currentTimeMillis() - started);
+        }
+        catch (Exception e) {
+            LOG.debug("Failed to fetch {}", request, e);
+            return new Result(request, null, e, System.currentTimeMillis() - started);
+        }
+
+        try {
+            return fetch(client, request, System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(taskTimeout), started);
+        }
+        finally {
+            permits.release();
+        }
+    }
+
+    /**
+     * Downloads and parses a station-year, stopping with a {@link TimeoutException} once the deadline has
+     * passed and with an {@link InterruptedException} once the thread is interrupted. Shared with
+     * {@link NoaaFanOut}.
+     *
+     * @param deadlineNanos a {@link System#nanoTime()} value
+     * @param started when the request started, in epoch milliseconds, for {@link Result#getElapsed()}
+     * @return the result, carrying the error when the request failed
+     */
+    static Result fetch(NoaaClient client, StationYear request, long deadlineNanos, long started) {
+        try {
+            long timeout = TimeUnit.NANOSECONDS.toMillis(deadlineNanos - System.nanoTime());
+            if (timeout <= 0) throw new TimeoutException(request + " did not start before the deadline");
+
+            List<IntegratedSurfaceData> collection = new ArrayList<>();
+            try (IntegratedSurfaceDataReader reader = client.open(request.getYear(), request.getStation(),
+                    (int) Math.min(timeout, Integer.MAX_VALUE))) {
+                while (reader.hasNext()) {
+                    if (Thread.currentThread().isInterrupted()) throw new InterruptedException();
+                    if (System.nanoTime() - deadlineNanos > 0) {
+                        throw new TimeoutException(String.format("%s did not finish within %d ms", request, timeout));
+                    }
+
+                    collection.add(reader.next());
+                }
+            }
+
+            return new Result(request, HourlyDeduplicator.dedup(collection, client.getDedupPolicy()), null,
+                    System.currentTimeMillis() - started);
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return new Result(request, null, e, System.currentTimeMillis() - started);
+        }
+        catch (Exception e) {
+            LOG.debug("Failed to fetch {}", request, e);
+            return new Result(request, null, e, System.currentTimeMillis() - started);
+        }
+    }
+
+    /**
+     * Waits for a task running {@link #fetch(NoaaClient, StationYear, long, long)}.
+     */
+    static Result get(Future<Result> future) throws InterruptedException {
+        try {
+            return future.get();
+        }
+        catch (ExecutionException e) {
+            // fetch() reports its own failures, so this is a bug rather than a download error
+            throw new IllegalStateException(e.getCause());
+        }
+    }
+
+    /**
+     * The outcome of one request: either the parsed observations or the error that stopped it.
+     */
+    public static class Result {
+        private final StationYear request;
+        private final List<IntegratedSurfaceData> data;
+        private final Throwable error;
+        private final long elapsed;
+
+        Result(StationYear request, List<IntegratedSurfaceData> data, Throwable error, long elapsed) {
+            this.request = request;
+            this.data = data;
+            this.error = error;
+            this.elapsed = elapsed;
+        }
+
+        public StationYear getRequest() {
+            return request;
+        }
+
+        public boolean isSuccess() {
+            return error == null;
+        }
+
+        /**
+         * @return the observations, or null when the request failed
+         */
+        public List<IntegratedSurfaceData> getData() {
+            return data;
+        }
+
+        /**
+         * @return the failure, or null when the request succeeded
+         */
+        public Throwable getError() {
+            return error;
+        }
+
+        /**
+         * @return wall time in milliseconds, including time spent waiting for a host permit
+         */
+        public long getElapsed() {
+            return elapsed;
+        }
+
+        @Override
+        public String toString() {
+            return "Result{" +
+                    "request=" + request +
+                    ", success=" + isSuccess() +
+                    ", size=" + (data == null ? 0 : data.size()) +
+                    ", error=" + error +
+                    ", elapsed=" + elapsed +
+                    '}';
+        }
+    }
+
+    /**
+     * Results in completion order. Closing cancels whatever has not finished yet.
+     */
+    public class Results implements Iterator<Result>, Closeable {
+        private final Iterator<StationYear> pending;
+        private final ExecutorService pool;
+        private final boolean ownsPool;
+        private final CompletionService<Result> completions;
+        private final Set<Future<Result>> running = new HashSet<>();
+        private int succeeded;
+        private int failed;
+
+        Results(Iterator<StationYear> pending) {
+            this.pending = pending;
+            this.ownsPool = executor == null;
+            this.pool = ownsPool ? Executors.newFixedThreadPool(maxInFlight) : executor;
+            this.completions = new ExecutorCompletionService<>(pool);
+            fill();
+        }
+
+        private void fill() {
+            while (running.size() < maxInFlight && pending.hasNext()) {
+                StationYear request = pending.next();
+                running.add(completions.submit(() -> fetch(request)));
+            }
+        }
+
+        @Override
+        public boolean hasNext() {
+            return !running.isEmpty();
+        }
+
+        /**
+         * Blocks until the next request finishes.
+         */
+        @Override
+        public Result next() {
+            if (!hasNext()) throw new NoSuchElementException();
+
+            try {
+                Future<Result> future = completions.take();
+                running.remove(future);
+                fill();
+
+                Result result = get(future);
+                if (result.isSuccess()) succeeded++;
+                else failed++;
+
+                return result;
+            }
+            catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new CancellationException("Interrupted waiting for bulk fetch results");
+            }
+        }
+
+        public int getSucceeded() {
+            return succeeded;
+        }
+
+        public int getFailed() {
+            return failed;
+        }
+
+        @Override
+        public void close() {
+            for (Future<Result> future : running) future.cancel(true);
+            running.clear();
+            if (ownsPool) pool.shutdownNow();
+        }
+    }
+}
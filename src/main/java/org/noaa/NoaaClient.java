@@ -20,35 +20,69 @@
 
 package org.noaa;
 
-import org.apache.commons.csv.CSVFormat;
-import org.apache.commons.csv.CSVRecord;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.InputStreamReader;
-import java.io.Reader;
+import java.io.UncheckedIOException;
+import java.net.HttpURLConnection;
 import java.net.URL;
+import java.nio.file.Path;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
 
 public class NoaaClient {
     private static Logger LOG = LoggerFactory.getLogger(NoaaClient.class);
     public static final String BASE_URL = "https://www.ncei.noaa.gov/data/global-hourly/access/";
     public static final String DATA_SOURCE = "NOAA_ISD_LITE";
+    private static final NoaaClient DEFAULT = new NoaaClient()
+            .setErrorPolicy(ErrorPolicy.SKIP_ROW)
+            .setRetryPolicy(RetryPolicy.exponential(3, 1, 30, TimeUnit.SECONDS));
 
-    public static  Collection<IntegratedSurfaceData> getIntegratedSurfaceData(int year, String station) {
-        Map<String, IntegratedSurfaceData> collection = new LinkedHashMap<>();
-        try (final Reader reader = new InputStreamReader(downloadNoaaData(year, station))) {
-            Iterable<CSVRecord> records = CSVFormat.DEFAULT.withFirstRecordAsHeader().parse(reader);
-            for (CSVRecord record : records) {
-                IntegratedSurfaceData i = new IntegratedSurfaceData(record);
+    private final String baseUrl;
+    private int connectTimeout;
+    private int readTimeout;
+    private NoaaFileCache cache;
+    private NoaaTransport transport = new UrlConnectionTransport();
+    private DedupPolicy dedupPolicy = DedupPolicy.FIRST_WINS;
+    private NoaaMetrics metrics = NoaaMetrics.NOOP;
+    private ErrorPolicy errorPolicy = ErrorPolicy.FAIL_FAST;
+    private int maxErrors = 100;
+    private RetryPolicy retryPolicy = RetryPolicy.none();
+    private Executor executor;
 
-                String key = String.format("%d%d%d%d",
-                        i.getObservationYear(),i.getObservationMonth(),
-                        i.getObservationDay(), i.getObservationHour());
+    public NoaaClient() {
+        this(BASE_URL);
+    }
 
-                if(!collection.containsKey(key)) collection.put(key, i);
+    /**
+     * @param baseUrl root of a global-hourly archive laid out as {@code <baseUrl>/<year>/<station>.csv}
+     */
+    public NoaaClient(String baseUrl) {
+        this.baseUrl = baseUrl.endsWith("/") ? baseUrl : baseUrl + "/";
+    }
+
+    /**
+     * Downloads and parses a station-year into one observation per hour, sorted by time.
+     * Rows that cannot be decoded are skipped and logged, transient network failures are retried and a
+     * dropped download resumes where it stopped. Any other error is logged and whatever was parsed before
+     * the failure is returned; use {@link #loadResult} to see the errors.
+     */
+    public static  Collection<IntegratedSurfaceData> getIntegratedSurfaceData(int year, String station) {
+        List<IntegratedSurfaceData> collection = new ArrayList<>();
+        try (IntegratedSurfaceDataReader reader = DEFAULT.open(year, station)) {
+            reader.forEachRemaining(collection::add);
+            if (reader.getErrorCount() > 0) {
+                LOG.warn("Skipped {} bad rows of {} {} {}, first: {}", reader.getRejectedCount(), DATA_SOURCE, station, year,
+                        reader.getErrors().get(0));
             }
         }
         catch (Exception e) {
@@ -56,15 +90,520 @@ public class NoaaClient {
             LOG.error(e.getMessage(), e);
         }
 
-        return collection.values();
+        return HourlyDeduplicator.dedup(collection, DEFAULT.dedupPolicy);
+    }
+
+    /**
+     * Opens a station-year as a reader that parses rows as they arrive from the network.
+     * The caller must close the reader.
+     */
+    public static IntegratedSurfaceDataReader openIntegratedSurfaceData(int year, String station) throws IOException {
+        return DEFAULT.open(year, station);
+    }
+
+    /**
+     * Same as {@link #openIntegratedSurfaceData(int, String)} exposed as a {@link Stream}.
+     * The stream must be closed, e.g. with try-with-resources.
+     */
+    public static Stream<IntegratedSurfaceData> streamIntegratedSurfaceData(int year, String station) throws IOException {
+        return DEFAULT.open(year, station).stream();
+    }
+
+    /**
+     * Starts a bulk fetch of many station-years with the default client. See {@link NoaaBulkFetch}.
+     */
+    public static NoaaBulkFetch.Results getIntegratedSurfaceData(Collection<StationYear> requests) {
+        return DEFAULT.bulk().start(requests);
+    }
+
+    /**
+     * Opens a station-year as a reader. The caller must close the reader.
+     */
+    public IntegratedSurfaceDataReader open(int year, String station) throws IOException {
+        return open(year, station, 0);
+    }
+
+    /**
+     * @param timeout caps the connect and read timeouts in milliseconds, 0 keeps the client's own
+     */
+    IntegratedSurfaceDataReader open(int year, String station, int timeout) throws IOException {
+        InputStream in = downloadNoaaData(year, station, timeout);
+        try {
+            return new IntegratedSurfaceDataReader(in, dedupPolicy, StationYear.of(station, year), metrics)
+                    .setErrorPolicy(errorPolicy)
+                    .setMaxErrors(maxErrors);
+        }
+        catch (IOException | RuntimeException e) {
+            in.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Downloads and parses a station-year into one observation per hour, sorted by time, propagating any
+     * failure to the caller.
+     */
+    public List<IntegratedSurfaceData> load(int year, String station) throws IOException {
+        List<IntegratedSurfaceData> collection = new ArrayList<>();
+        try (IntegratedSurfaceDataReader reader = open(year, station)) {
+            reader.forEachRemaining(collection::add);
+        }
+
+        return HourlyDeduplicator.dedup(collection, dedupPolicy);
+    }
+
+    /**
+     * Same as {@link #load} returning the rows that could not be decoded alongside the data. With
+     * {@link ErrorPolicy#FAIL_FAST} the first bad row still throws an {@link IsdParseException}.
+     */
+    public IsdParseResult<List<IntegratedSurfaceData>> loadResult(int year, String station) throws IOException {
+        List<IntegratedSurfaceData> collection = new ArrayList<>();
+        try (IntegratedSurfaceDataReader reader = open(year, station)) {
+            reader.forEachRemaining(collection::add);
+            return new IsdParseResult<>(HourlyDeduplicator.dedup(collection, dedupPolicy), reader.getErrors(),
+                    reader.getErrorCount(), reader.getRowCount(), reader.getRejectedCount());
+        }
+    }
+
+    /**
+     * Downloads a station-year without blocking the calling thread and hands each hour's observation
+     * to the action as the body is parsed. With {@link AsyncHttpTransport} the action runs on an I/O thread
+     * and must not block. With a {@link #setCache(NoaaFileCache) cache} the load goes through the cache
+     * on the client's {@link #setExecutor(Executor) executor} instead.
+     */
+    public CompletableFuture<Void> forEachAsync(int year, String station, Consumer<IntegratedSurfaceData> action) {
+        if (cache != null) {
+            return CompletableFuture.runAsync(() -> {
+                try (IntegratedSurfaceDataReader reader = open(year, station)) {
+                    reader.forEachRemaining(action);
+                }
+                catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            }, getExecutor());
+        }
+
+        NoaaRequest request;
+        try {
+            request = request(year, station, 0);
+        }
+        catch (IOException e) {
+            CompletableFuture<Void> failed = new CompletableFuture<>();
+            failed.completeExceptionally(e);
+            return failed;
+        }
+        LOG.debug("Getting: {}", request.getUrl());
+        return transport.executeAsync(request, new IntegratedSurfaceDataConsumer(request, dedupPolicy, errorPolicy, action)
+                .setMaxErrors(maxErrors)
+                .setMetrics(StationYear.of(station, year), metrics));
+    }
+
+    /**
+     * Same as {@link #forEachAsync} collecting the observations into a list.
+     */
+    public CompletableFuture<List<IntegratedSurfaceData>> loadAsync(int year, String station) {
+        List<IntegratedSurfaceData> collection = new ArrayList<>();
+        return forEachAsync(year, station, collection::add).thenApply(v -> HourlyDeduplicator.dedup(collection, dedupPolicy));
+    }
+
+    /**
+     * Opens a local station file, plain, gzip or zstd, as a reader with the client's policies. The caller must
+     * close the reader.
+     */
+    public IntegratedSurfaceDataReader openFile(Path file) throws IOException {
+        InputStream in = NoaaCompression.open(file);
+        try {
+            return new IntegratedSurfaceDataReader(in, dedupPolicy)
+                    .setErrorPolicy(errorPolicy)
+                    .setMaxErrors(maxErrors);
+        }
+        catch (IOException | RuntimeException e) {
+            in.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Opens a yearly bundle of the global-hourly archive, e.g. {@code 2018.tar.gz}, to stream its station files
+     * without unpacking it. The caller must close the archive.
+     */
+    public NoaaArchiveReader openArchive(Path bundle) throws IOException {
+        return NoaaArchiveReader.open(bundle, dedupPolicy, errorPolicy);
+    }
+
+    /**
+     * Downloads and parses a station-year into primitive columns without creating an object per hour.
+     */
+    public IsdSeries loadSeries(int year, String station) throws IOException {
+        return IsdSeries.read(downloadNoaaData(year, station, 0), dedupPolicy, errorPolicy, maxErrors, IsdQuery.all(),
+                StationYear.of(station, year), metrics);
+    }
+
+    /**
+     * Opens a station-year as a reader that only decodes the query's window and fields and ends once the
+     * window has passed. The caller must close the reader.
+     */
+    public IntegratedSurfaceDataReader open(int year, String station, IsdQuery query) throws IOException {
+        IntegratedSurfaceDataReader reader = open(year, station, 0);
+        try {
+            return reader.setQuery(query);
+        }
+        catch (RuntimeException e) {
+            reader.close();
+            throw e;
+        }
     }
 
+    /**
+     * Loads the hours of a station inside the query's window, reading each station-year the window touches
+     * only up to the end of the window. Fields the query does not select are missing.
+     *
+     * @throws IllegalArgumentException when the query has no time window
+     */
+    public IsdSeries query(String station, IsdQuery query) throws IOException {
+        if (!query.isBounded()) throw new IllegalArgumentException("Query needs a time window: " + query);
 
-    private static InputStream downloadNoaaData(int year, String station) throws IOException {
+        List<IsdSeries> years = new ArrayList<>();
+        int size = 0;
+        for (int year = query.getFirstYear(); year <= query.getLastYear(); year++) {
+            IsdSeries series = IsdSeries.read(downloadNoaaData(year, station, 0), dedupPolicy, errorPolicy, maxErrors,
+                    query, StationYear.of(station, year), metrics);
+            years.add(series);
+            size += series.size();
+        }
+        if (years.size() == 1) return years.get(0);
+
+        IsdSeries.Builder builder = new IsdSeries.Builder(size);
+        for (IsdSeries series : years) {
+            for (int row = 0; row < series.size(); row++) builder.add(series, row);
+        }
+        return builder.build();
+    }
+
+    /**
+     * Same as {@link #loadSeries} but parses on all cores with an {@link IsdParallelParser} once the
+     * file is in memory. Worth it for large files, especially ones already in the {@link #setCache cache}.
+     */
+    public IsdSeries loadSeriesParallel(int year, String station) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(1024 * 1024);
+        try (InputStream in = downloadNoaaData(year, station, 0)) {
+            byte[] buffer = new byte[64 * 1024];
+            for (int n; (n = in.read(buffer)) != -1; ) bytes.write(buffer, 0, n);
+        }
+
+        return new IsdParallelParser(dedupPolicy).setMetrics(metrics).setErrorPolicy(errorPolicy).setMaxErrors(maxErrors)
+                .parse(bytes.toByteArray(), StationYear.of(station, year));
+    }
+
+    /**
+     * Downloads a station-year onto a dense hourly grid with its gaps filled by the policy.
+     */
+    public IsdHourlyGrid loadGrid(int year, String station, GapFillPolicy policy) throws IOException {
+        return new IsdGapFiller(policy).fill(loadSeries(year, station), year);
+    }
+
+    /**
+     * @return an incremental sync that keeps its state in memory
+     */
+    public NoaaSync sync() {
+        return new NoaaSync(this, null);
+    }
+
+    /**
+     * @param stateDir where the sync persists its progress so polling resumes after a restart
+     * @return an incremental sync bound to this client
+     */
+    public NoaaSync sync(Path stateDir) {
+        return new NoaaSync(this, stateDir);
+    }
+
+    /**
+     * @param maxBytes estimated heap the cache may hold
+     * @return a new in-memory cache of parsed station-years loaded through this client
+     */
+    public NoaaMemoryCache<List<IntegratedSurfaceData>> memoryCache(long maxBytes) {
+        return NoaaMemoryCache.observations(this, maxBytes);
+    }
+
+    /**
+     * @return a new fan-out bound to this client, running each load on a virtual thread where available
+     */
+    public NoaaFanOut fanOut() {
+        return new NoaaFanOut(this);
+    }
+
+    /**
+     * @return a new blender estimating weather at arbitrary points from the registry's stations loaded by this client
+     */
+    public IsdBlender blender(NoaaStationRegistry registry) {
+        return new IsdBlender(this, registry);
+    }
+
+    /**
+     * @return a new bulk fetch bound to this client, configured with its defaults
+     */
+    public NoaaBulkFetch bulk() {
+        return new NoaaBulkFetch(this);
+    }
+
+    public String getBaseUrl() {
+        return baseUrl;
+    }
+
+    public int getConnectTimeout() {
+        return connectTimeout;
+    }
+
+    /**
+     * @param connectTimeout in milliseconds, 0 waits forever
+     */
+    public NoaaClient setConnectTimeout(int connectTimeout) {
+        this.connectTimeout = connectTimeout;
+        return this;
+    }
+
+    public int getReadTimeout() {
+        return readTimeout;
+    }
+
+    /**
+     * @param readTimeout in milliseconds, 0 waits forever
+     */
+    public NoaaClient setReadTimeout(int readTimeout) {
+        this.readTimeout = readTimeout;
+        return this;
+    }
+
+    public NoaaFileCache getCache() {
+        return cache;
+    }
+
+    /**
+     * @param cache keeps downloaded files on local disk, null downloads every time
+     */
+    public NoaaClient setCache(NoaaFileCache cache) {
+        this.cache = cache;
+        return this;
+    }
+
+    public NoaaTransport getTransport() {
+        return transport;
+    }
+
+    /**
+     * @param transport sends the HTTP requests, {@link UrlConnectionTransport} by default
+     */
+    public NoaaClient setTransport(NoaaTransport transport) {
+        this.transport = transport;
+        return this;
+    }
+
+    /**
+     * @return the executor for blocking work behind the async methods, the shared daemon pool by default
+     */
+    public Executor getExecutor() {
+        return executor == null ? Blocking.POOL : executor;
+    }
+
+    /**
+     * @param executor runs blocking work behind the async methods, such as loads that go through the disk
+     * cache; it is not shut down by the client. The default is a pool of daemon threads shared by all
+     * clients, which keeps blocking downloads off the common fork/join pool.
+     */
+    public NoaaClient setExecutor(Executor executor) {
+        this.executor = executor;
+        return this;
+    }
+
+    public DedupPolicy getDedupPolicy() {
+        return dedupPolicy;
+    }
+
+    /**
+     * @param dedupPolicy picks the observation kept when an hour has several, {@link DedupPolicy#FIRST_WINS} by default
+     */
+    public NoaaClient setDedupPolicy(DedupPolicy dedupPolicy) {
+        this.dedupPolicy = dedupPolicy;
+        return this;
+    }
+
+    public ErrorPolicy getErrorPolicy() {
+        return errorPolicy;
+    }
+
+    /**
+     * @param errorPolicy handles rows that cannot be decoded, {@link ErrorPolicy#FAIL_FAST} by default
+     */
+    public NoaaClient setErrorPolicy(ErrorPolicy errorPolicy) {
+        this.errorPolicy = errorPolicy;
+        return this;
+    }
+
+    public int getMaxErrors() {
+        return maxErrors;
+    }
+
+    /**
+     * @param maxErrors how many {@link IsdRowError}s a load keeps, 100 by default
+     */
+    public NoaaClient setMaxErrors(int maxErrors) {
+        this.maxErrors = maxErrors;
+        return this;
+    }
+
+    public RetryPolicy getRetryPolicy() {
+        return retryPolicy;
+    }
+
+    /**
+     * @param retryPolicy retries failed requests and resumes dropped downloads with a byte range,
+     * {@link RetryPolicy#none()} by default; not applied to {@link #forEachAsync}
+     */
+    public NoaaClient setRetryPolicy(RetryPolicy retryPolicy) {
+        this.retryPolicy = retryPolicy;
+        return this;
+    }
+
+    public NoaaMetrics getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * @param metrics receives download, cache and parse measurements, {@link NoaaMetrics#NOOP} by default
+     */
+    public NoaaClient setMetrics(NoaaMetrics metrics) {
+        this.metrics = metrics == null ? NoaaMetrics.NOOP : metrics;
+        return this;
+    }
+
+    URL toUrl(int year, String station) throws IOException {
         String fileName = station.replace("-", "") + ".csv";
-        String fileUrl = String.format("%s/%d/%s", BASE_URL, year, fileName);
-        LOG.debug("Getting: {}", fileUrl);
-        URL url = new URL(fileUrl);
-        return url.openConnection().getInputStream();
+        return new URL(String.format("%s%d/%s", baseUrl, year, fileName));
+    }
+
+    /**
+     * @param timeout when positive, caps the connect and read timeouts and ends retries once it has passed
+     */
+    private InputStream downloadNoaaData(int year, String station, int timeout) throws IOException {
+        NoaaRequest request = request(year, station, timeout);
+        StationYear key = StationYear.of(station, year);
+        long started = metrics == NoaaMetrics.NOOP ? 0 : System.nanoTime();
+        RetryPolicy retries = timeout > 0 ? retryPolicy.until(System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeout)) : retryPolicy;
+        if (cache == null) {
+            LOG.debug("Getting: {}", request.getUrl());
+            NoaaResponse response = execute(request, retries);
+            try {
+                InputStream body = body(request, response.checkSuccess(request), 0, retries);
+                return meter(NoaaCompression.decompress(body), key, started, true);
+            }
+            catch (IOException | RuntimeException e) {
+                response.close();
+                throw e;
+            }
+        }
+
+        NoaaFileCache.Entry entry = cache.get(key);
+        if (entry != null && cache.isFresh(entry)) {
+            LOG.debug("Cached: {}", request.getUrl());
+            metrics.cacheHit(key);
+            return meter(entry.open(), key, started, false);
+        }
+
+        LOG.debug("Getting: {}", request.getUrl());
+        if (entry != null) {
+            request.setHeader("If-None-Match", entry.getEtag());
+            request.setHeader("If-Modified-Since", entry.getLastModified());
+        }
+
+        try (NoaaResponse response = execute(request, retries)) {
+            if (entry != null && response.getStatus() == HttpURLConnection.HTTP_NOT_MODIFIED) {
+                LOG.debug("Not modified: {}", request.getUrl());
+                cache.revalidated(entry);
+                metrics.cacheHit(key);
+                return meter(entry.open(), key, started, false);
+            }
+
+            metrics.cacheMiss(key);
+            response.checkSuccess(request);
+            entry = cache.put(key, meter(body(request, response, 0, retries), key, started, true),
+                    response.getHeader("ETag"), response.getHeader("Last-Modified"));
+        }
+        return meter(entry.open(), key, started, false);
+    }
+
+    /**
+     * Sends the request, retrying connection failures and retryable statuses by the {@link RetryPolicy}.
+     */
+    NoaaResponse execute(NoaaRequest request) throws IOException {
+        return execute(request, retryPolicy);
+    }
+
+    private NoaaResponse execute(NoaaRequest request, RetryPolicy retryPolicy) throws IOException {
+        for (int attempt = 1; ; attempt++) {
+            NoaaResponse response;
+            try {
+                response = transport.execute(request);
+            }
+            catch (IOException e) {
+                if (!retryPolicy.shouldRetry(attempt, e)) throw e;
+
+                LOG.debug("Retrying {} after {}", request.getUrl(), e.toString());
+                retryPolicy.backoff(attempt);
+                continue;
+            }
+
+            if (!retryPolicy.shouldRetry(attempt, response.getStatus())) return response;
+
+            LOG.debug("Retrying {} after status {}", request.getUrl(), response.getStatus());
+            response.close();
+            retryPolicy.backoff(attempt);
+        }
+    }
+
+    /**
+     * @param offset where the body starts in the file, non-zero when the response answers a byte range
+     * @return the body, resumable with a byte range when the {@link RetryPolicy} allows more attempts
+     */
+    InputStream body(NoaaRequest request, NoaaResponse response, long offset) {
+        return body(request, response, offset, retryPolicy);
+    }
+
+    private InputStream body(NoaaRequest request, NoaaResponse response, long offset, RetryPolicy retryPolicy) {
+        if (retryPolicy.getMaxAttempts() <= 1) return response.getBody();
+
+        return new ResumingInputStream(transport, request, response, retryPolicy, offset);
+    }
+
+    /**
+     * Wraps the stream to count bytes and I/O time, unless metrics are off.
+     */
+    InputStream meter(InputStream in, StationYear key, long started, boolean download) {
+        if (metrics == NoaaMetrics.NOOP) return in;
+
+        return new MeteredInputStream(in, key, metrics, started, download);
+    }
+
+    NoaaRequest request(int year, String station, int timeout) throws IOException {
+        return new NoaaRequest(toUrl(year, station))
+                .setConnectTimeout(capTimeout(connectTimeout, timeout))
+                .setReadTimeout(capTimeout(readTimeout, timeout));
+    }
+
+    private static int capTimeout(int timeout, int cap) {
+        if (cap <= 0) return timeout;
+        if (timeout <= 0) return cap;
+
+        return Math.min(timeout, cap);
+    }
+
+    /**
+     * Created on first use; idle threads exit after a minute.
+     */
+    private static class Blocking {
+        private static final ExecutorService POOL = Executors.newCachedThreadPool(r -> {
+            Thread thread = new Thread(r, "noaa-blocking");
+            thread.setDaemon(true);
+            return thread;
+        });
     }
 }
@@ -0,0 +1,130 @@
+/*
+ * ________________________________________________________________________
+ * METRO.IO CONFIDENTIAL
+ * ________________________________________________________________________
+ *
+ * Copyright (c) 2018.
+ * Metro Labs Incorporated
+ * All Rights Reserved.
+ *
+ * NOTICE: All information contained herein is, and remains
+ * the property of Metro Labs Incorporated and its suppliers,
+ * if any. The intellectual and technical concepts contained
+ * herein are proprietary to Metro Labs Incorporated
+ * and its suppliers and may be covered by U.S. and Foreign Patents,
+ * patents in process, and are protected by trade secret or copyright law.
+ * Dissemination of this information or reproduction of this material
+ * is strictly forbidden unless prior written permission is obtained
+ * from Metro Labs Incorporated.
+ */
+
+package org.noaa;
+
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.InvocationTargetException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Compression of station files and archives, recognised by the magic bytes at the start of the data rather than
+ * by file name, so a gzipped {@code .csv} or a mirror that serves {@code .csv.gz} without a Content-Encoding
+ * header is still read correctly.
+ *
+ * Zstandard is decoded by {@code com.github.luben:zstd-jni} when it is on the classpath; it is looked up
+ * reflectively so the client does not depend on it.
+ */
+public enum NoaaCompression {
+    NONE,
+    GZIP,
+    ZSTD;
+
+    private static final String ZSTD_STREAM = "com.github.luben.zstd.ZstdInputStream";
+    private static final Constructor<?> ZSTD_CONSTRUCTOR = zstd();
+
+    private static Constructor<?> zstd() {
+        try {
+            return Class.forName(ZSTD_STREAM).getConstructor(InputStream.class);
+        }
+        catch (ReflectiveOperationException | LinkageError e) {
+            return null;
+        }
+    }
+
+    /**
+     * @return true when zstd-jni is on the classpath
+     */
+    public static boolean isZstdSupported() {
+        return ZSTD_CONSTRUCTOR != null;
+    }
+
+    /**
+     * @param head the first bytes of the data, at least 4 to tell all formats apart
+     */
+    public static NoaaCompression detect(byte[] head, int length) {
+        if (length >= 2 && (head[0] & 0xff) == 0x1f && (head[1] & 0xff) == 0x8b) return GZIP;
+        if (length >= 4 && (head[0] & 0xff) == 0x28 && (head[1] & 0xff) == 0xb5
+                && (head[2] & 0xff) == 0x2f && (head[3] & 0xff) == 0xfd) return ZSTD;
+
+        return NONE;
+    }
+
+    /**
+     * Peeks at the start of the stream and wraps it in the matching decoder. Nothing is read beyond the magic
+     * bytes until the returned stream is read.
+     */
+    public static InputStream decompress(InputStream in) throws IOException {
+        InputStream buffered = in.markSupported() ? in : new BufferedInputStream(in, 64 * 1024);
+        byte[] head = new byte[4];
+        buffered.mark(head.length);
+        int length = 0;
+        for (int n; length < head.length && (n = buffered.read(head, length, head.length - length)) != -1; ) length += n;
+        buffered.reset();
+
+        return detect(head, length).decode(buffered);
+    }
+
+    /**
+     * Opens a plain, gzip or zstd file as its decompressed contents.
+     */
+    public static InputStream open(Path file) throws IOException {
+        InputStream in = Files.newInputStream(file);
+        try {
+            return decompress(in);
+        }
+        catch (IOException | RuntimeException e) {
+            in.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Wraps a stream of this format in its decoder.
+     *
+     * @throws IOException for {@link #ZSTD} without zstd-jni on the classpath
+     */
+    public InputStream decode(InputStream in) throws IOException {
+        switch (this) {
+            case GZIP:
+                return new GZIPInputStream(in, 64 * 1024);
+            case ZSTD:
+                if (ZSTD_CONSTRUCTOR == null) throw new IOException("Reading zstd needs " + ZSTD_STREAM + " (com.github.luben:zstd-jni) on the classpath");
+
+                try {
+                    return new BufferedInputStream((InputStream) ZSTD_CONSTRUCTOR.newInstance(in), 64 * 1024);
+                }
+                catch (InvocationTargetException e) {
+                    if (e.getCause() instanceof IOException) throw (IOException) e.getCause();
+                    throw new IOException("Cannot open zstd stream", e.getCause());
+                }
+                catch (ReflectiveOperationException e) {
+                    throw new IOException("Cannot open zstd stream", e);
+                }
+            default:
+                return in;
+        }
+    }
+}
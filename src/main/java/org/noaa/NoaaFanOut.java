@@ -0,0 +1,217 @@
+/*
+ * ________________________________________________________________________
+ * METRO.IO CONFIDENTIAL
+ * ________________________________________________________________________
+ *
+ * Copyright (c) 2018.
+ * Metro Labs Incorporated
+ * All Rights Reserved.
+ *
+ * NOTICE: All information contained herein is, and remains
+ * the property of Metro Labs Incorporated and its suppliers,
+ * if any. The intellectual and technical concepts contained
+ * herein are proprietary to Metro Labs Incorporated
+ * and its suppliers and may be covered by U.S. and Foreign Patents,
+ * patents in process, and are protected by trade secret or copyright law.
+ * Dissemination of this information or reproduction of this material
+ * is strictly forbidden unless prior written permission is obtained
+ * from Metro Labs Incorporated.
+ */
+
+package org.noaa;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.lang.reflect.Method;
+import java.time.Duration;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Loads a set of station-years at once, one task per station-year, and waits for all of them within a
+ * deadline, in the manner of a structured-concurrency scope: every task has finished or been cancelled
+ * when {@link #loadAll} returns.
+ *
+ * <ul>
+ * <li>On Java 21 and later each task runs on its own virtual thread, so hundreds of blocking downloads
+ * share a few carrier threads. Earlier runtimes fall back to a pool of {@code fallbackThreads} platform
+ * threads. The virtual-thread executor is looked up reflectively, so the library still targets Java 8.</li>
+ * <li>When the deadline passes, unfinished tasks are cancelled and reported with a {@link TimeoutException}.
+ * Each request's connect and read timeouts are also capped by the time left, so a platform thread blocked
+ * in a read gives up too.</li>
+ * <li>With {@code failFast}, the first failure cancels the remaining tasks.</li>
+ * <li>Interrupting the calling thread cancels every task.</li>
+ * </ul>
+ *
+ * <pre>
+ * Map&lt;StationYear, NoaaBulkFetch.Result&gt; results = client.fanOut()
+ *         .setDeadline(Duration.ofSeconds(20))
+ *         .loadAll(portfolio);
+ * </pre>
+ */
+public class NoaaFanOut {
+    private static Logger LOG = LoggerFactory.getLogger(NoaaFanOut.class);
+    private static final Method NEW_VIRTUAL_THREAD_EXECUTOR = virtualThreadFactoryMethod();
+
+    private final NoaaClient client;
+    private Duration deadline = Duration.ofMinutes(5);
+    private boolean failFast;
+    private boolean virtualThreads = true;
+    private int fallbackThreads = 32;
+
+    public NoaaFanOut(NoaaClient client) {
+        this.client = client;
+    }
+
+    /**
+     * @return whether the runtime has virtual threads, i.e. Java 21 or later
+     */
+    public static boolean isVirtualThreadsSupported() {
+        return NEW_VIRTUAL_THREAD_EXECUTOR != null;
+    }
+
+    /**
+     * @return an executor starting a virtual thread per task, e.g. for {@link NoaaBulkFetch#setExecutor},
+     * or null before Java 21
+     */
+    public static ExecutorService newVirtualThreadExecutor() {
+        if (NEW_VIRTUAL_THREAD_EXECUTOR == null) return null;
+
+        try {
+            return (ExecutorService) NEW_VIRTUAL_THREAD_EXECUTOR.invoke(null);
+        }
+        catch (ReflectiveOperationException e) {
+            LOG.warn("Failed to create a virtual thread executor", e);
+            return null;
+        }
+    }
+
+    private static Method virtualThreadFactoryMethod() {
+        try {
+            return Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+        }
+        catch (NoSuchMethodException e) {
+            return null;
+        }
+    }
+
+    public Duration getDeadline() {
+        return deadline;
+    }
+
+    /**
+     * @param deadline how long {@link #loadAll} may take in total, five minutes by default
+     */
+    public NoaaFanOut setDeadline(Duration deadline) {
+        this.deadline = deadline;
+        return this;
+    }
+
+    public boolean isFailFast() {
+        return failFast;
+    }
+
+    /**
+     * @param failFast cancel the remaining tasks as soon as one fails; off by default
+     */
+    public NoaaFanOut setFailFast(boolean failFast) {
+        this.failFast = failFast;
+        return this;
+    }
+
+    public boolean isVirtualThreads() {
+        return virtualThreads;
+    }
+
+    /**
+     * @param virtualThreads use virtual threads where the runtime has them; on by default
+     */
+    public NoaaFanOut setVirtualThreads(boolean virtualThreads) {
+        this.virtualThreads = virtualThreads;
+        return this;
+    }
+
+    public int getFallbackThreads() {
+        return fallbackThreads;
+    }
+
+    /**
+     * @param fallbackThreads size of the platform thread pool used without virtual threads, 32 by default
+     */
+    public NoaaFanOut setFallbackThreads(int fallbackThreads) {
+        if (fallbackThreads < 1) throw new IllegalArgumentException("fallbackThreads must be positive");
+
+        this.fallbackThreads = fallbackThreads;
+        return this;
+    }
+
+    /**
+     * Runs one task per station-year and returns when all have finished, failed or been cancelled.
+     *
+     * @return a result for every request, in request order
+     * @throws InterruptedException when the calling thread is interrupted; every task is cancelled first
+     */
+    public Map<StationYear, NoaaBulkFetch.Result> loadAll(Collection<StationYear> requests) throws InterruptedException {
+        long started = System.nanoTime();
+        long deadlineNanos = started + deadline.toNanos();
+        ExecutorService executor = executor();
+
+        Map<StationYear, NoaaBulkFetch.Result> results = new LinkedHashMap<>();
+        Map<Future<NoaaBulkFetch.Result>, StationYear> running = new HashMap<>();
+        CompletionService<NoaaBulkFetch.Result> completions = new ExecutorCompletionService<>(executor);
+        try {
+            for (StationYear request : new LinkedHashSet<>(requests)) {
+                results.put(request, null);
+                running.put(completions.submit(() -> NoaaBulkFetch.fetch(client, request, deadlineNanos, System.currentTimeMillis())), request);
+            }
+
+            while (!running.isEmpty()) {
+                long remaining = deadlineNanos - System.nanoTime();
+                Future<NoaaBulkFetch.Result> future = remaining > 0 ? completions.poll(remaining, TimeUnit.NANOSECONDS) : null;
+                if (future == null) break;
+
+                StationYear request = running.remove(future);
+                NoaaBulkFetch.Result result = result(request, future, started);
+                results.put(request, result);
+                if (failFast && !result.isSuccess()) break;
+            }
+        }
+        finally {
+            for (Future<NoaaBulkFetch.Result> future : running.keySet()) future.cancel(true);
+            executor.shutdownNow();
+        }
+
+        long elapsed = (System.nanoTime() - started) / 1_000_000;
+        for (Map.Entry<Future<NoaaBulkFetch.Result>, StationYear> unfinished : running.entrySet()) {
+            Throwable reason = deadlineNanos - System.nanoTime() <= 0
+                    ? new TimeoutException(String.format("%s did not finish within %s", unfinished.getValue(), deadline))
+                    : new CancellationException(unfinished.getValue() + " cancelled after an earlier failure");
+            results.put(unfinished.getValue(), new NoaaBulkFetch.Result(unfinished.getValue(), null, reason, elapsed));
+        }
+
+        return results;
+    }
+
+    private ExecutorService executor() {
+        ExecutorService executor = virtualThreads ? newVirtualThreadExecutor() : null;
+        if (executor != null) return executor;
+
+        AtomicInteger count = new AtomicInteger();
+        return Executors.newFixedThreadPool(fallbackThreads, r -> {
+            Thread thread = new Thread(r, "noaa-fan-out-" + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    private static NoaaBulkFetch.Result result(StationYear request, Future<NoaaBulkFetch.Result> future, long started) throws InterruptedException {
+        try {
+            return NoaaBulkFetch.get(future);
+        }
+        catch (CancellationException e) {
+            return new NoaaBulkFetch.Result(request, null, e, (System.nanoTime() - started) / 1_000_000);
+        }
+    }
+}
@@ -0,0 +1,355 @@
+/*
+ * ________________________________________________________________________
+ * METRO.IO CONFIDENTIAL
+ * ________________________________________________________________________
+ *
+ * Copyright (c) 2018.
+ * Metro Labs Incorporated
+ * All Rights Reserved.
+ *
+ * NOTICE: All information contained herein is, and remains
+ * the property of Metro Labs Incorporated and its suppliers,
+ * if any. The intellectual and technical concepts contained
+ * herein are proprietary to Metro Labs Incorporated
+ * and its suppliers and may be covered by U.S. and Foreign Patents,
+ * patents in process, and are protected by trade secret or copyright law.
+ * Dissemination of this information or reproduction of this material
+ * is strictly forbidden unless prior written permission is obtained
+ * from Metro Labs Incorporated.
+ */
+
+package org.noaa;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.*;
+import java.nio.file.attribute.FileTime;
+import java.time.Clock;
+import java.time.Duration;
+import java.time.ZoneOffset;
+import java.util.*;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Local disk cache of downloaded station-year files, laid out as {@code <root>/<year>/<station>.csv}
+ * with the HTTP validators kept next to each file in a {@code .properties} sidecar.
+ *
+ * Files for past years never change upstream and are served from disk without touching the network.
+ * Files for the current year are revalidated with {@code If-None-Match}/{@code If-Modified-Since}
+ * once they are older than {@link #getRevalidateAfter()}.
+ *
+ * Writes go to a temporary file in the same directory and are moved into place atomically, so a
+ * reader never sees a partial file. When the cache grows past {@link #getMaxBytes()} the least
+ * recently used files are deleted. Recency survives restarts through the file modification time,
+ * which is bumped on every hit.
+ *
+ * With {@link #setCompress(boolean) compression} on, files are stored gzipped as {@code <station>.csv.gz};
+ * the archive's CSVs shrink several times over, and {@link Entry#open()} decompresses either form.
+ */
+public class NoaaFileCache {
+    private static Logger LOG = LoggerFactory.getLogger(NoaaFileCache.class);
+    private static final String DATA_SUFFIX = ".csv";
+    private static final String GZIP_SUFFIX = ".csv.gz";
+    private static final String META_SUFFIX = ".properties";
+
+    private final Path root;
+    private final long maxBytes;
+    private final LinkedHashMap<Path, Long> index = new LinkedHashMap<>(64, 0.75f, true);
+    private long totalBytes;
+    private Duration revalidateAfter = Duration.ZERO;
+    private Clock clock = Clock.systemUTC();
+    private boolean compress;
+
+    public NoaaFileCache(Path root, long maxBytes) throws IOException {
+        this.root = Files.createDirectories(root);
+        this.maxBytes = maxBytes;
+        load();
+    }
+
+    public Path getRoot() {
+        return root;
+    }
+
+    public long getMaxBytes() {
+        return maxBytes;
+    }
+
+    public synchronized long getTotalBytes() {
+        return totalBytes;
+    }
+
+    public Duration getRevalidateAfter() {
+        return revalidateAfter;
+    }
+
+    /**
+     * @param revalidateAfter how long a current-year file is served without asking the server
+     */
+    public NoaaFileCache setRevalidateAfter(Duration revalidateAfter) {
+        this.revalidateAfter = revalidateAfter;
+        return this;
+    }
+
+    public Clock getClock() {
+        return clock;
+    }
+
+    public NoaaFileCache setClock(Clock clock) {
+        this.clock = clock;
+        return this;
+    }
+
+    public boolean isCompress() {
+        return compress;
+    }
+
+    /**
+     * @param compress store new files gzipped, off by default; files already cached are read either way
+     */
+    public NoaaFileCache setCompress(boolean compress) {
+        this.compress = compress;
+        return this;
+    }
+
+    /**
+     * Past years are final in the global-hourly archive.
+     */
+    public boolean isImmutable(int year) {
+        return year < clock.instant().atZone(ZoneOffset.UTC).getYear();
+    }
+
+    /**
+     * @return the cached entry, or null on a miss; a hit counts as a use for eviction
+     */
+    public Entry get(StationYear key) throws IOException {
+        Path data = dataPath(key, false);
+        synchronized (this) {
+            if (index.get(data) == null) {
+                data = dataPath(key, true);
+                if (index.get(data) == null) return null;
+            }
+        }
+
+        Properties meta = new Properties();
+        Path metaPath = metaPath(data);
+        if (Files.exists(metaPath)) {
+            try (InputStream in = Files.newInputStream(metaPath)) {
+                meta.load(in);
+            }
+        }
+
+        try {
+            Files.setLastModifiedTime(data, FileTime.from(clock.instant()));
+        }
+        catch (NoSuchFileException e) {
+            // evicted or removed behind our back
+            synchronized (this) {
+                Long size = index.remove(data);
+                if (size != null) totalBytes -= size;
+            }
+            return null;
+        }
+
+        return new Entry(key, data, meta);
+    }
+
+    /**
+     * @return true when the entry can be used without revalidating it against the server
+     */
+    public boolean isFresh(Entry entry) {
+        if (isImmutable(entry.getKey().getYear())) return true;
+
+        long age = clock.millis() - entry.getFetchedAt();
+        return age < revalidateAfter.toMillis();
+    }
+
+    /**
+     * Records a successful revalidation ({@code 304 Not Modified}) of the entry.
+     */
+    public void revalidated(Entry entry) throws IOException {
+        entry.meta.setProperty("fetchedAt", Long.toString(clock.millis()));
+        writeMeta(entry.data, entry.meta);
+    }
+
+    /**
+     * Copies the body into the cache atomically and evicts older files if the cache is over its limit. With
+     * compression on, a plain body is gzipped on the way; a body that is already compressed is stored as is.
+     *
+     * @param etag the response ETag, may be null
+     * @param lastModified the response Last-Modified header, may be null
+     */
+    public Entry put(StationYear key, InputStream body, String etag, String lastModified) throws IOException {
+        body = new BufferedInputStream(body, 64 * 1024);
+        byte[] head = new byte[4];
+        body.mark(head.length);
+        int length = 0;
+        for (int n; length < head.length && (n = body.read(head, length, head.length - length)) != -1; ) length += n;
+        body.reset();
+        boolean plain = NoaaCompression.detect(head, length) == NoaaCompression.NONE;
+
+        Path data = dataPath(key, compress || !plain);
+        Path dir = Files.createDirectories(data.getParent());
+
+        Path temp = Files.createTempFile(dir, data.getFileName().toString(), ".tmp");
+        try {
+            try (OutputStream out = compress && plain
+                    ? new GZIPOutputStream(Files.newOutputStream(temp), 64 * 1024) : Files.newOutputStream(temp)) {
+                byte[] buffer = new byte[64 * 1024];
+                for (int n; (n = body.read(buffer)) != -1; ) out.write(buffer, 0, n);
+            }
+            Files.move(temp, data, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        }
+        finally {
+            Files.deleteIfExists(temp);
+        }
+        remove(dataPath(key, !data.getFileName().toString().endsWith(GZIP_SUFFIX)));
+
+        Properties meta = new Properties();
+        if (etag != null) meta.setProperty("etag", etag);
+        if (lastModified != null) meta.setProperty("lastModified", lastModified);
+        meta.setProperty("fetchedAt", Long.toString(clock.millis()));
+        writeMeta(data, meta);
+
+        long size = Files.size(data);
+        synchronized (this) {
+            Long previous = index.put(data, size);
+            totalBytes += size - (previous == null ? 0 : previous);
+            evict(data);
+        }
+
+        return new Entry(key, data, meta);
+    }
+
+    /**
+     * Drops the other form of a file that has just been replaced.
+     */
+    private void remove(Path data) throws IOException {
+        synchronized (this) {
+            Long size = index.remove(data);
+            if (size == null) return;
+            totalBytes -= size;
+        }
+        Files.deleteIfExists(data);
+        Files.deleteIfExists(metaPath(data));
+    }
+
+    private void writeMeta(Path data, Properties meta) throws IOException {
+        Path target = metaPath(data);
+        Path temp = Files.createTempFile(data.getParent(), target.getFileName().toString(), ".tmp");
+        try {
+            try (OutputStream out = Files.newOutputStream(temp)) {
+                meta.store(out, null);
+            }
+            Files.move(temp, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        }
+        finally {
+            Files.deleteIfExists(temp);
+        }
+    }
+
+    private void evict(Path keep) {
+        Iterator<Map.Entry<Path, Long>> i = index.entrySet().iterator();
+        while (totalBytes > maxBytes && i.hasNext()) {
+            Map.Entry<Path, Long> eldest = i.next();
+            if (eldest.getKey().equals(keep)) continue;
+
+            try {
+                Files.deleteIfExists(eldest.getKey());
+                Files.deleteIfExists(metaPath(eldest.getKey()));
+            }
+            catch (IOException e) {
+                LOG.warn("Failed to evict {}", eldest.getKey(), e);
+                continue;
+            }
+            LOG.debug("Evicted {}", eldest.getKey());
+            totalBytes -= eldest.getValue();
+            i.remove();
+        }
+    }
+
+    private void load() throws IOException {
+        List<Path> files;
+        try (Stream<Path> walk = Files.walk(root, 2)) {
+            files = walk.filter(p -> p.getFileName().toString().endsWith(DATA_SUFFIX) || p.getFileName().toString().endsWith(GZIP_SUFFIX))
+                    .filter(Files::isRegularFile)
+                    .collect(Collectors.toList());
+        }
+
+        Map<Path, FileTime> touched = new HashMap<>();
+        for (Path file : files) touched.put(file, Files.getLastModifiedTime(file));
+        files.sort(Comparator.comparing(touched::get));
+
+        synchronized (this) {
+            for (Path file : files) {
+                long size = Files.size(file);
+                index.put(file, size);
+                totalBytes += size;
+            }
+            evict(null);
+        }
+    }
+
+    private Path dataPath(StationYear key, boolean gzip) {
+        return root.resolve(Integer.toString(key.getYear()))
+                .resolve(key.getStation().replace("-", "") + (gzip ? GZIP_SUFFIX : DATA_SUFFIX));
+    }
+
+    private static Path metaPath(Path data) {
+        return data.resolveSibling(data.getFileName() + META_SUFFIX);
+    }
+
+    /**
+     * A cached station-year file and its validators.
+     */
+    public static class Entry {
+        private final StationYear key;
+        private final Path data;
+        private final Properties meta;
+
+        Entry(StationYear key, Path data, Properties meta) {
+            this.key = key;
+            this.data = data;
+            this.meta = meta;
+        }
+
+        public StationYear getKey() {
+            return key;
+        }
+
+        /**
+         * @return the file on disk, gzipped when its name ends in {@code .gz}
+         */
+        public Path getPath() {
+            return data;
+        }
+
+        public String getEtag() {
+            return meta.getProperty("etag");
+        }
+
+        public String getLastModified() {
+            return meta.getProperty("lastModified");
+        }
+
+        /**
+         * @return when the file was last fetched or revalidated, in epoch milliseconds
+         */
+        public long getFetchedAt() {
+            return Long.parseLong(meta.getProperty("fetchedAt", "0"));
+        }
+
+        /**
+         * @return the decompressed contents
+         */
+        public InputStream open() throws IOException {
+            return NoaaCompression.open(data);
+        }
+    }
+}
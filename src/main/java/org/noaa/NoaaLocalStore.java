@@ -0,0 +1,336 @@
+/*
+ * ________________________________________________________________________
+ * METRO.IO CONFIDENTIAL
+ * ________________________________________________________________________
+ *
+ * Copyright (c) 2018.
+ * Metro Labs Incorporated
+ * All Rights Reserved.
+ *
+ * NOTICE: All information contained herein is, and remains
+ * the property of Metro Labs Incorporated and its suppliers,
+ * if any. The intellectual and technical concepts contained
+ * herein are proprietary to Metro Labs Incorporated
+ * and its suppliers and may be covered by U.S. and Foreign Patents,
+ * patents in process, and are protected by trade secret or copyright law.
+ * Dissemination of this information or reproduction of this material
+ * is strictly forbidden unless prior written permission is obtained
+ * from Metro Labs Incorporated.
+ */
+
+package org.noaa;
+
+import org.noaa.IntegratedSurfaceData.DataHelper;
+import org.noaa.IntegratedSurfaceData.Field;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Clock;
+import java.time.LocalDate;
+import java.time.ZoneOffset;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Embedded, append-only store of hourly observations laid out as {@code <root>/<station>/<year>.seg}, one
+ * {@link IsdSegment} file per station-year.
+ *
+ * Appends are split by year, sorted and written as one checksummed frame per segment, forced to disk before
+ * {@link #append} returns; a crash in the middle of an append loses only that append. Writing an hour again
+ * replaces it: queries return the latest value written for each hour. Segments that collect more than
+ * {@link #getMaxFrames()} frames are compacted into one on the next append, or explicitly with {@link #compact}.
+ *
+ * Like {@link IsdSeries}, the store keeps the {@link Field} values of each hour only; quality codes, report types
+ * and additional data are not stored, use {@link IsdColumnarWriter} where those are needed.
+ *
+ * Queries map the segment files read-only and use the frame headers as a sparse time index, so a window of a
+ * few days in a multi-decade history only reads the frames that overlap it.
+ *
+ * A store directory must only be written by one process at a time.
+ *
+ * <pre>
+ * NoaaLocalStore store = new NoaaLocalStore(Paths.get("/var/lib/noaa"));
+ * for (int year = 1990; year &lt; 2020; year++) store.fetch(client, year, "720545-00169");
+ * IsdSeries decade = store.query("720545-00169", IsdQuery.between(from, to).select(Field.AIR_TEMPERATURE));
+ * </pre>
+ */
+public class NoaaLocalStore {
+    private static Logger LOG = LoggerFactory.getLogger(NoaaLocalStore.class);
+    private static final String SUFFIX = ".seg";
+    private static final Field[] FIELDS = Field.values();
+
+    private final Path root;
+    private final ConcurrentMap<StationYear, IsdSegment> segments = new ConcurrentHashMap<>();
+    private int maxFrames = 16;
+    private Clock clock = Clock.systemUTC();
+
+    public NoaaLocalStore(Path root) throws IOException {
+        this.root = Files.createDirectories(root);
+    }
+
+    public Path getRoot() {
+        return root;
+    }
+
+    public int getMaxFrames() {
+        return maxFrames;
+    }
+
+    /**
+     * @param maxFrames frames a segment may hold before an append compacts it, 16 by default
+     */
+    public NoaaLocalStore setMaxFrames(int maxFrames) {
+        if (maxFrames < 1) throw new IllegalArgumentException("maxFrames must be positive");
+
+        this.maxFrames = maxFrames;
+        return this;
+    }
+
+    public Clock getClock() {
+        return clock;
+    }
+
+    /**
+     * @param clock tells which years are {@link #isFinal(int) final}
+     */
+    public NoaaLocalStore setClock(Clock clock) {
+        this.clock = clock;
+        return this;
+    }
+
+    /**
+     * Past years are final in the global-hourly archive.
+     */
+    public boolean isFinal(int year) {
+        return year < clock.instant().atZone(ZoneOffset.UTC).getYear();
+    }
+
+    /**
+     * Appends observations of a station, which may span several years.
+     *
+     * @return the number of hours written; an hour given twice counts once, with the later value
+     */
+    public int append(String station, Collection<IntegratedSurfaceData> data) throws IOException {
+        int[] hours = new int[data.size()];
+        double[][] values = new double[data.size()][];
+        int row = 0;
+        for (IntegratedSurfaceData i : data) {
+            hours[row] = DataHelper.toEpochHour(i);
+            double[] v = new double[FIELDS.length];
+            for (Field field : FIELDS) {
+                Double value = field.get(i);
+                v[field.ordinal()] = value == null ? Double.NaN : value;
+            }
+            values[row++] = v;
+        }
+
+        return append(station, hours, values);
+    }
+
+    /**
+     * Same as {@link #append(String, Collection)} for a parsed series.
+     */
+    public int append(String station, IsdSeries series) throws IOException {
+        int[] hours = Arrays.copyOf(series.epochHours(), series.size());
+        double[][] values = new double[series.size()][FIELDS.length];
+        for (Field field : FIELDS) {
+            double[] column = series.values(field);
+            for (int row = 0; row < hours.length; row++) values[row][field.ordinal()] = column[row];
+        }
+
+        return append(station, hours, values);
+    }
+
+    private int append(String station, int[] hours, double[][] values) throws IOException {
+        // sort by hour, then by position so that the last of equal hours wins
+        long[] keys = new long[hours.length];
+        for (int row = 0; row < hours.length; row++) keys[row] = (long) hours[row] << 32 | row;
+        Arrays.sort(keys);
+
+        int written = 0;
+        int start = 0;
+        while (start < keys.length) {
+            int year = yearOf((int) (keys[start] >> 32));
+            int[] yearHours = new int[keys.length - start];
+            double[][] yearValues = new double[keys.length - start][];
+            int rows = 0;
+            int end = start;
+            for (; end < keys.length; end++) {
+                int hour = (int) (keys[end] >> 32);
+                if (yearOf(hour) != year) break;
+                if (end + 1 < keys.length && keys[end + 1] >> 32 == hour) continue;
+
+                yearHours[rows] = hour;
+                yearValues[rows++] = values[(int) keys[end]];
+            }
+
+            IsdSegment segment = segment(StationYear.of(station, year));
+            segment.append(yearHours, yearValues, rows);
+            if (segment.getFrames() > maxFrames) segment.compact();
+            written += rows;
+            start = end;
+        }
+
+        return written;
+    }
+
+    /**
+     * @return true when the store holds data for the station-year
+     */
+    public boolean contains(int year, String station) throws IOException {
+        IsdSegment segment = existing(StationYear.of(station, year));
+        return segment != null && segment.getFrames() > 0;
+    }
+
+    /**
+     * @return the years stored for the station, in order
+     */
+    public SortedSet<Integer> getYears(String station) throws IOException {
+        SortedSet<Integer> years = new TreeSet<>();
+        Path dir = root.resolve(directory(station));
+        if (!Files.isDirectory(dir)) return years;
+
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(dir, "*" + SUFFIX)) {
+            for (Path file : files) {
+                String name = file.getFileName().toString();
+                try {
+                    years.add(Integer.parseInt(name.substring(0, name.length() - SUFFIX.length())));
+                }
+                catch (NumberFormatException e) {
+                    LOG.debug("Ignoring {}", file);
+                }
+            }
+        }
+
+        return years;
+    }
+
+    /**
+     * @return the stored hours of the station-year, sorted by time
+     */
+    public IsdSeries load(int year, String station) throws IOException {
+        return query(station, new IsdQuery().setEpochHours(firstHour(year), firstHour(year + 1)));
+    }
+
+    /**
+     * Reads the hours in the query's window across all the years it covers; without a window, everything stored
+     * for the station. Fields the query does not select are missing.
+     */
+    public IsdSeries query(String station, IsdQuery query) throws IOException {
+        SortedSet<Integer> years = getYears(station);
+        if (query.isBounded()) years = years.subSet(query.getFirstYear(), query.getLastYear() + 1);
+
+        IsdSeries.Builder builder = new IsdSeries.Builder();
+        double[] selected = new double[FIELDS.length];
+        for (int year : years) {
+            IsdSegment segment = existing(StationYear.of(station, year));
+            if (segment == null) continue;
+
+            segment.scan(query.getFromEpochHour(), query.getToEpochHour(), (hour, row) -> {
+                for (Field field : FIELDS) {
+                    selected[field.ordinal()] = query.isSelected(field) ? row[field.ordinal()] : Double.NaN;
+                }
+                builder.add(hour, selected);
+            });
+        }
+
+        return builder.build();
+    }
+
+    /**
+     * Downloads and stores a station-year unless the store already holds it, then reads it from the store.
+     * A year that is not {@link #isFinal(int) final} is downloaded again on every call and the hours from the
+     * newest one stored onwards are appended; give the client a {@link NoaaClient#setCache cache} to have an
+     * unchanged file answered without a body.
+     */
+    public IsdSeries fetch(NoaaClient client, int year, String station) throws IOException {
+        IsdSegment segment = existing(StationYear.of(station, year));
+        boolean stored = segment != null && segment.getFrames() > 0;
+        if (!stored || !isFinal(year)) {
+            IsdSeries series = client.loadSeries(year, station);
+            // the newest stored hour may have gained reports since, earlier ones are final
+            if (stored) series = since(series, segment.getLastEpochHour());
+            LOG.debug("Storing {} hours of {} {}", series.size(), station, year);
+            if (series.size() > 0) append(station, series);
+        }
+
+        return load(year, station);
+    }
+
+    private static IsdSeries since(IsdSeries series, int epochHour) {
+        IsdSeries.Builder builder = new IsdSeries.Builder(series.size());
+        for (int row = 0; row < series.size(); row++) {
+            if (series.epochHours()[row] >= epochHour) builder.add(series, row);
+        }
+
+        return builder.build();
+    }
+
+    /**
+     * Rewrites the station-year's segment as a single frame without overwritten hours.
+     *
+     * @return false when it already was one
+     */
+    public boolean compact(int year, String station) throws IOException {
+        IsdSegment segment = existing(StationYear.of(station, year));
+        return segment != null && segment.compact();
+    }
+
+    /**
+     * Compacts every segment of the station.
+     *
+     * @return the number of segments rewritten
+     */
+    public int compact(String station) throws IOException {
+        int compacted = 0;
+        for (int year : getYears(station)) {
+            if (compact(year, station)) compacted++;
+        }
+
+        return compacted;
+    }
+
+    private IsdSegment existing(StationYear key) throws IOException {
+        IsdSegment segment = segments.get(key);
+        if (segment != null || !Files.exists(path(key))) return segment;
+
+        return segment(key);
+    }
+
+    private IsdSegment segment(StationYear key) throws IOException {
+        IsdSegment segment = segments.get(key);
+        if (segment != null) return segment;
+
+        // opening recovers a torn tail, so it must happen once per segment
+        synchronized (segments) {
+            segment = segments.get(key);
+            if (segment == null) {
+                segment = new IsdSegment(path(key));
+                segments.put(key, segment);
+            }
+        }
+
+        return segment;
+    }
+
+    private Path path(StationYear key) {
+        return root.resolve(directory(key.getStation())).resolve(key.getYear() + SUFFIX);
+    }
+
+    private static String directory(String station) {
+        return station.replace("-", "");
+    }
+
+    private static int firstHour(int year) {
+        return Math.toIntExact(LocalDate.of(year, 1, 1).toEpochDay() * 24);
+    }
+
+    private static int yearOf(int epochHour) {
+        return LocalDate.ofEpochDay(Math.floorDiv(epochHour, 24)).getYear();
+    }
+}
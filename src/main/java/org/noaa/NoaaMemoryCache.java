@@ -0,0 +1,369 @@
+/*
+ * ________________________________________________________________________
+ * METRO.IO CONFIDENTIAL
+ * ________________________________________________________________________
+ *
+ * Copyright (c) 2018.
+ * Metro Labs Incorporated
+ * All Rights Reserved.
+ *
+ * NOTICE: All information contained herein is, and remains
+ * the property of Metro Labs Incorporated and its suppliers,
+ * if any. The intellectual and technical concepts contained
+ * herein are proprietary to Metro Labs Incorporated
+ * and its suppliers and may be covered by U.S. and Foreign Patents,
+ * patents in process, and are protected by trade secret or copyright law.
+ * Dissemination of this information or reproduction of this material
+ * is strictly forbidden unless prior written permission is obtained
+ * from Metro Labs Incorporated.
+ */
+
+package org.noaa;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.UncheckedIOException;
+import java.time.Clock;
+import java.time.Duration;
+import java.time.ZoneOffset;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.function.ToLongFunction;
+
+/**
+ * In-process cache of parsed station-years, in front of the network and the {@link NoaaFileCache}.
+ *
+ * <ul>
+ * <li>Entries are weighed in estimated heap bytes and the least recently used ones are evicted once the
+ * total passes {@code maxWeight}. A value heavier than the whole cache is returned but not kept.</li>
+ * <li>Concurrent misses on the same key are coalesced: the first caller loads on its own thread and the
+ * others wait for its result, so N callers trigger a single download.</li>
+ * <li>Entries for the current year are refreshed once older than {@link #getRefreshAfter()}: the lookup
+ * that notices returns the cached value at once and a reload runs on the executor. A failed refresh keeps
+ * the old value.</li>
+ * </ul>
+ *
+ * Cached values are shared between callers and must not be modified.
+ *
+ * <pre>
+ * NoaaMemoryCache&lt;List&lt;IntegratedSurfaceData&gt;&gt; cache = client.memoryCache(512L &lt;&lt; 20);
+ * List&lt;IntegratedSurfaceData&gt; data = cache.get(StationYear.of("720545-00169", 2018));
+ * </pre>
+ */
+public class NoaaMemoryCache<V> {
+    private static Logger LOG = LoggerFactory.getLogger(NoaaMemoryCache.class);
+
+    /**
+     * Estimated heap bytes of one {@link IntegratedSurfaceData}: the object, its boxed values and a list slot.
+     */
+    static final long OBSERVATION_BYTES = 208;
+    static final long ADDITIONAL_DATA_BYTES = 240;
+
+    private final Loader<V> loader;
+    private final ToLongFunction<V> weigher;
+    private final long maxWeight;
+    private final LinkedHashMap<StationYear, Entry<V>> entries = new LinkedHashMap<>(64, 0.75f, true);
+    private final ConcurrentMap<StationYear, CompletableFuture<V>> loading = new ConcurrentHashMap<>();
+    private long weight;
+    private Duration refreshAfter = Duration.ofHours(1);
+    private Executor executor = Refresher.POOL;
+    private Clock clock = Clock.systemUTC();
+
+    private long hits;
+    private long misses;
+    private long loads;
+    private long evictions;
+
+    /**
+     * Loads a value on a miss or a refresh.
+     */
+    public interface Loader<V> {
+        V load(StationYear key) throws IOException;
+    }
+
+    /**
+     * @param weigher estimated heap bytes of a value
+     */
+    public NoaaMemoryCache(Loader<V> loader, ToLongFunction<V> weigher, long maxWeight) {
+        this.loader = loader;
+        this.weigher = weigher;
+        this.maxWeight = maxWeight;
+    }
+
+    /**
+     * @return a cache of {@link NoaaClient#load} results
+     */
+    public static NoaaMemoryCache<List<IntegratedSurfaceData>> observations(NoaaClient client, long maxBytes) {
+        return new NoaaMemoryCache<>(key -> Collections.unmodifiableList(client.load(key.getYear(), key.getStation())),
+                NoaaMemoryCache::estimateBytes, maxBytes);
+    }
+
+    /**
+     * @return a cache of {@link NoaaClient#loadSeries} results, about a third of the size of observations
+     */
+    public static NoaaMemoryCache<IsdSeries> series(NoaaClient client, long maxBytes) {
+        return new NoaaMemoryCache<>(key -> client.loadSeries(key.getYear(), key.getStation()),
+                NoaaMemoryCache::estimateBytes, maxBytes);
+    }
+
+    public static long estimateBytes(List<IntegratedSurfaceData> data) {
+        long bytes = 64;
+        for (IntegratedSurfaceData i : data) {
+            bytes += OBSERVATION_BYTES;
+            if (i.getAdditionalData() != null) bytes += ADDITIONAL_DATA_BYTES;
+        }
+
+        return bytes;
+    }
+
+    public static long estimateBytes(IsdSeries series) {
+        int fields = IntegratedSurfaceData.Field.values().length;
+        return 200 + series.size() * (4L + 8L * fields) + ((series.size() + 63) >>> 6) * 8L * fields;
+    }
+
+    public long getMaxWeight() {
+        return maxWeight;
+    }
+
+    public Duration getRefreshAfter() {
+        return refreshAfter;
+    }
+
+    /**
+     * @param refreshAfter age after which a current-year entry is reloaded in the background, one hour by default
+     */
+    public NoaaMemoryCache<V> setRefreshAfter(Duration refreshAfter) {
+        this.refreshAfter = refreshAfter;
+        return this;
+    }
+
+    public Executor getExecutor() {
+        return executor;
+    }
+
+    /**
+     * @param executor runs background refreshes, which block on the network; by default a pool of at most
+     * {@value Refresher#THREADS} daemon threads shared by all caches
+     */
+    public NoaaMemoryCache<V> setExecutor(Executor executor) {
+        this.executor = executor;
+        return this;
+    }
+
+    public Clock getClock() {
+        return clock;
+    }
+
+    public NoaaMemoryCache<V> setClock(Clock clock) {
+        this.clock = clock;
+        return this;
+    }
+
+    /**
+     * @return the cached value, loading it on a miss; concurrent misses on the key share one load
+     */
+    public V get(StationYear key) throws IOException {
+        Entry<V> entry;
+        synchronized (this) {
+            entry = entries.get(key);
+            if (entry != null) hits++;
+            else misses++;
+        }
+
+        if (entry != null) {
+            if (isStale(key, entry)) refresh(key, entry);
+            return entry.value;
+        }
+
+        CompletableFuture<V> future = new CompletableFuture<>();
+        CompletableFuture<V> running = loading.putIfAbsent(key, future);
+        if (running != null) return await(running);
+
+        try {
+            V value = load(key);
+            future.complete(value);
+            return value;
+        }
+        catch (IOException | RuntimeException | Error e) {
+            future.completeExceptionally(e);
+            throw e;
+        }
+        finally {
+            loading.remove(key, future);
+        }
+    }
+
+    /**
+     * @return the cached value without loading it, or null
+     */
+    public synchronized V getIfPresent(StationYear key) {
+        Entry<V> entry = entries.get(key);
+        return entry == null ? null : entry.value;
+    }
+
+    public synchronized void put(StationYear key, V value) {
+        long w = weigher.applyAsLong(value);
+        Entry<V> previous = entries.remove(key);
+        if (previous != null) weight -= previous.weight;
+        if (w > maxWeight) return;
+
+        entries.put(key, new Entry<>(value, w, clock.millis()));
+        weight += w;
+
+        Iterator<Map.Entry<StationYear, Entry<V>>> i = entries.entrySet().iterator();
+        while (weight > maxWeight && i.hasNext()) {
+            Map.Entry<StationYear, Entry<V>> eldest = i.next();
+            if (eldest.getKey().equals(key)) continue;
+
+            LOG.debug("Evicted {}", eldest.getKey());
+            weight -= eldest.getValue().weight;
+            evictions++;
+            i.remove();
+        }
+    }
+
+    public synchronized void invalidate(StationYear key) {
+        Entry<V> entry = entries.remove(key);
+        if (entry != null) weight -= entry.weight;
+    }
+
+    public synchronized void invalidateAll() {
+        entries.clear();
+        weight = 0;
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    /**
+     * @return estimated bytes held
+     */
+    public synchronized long getWeight() {
+        return weight;
+    }
+
+    public synchronized long getHits() {
+        return hits;
+    }
+
+    public synchronized long getMisses() {
+        return misses;
+    }
+
+    /**
+     * @return loads run, including background refreshes; coalesced lookups share one
+     */
+    public synchronized long getLoads() {
+        return loads;
+    }
+
+    public synchronized long getEvictions() {
+        return evictions;
+    }
+
+    private V load(StationYear key) throws IOException {
+        synchronized (this) {
+            // a load that finished between the lookup and now
+            Entry<V> entry = entries.get(key);
+            if (entry != null) return entry.value;
+            loads++;
+        }
+
+        V value = loader.load(key);
+        put(key, value);
+        return value;
+    }
+
+    private boolean isStale(StationYear key, Entry<V> entry) {
+        if (key.getYear() < clock.instant().atZone(ZoneOffset.UTC).getYear()) return false;
+
+        return clock.millis() - entry.loadedAt >= refreshAfter.toMillis();
+    }
+
+    private void refresh(StationYear key, Entry<V> entry) {
+        CompletableFuture<V> future = new CompletableFuture<>();
+        if (loading.putIfAbsent(key, future) != null) return;
+
+        try {
+            executor.execute(() -> {
+                try {
+                    synchronized (this) {
+                        loads++;
+                    }
+                    V value = loader.load(key);
+                    synchronized (this) {
+                        // skip if invalidated or replaced meanwhile
+                        if (entries.get(key) == entry) put(key, value);
+                    }
+                    future.complete(value);
+                }
+                catch (Exception e) {
+                    LOG.warn("Failed to refresh {}", key, e);
+                    synchronized (this) {
+                        // keep serving the old value and try again after another refreshAfter
+                        if (entries.get(key) == entry) entries.put(key, new Entry<>(entry.value, entry.weight, clock.millis()));
+                    }
+                    future.complete(entry.value);
+                }
+                finally {
+                    loading.remove(key, future);
+                }
+            });
+        }
+        catch (RejectedExecutionException e) {
+            loading.remove(key, future);
+            LOG.warn("Failed to schedule refresh of {}", key, e);
+        }
+    }
+
+    private static <V> V await(CompletableFuture<V> future) throws IOException {
+        try {
+            return future.get();
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted waiting for a concurrent load");
+        }
+        catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) throw new IOException(cause.getMessage(), cause);
+            if (cause instanceof UncheckedIOException) throw new IOException(cause.getMessage(), cause.getCause());
+            if (cause instanceof RuntimeException) throw (RuntimeException) cause;
+            if (cause instanceof Error) throw (Error) cause;
+            throw new IOException(cause);
+        }
+    }
+
+    /**
+     * Created on first use; idle threads exit after a minute and extra refreshes queue up.
+     */
+    private static class Refresher {
+        private static final int THREADS = 4;
+        private static final ThreadPoolExecutor POOL = new ThreadPoolExecutor(THREADS, THREADS, 1, TimeUnit.MINUTES,
+                new LinkedBlockingQueue<>(), r -> {
+            Thread thread = new Thread(r, "noaa-refresh");
+            thread.setDaemon(true);
+            return thread;
+        });
+
+        static {
+            POOL.allowCoreThreadTimeOut(true);
+        }
+    }
+
+    private static class Entry<V> {
+        private final V value;
+        private final long weight;
+        private final long loadedAt;
+
+        Entry(V value, long weight, long loadedAt) {
+            this.value = value;
+            this.weight = weight;
+            this.loadedAt = loadedAt;
+        }
+    }
+}
@@ -0,0 +1,76 @@
+/*
+ * ________________________________________________________________________
+ * METRO.IO CONFIDENTIAL
+ * ________________________________________________________________________
+ *
+ * Copyright (c) 2018.
+ * Metro Labs Incorporated
+ * All Rights Reserved.
+ *
+ * NOTICE: All information contained herein is, and remains
+ * the property of Metro Labs Incorporated and its suppliers,
+ * if any. The intellectual and technical concepts contained
+ * herein are proprietary to Metro Labs Incorporated
+ * and its suppliers and may be covered by U.S. and Foreign Patents,
+ * patents in process, and are protected by trade secret or copyright law.
+ * Dissemination of this information or reproduction of this material
+ * is strictly forbidden unless prior written permission is obtained
+ * from Metro Labs Incorporated.
+ */
+
+package org.noaa;
+
+/**
+ * Receives measurements from the fetch and parse pipeline. Every method defaults to doing nothing and
+ * {@link #NOOP} is what a client uses unless {@link NoaaClient#setMetrics} is called.
+ *
+ * Calls are made once per file, never per row: readers keep their counts in plain fields and report
+ * them when they are closed. With {@link #NOOP} the client does not wrap streams or read the clock at all,
+ * so instrumentation costs nothing when it is off. Implementations are called from many threads at once.
+ *
+ * {@link SimpleNoaaMetrics} keeps totals and latency histograms in memory; bridging to Micrometer or
+ * Dropwizard is a matter of forwarding these calls to timers and counters.
+ */
+public interface NoaaMetrics {
+    NoaaMetrics NOOP = new NoaaMetrics() {
+        @Override
+        public String toString() {
+            return "NoaaMetrics.NOOP";
+        }
+    };
+
+    /**
+     * A response body was read to its end or closed.
+     *
+     * @param key the station-year, or null when not known
+     * @param bytes body bytes after content decoding
+     * @param nanos from sending the request to the end of the body
+     */
+    default void downloaded(StationYear key, long bytes, long nanos) {
+    }
+
+    /**
+     * A station-year was served from the {@link NoaaFileCache}, either fresh or after a
+     * {@code 304 Not Modified}.
+     */
+    default void cacheHit(StationYear key) {
+    }
+
+    /**
+     * A station-year was not in the {@link NoaaFileCache}, or had changed upstream.
+     */
+    default void cacheMiss(StationYear key) {
+    }
+
+    /**
+     * A file was parsed, or parsing stopped early.
+     *
+     * @param key the station-year, or null when not known
+     * @param rows data rows decoded
+     * @param rejected rows that could not be decoded
+     * @param duplicates rows dropped or replaced by the {@link DedupPolicy}
+     * @param nanos time spent parsing, excluding time blocked reading the stream where it can be told apart
+     */
+    default void parsed(StationYear key, long rows, long rejected, long duplicates, long nanos) {
+    }
+}
@@ -0,0 +1,79 @@
+/*
+ * ________________________________________________________________________
+ * METRO.IO CONFIDENTIAL
+ * ________________________________________________________________________
+ *
+ * Copyright (c) 2018.
+ * Metro Labs Incorporated
+ * All Rights Reserved.
+ *
+ * NOTICE: All information contained herein is, and remains
+ * the property of Metro Labs Incorporated and its suppliers,
+ * if any. The intellectual and technical concepts contained
+ * herein are proprietary to Metro Labs Incorporated
+ * and its suppliers and may be covered by U.S. and Foreign Patents,
+ * patents in process, and are protected by trade secret or copyright law.
+ * Dissemination of this information or reproduction of this material
+ * is strictly forbidden unless prior written permission is obtained
+ * from Metro Labs Incorporated.
+ */
+
+package org.noaa;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Status, headers and body of a response from a {@link NoaaTransport}. Header names are case-insensitive.
+ * The body is already decoded when the server sent it gzip-compressed.
+ */
+public class NoaaResponse implements Closeable {
+    private final int status;
+    private final Map<String, String> headers = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+    private final InputStream body;
+
+    /**
+     * @param body the decoded body, null when it is delivered to a {@link NoaaResponseConsumer} instead
+     */
+    public NoaaResponse(int status, Map<String, String> headers, InputStream body) {
+        this.status = status;
+        this.headers.putAll(headers);
+        this.body = body;
+    }
+
+    public int getStatus() {
+        return status;
+    }
+
+    public String getHeader(String name) {
+        return headers.get(name);
+    }
+
+    public Map<String, String> getHeaders() {
+        return headers;
+    }
+
+    public InputStream getBody() {
+        return body;
+    }
+
+    /**
+     * @throws NoaaHttpException unless the status is 2xx
+     */
+    public NoaaResponse checkSuccess(NoaaRequest request) throws IOException {
+        if (status / 100 != 2) {
+            throw new NoaaHttpException(status, String.format(Locale.ROOT, "Server returned HTTP response code: %d for URL: %s", status, request.getUrl()));
+        }
+
+        return this;
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (body != null) body.close();
+    }
+}
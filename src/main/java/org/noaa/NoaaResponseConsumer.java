@@ -0,0 +1,48 @@
+/*
+ * ________________________________________________________________________
+ * METRO.IO CONFIDENTIAL
+ * ________________________________________________________________________
+ *
+ * Copyright (c) 2018.
+ * Metro Labs Incorporated
+ * All Rights Reserved.
+ *
+ * NOTICE: All information contained herein is, and remains
+ * the property of Metro Labs Incorporated and its suppliers,
+ * if any. The intellectual and technical concepts contained
+ * herein are proprietary to Metro Labs Incorporated
+ * and its suppliers and may be covered by U.S. and Foreign Patents,
+ * patents in process, and are protected by trade secret or copyright law.
+ * Dissemination of this information or reproduction of this material
+ * is strictly forbidden unless prior written permission is obtained
+ * from Metro Labs Incorporated.
+ */
+
+package org.noaa;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Receives a response pushed by {@link NoaaTransport#executeAsync}. The calls are made one at a time,
+ * in order, but not necessarily on the same thread; an exception from any of them fails the request.
+ */
+public interface NoaaResponseConsumer<T> {
+
+    /**
+     * Called once with the status and headers. The response has no body; it arrives through {@link #data}.
+     */
+    void start(NoaaResponse response) throws IOException;
+
+    /**
+     * Called for each chunk of the decoded body. The buffer is only valid during the call.
+     */
+    void data(ByteBuffer data) throws IOException;
+
+    /**
+     * Called after the last chunk.
+     *
+     * @return the value the request's future completes with
+     */
+    T complete() throws IOException;
+}
@@ -0,0 +1,347 @@
+/*
+ * ________________________________________________________________________
+ * METRO.IO CONFIDENTIAL
+ * ________________________________________________________________________
+ *
+ * Copyright (c) 2018.
+ * Metro Labs Incorporated
+ * All Rights Reserved.
+ *
+ * NOTICE: All information contained herein is, and remains
+ * the property of Metro Labs Incorporated and its suppliers,
+ * if any. The intellectual and technical concepts contained
+ * herein are proprietary to Metro Labs Incorporated
+ * and its suppliers and may be covered by U.S. and Foreign Patents,
+ * patents in process, and are protected by trade secret or copyright law.
+ * Dissemination of this information or reproduction of this material
+ * is strictly forbidden unless prior written permission is obtained
+ * from Metro Labs Incorporated.
+ */
+
+package org.noaa;
+
+import org.apache.commons.csv.CSVFormat;
+import org.apache.commons.csv.CSVRecord;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDate;
+import java.time.format.DateTimeFormatter;
+import java.util.*;
+
+/**
+ * In-memory registry of the NOAA isd-history station list with a k-d tree for nearest-station lookups.
+ *
+ * Stations are indexed as points on the unit sphere, so distances are correct across the date line and
+ * near the poles. The tree is a balanced implicit tree over flat primitive arrays: the median of every
+ * range is its root, so there are no node objects and a lookup touches O(log n) cache lines plus
+ * whatever the year filter skips.
+ */
+public class NoaaStationRegistry {
+    private static Logger LOG = LoggerFactory.getLogger(NoaaStationRegistry.class);
+    public static final String HISTORY_URL = "https://www.ncei.noaa.gov/pub/data/noaa/isd-history.csv";
+    public static final double EARTH_RADIUS_KM = 6371.0088;
+    private static final DateTimeFormatter DATE = DateTimeFormatter.BASIC_ISO_DATE;
+
+    private final Map<String, NoaaStationHistory> byId = new LinkedHashMap<>();
+    private final NoaaStationHistory[] stations;
+    private final double[] x;
+    private final double[] y;
+    private final double[] z;
+    private final int[] startYear;
+    private final int[] endYear;
+
+    public NoaaStationRegistry(Collection<NoaaStationHistory> history) {
+        List<NoaaStationHistory> located = new ArrayList<>();
+        for (NoaaStationHistory station : history) {
+            byId.put(station.getId(), station);
+            if (station.getLatitude() != null && station.getLongitude() != null) located.add(station);
+        }
+
+        int n = located.size();
+        stations = located.toArray(new NoaaStationHistory[n]);
+        x = new double[n];
+        y = new double[n];
+        z = new double[n];
+        startYear = new int[n];
+        endYear = new int[n];
+        for (int i = 0; i < n; i++) {
+            NoaaStationHistory s = stations[i];
+            double lat = Math.toRadians(s.getLatitude());
+            double lon = Math.toRadians(s.getLongitude());
+            x[i] = Math.cos(lat) * Math.cos(lon);
+            y[i] = Math.cos(lat) * Math.sin(lon);
+            z[i] = Math.sin(lat);
+            startYear[i] = s.getInventoryStartYear();
+            endYear[i] = s.getInventoryEndYear();
+        }
+        build(0, n, 0);
+    }
+
+    /**
+     * Downloads and indexes the current station list from {@link #HISTORY_URL}.
+     */
+    public static NoaaStationRegistry download() throws IOException {
+        LOG.debug("Getting: {}", HISTORY_URL);
+        try (InputStream in = new URL(HISTORY_URL).openStream()) {
+            return load(in);
+        }
+    }
+
+    /**
+     * Reads an isd-history.csv. Rows without coordinates are kept for {@link #get(String)} but not indexed.
+     */
+    public static NoaaStationRegistry load(InputStream in) throws IOException {
+        List<NoaaStationHistory> history = new ArrayList<>();
+        try (Reader reader = new InputStreamReader(in, StandardCharsets.UTF_8)) {
+            for (CSVRecord c : CSVFormat.DEFAULT.withFirstRecordAsHeader().parse(reader)) {
+                history.add(toStationHistory(c));
+            }
+        }
+
+        return new NoaaStationRegistry(history);
+    }
+
+    private static NoaaStationHistory toStationHistory(CSVRecord c) {
+        NoaaStationHistory s = new NoaaStationHistory()
+                .setUsaf(c.get("USAF"))
+                .setWban(c.get("WBAN"))
+                .setStationName(c.get("STATION NAME"))
+                .setCountry(c.get("CTRY"))
+                .setRegion(c.get("STATE"))
+                .setLatitude(toCoordinate(c.get("LAT")))
+                .setLongitude(toCoordinate(c.get("LON")));
+        s.setId(s.getUsaf() + "-" + s.getWban());
+        // isd-history marks an unknown position with +00.000/+000.000; either value alone is a real coordinate
+        if (s.getLatitude() != null && s.getLatitude() == 0d && s.getLongitude() != null && s.getLongitude() == 0d) {
+            s.setLatitude(null).setLongitude(null);
+        }
+
+        if (!c.get("BEGIN").isEmpty() && !c.get("END").isEmpty()) {
+            LocalDate start = LocalDate.parse(c.get("BEGIN"), DATE);
+            LocalDate end = LocalDate.parse(c.get("END"), DATE);
+            s.setInventoryStart(start)
+                    .setInventoryEnd(end)
+                    .setInventoryStartYear(start.getYear())
+                    .setInventoryEndYear(end.getYear())
+                    .setInventoryYears(end.getYear() - start.getYear() + 1);
+        }
+
+        return s;
+    }
+
+    private static Double toCoordinate(String value) {
+        if (value == null || value.isEmpty()) return null;
+
+        double d = Double.parseDouble(value);
+        // -99999 marks an unknown value
+        if (d <= -999d) return null;
+
+        return d;
+    }
+
+    public int size() {
+        return byId.size();
+    }
+
+    public NoaaStationHistory get(String id) {
+        return byId.get(id);
+    }
+
+    public Collection<NoaaStationHistory> getStations() {
+        return Collections.unmodifiableCollection(byId.values());
+    }
+
+    /**
+     * @return up to k stations closest to the point, nearest first
+     */
+    public List<Neighbor> nearest(double latitude, double longitude, int k) {
+        return nearest(latitude, longitude, k, Integer.MIN_VALUE);
+    }
+
+    /**
+     * @param year only stations whose inventory covers the year are returned; Integer.MIN_VALUE for any
+     * @return up to k stations closest to the point, nearest first
+     */
+    public List<Neighbor> nearest(double latitude, double longitude, int k, int year) {
+        if (k <= 0 || stations.length == 0) return Collections.emptyList();
+
+        double lat = Math.toRadians(latitude);
+        double lon = Math.toRadians(longitude);
+        Search search = new Search(Math.cos(lat) * Math.cos(lon), Math.cos(lat) * Math.sin(lon), Math.sin(lat), k, year);
+        search(search, 0, stations.length, 0);
+
+        List<Neighbor> neighbors = new ArrayList<>(search.size);
+        for (int i = 0; i < search.size; i++) {
+            double chord = Math.sqrt(search.distance[i]);
+            neighbors.add(new Neighbor(stations[search.index[i]], 2 * EARTH_RADIUS_KM * Math.asin(Math.min(1, chord / 2))));
+        }
+        neighbors.sort(Comparator.comparingDouble(Neighbor::getDistance));
+        return neighbors;
+    }
+
+    /**
+     * Great-circle distance in kilometres.
+     */
+    public static double distance(double latitude1, double longitude1, double latitude2, double longitude2) {
+        double dLat = Math.toRadians(latitude2 - latitude1);
+        double dLon = Math.toRadians(longitude2 - longitude1);
+        double a = Math.sin(dLat / 2) * Math.sin(dLat / 2) + Math.cos(Math.toRadians(latitude1))
+                * Math.cos(Math.toRadians(latitude2)) * Math.sin(dLon / 2) * Math.sin(dLon / 2);
+        return 2 * EARTH_RADIUS_KM * Math.asin(Math.min(1, Math.sqrt(a)));
+    }
+
+    private double coordinate(int i, int axis) {
+        return axis == 0 ? x[i] : axis == 1 ? y[i] : z[i];
+    }
+
+    private void build(int lo, int hi, int depth) {
+        if (hi - lo <= 1) return;
+
+        int mid = (lo + hi) >>> 1;
+        select(lo, hi - 1, mid, depth % 3);
+        build(lo, mid, depth + 1);
+        build(mid + 1, hi, depth + 1);
+    }
+
+    /**
+     * Quickselect: leaves the element of rank k in [lo, hi] at k with smaller ones before it.
+     */
+    private void select(int lo, int hi, int k, int axis) {
+        while (hi > lo) {
+            double pivot = coordinate((lo + hi) >>> 1, axis);
+            int i = lo;
+            int j = hi;
+            while (i <= j) {
+                while (coordinate(i, axis) < pivot) i++;
+                while (coordinate(j, axis) > pivot) j--;
+                if (i <= j) swap(i++, j--);
+            }
+            if (k <= j) hi = j;
+            else if (k >= i) lo = i;
+            else return;
+        }
+    }
+
+    private void swap(int i, int j) {
+        NoaaStationHistory s = stations[i]; stations[i] = stations[j]; stations[j] = s;
+        double d = x[i]; x[i] = x[j]; x[j] = d;
+        d = y[i]; y[i] = y[j]; y[j] = d;
+        d = z[i]; z[i] = z[j]; z[j] = d;
+        int t = startYear[i]; startYear[i] = startYear[j]; startYear[j] = t;
+        t = endYear[i]; endYear[i] = endYear[j]; endYear[j] = t;
+    }
+
+    private void search(Search s, int lo, int hi, int depth) {
+        if (lo >= hi) return;
+
+        int mid = (lo + hi) >>> 1;
+        int axis = depth % 3;
+        if (s.year == Integer.MIN_VALUE || (startYear[mid] <= s.year && s.year <= endYear[mid])) {
+            double dx = x[mid] - s.x;
+            double dy = y[mid] - s.y;
+            double dz = z[mid] - s.z;
+            s.offer(mid, dx * dx + dy * dy + dz * dz);
+        }
+
+        double delta = s.coordinate(axis) - coordinate(mid, axis);
+        boolean left = delta < 0;
+        search(s, left ? lo : mid + 1, left ? mid : hi, depth + 1);
+        if (delta * delta < s.worst()) search(s, left ? mid + 1 : lo, left ? hi : mid, depth + 1);
+    }
+
+    /**
+     * k best candidates so far, kept as a binary max-heap on squared chord distance.
+     */
+    private static class Search {
+        final double x;
+        final double y;
+        final double z;
+        final int year;
+        final int[] index;
+        final double[] distance;
+        int size;
+
+        Search(double x, double y, double z, int k, int year) {
+            this.x = x;
+            this.y = y;
+            this.z = z;
+            this.year = year;
+            this.index = new int[k];
+            this.distance = new double[k];
+        }
+
+        double coordinate(int axis) {
+            return axis == 0 ? x : axis == 1 ? y : z;
+        }
+
+        double worst() {
+            return size < index.length ? Double.POSITIVE_INFINITY : distance[0];
+        }
+
+        void offer(int i, double d) {
+            if (size < index.length) {
+                int c = size++;
+                while (c > 0) {
+                    int p = (c - 1) >>> 1;
+                    if (distance[p] >= d) break;
+                    index[c] = index[p];
+                    distance[c] = distance[p];
+                    c = p;
+                }
+                index[c] = i;
+                distance[c] = d;
+            }
+            else if (d < distance[0]) {
+                int c = 0;
+                while (true) {
+                    int l = 2 * c + 1;
+                    if (l >= size) break;
+                    int r = l + 1;
+                    int m = r < size && distance[r] > distance[l] ? r : l;
+                    if (distance[m] <= d) break;
+                    index[c] = index[m];
+                    distance[c] = distance[m];
+                    c = m;
+                }
+                index[c] = i;
+                distance[c] = d;
+            }
+        }
+    }
+
+    /**
+     * A station and its great-circle distance from the query point in kilometres.
+     */
+    public static class Neighbor {
+        private final NoaaStationHistory station;
+        private final double distance;
+
+        Neighbor(NoaaStationHistory station, double distance) {
+            this.station = station;
+            this.distance = distance;
+        }
+
+        public NoaaStationHistory getStation() {
+            return station;
+        }
+
+        public double getDistance() {
+            return distance;
+        }
+
+        @Override
+        public String toString() {
+            return "Neighbor{" +
+                    "station=" + station.getId() +
+                    ", distance=" + distance +
+                    '}';
+        }
+    }
+}
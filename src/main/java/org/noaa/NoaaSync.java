@@ -0,0 +1,498 @@
+/*
+ * ________________________________________________________________________
+ * METRO.IO CONFIDENTIAL
+ * ________________________________________________________________________
+ *
+ * Copyright (c) 2018.
+ * Metro Labs Incorporated
+ * All Rights Reserved.
+ *
+ * NOTICE: All information contained herein is, and remains
+ * the property of Metro Labs Incorporated and its suppliers,
+ * if any. The intellectual and technical concepts contained
+ * herein are proprietary to Metro Labs Incorporated
+ * and its suppliers and may be covered by U.S. and Foreign Patents,
+ * patents in process, and are protected by trade secret or copyright law.
+ * Dissemination of this information or reproduction of this material
+ * is strictly forbidden unless prior written permission is obtained
+ * from Metro Labs Incorporated.
+ */
+
+package org.noaa;
+
+import org.noaa.IntegratedSurfaceData.DataHelper;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.*;
+import java.net.HttpURLConnection;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.time.Clock;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.function.Consumer;
+
+/**
+ * Polls station-years for observations added since the previous poll, typically the current year's files
+ * which NOAA extends in place during the day.
+ *
+ * For every station-year the sync remembers the last observation hour it emitted, how many bytes of the
+ * file it has consumed up to the last complete line, the header line, the lines of the newest hour and the
+ * file's ETag. The next poll sends {@code If-None-Match} so an unchanged file answers {@code 304} without a
+ * body, and {@code Range} starting at the newest hour's lines so a grown file sends only those and the new
+ * ones. The echoed lines must match what was read before, which proves the file was appended to rather
+ * than rewritten; {@code If-Range} cannot be used for this since appending changes the ETag.
+ *
+ * When the server ignores the range the whole file comes back with {@code 200}; it is parsed as usual and
+ * rows at or before the remembered hour are skipped. A file that shrank or whose echoed lines differ is
+ * fetched again from the start in the same way. Either way only new hours are emitted, chosen by the
+ * client's {@link DedupPolicy}. In the current year the newest hour of the file is held back until a later
+ * hour is appended, since more reports for it may still arrive; an hour is final once it has been emitted,
+ * so the result matches a full {@link NoaaClient#load} of the same file.
+ *
+ * Requests are retried, and dropped bodies resumed, by the client's {@link RetryPolicy}.
+ *
+ * State lives in memory, and with a state directory also in {@code <dir>/<year>/<station>.sync.properties}
+ * so polling resumes after a restart. Polls of the same station-year must not run concurrently.
+ *
+ * <pre>
+ * NoaaSync sync = client.sync(Paths.get("/var/cache/noaa-sync"));
+ * for (IntegratedSurfaceData i : sync.poll(2018, "720545-00169")) {
+ *     ...
+ * }
+ * </pre>
+ */
+public class NoaaSync {
+    private static Logger LOG = LoggerFactory.getLogger(NoaaSync.class);
+    private static final String STATE_SUFFIX = ".sync.properties";
+
+    private final NoaaClient client;
+    private final Path stateDir;
+    private final ConcurrentMap<StationYear, State> states = new ConcurrentHashMap<>();
+    private Clock clock = Clock.systemUTC();
+
+    /**
+     * @param stateDir where sync state is persisted, null to keep it in memory only
+     */
+    public NoaaSync(NoaaClient client, Path stateDir) {
+        this.client = client;
+        this.stateDir = stateDir;
+    }
+
+    public Path getStateDir() {
+        return stateDir;
+    }
+
+    public Clock getClock() {
+        return clock;
+    }
+
+    /**
+     * @param clock tells which year is still growing
+     */
+    public NoaaSync setClock(Clock clock) {
+        this.clock = clock;
+        return this;
+    }
+
+    /**
+     * Past years are final in the global-hourly archive, so their newest hour can be emitted.
+     */
+    public boolean isGrowing(int year) {
+        return year >= clock.instant().atZone(ZoneOffset.UTC).getYear();
+    }
+
+    /**
+     * @return the observations added since the last poll, in time order
+     */
+    public List<IntegratedSurfaceData> poll(int year, String station) throws IOException {
+        List<IntegratedSurfaceData> collection = new ArrayList<>();
+        forEachNew(year, station, collection::add);
+        return collection;
+    }
+
+    /**
+     * Hands each observation added since the last poll to the action.
+     *
+     * @return the number of observations emitted
+     */
+    public int forEachNew(int year, String station, Consumer<IntegratedSurfaceData> action) throws IOException {
+        StationYear key = StationYear.of(station, year);
+        State state = getState(key);
+
+        Integer emitted = sync(state, action);
+        if (emitted == null) {
+            LOG.debug("{} was rewritten, syncing from the start", key);
+            State restart = new State(key);
+            restart.lastEpochHour = state.lastEpochHour;
+            emitted = sync(restart, action);
+        }
+
+        return emitted;
+    }
+
+    /**
+     * @return the number of observations emitted, or null when the file no longer extends what was read
+     */
+    private Integer sync(State state, Consumer<IntegratedSurfaceData> action) throws IOException {
+        StationYear key = state.key;
+        boolean growing = isGrowing(key.getYear());
+        byte[] overlap = state.tail == null ? null : state.tail.getBytes(StandardCharsets.UTF_8);
+        boolean ranged = state.offset > 0 && state.header != null && overlap != null && overlap.length <= state.offset;
+        long from = ranged ? state.offset - overlap.length : 0;
+
+        NoaaRequest request = client.request(key.getYear(), key.getStation(), 0)
+                // byte ranges must address the file itself, not a compressed rendition of it
+                .setHeader("Accept-Encoding", "identity")
+                // a year that has ended must still be read once more to release its held back hour
+                .setHeader("If-None-Match", state.held && !growing ? null : state.etag);
+        if (ranged) request.setHeader("Range", "bytes=" + from + "-");
+
+        LOG.debug("Syncing: {} from byte {}", request.getUrl(), from);
+        long started = client.getMetrics() == NoaaMetrics.NOOP ? 0 : System.nanoTime();
+        try (NoaaResponse response = client.execute(request)) {
+            if (response.getStatus() == HttpURLConnection.HTTP_NOT_MODIFIED) return 0;
+            if (ranged && response.getStatus() == 416) return null;
+
+            response.checkSuccess(request);
+            boolean partial = ranged && response.getStatus() == HttpURLConnection.HTTP_PARTIAL;
+            if (partial && !isRangeFrom(response.getHeader("Content-Range"), from)) {
+                throw new IOException("Unexpected Content-Range " + response.getHeader("Content-Range") + " for " + request);
+            }
+
+            InputStream body = client.body(request, response, partial ? from : 0);
+            LineTracker tracker = new LineTracker(client.meter(body, key, started, true), !partial);
+            try {
+                if (partial && !tracker.startsWith(overlap)) return null;
+
+                // the echoed lines are parsed again so the newest hour is decided with all of its reports
+                InputStream in = partial
+                        ? new SequenceInputStream(new ByteArrayInputStream((state.header + "\n" + state.tail).getBytes(StandardCharsets.UTF_8)), tracker)
+                        : tracker;
+
+                int emitted = 0;
+                int lastEpochHour = state.lastEpochHour;
+                IntegratedSurfaceData held = null;
+                if (partial || tracker.hasData()) {
+                    try (IntegratedSurfaceDataReader reader = new IntegratedSurfaceDataReader(in, client.getDedupPolicy(), key, client.getMetrics())
+                            .setErrorPolicy(client.getErrorPolicy())
+                            .setMaxErrors(client.getMaxErrors())) {
+                        while (reader.hasNext()) {
+                            IntegratedSurfaceData i = reader.next();
+                            if (DataHelper.toEpochHour(i) <= lastEpochHour) continue;
+
+                            if (held != null) {
+                                action.accept(held);
+                                lastEpochHour = DataHelper.toEpochHour(held);
+                                emitted++;
+                            }
+                            held = i;
+                        }
+                    }
+                }
+                if (held != null && !growing) {
+                    action.accept(held);
+                    lastEpochHour = DataHelper.toEpochHour(held);
+                    held = null;
+                    emitted++;
+                }
+
+                State next = new State(key);
+                next.lastEpochHour = lastEpochHour;
+                // a server that ignores the range sends the whole file, counted from its first byte
+                next.offset = (partial ? from : 0) + tracker.getLineEnd();
+                next.header = partial ? state.header : tracker.getHeader();
+                next.tail = tracker.getTail();
+                next.held = held != null;
+                next.etag = response.getHeader("ETag");
+                save(next);
+
+                return emitted;
+            }
+            finally {
+                tracker.close();
+            }
+        }
+    }
+
+    /**
+     * @return what the sync remembers about the station-year, empty if it was never polled
+     */
+    public State getState(StationYear key) throws IOException {
+        State state = states.get(key);
+        if (state == null) {
+            state = load(key);
+            State previous = states.putIfAbsent(key, state);
+            if (previous != null) state = previous;
+        }
+
+        return state;
+    }
+
+    /**
+     * Forgets the station-year so the next poll starts from the beginning of the file.
+     */
+    public void reset(StationYear key) throws IOException {
+        states.remove(key);
+        if (stateDir != null) Files.deleteIfExists(statePath(key));
+    }
+
+    private static boolean isRangeFrom(String contentRange, long offset) {
+        return contentRange != null && contentRange.trim().startsWith("bytes " + offset + "-");
+    }
+
+    private State load(StationYear key) throws IOException {
+        State state = new State(key);
+        if (stateDir == null) return state;
+
+        Path path = statePath(key);
+        if (!Files.exists(path)) return state;
+
+        Properties properties = new Properties();
+        try (InputStream in = Files.newInputStream(path)) {
+            properties.load(in);
+        }
+        state.lastEpochHour = Integer.parseInt(properties.getProperty("lastEpochHour", Integer.toString(Integer.MIN_VALUE)));
+        state.offset = Long.parseLong(properties.getProperty("offset", "0"));
+        state.header = properties.getProperty("header");
+        state.tail = properties.getProperty("tail", properties.getProperty("lastLine"));
+        state.held = Boolean.parseBoolean(properties.getProperty("held"));
+        state.etag = properties.getProperty("etag");
+        return state;
+    }
+
+    private void save(State state) throws IOException {
+        states.put(state.key, state);
+        if (stateDir == null) return;
+
+        Properties properties = new Properties();
+        properties.setProperty("lastEpochHour", Integer.toString(state.lastEpochHour));
+        properties.setProperty("offset", Long.toString(state.offset));
+        if (state.header != null) properties.setProperty("header", state.header);
+        if (state.tail != null) properties.setProperty("tail", state.tail);
+        if (state.held) properties.setProperty("held", "true");
+        if (state.etag != null) properties.setProperty("etag", state.etag);
+
+        Path target = statePath(state.key);
+        Path dir = Files.createDirectories(target.getParent());
+        Path temp = Files.createTempFile(dir, target.getFileName().toString(), ".tmp");
+        try {
+            try (OutputStream out = Files.newOutputStream(temp)) {
+                properties.store(out, null);
+            }
+            Files.move(temp, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        }
+        finally {
+            Files.deleteIfExists(temp);
+        }
+    }
+
+    private Path statePath(StationYear key) {
+        return stateDir.resolve(Integer.toString(key.getYear()))
+                .resolve(key.getStation().replace("-", "") + STATE_SUFFIX);
+    }
+
+    /**
+     * Sync progress for one station-year.
+     */
+    public static class State {
+        private final StationYear key;
+        private int lastEpochHour = Integer.MIN_VALUE;
+        private long offset;
+        private String header;
+        private String tail;
+        private boolean held;
+        private String etag;
+
+        State(StationYear key) {
+            this.key = key;
+        }
+
+        public StationYear getKey() {
+            return key;
+        }
+
+        /**
+         * @return the last hour emitted, or {@link Integer#MIN_VALUE} before the first poll
+         */
+        public int getLastEpochHour() {
+            return lastEpochHour;
+        }
+
+        /**
+         * @return bytes of the file consumed, up to and including the last complete line
+         */
+        public long getOffset() {
+            return offset;
+        }
+
+        public String getHeader() {
+            return header;
+        }
+
+        /**
+         * @return the complete lines of the newest hour consumed, including their line terminators
+         */
+        public String getTail() {
+            return tail;
+        }
+
+        /**
+         * @return true when the newest hour consumed has not been emitted yet
+         */
+        public boolean isHeld() {
+            return held;
+        }
+
+        public String getEtag() {
+            return etag;
+        }
+
+        @Override
+        public String toString() {
+            return "State{" +
+                    "key=" + key +
+                    ", lastEpochHour=" + lastEpochHour +
+                    ", offset=" + offset +
+                    ", held=" + held +
+                    ", etag=" + etag +
+                    '}';
+        }
+    }
+
+    /**
+     * Counts the bytes read through it, remembering where the last complete line ended, the run of lines
+     * sharing that line's hour and, for a whole file, the header line. Files are in time order, so the run
+     * holds every line of the newest hour.
+     */
+    private static class LineTracker extends FilterInputStream {
+        private static final int NONE = -2;
+
+        private final boolean captureHeader;
+        private String header;
+        private byte[] line = new byte[512];
+        private int lineLength;
+        private byte[] tail = new byte[512];
+        private int tailLength;
+        private byte[] tailHour;
+        private long count;
+        private long lineEnd;
+        private int peeked = NONE;
+
+        LineTracker(InputStream in, boolean captureHeader) {
+            super(in);
+            this.captureHeader = captureHeader;
+        }
+
+        /**
+         * Peeks one byte so an empty body can be told apart before the parser insists on a header.
+         */
+        boolean hasData() throws IOException {
+            if (peeked == NONE) peeked = in.read();
+            return peeked >= 0;
+        }
+
+        /**
+         * Consumes as many bytes as the prefix has and compares them with it.
+         */
+        boolean startsWith(byte[] prefix) throws IOException {
+            byte[] actual = new byte[prefix.length];
+            int n = 0;
+            while (n < actual.length) {
+                int read = read(actual, n, actual.length - n);
+                if (read < 0) return false;
+                n += read;
+            }
+
+            return Arrays.equals(prefix, actual);
+        }
+
+        @Override
+        public int read() throws IOException {
+            byte[] b = new byte[1];
+            return read(b, 0, 1) < 0 ? -1 : b[0] & 0xff;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (len == 0) return 0;
+            if (peeked == -1) return -1;
+
+            int n;
+            if (peeked >= 0) {
+                b[off] = (byte) peeked;
+                peeked = NONE;
+                n = 1;
+            }
+            else {
+                n = in.read(b, off, len);
+                if (n < 0) return n;
+            }
+
+            for (int i = off; i < off + n; i++) {
+                if (lineLength == line.length) line = Arrays.copyOf(line, lineLength * 2);
+                line[lineLength++] = b[i];
+                count++;
+                if (b[i] == '\n') endLine();
+            }
+
+            return n;
+        }
+
+        private void endLine() {
+            lineEnd = count;
+            if (captureHeader && header == null) {
+                int length = lineLength - 1;
+                if (length > 0 && line[length - 1] == '\r') length--;
+                header = new String(line, 0, length, StandardCharsets.UTF_8);
+                lineLength = 0;
+                return;
+            }
+
+            byte[] hour = hourOf(line, lineLength);
+            if (hour == null || !Arrays.equals(hour, tailHour)) tailLength = 0;
+            tailHour = hour;
+            if (tailLength + lineLength > tail.length) tail = Arrays.copyOf(tail, Math.max(tail.length * 2, tailLength + lineLength));
+            System.arraycopy(line, 0, tail, tailLength, lineLength);
+            tailLength += lineLength;
+            lineLength = 0;
+        }
+
+        /**
+         * @return the {@code yyyy-MM-ddTHH} prefix of the line's DATE column, or null if it has none
+         */
+        private static byte[] hourOf(byte[] line, int length) {
+            int i = 0;
+            while (i < length && line[i] != ',') i++;
+            if (++i < length && line[i] == '"') i++;
+            if (i + 13 > length || line[i + 10] != 'T') return null;
+
+            return Arrays.copyOfRange(line, i, i + 13);
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            throw new IOException("skip is not supported");
+        }
+
+        long getLineEnd() {
+            return lineEnd;
+        }
+
+        String getHeader() {
+            return header;
+        }
+
+        String getTail() {
+            return tailLength == 0 ? null : new String(tail, 0, tailLength, StandardCharsets.UTF_8);
+        }
+    }
+}
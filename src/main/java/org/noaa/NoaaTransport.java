@@ -0,0 +1,47 @@
+/*
+ * ________________________________________________________________________
+ * METRO.IO CONFIDENTIAL
+ * ________________________________________________________________________
+ *
+ * Copyright (c) 2018.
+ * Metro Labs Incorporated
+ * All Rights Reserved.
+ *
+ * NOTICE: All information contained herein is, and remains
+ * the property of Metro Labs Incorporated and its suppliers,
+ * if any. The intellectual and technical concepts contained
+ * herein are proprietary to Metro Labs Incorporated
+ * and its suppliers and may be covered by U.S. and Foreign Patents,
+ * patents in process, and are protected by trade secret or copyright law.
+ * Dissemination of this information or reproduction of this material
+ * is strictly forbidden unless prior written permission is obtained
+ * from Metro Labs Incorporated.
+ */
+
+package org.noaa;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * How {@link NoaaClient} talks HTTP. Implementations ask for gzip and hand back decoded bodies.
+ *
+ * <ul>
+ * <li>{@link UrlConnectionTransport}, the default, blocks a thread per download.</li>
+ * <li>{@link AsyncHttpTransport} multiplexes all downloads over a few I/O threads with a pooled,
+ * keep-alive connection manager and pushes body chunks straight into the parser.</li>
+ * </ul>
+ */
+public interface NoaaTransport extends Closeable {
+
+    /**
+     * Sends the request and blocks until the response headers arrive. The caller must close the response.
+     */
+    NoaaResponse execute(NoaaRequest request) throws IOException;
+
+    /**
+     * Sends the request and streams the response into the consumer as it arrives.
+     */
+    <T> CompletableFuture<T> executeAsync(NoaaRequest request, NoaaResponseConsumer<T> consumer);
+}
@@ -0,0 +1,175 @@
+/*
+ * ________________________________________________________________________
+ * METRO.IO CONFIDENTIAL
+ * ________________________________________________________________________
+ *
+ * Copyright (c) 2018.
+ * Metro Labs Incorporated
+ * All Rights Reserved.
+ *
+ * NOTICE: All information contained herein is, and remains
+ * the property of Metro Labs Incorporated and its suppliers,
+ * if any. The intellectual and technical concepts contained
+ * herein are proprietary to Metro Labs Incorporated
+ * and its suppliers and may be covered by U.S. and Foreign Patents,
+ * patents in process, and are protected by trade secret or copyright law.
+ * Dissemination of this information or reproduction of this material
+ * is strictly forbidden unless prior written permission is obtained
+ * from Metro Labs Incorporated.
+ */
+
+package org.noaa;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.util.Map;
+
+/**
+ * A response body that survives a dropped connection: when a read fails, or the body ends short of its
+ * {@code Content-Length}, the request is sent again with {@code Range: bytes=<received>-} and reading
+ * carries on where it stopped, so only the missing tail is downloaded again. A server that ignores the
+ * range answers {@code 200} and the bytes already read are skipped. Attempts and backoff follow the
+ * {@link RetryPolicy}.
+ *
+ * Offsets count decoded bytes, so resumed requests ask for the identity encoding.
+ */
+class ResumingInputStream extends InputStream {
+    private static Logger LOG = LoggerFactory.getLogger(ResumingInputStream.class);
+
+    private final NoaaTransport transport;
+    private final NoaaRequest request;
+    private final RetryPolicy retryPolicy;
+    private NoaaResponse response;
+    private InputStream in;
+    private long position;
+    private long length;
+    private int attempt = 1;
+
+    /**
+     * @param offset where the body starts in the file, non-zero when the response answers a byte range
+     */
+    ResumingInputStream(NoaaTransport transport, NoaaRequest request, NoaaResponse response, RetryPolicy retryPolicy, long offset) {
+        this.transport = transport;
+        this.request = request;
+        this.retryPolicy = retryPolicy;
+        this.response = response;
+        this.in = response.getBody();
+        this.position = offset;
+        this.length = response.getHeader("Content-Encoding") == null ? contentLength(response, offset) : -1;
+    }
+
+    /**
+     * @return offset in the file of the next byte to read
+     */
+    long getPosition() {
+        return position;
+    }
+
+    @Override
+    public int read() throws IOException {
+        byte[] b = new byte[1];
+        int n = read(b, 0, 1);
+        return n < 0 ? -1 : b[0] & 0xff;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        while (true) {
+            try {
+                int n = in.read(b, off, len);
+                if (n < 0) {
+                    if (length >= 0 && position < length) {
+                        throw new EOFException(String.format("Body of %s ended at byte %d of %d", request.getUrl(), position, length));
+                    }
+                    return -1;
+                }
+                position += n;
+                return n;
+            }
+            catch (IOException e) {
+                resume(e);
+            }
+        }
+    }
+
+    private void resume(IOException failure) throws IOException {
+        IOException last = failure;
+        while (retryPolicy.shouldRetry(attempt, last)) {
+            LOG.debug("Resuming {} at byte {} after {}", request.getUrl(), position, last.toString());
+            close();
+            retryPolicy.backoff(attempt++);
+
+            NoaaRequest retry = new NoaaRequest(request.getUrl())
+                    .setConnectTimeout(request.getConnectTimeout())
+                    .setReadTimeout(request.getReadTimeout());
+            for (Map.Entry<String, String> header : request.getHeaders().entrySet()) {
+                if (!header.getKey().startsWith("If-")) retry.setHeader(header.getKey(), header.getValue());
+            }
+            retry.setHeader("Accept-Encoding", "identity").setHeader("Range", "bytes=" + position + "-");
+
+            try {
+                response = transport.execute(retry);
+                if (response.getStatus() == HttpURLConnection.HTTP_PARTIAL && isRangeFrom(response.getHeader("Content-Range"), position)) {
+                    in = response.getBody();
+                    length = contentLength(response, position);
+                    return;
+                }
+                response.checkSuccess(retry);
+                if (response.getStatus() != HttpURLConnection.HTTP_OK) {
+                    throw new NoaaHttpException(response.getStatus(), "Unexpected status " + response.getStatus() + " resuming " + request.getUrl());
+                }
+
+                in = response.getBody();
+                length = contentLength(response, 0);
+                skip(in, position);
+                return;
+            }
+            catch (IOException e) {
+                last = e;
+            }
+        }
+
+        // the last attempt's error response is not read any further
+        close();
+        if (last != failure) failure.addSuppressed(last);
+        throw failure;
+    }
+
+    private static void skip(InputStream in, long n) throws IOException {
+        byte[] buffer = new byte[8192];
+        while (n > 0) {
+            int read = in.read(buffer, 0, (int) Math.min(buffer.length, n));
+            if (read < 0) throw new EOFException("Body shorter than the bytes already read");
+            n -= read;
+        }
+    }
+
+    private static long contentLength(NoaaResponse response, long offset) {
+        String value = response.getHeader("Content-Length");
+        if (value == null) return -1;
+
+        try {
+            return offset + Long.parseLong(value.trim());
+        }
+        catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    /**
+     * @return true for {@code bytes <from>-<to>/<length>}
+     */
+    private static boolean isRangeFrom(String contentRange, long from) {
+        return contentRange != null && contentRange.trim().startsWith("bytes " + from + "-");
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (response != null) response.close();
+    }
+}
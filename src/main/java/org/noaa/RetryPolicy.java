@@ -0,0 +1,174 @@
+/*
+ * ________________________________________________________________________
+ * METRO.IO CONFIDENTIAL
+ * ________________________________________________________________________
+ *
+ * Copyright (c) 2018.
+ * Metro Labs Incorporated
+ * All Rights Reserved.
+ *
+ * NOTICE: All information contained herein is, and remains
+ * the property of Metro Labs Incorporated and its suppliers,
+ * if any. The intellectual and technical concepts contained
+ * herein are proprietary to Metro Labs Incorporated
+ * and its suppliers and may be covered by U.S. and Foreign Patents,
+ * patents in process, and are protected by trade secret or copyright law.
+ * Dissemination of this information or reproduction of this material
+ * is strictly forbidden unless prior written permission is obtained
+ * from Metro Labs Incorporated.
+ */
+
+package org.noaa;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.MalformedURLException;
+import java.net.SocketTimeoutException;
+import java.net.UnknownHostException;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * How many times a request is attempted and how long to wait in between. The wait doubles from
+ * {@code initialBackoff} up to {@code maxBackoff}, and a random half of it is jittered away so that
+ * clients failing together do not retry together.
+ *
+ * Connection failures, timeouts, truncated bodies and the statuses 408, 429, 500, 502, 503 and 504 are
+ * retried. Other 4xx statuses, unknown hosts and interrupts are not.
+ */
+public final class RetryPolicy {
+    private static final RetryPolicy NONE = new RetryPolicy(1, 0, 0, false, 0);
+
+    private final int maxAttempts;
+    private final long initialBackoff;
+    private final long maxBackoff;
+    private final boolean bounded;
+    private final long deadline;
+
+    private RetryPolicy(int maxAttempts, long initialBackoff, long maxBackoff, boolean bounded, long deadline) {
+        this.maxAttempts = maxAttempts;
+        this.initialBackoff = initialBackoff;
+        this.maxBackoff = maxBackoff;
+        this.bounded = bounded;
+        this.deadline = deadline;
+    }
+
+    /**
+     * @return a policy that tries once
+     */
+    public static RetryPolicy none() {
+        return NONE;
+    }
+
+    /**
+     * @param maxAttempts attempts in total, including the first
+     */
+    public static RetryPolicy exponential(int maxAttempts, long initialBackoff, long maxBackoff, TimeUnit unit) {
+        if (maxAttempts < 1) throw new IllegalArgumentException("maxAttempts must be positive");
+        if (initialBackoff < 0 || maxBackoff < initialBackoff) throw new IllegalArgumentException("Invalid backoff");
+
+        return new RetryPolicy(maxAttempts, unit.toMillis(initialBackoff), unit.toMillis(maxBackoff), false, 0);
+    }
+
+    /**
+     * @param deadline a {@link System#nanoTime()} value after which no attempt is retried
+     * @return the same policy, with backoffs cut short at the deadline
+     */
+    RetryPolicy until(long deadline) {
+        return new RetryPolicy(maxAttempts, initialBackoff, maxBackoff, true, deadline);
+    }
+
+    public int getMaxAttempts() {
+        return maxAttempts;
+    }
+
+    /**
+     * @return in milliseconds
+     */
+    public long getInitialBackoff() {
+        return initialBackoff;
+    }
+
+    /**
+     * @return in milliseconds
+     */
+    public long getMaxBackoff() {
+        return maxBackoff;
+    }
+
+    /**
+     * @param attempt the 1-based attempt that just failed
+     * @return the wait before the next attempt in milliseconds, between half and all of the exponential step
+     */
+    public long getBackoff(int attempt) {
+        long step = initialBackoff << Math.min(attempt - 1, 30);
+        long backoff = step < 0 ? maxBackoff : Math.min(step, maxBackoff);
+        long half = backoff / 2;
+        return half + ThreadLocalRandom.current().nextLong(backoff - half + 1);
+    }
+
+    public boolean isRetryable(int status) {
+        switch (status) {
+            case 408:
+            case 429:
+            case 500:
+            case 502:
+            case 503:
+            case 504:
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    public boolean isRetryable(IOException e) {
+        if (e instanceof NoaaHttpException) return isRetryable(((NoaaHttpException) e).getStatus());
+        if (e instanceof InterruptedIOException) return e instanceof SocketTimeoutException;
+
+        return !(e instanceof FileNotFoundException || e instanceof UnknownHostException || e instanceof MalformedURLException);
+    }
+
+    /**
+     * @return whether another attempt should follow the given failed one
+     */
+    boolean shouldRetry(int attempt, IOException e) {
+        return attempt < maxAttempts && isRetryable(e) && remaining() > 0;
+    }
+
+    /**
+     * @return whether another attempt should follow the given one that answered with the status
+     */
+    boolean shouldRetry(int attempt, int status) {
+        return attempt < maxAttempts && isRetryable(status) && remaining() > 0;
+    }
+
+    /**
+     * @return milliseconds left before the deadline, {@link Long#MAX_VALUE} without one
+     */
+    private long remaining() {
+        return bounded ? TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime()) : Long.MAX_VALUE;
+    }
+
+    /**
+     * Waits out the backoff after the given failed attempt, at most until the deadline.
+     */
+    void backoff(int attempt) throws InterruptedIOException {
+        try {
+            Thread.sleep(Math.max(0, Math.min(getBackoff(attempt), remaining())));
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted waiting to retry");
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "RetryPolicy{" +
+                "maxAttempts=" + maxAttempts +
+                ", initialBackoff=" + initialBackoff +
+                ", maxBackoff=" + maxBackoff +
+                '}';
+    }
+}
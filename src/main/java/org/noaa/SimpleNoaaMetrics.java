@@ -0,0 +1,216 @@
+/*
+ * ________________________________________________________________________
+ * METRO.IO CONFIDENTIAL
+ * ________________________________________________________________________
+ *
+ * Copyright (c) 2018.
+ * Metro Labs Incorporated
+ * All Rights Reserved.
+ *
+ * NOTICE: All information contained herein is, and remains
+ * the property of Metro Labs Incorporated and its suppliers,
+ * if any. The intellectual and technical concepts contained
+ * herein are proprietary to Metro Labs Incorporated
+ * and its suppliers and may be covered by U.S. and Foreign Patents,
+ * patents in process, and are protected by trade secret or copyright law.
+ * Dissemination of this information or reproduction of this material
+ * is strictly forbidden unless prior written permission is obtained
+ * from Metro Labs Incorporated.
+ */
+
+package org.noaa;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Keeps {@link NoaaMetrics} totals in {@link LongAdder}s, which stay cheap when many downloads report at
+ * once, plus histograms of download latency and parse cost per row.
+ *
+ * <pre>
+ * SimpleNoaaMetrics metrics = new SimpleNoaaMetrics();
+ * NoaaClient client = new NoaaClient().setMetrics(metrics);
+ * ...
+ * LOG.info("{}", metrics);
+ * </pre>
+ */
+public class SimpleNoaaMetrics implements NoaaMetrics {
+    private final LongAdder downloads = new LongAdder();
+    private final LongAdder bytesDownloaded = new LongAdder();
+    private final Histogram downloadLatency = new Histogram();
+    private final LongAdder cacheHits = new LongAdder();
+    private final LongAdder cacheMisses = new LongAdder();
+    private final LongAdder files = new LongAdder();
+    private final LongAdder rowsParsed = new LongAdder();
+    private final LongAdder rowsRejected = new LongAdder();
+    private final LongAdder duplicates = new LongAdder();
+    private final LongAdder parseNanos = new LongAdder();
+    private final Histogram parseNanosPerRow = new Histogram();
+
+    @Override
+    public void downloaded(StationYear key, long bytes, long nanos) {
+        downloads.increment();
+        bytesDownloaded.add(bytes);
+        downloadLatency.record(nanos);
+    }
+
+    @Override
+    public void cacheHit(StationYear key) {
+        cacheHits.increment();
+    }
+
+    @Override
+    public void cacheMiss(StationYear key) {
+        cacheMisses.increment();
+    }
+
+    @Override
+    public void parsed(StationYear key, long rows, long rejected, long duplicates, long nanos) {
+        files.increment();
+        rowsParsed.add(rows);
+        rowsRejected.add(rejected);
+        this.duplicates.add(duplicates);
+        parseNanos.add(nanos);
+        if (rows > 0) parseNanosPerRow.record(nanos / rows);
+    }
+
+    public long getDownloads() {
+        return downloads.sum();
+    }
+
+    public long getBytesDownloaded() {
+        return bytesDownloaded.sum();
+    }
+
+    /**
+     * @return time from request to end of body, in nanoseconds
+     */
+    public Histogram getDownloadLatency() {
+        return downloadLatency;
+    }
+
+    public long getCacheHits() {
+        return cacheHits.sum();
+    }
+
+    public long getCacheMisses() {
+        return cacheMisses.sum();
+    }
+
+    /**
+     * @return hits over lookups, NaN before the first lookup
+     */
+    public double getCacheHitRate() {
+        long hits = cacheHits.sum();
+        long lookups = hits + cacheMisses.sum();
+        return lookups == 0 ? Double.NaN : (double) hits / lookups;
+    }
+
+    public long getFilesParsed() {
+        return files.sum();
+    }
+
+    public long getRowsParsed() {
+        return rowsParsed.sum();
+    }
+
+    public long getRowsRejected() {
+        return rowsRejected.sum();
+    }
+
+    public long getDuplicates() {
+        return duplicates.sum();
+    }
+
+    public long getParseNanos() {
+        return parseNanos.sum();
+    }
+
+    /**
+     * @return overall parse time per row, NaN before the first row
+     */
+    public double getParseNanosPerRow() {
+        long rows = rowsParsed.sum();
+        return rows == 0 ? Double.NaN : (double) parseNanos.sum() / rows;
+    }
+
+    /**
+     * @return the distribution of per-file parse cost, in nanoseconds per row
+     */
+    public Histogram getParseNanosPerRowHistogram() {
+        return parseNanosPerRow;
+    }
+
+    @Override
+    public String toString() {
+        return "SimpleNoaaMetrics{" +
+                "downloads=" + getDownloads() +
+                ", bytesDownloaded=" + getBytesDownloaded() +
+                ", downloadP50Ms=" + TimeUnit.NANOSECONDS.toMillis(downloadLatency.getPercentile(0.5)) +
+                ", downloadP99Ms=" + TimeUnit.NANOSECONDS.toMillis(downloadLatency.getPercentile(0.99)) +
+                ", cacheHitRate=" + getCacheHitRate() +
+                ", rowsParsed=" + getRowsParsed() +
+                ", rowsRejected=" + getRowsRejected() +
+                ", duplicates=" + getDuplicates() +
+                ", parseNanosPerRow=" + getParseNanosPerRow() +
+                '}';
+    }
+
+    /**
+     * A lock-free histogram with power-of-two buckets: bucket {@code b} counts values in
+     * {@code [2^(b-1), 2^b)}, so percentiles are exact to within a factor of two and the whole range of a
+     * long fits in 64 buckets.
+     */
+    public static class Histogram {
+        private final LongAdder[] buckets = new LongAdder[65];
+        private final LongAdder count = new LongAdder();
+        private final LongAdder total = new LongAdder();
+
+        Histogram() {
+            for (int i = 0; i < buckets.length; i++) buckets[i] = new LongAdder();
+        }
+
+        public void record(long value) {
+            if (value < 0) value = 0;
+
+            buckets[64 - Long.numberOfLeadingZeros(value)].increment();
+            count.increment();
+            total.add(value);
+        }
+
+        public long getCount() {
+            return count.sum();
+        }
+
+        public long getTotal() {
+            return total.sum();
+        }
+
+        /**
+         * @return NaN when empty
+         */
+        public double getMean() {
+            long n = count.sum();
+            return n == 0 ? Double.NaN : (double) total.sum() / n;
+        }
+
+        /**
+         * @param q between 0 and 1
+         * @return the upper bound of the bucket holding the q-th value, 0 when empty
+         */
+        public long getPercentile(double q) {
+            long[] counts = new long[buckets.length];
+            long n = 0;
+            for (int i = 0; i < counts.length; i++) n += counts[i] = buckets[i].sum();
+            if (n == 0) return 0;
+
+            long rank = Math.max(1, (long) Math.ceil(q * n));
+            for (int i = 0; i < counts.length; i++) {
+                rank -= counts[i];
+                if (rank <= 0) return i == 0 ? 0 : i == 64 ? Long.MAX_VALUE : (1L << i) - 1;
+            }
+
+            return Long.MAX_VALUE;
+        }
+    }
+}
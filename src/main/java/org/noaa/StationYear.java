@@ -0,0 +1,68 @@
+/*
+ * ________________________________________________________________________
+ * METRO.IO CONFIDENTIAL
+ * ________________________________________________________________________
+ *
+ * Copyright (c) 2018.
+ * Metro Labs Incorporated
+ * All Rights Reserved.
+ *
+ * NOTICE: All information contained herein is, and remains
+ * the property of Metro Labs Incorporated and its suppliers,
+ * if any. The intellectual and technical concepts contained
+ * herein are proprietary to Metro Labs Incorporated
+ * and its suppliers and may be covered by U.S. and Foreign Patents,
+ * patents in process, and are protected by trade secret or copyright law.
+ * Dissemination of this information or reproduction of this material
+ * is strictly forbidden unless prior written permission is obtained
+ * from Metro Labs Incorporated.
+ */
+
+package org.noaa;
+
+import java.util.Objects;
+
+/**
+ * Identifies one NOAA global-hourly file: a station (USAF-WBAN, e.g. 720545-00169) and a year.
+ */
+public final class StationYear {
+    private final String station;
+    private final int year;
+
+    public StationYear(String station, int year) {
+        this.station = Objects.requireNonNull(station, "station");
+        this.year = year;
+    }
+
+    public static StationYear of(String station, int year) {
+        return new StationYear(station, year);
+    }
+
+    public String getStation() {
+        return station;
+    }
+
+    public int getYear() {
+        return year;
+    }
+
+    @Override
+    public String toString() {
+        return station + "/" + year;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+        StationYear that = (StationYear) o;
+        return year == that.year &&
+                station.equals(that.station);
+    }
+
+    @Override
+    public int hashCode() {
+
+        return Objects.hash(station, year);
+    }
+}
@@ -0,0 +1,140 @@
+/*
+ * ________________________________________________________________________
+ * METRO.IO CONFIDENTIAL
+ * ________________________________________________________________________
+ *
+ * Copyright (c) 2018.
+ * Metro Labs Incorporated
+ * All Rights Reserved.
+ *
+ * NOTICE: All information contained herein is, and remains
+ * the property of Metro Labs Incorporated and its suppliers,
+ * if any. The intellectual and technical concepts contained
+ * herein are proprietary to Metro Labs Incorporated
+ * and its suppliers and may be covered by U.S. and Foreign Patents,
+ * patents in process, and are protected by trade secret or copyright law.
+ * Dissemination of this information or reproduction of this material
+ * is strictly forbidden unless prior written permission is obtained
+ * from Metro Labs Incorporated.
+ */
+
+package org.noaa;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URLConnection;
+import java.nio.ByteBuffer;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Blocking transport over {@link java.net.URLConnection}. The JDK keeps idle HTTP connections alive and
+ * reuses them as long as every body is read to the end and closed.
+ *
+ * {@link #executeAsync} simply runs the blocking call on an executor, one thread per download.
+ */
+public class UrlConnectionTransport implements NoaaTransport {
+    private ExecutorService executor;
+    private boolean ownsExecutor;
+
+    public ExecutorService getExecutor() {
+        return executor;
+    }
+
+    /**
+     * @param executor runs {@link #executeAsync} downloads; it is not shut down by {@link #close()}
+     */
+    public UrlConnectionTransport setExecutor(ExecutorService executor) {
+        this.executor = executor;
+        this.ownsExecutor = false;
+        return this;
+    }
+
+    @Override
+    public NoaaResponse execute(NoaaRequest request) throws IOException {
+        URLConnection connection = request.getUrl().openConnection();
+        connection.setConnectTimeout(request.getConnectTimeout());
+        connection.setReadTimeout(request.getReadTimeout());
+        connection.setRequestProperty("Accept-Encoding", "gzip");
+        for (Map.Entry<String, String> header : request.getHeaders().entrySet()) {
+            connection.setRequestProperty(header.getKey(), header.getValue());
+        }
+
+        int status = 200;
+        InputStream body;
+        if (connection instanceof HttpURLConnection) {
+            HttpURLConnection http = (HttpURLConnection) connection;
+            status = http.getResponseCode();
+            body = status >= 400 ? http.getErrorStream() : http.getInputStream();
+            if (body == null) body = new ByteArrayInputStream(new byte[0]);
+        }
+        else {
+            body = connection.getInputStream();
+        }
+
+        Map<String, String> headers = new LinkedHashMap<>();
+        for (Map.Entry<String, List<String>> header : connection.getHeaderFields().entrySet()) {
+            if (header.getKey() != null && !header.getValue().isEmpty()) headers.put(header.getKey(), header.getValue().get(0));
+        }
+
+        if ("gzip".equalsIgnoreCase(connection.getContentEncoding()) && status != HttpURLConnection.HTTP_NOT_MODIFIED) {
+            try {
+                body = new GZIPInputStream(body, 64 * 1024);
+            }
+            catch (IOException e) {
+                body.close();
+                throw e;
+            }
+        }
+
+        return new NoaaResponse(status, headers, body);
+    }
+
+    @Override
+    public <T> CompletableFuture<T> executeAsync(NoaaRequest request, NoaaResponseConsumer<T> consumer) {
+        CompletableFuture<T> future = new CompletableFuture<>();
+        executor().execute(() -> {
+            try (NoaaResponse response = execute(request)) {
+                consumer.start(new NoaaResponse(response.getStatus(), response.getHeaders(), null));
+
+                byte[] buffer = new byte[64 * 1024];
+                ByteBuffer chunk = ByteBuffer.wrap(buffer);
+                for (int n; (n = response.getBody().read(buffer)) != -1; ) {
+                    chunk.clear().limit(n);
+                    consumer.data(chunk);
+                }
+                future.complete(consumer.complete());
+            }
+            catch (Throwable e) {
+                future.completeExceptionally(e);
+            }
+        });
+
+        return future;
+    }
+
+    private synchronized ExecutorService executor() {
+        if (executor == null) {
+            executor = Executors.newCachedThreadPool(r -> {
+                Thread thread = new Thread(r, "noaa-download");
+                thread.setDaemon(true);
+                return thread;
+            });
+            ownsExecutor = true;
+        }
+
+        return executor;
+    }
+
+    @Override
+    public synchronized void close() {
+        if (ownsExecutor) executor.shutdown();
+    }
+}
@@ -0,0 +1,83 @@
+/*
+ * ________________________________________________________________________
+ * METRO.IO CONFIDENTIAL
+ * ________________________________________________________________________
+ *
+ * Copyright (c) 2018.
+ * Metro Labs Incorporated
+ * All Rights Reserved.
+ *
+ * NOTICE: All information contained herein is, and remains
+ * the property of Metro Labs Incorporated and its suppliers,
+ * if any. The intellectual and technical concepts contained
+ * herein are proprietary to Metro Labs Incorporated
+ * and its suppliers and may be covered by U.S. and Foreign Patents,
+ * patents in process, and are protected by trade secret or copyright law.
+ * Dissemination of this information or reproduction of this material
+ * is strictly forbidden unless prior written permission is obtained
+ * from Metro Labs Incorporated.
+ */
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.noaa.AsyncHttpTransport;
+import org.noaa.IntegratedSurfaceData;
+import org.noaa.NoaaClient;
+import org.noaa.UrlConnectionTransport;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+public class AsyncHttpTransportTest {
+    private static final String STATION = "720545-00169";
+
+    @Test
+    public void streamsManyDownloadsOverOneIoThread() throws Exception {
+        try (LocalNoaaServer server = new LocalNoaaServer();
+             AsyncHttpTransport transport = new AsyncHttpTransport(1, 16, 16)) {
+            server.setGzip(true);
+            for (int year = 1970; year < 2020; year++) server.putResource(year, STATION, "/72054500169.csv");
+
+            NoaaClient client = new NoaaClient(server.getBaseUrl()).setTransport(transport);
+            List<CompletableFuture<List<IntegratedSurfaceData>>> futures = new ArrayList<>();
+            for (int year = 1970; year < 2020; year++) futures.add(client.loadAsync(year, STATION));
+
+            for (CompletableFuture<List<IntegratedSurfaceData>> future : futures) {
+                List<IntegratedSurfaceData> data = future.get();
+                Assert.assertEquals(8, data.size());
+                Assert.assertTrue(data.get(0).getAirTemperature() == -15.0);
+            }
+
+            Assert.assertTrue(client.loadAsync(2020, STATION).handle((v, e) -> e != null).get());
+            // an empty body has no header record, like open() it must fail
+            server.put(2021, STATION, new byte[0]);
+            Assert.assertTrue(client.loadAsync(2021, STATION).handle((v, e) -> e != null).get());
+        }
+    }
+
+    @Test
+    public void blockingReadsMatchAcrossTransports() throws Exception {
+        // big enough to exceed the pipe buffer and exercise suspend/resume
+        String csv = new String(LocalNoaaServer.resource("/72054500169.csv"), StandardCharsets.UTF_8);
+        StringBuilder large = new StringBuilder(csv);
+        String rows = csv.substring(csv.indexOf('\n') + 1);
+        for (int day = 3; day <= 28; day++) large.append(rows.replace("2018-01-01T", String.format("2018-02-%02dT", day)));
+
+        try (LocalNoaaServer server = new LocalNoaaServer();
+             AsyncHttpTransport async = new AsyncHttpTransport(1, 4, 4).setBufferSize(1024);
+             UrlConnectionTransport blocking = new UrlConnectionTransport()) {
+            server.put(2018, STATION, large.toString().getBytes(StandardCharsets.UTF_8));
+
+            for (boolean gzip : new boolean[]{false, true}) {
+                server.setGzip(gzip);
+                List<IntegratedSurfaceData> expected = new NoaaClient(server.getBaseUrl()).setTransport(blocking).load(2018, STATION);
+                List<IntegratedSurfaceData> actual = new NoaaClient(server.getBaseUrl()).setTransport(async).load(2018, STATION);
+                // the repeated 2018-01-02 rows collapse once the result is sorted
+                Assert.assertEquals(8 + 26 * 7, expected.size());
+                Assert.assertEquals(expected.toString(), actual.toString());
+            }
+        }
+    }
+}
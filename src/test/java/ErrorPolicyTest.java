@@ -0,0 +1,130 @@
+/*
+ * ________________________________________________________________________
+ * METRO.IO CONFIDENTIAL
+ * ________________________________________________________________________
+ *
+ * Copyright (c) 2018.
+ * Metro Labs Incorporated
+ * All Rights Reserved.
+ *
+ * NOTICE: All information contained herein is, and remains
+ * the property of Metro Labs Incorporated and its suppliers,
+ * if any. The intellectual and technical concepts contained
+ * herein are proprietary to Metro Labs Incorporated
+ * and its suppliers and may be covered by U.S. and Foreign Patents,
+ * patents in process, and are protected by trade secret or copyright law.
+ * Dissemination of this information or reproduction of this material
+ * is strictly forbidden unless prior written permission is obtained
+ * from Metro Labs Incorporated.
+ */
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.noaa.*;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+public class ErrorPolicyTest {
+    private static final String STATION = "720545-00169";
+    private static final String CSV = "\"DATE\",\"TMP\",\"DEW\",\"SLP\",\"WND\",\"VIS\"\n" +
+            "\"2018-01-01T00:15:00\",\"-0150,1\",\"-0240,1\",\"99999,9\",\"310,1,N,0036,1\",\"016093,1,9,9\"\n" +
+            "\"2018-01-01T01:15:00\",\"-0160,1\",\"-0240,1\",\"99999,9\",\"310,1\",\"016093,1,9,9\"\n" +
+            "\"2018-13-01T02:15:00\",\"-0170,1\",\"-0240,1\",\"99999,9\",\"310,1,N,0036,1\",\"016093,1,9,9\"\n" +
+            "\"2018-01-01T03:15:00\",\"-0180,1\",\"abc,1\",\"99999,9\",\"310,1,N,0036,1\",\"016093,1,9,9\"\n" +
+            "\"2018-01-01T04:15:00\",\"-0190,1\",\"-0240,1\",\"99999,9\",\"310,1,N,0036,1\",\"016093,1,9,9\"\n";
+
+    private static IntegratedSurfaceDataReader reader(String csv, ErrorPolicy policy) throws Exception {
+        return new IntegratedSurfaceDataReader(new ByteArrayInputStream(csv.getBytes(StandardCharsets.UTF_8)))
+                .setErrorPolicy(policy);
+    }
+
+    private static List<IntegratedSurfaceData> readAll(IntegratedSurfaceDataReader reader) {
+        List<IntegratedSurfaceData> data = new ArrayList<>();
+        reader.forEachRemaining(data::add);
+        return data;
+    }
+
+    @Test
+    public void skipsBadRows() throws Exception {
+        try (IntegratedSurfaceDataReader reader = reader(CSV, ErrorPolicy.SKIP_ROW)) {
+            List<IntegratedSurfaceData> data = readAll(reader);
+            Assert.assertEquals(2, data.size());
+            Assert.assertEquals(0, (int) data.get(0).getObservationHour());
+            Assert.assertEquals(4, (int) data.get(1).getObservationHour());
+
+            Assert.assertEquals(3, reader.getRejectedCount());
+            Assert.assertEquals(3, reader.getErrorCount());
+            Assert.assertEquals(5, reader.getRowCount());
+
+            IsdRowError wind = reader.getErrors().get(0);
+            Assert.assertEquals(3, wind.getLineNumber());
+            Assert.assertEquals("WND", wind.getColumn());
+            Assert.assertEquals("310,1", wind.getValue());
+
+            Assert.assertEquals("DATE", reader.getErrors().get(1).getColumn());
+            Assert.assertEquals(4, reader.getErrors().get(1).getLineNumber());
+            Assert.assertEquals("DEW", reader.getErrors().get(2).getColumn());
+        }
+    }
+
+    @Test
+    public void substitutesMissingValues() throws Exception {
+        try (IntegratedSurfaceDataReader reader = reader(CSV, ErrorPolicy.SUBSTITUTE_MISSING)) {
+            List<IntegratedSurfaceData> data = readAll(reader);
+            // only the row without a valid date is dropped
+            Assert.assertEquals(4, data.size());
+            Assert.assertNull(data.get(1).getWindSpeedRate());
+            Assert.assertEquals(310d, data.get(1).getWindDirection(), 0d);
+            Assert.assertNull(data.get(2).getDewPointTemperature());
+            Assert.assertEquals(-18d, data.get(2).getAirTemperature(), 1e-9);
+
+            Assert.assertEquals(1, reader.getRejectedCount());
+            Assert.assertEquals(3, reader.getErrorCount());
+        }
+    }
+
+    @Test
+    public void failsFastWithLocation() throws Exception {
+        try (IntegratedSurfaceDataReader reader = reader(CSV, ErrorPolicy.FAIL_FAST)) {
+            readAll(reader);
+            Assert.fail();
+        }
+        catch (IsdParseException e) {
+            Assert.assertEquals(3, e.getError().getLineNumber());
+            Assert.assertEquals("WND", e.getError().getColumn());
+        }
+    }
+
+    @Test
+    public void keepsBoundedErrorReport() throws Exception {
+        StringBuilder csv = new StringBuilder("DATE,TMP,DEW,SLP,WND,VIS\n");
+        for (int i = 0; i < 1000; i++) csv.append("2018-01-01T00:15:00,-0150,-0240,99999,310,016093\n");
+
+        try (IntegratedSurfaceDataReader reader = reader(csv.toString(), ErrorPolicy.SKIP_ROW).setMaxErrors(10)) {
+            Assert.assertTrue(readAll(reader).isEmpty());
+            Assert.assertEquals(10, reader.getErrors().size());
+            Assert.assertEquals(1000, reader.getErrorCount());
+            Assert.assertEquals(11, reader.getErrors().get(9).getLineNumber());
+        }
+    }
+
+    @Test
+    public void loadResultCarriesErrors() throws Exception {
+        try (LocalNoaaServer server = new LocalNoaaServer()) {
+            server.put(2018, STATION, CSV.getBytes(StandardCharsets.UTF_8));
+            NoaaClient client = new NoaaClient(server.getBaseUrl()).setErrorPolicy(ErrorPolicy.SKIP_ROW);
+
+            IsdParseResult<List<IntegratedSurfaceData>> result = client.loadResult(2018, STATION);
+            Assert.assertEquals(2, result.getData().size());
+            Assert.assertTrue(result.hasErrors());
+            Assert.assertEquals(3, result.getRejectedCount());
+            Assert.assertEquals(5, result.getRowCount());
+            Assert.assertEquals(3, result.getErrors().size());
+
+            Assert.assertEquals(2, client.loadSeries(2018, STATION).size());
+        }
+    }
+}
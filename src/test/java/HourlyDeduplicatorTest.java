@@ -0,0 +1,100 @@
+/*
+ * ________________________________________________________________________
+ * METRO.IO CONFIDENTIAL
+ * ________________________________________________________________________
+ *
+ * Copyright (c) 2018.
+ * Metro Labs Incorporated
+ * All Rights Reserved.
+ *
+ * NOTICE: All information contained herein is, and remains
+ * the property of Metro Labs Incorporated and its suppliers,
+ * if any. The intellectual and technical concepts contained
+ * herein are proprietary to Metro Labs Incorporated
+ * and its suppliers and may be covered by U.S. and Foreign Patents,
+ * patents in process, and are protected by trade secret or copyright law.
+ * Dissemination of this information or reproduction of this material
+ * is strictly forbidden unless prior written permission is obtained
+ * from Metro Labs Incorporated.
+ */
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.noaa.DedupPolicy;
+import org.noaa.HourlyDeduplicator;
+import org.noaa.IntegratedSurfaceData;
+import org.noaa.IntegratedSurfaceDataReader;
+import org.noaa.IsdSeries;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+public class HourlyDeduplicatorTest {
+
+    @Test
+    public void policiesPickTheExpectedRow() throws Exception {
+        byte[] csv = LocalNoaaServer.resource(IntegratedSurfaceDataReaderTest.STATION_FILE);
+
+        // air temperature kept at 00:00, 03:00 and 2018-01-02 00:00
+        assertKept(csv, DedupPolicy.FIRST_WINS, -15.0, null, -10.0);
+        assertKept(csv, DedupPolicy.LAST_WINS, -16.0, -18.0, -11.0);
+        assertKept(csv, DedupPolicy.BEST_QUALITY, -15.0, -18.0, -10.0);
+        assertKept(csv, DedupPolicy.PREFER_FM15, -15.0, null, -10.0);
+    }
+
+    @Test
+    public void sortsOutOfOrderInput() throws Exception {
+        String[] lines = new String(LocalNoaaServer.resource(IntegratedSurfaceDataReaderTest.STATION_FILE),
+                StandardCharsets.UTF_8).split("\n");
+        List<String> rows = new ArrayList<>(Arrays.asList(lines).subList(1, lines.length));
+        Collections.reverse(rows);
+        byte[] csv = (lines[0] + "\n" + String.join("\n", rows) + "\n").getBytes(StandardCharsets.UTF_8);
+
+        // in reversed file order the 00:35 report comes first
+        assertKept(csv, DedupPolicy.FIRST_WINS, -16.0, -18.0, -11.0);
+        assertKept(csv, DedupPolicy.BEST_QUALITY, -16.0, -18.0, -11.0);
+        assertKept(csv, DedupPolicy.PREFER_FM15, -15.0, null, -10.0);
+    }
+
+    @Test
+    public void keysOnEpochHour() {
+        HourlyDeduplicator deduplicator = new HourlyDeduplicator(DedupPolicy.BEST_QUALITY);
+        Assert.assertEquals(HourlyDeduplicator.Decision.APPEND, deduplicator.offer(10, 2));
+        Assert.assertEquals(HourlyDeduplicator.Decision.DROP, deduplicator.offer(10, 2));
+        Assert.assertEquals(HourlyDeduplicator.Decision.REPLACE, deduplicator.offer(10, 5));
+        Assert.assertEquals(HourlyDeduplicator.Decision.APPEND, deduplicator.offer(11, 0));
+        Assert.assertTrue(deduplicator.isSorted());
+        Assert.assertEquals(HourlyDeduplicator.Decision.APPEND, deduplicator.offer(9, 0));
+        Assert.assertFalse(deduplicator.isSorted());
+        Assert.assertEquals(2, deduplicator.getDuplicates());
+
+        // 2018-01-11 and 2018-11-01 used to share the key "20181110"
+        List<IntegratedSurfaceData> data = Arrays.asList(
+                new IntegratedSurfaceData().setObservationYear(2018).setObservationMonth(11).setObservationDay(1).setObservationHour(0),
+                new IntegratedSurfaceData().setObservationYear(2018).setObservationMonth(1).setObservationDay(11).setObservationHour(0));
+        List<IntegratedSurfaceData> result = HourlyDeduplicator.dedup(data, DedupPolicy.FIRST_WINS);
+        Assert.assertEquals(2, result.size());
+        Assert.assertEquals(1, result.get(0).getObservationMonth());
+    }
+
+    private static void assertKept(byte[] csv, DedupPolicy policy, Double midnight, Double three, Double nextDay) throws Exception {
+        List<IntegratedSurfaceData> list = new ArrayList<>();
+        try (IntegratedSurfaceDataReader reader = new IntegratedSurfaceDataReader(new ByteArrayInputStream(csv), policy)) {
+            reader.forEachRemaining(list::add);
+        }
+        list = HourlyDeduplicator.dedup(list, policy);
+
+        Assert.assertEquals(policy.name(), 8, list.size());
+        Assert.assertEquals(policy.name(), midnight, list.get(0).getAirTemperature());
+        Assert.assertEquals(policy.name(), 3, list.get(3).getObservationHour());
+        Assert.assertEquals(policy.name(), three, list.get(3).getAirTemperature());
+        Assert.assertEquals(policy.name(), nextDay, list.get(7).getAirTemperature());
+
+        IsdSeries series = IsdSeries.read(new ByteArrayInputStream(csv), policy);
+        Assert.assertEquals(policy.name(), list.toString(), series.asList().toString());
+    }
+}
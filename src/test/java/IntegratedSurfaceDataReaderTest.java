@@ -0,0 +1,59 @@
+/*
+ * ________________________________________________________________________
+ * METRO.IO CONFIDENTIAL
+ * ________________________________________________________________________
+ *
+ * Copyright (c) 2018.
+ * Metro Labs Incorporated
+ * All Rights Reserved.
+ *
+ * NOTICE: All information contained herein is, and remains
+ * the property of Metro Labs Incorporated and its suppliers,
+ * if any. The intellectual and technical concepts contained
+ * herein are proprietary to Metro Labs Incorporated
+ * and its suppliers and may be covered by U.S. and Foreign Patents,
+ * patents in process, and are protected by trade secret or copyright law.
+ * Dissemination of this information or reproduction of this material
+ * is strictly forbidden unless prior written permission is obtained
+ * from Metro Labs Incorporated.
+ */
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.noaa.IntegratedSurfaceData;
+import org.noaa.IntegratedSurfaceDataReader;
+
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+public class IntegratedSurfaceDataReaderTest {
+    static final String STATION_FILE = "/72054500169.csv";
+
+    @Test
+    public void streamsOneObservationPerHour() throws Exception {
+        List<IntegratedSurfaceData> list;
+        try (Stream<IntegratedSurfaceData> stream =
+                     new IntegratedSurfaceDataReader(getClass().getResourceAsStream(STATION_FILE)).stream()) {
+            list = stream.collect(Collectors.toList());
+        }
+
+        Assert.assertEquals(8, list.size());
+
+        IntegratedSurfaceData i = list.get(0);
+        Assert.assertTrue(i.getObservationYear() == 2018);
+        Assert.assertTrue(i.getObservationMonth() == 1);
+        Assert.assertTrue(i.getObservationDay() == 1);
+        Assert.assertTrue(i.getObservationHour() == 0);
+        Assert.assertTrue(i.getAirTemperature() == -15.0);
+        Assert.assertTrue(i.getDewPointTemperature() == -24.0);
+        Assert.assertTrue(i.getWindDirection() == 310.0);
+        Assert.assertTrue(i.getWindSpeedRate() == 3.6);
+        Assert.assertTrue(i.getSkyCondition() == 16093.0);
+
+        // 03:15 has a missing temperature and wins over the 03:55 report
+        Assert.assertNull(list.get(3).getAirTemperature());
+        Assert.assertTrue(list.get(7).getObservationDay() == 2);
+        Assert.assertTrue(list.get(7).getAirTemperature() == -10.0);
+    }
+}
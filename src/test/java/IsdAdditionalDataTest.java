@@ -0,0 +1,118 @@
+/*
+ * ________________________________________________________________________
+ * METRO.IO CONFIDENTIAL
+ * ________________________________________________________________________
+ *
+ * Copyright (c) 2018.
+ * Metro Labs Incorporated
+ * All Rights Reserved.
+ *
+ * NOTICE: All information contained herein is, and remains
+ * the property of Metro Labs Incorporated and its suppliers,
+ * if any. The intellectual and technical concepts contained
+ * herein are proprietary to Metro Labs Incorporated
+ * and its suppliers and may be covered by U.S. and Foreign Patents,
+ * patents in process, and are protected by trade secret or copyright law.
+ * Dissemination of this information or reproduction of this material
+ * is strictly forbidden unless prior written permission is obtained
+ * from Metro Labs Incorporated.
+ */
+
+import org.apache.commons.csv.CSVFormat;
+import org.apache.commons.csv.CSVRecord;
+import org.junit.Assert;
+import org.junit.Test;
+import org.noaa.IntegratedSurfaceData;
+import org.noaa.IntegratedSurfaceData.SkyCondition;
+import org.noaa.IntegratedSurfaceDataReader;
+import org.noaa.IsdAdditionalData;
+import org.noaa.IsdAdditionalData.Section;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStreamReader;
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+public class IsdAdditionalDataTest {
+
+    private List<IntegratedSurfaceData> read() throws Exception {
+        List<IntegratedSurfaceData> list = new ArrayList<>();
+        try (IntegratedSurfaceDataReader reader = new IntegratedSurfaceDataReader(
+                getClass().getResourceAsStream(IntegratedSurfaceDataReaderTest.STATION_FILE))) {
+            reader.forEachRemaining(list::add);
+        }
+        return list;
+    }
+
+    @Test
+    public void decodesSectionsOnDemand() throws Exception {
+        List<IntegratedSurfaceData> list = read();
+
+        IsdAdditionalData midnight = list.get(0).getAdditionalData();
+        Assert.assertTrue(midnight.has(Section.AA1));
+        Assert.assertFalse(midnight.has(Section.AA2));
+        Assert.assertEquals("01,0000,9,1", midnight.getRaw(Section.AA1));
+        Assert.assertEquals(Integer.valueOf(1), midnight.getLiquidPrecipitation(1).getPeriodHours());
+        Assert.assertEquals(0.0, midnight.getLiquidPrecipitation(1).getDepth(), 0);
+        Assert.assertNull(midnight.getLiquidPrecipitation(2));
+        Assert.assertEquals(SkyCondition.NONE, midnight.getSkyCoverLayer(1).getSkyCondition());
+        Assert.assertNull(midnight.getSkyCoverLayer(1).getBaseHeight());
+        Assert.assertNull(midnight.getAtmosphericPressure().getAltimeterSetting());
+        Assert.assertEquals(985.2, midnight.getAtmosphericPressure().getStationPressure(), 1e-9);
+        Assert.assertSame(midnight.getAtmosphericPressure(), midnight.getAtmosphericPressure());
+
+        IsdAdditionalData one = list.get(1).getAdditionalData();
+        Assert.assertEquals(0.3, one.getPrecipitationDepth(6), 1e-9);
+        Assert.assertTrue(one.getLiquidPrecipitation(2).isTrace());
+        Assert.assertNull(one.getPrecipitationDepth(24));
+
+        IsdAdditionalData two = list.get(2).getAdditionalData();
+        Assert.assertEquals(Integer.valueOf(8), two.getSkyCoverLayer(1).getCoverage());
+        Assert.assertEquals(610.0, two.getSkyCoverLayer(1).getBaseHeight(), 0);
+        Assert.assertNull(two.getSkyCoverLayer(1).getCloudType());
+        Assert.assertNull(two.getSkyCoverLayer(2));
+
+        Assert.assertNull(list.get(3).getAdditionalData());
+    }
+
+    @Test
+    public void parserMatchesConstructor() throws Exception {
+        List<IntegratedSurfaceData> parsed = read();
+        List<IsdAdditionalData> expected = new ArrayList<>();
+        try (InputStreamReader in = new InputStreamReader(getClass().getResourceAsStream(IntegratedSurfaceDataReaderTest.STATION_FILE), StandardCharsets.UTF_8)) {
+            for (CSVRecord record : CSVFormat.DEFAULT.withFirstRecordAsHeader().parse(in)) {
+                expected.add(new IntegratedSurfaceData(record).getAdditionalData());
+            }
+        }
+
+        Assert.assertEquals(expected.get(0), parsed.get(0).getAdditionalData());
+        Assert.assertEquals(expected.get(2), parsed.get(1).getAdditionalData());
+        Assert.assertEquals(expected.get(3).hashCode(), parsed.get(2).getAdditionalData().hashCode());
+    }
+
+    @Test
+    public void readsMalformedAndNonAsciiValues() throws Exception {
+        String csv = "\"DATE\",\"TMP\",\"DEW\",\"SLP\",\"WND\",\"VIS\",\"AA1\",\"GA1\",\"MA1\"\n" +
+                "\"2018-01-01T00:15:00\",\"-0150,1\",\"-0240,1\",\"99999,9\",\"310,1,N,0036,1\",\"016093,1,9,9\"," +
+                "\"01,00x3,9,1\",\"08,1,+00610,1,99,9\",\"10152,1,9°852,1\"\n";
+        CSVRecord record = CSVFormat.DEFAULT.withFirstRecordAsHeader().parse(new StringReader(csv)).getRecords().get(0);
+        IsdAdditionalData data = new IntegratedSurfaceData(record).getAdditionalData();
+        try (IntegratedSurfaceDataReader reader = new IntegratedSurfaceDataReader(new ByteArrayInputStream(csv.getBytes(StandardCharsets.UTF_8)))) {
+            Assert.assertEquals(data, reader.next().getAdditionalData());
+        }
+
+        Assert.assertEquals("10152,1,9°852,1", data.getRaw(Section.MA1));
+        Assert.assertEquals("08,1,+00610,1,99,9", data.getRaw(Section.GA1));
+        Assert.assertEquals(Integer.valueOf(1), data.getLiquidPrecipitation(1).getPeriodHours());
+        Assert.assertNull(data.getLiquidPrecipitation(1).getDepth());
+        Assert.assertEquals(1015.2, data.getAtmosphericPressure().getAltimeterSetting(), 1e-9);
+        Assert.assertNull(data.getAtmosphericPressure().getStationPressure());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsUnknownRepeat() throws Exception {
+        read().get(0).getAdditionalData().getLiquidPrecipitation(5);
+    }
+}
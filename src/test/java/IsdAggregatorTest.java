@@ -0,0 +1,120 @@
+/*
+ * ________________________________________________________________________
+ * METRO.IO CONFIDENTIAL
+ * ________________________________________________________________________
+ *
+ * Copyright (c) 2018.
+ * Metro Labs Incorporated
+ * All Rights Reserved.
+ *
+ * NOTICE: All information contained herein is, and remains
+ * the property of Metro Labs Incorporated and its suppliers,
+ * if any. The intellectual and technical concepts contained
+ * herein are proprietary to Metro Labs Incorporated
+ * and its suppliers and may be covered by U.S. and Foreign Patents,
+ * patents in process, and are protected by trade secret or copyright law.
+ * Dissemination of this information or reproduction of this material
+ * is strictly forbidden unless prior written permission is obtained
+ * from Metro Labs Incorporated.
+ */
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.noaa.IntegratedSurfaceData;
+import org.noaa.IntegratedSurfaceData.DataHelper;
+import org.noaa.IsdAggregator;
+import org.noaa.IsdAggregator.Granularity;
+import org.noaa.IsdRollup;
+import org.noaa.IsdSeries;
+
+import java.util.ArrayList;
+import java.util.List;
+
+public class IsdAggregatorTest {
+    private static final double DELTA = 1e-9;
+
+    @Test
+    public void rollsUpDaysAndMonths() throws Exception {
+        IsdSeries series = IsdSeries.read(getClass().getResourceAsStream(IntegratedSurfaceDataReaderTest.STATION_FILE));
+
+        List<IsdRollup> days = new IsdAggregator(Granularity.DAY).accept(series).getRollups();
+        Assert.assertEquals(2, days.size());
+        IsdRollup first = days.get(0);
+        Assert.assertEquals(7, first.getCount());
+        Assert.assertEquals(6, first.getTemperatureCount());
+        Assert.assertEquals(-21.0, first.getMinTemperature(), DELTA);
+        Assert.assertEquals(-15.0, first.getMaxTemperature(), DELTA);
+        Assert.assertEquals(-18.0, first.getMeanTemperature(), DELTA);
+        Assert.assertEquals(36.0, first.getHeatingDegreeDays(), DELTA);
+        Assert.assertEquals(0.0, first.getCoolingDegreeDays(), DELTA);
+        Assert.assertEquals(5.1, first.getMaxWindSpeed(), DELTA);
+        Assert.assertEquals(1.0 / 7, first.getCalmFraction(), DELTA);
+
+        IsdAggregator monthly = new IsdAggregator(Granularity.MONTH);
+        series.asList().forEach(monthly);
+        List<IsdRollup> months = monthly.getRollups();
+        Assert.assertEquals(1, months.size());
+        Assert.assertEquals(DataHelper.toEpochHour(2018, 1, 1, 0), months.get(0).getStart());
+        Assert.assertEquals(DataHelper.toEpochHour(2018, 2, 1, 0), months.get(0).getEnd());
+        Assert.assertEquals(8, months.get(0).getCount());
+        Assert.assertEquals(2, months.get(0).getDays());
+        Assert.assertEquals(36.0 + 28.0, months.get(0).getHeatingDegreeDays(), DELTA);
+        Assert.assertTrue(Double.isNaN(new IsdAggregator(Granularity.HOUR).accept(series).getRollups().get(0).getHeatingDegreeDays()));
+    }
+
+    @Test
+    public void mergedPartsMatchOnePass() {
+        List<IsdSeries> parts = new ArrayList<>();
+        IsdSeries.Builder all = new IsdSeries.Builder();
+        int start = DataHelper.toEpochHour(2017, 1, 1, 0);
+        for (int month = 0; month < 12; month++) {
+            IsdSeries.Builder part = new IsdSeries.Builder();
+            for (int h = 0; h < 730; h++) {
+                int hour = start + month * 730 + h;
+                double[] row = new double[IntegratedSurfaceData.Field.values().length];
+                row[IntegratedSurfaceData.Field.AIR_TEMPERATURE.ordinal()] = Math.round(100 * Math.sin(hour / 500.0) + 80 * Math.sin(hour * Math.PI / 12)) / 10.0;
+                row[IntegratedSurfaceData.Field.WIND_DIRECTION.ordinal()] = 10 + hour % 340;
+                row[IntegratedSurfaceData.Field.WIND_SPEED_RATE.ordinal()] = hour % 7;
+                part.add(hour, row);
+                all.add(hour, row);
+            }
+            parts.add(part.build());
+        }
+
+        IsdAggregator expected = new IsdAggregator(Granularity.MONTH).setHistogram(true).accept(all.build());
+        IsdAggregator reduced = IsdAggregator.reduce(parts, () -> new IsdAggregator(Granularity.MONTH).setHistogram(true));
+        IsdAggregator collected = all.build().asList().parallelStream()
+                .collect(IsdAggregator.collector(() -> new IsdAggregator(Granularity.MONTH).setHistogram(true)));
+
+        for (IsdAggregator actual : new IsdAggregator[]{reduced, collected}) {
+            List<IsdRollup> e = expected.getRollups();
+            List<IsdRollup> a = actual.getRollups();
+            Assert.assertEquals(e.size(), a.size());
+            for (int i = 0; i < e.size(); i++) {
+                Assert.assertEquals(e.get(i).getCount(), a.get(i).getCount());
+                Assert.assertEquals(e.get(i).getMeanTemperature(), a.get(i).getMeanTemperature(), 1e-6);
+                Assert.assertEquals(e.get(i).getMinTemperature(), a.get(i).getMinTemperature(), DELTA);
+                Assert.assertEquals(e.get(i).getHeatingDegreeDays(), a.get(i).getHeatingDegreeDays(), 1e-6);
+                Assert.assertEquals(e.get(i).getCoolingDegreeDays(), a.get(i).getCoolingDegreeDays(), 1e-6);
+                Assert.assertEquals(e.get(i).getMeanWindDirection(), a.get(i).getMeanWindDirection(), 1e-6);
+                Assert.assertEquals(e.get(i).getTemperaturePercentile(99.6), a.get(i).getTemperaturePercentile(99.6), DELTA);
+            }
+        }
+    }
+
+    @Test
+    public void percentilesAreExactAtSourceResolution() {
+        IsdAggregator aggregator = new IsdAggregator(Granularity.YEAR).setHistogram(true);
+        int start = DataHelper.toEpochHour(2018, 1, 1, 0);
+        for (int i = 1; i <= 1000; i++) {
+            aggregator.add(start + i, i / 10.0 - 50, Double.NaN, Double.NaN, Double.NaN, Double.NaN);
+        }
+
+        IsdRollup year = aggregator.getRollups().get(0);
+        Assert.assertEquals(0.0, year.getTemperaturePercentile(50), DELTA);
+        Assert.assertEquals(49.6, year.getTemperaturePercentile(99.6), DELTA);
+        Assert.assertEquals(-49.6, year.getTemperaturePercentile(0.4), DELTA);
+        Assert.assertEquals(-49.9, year.getTemperaturePercentile(0), DELTA);
+        Assert.assertTrue(Double.isNaN(year.getMeanWindSpeed()));
+    }
+}
@@ -0,0 +1,198 @@
+/*
+ * ________________________________________________________________________
+ * METRO.IO CONFIDENTIAL
+ * ________________________________________________________________________
+ *
+ * Copyright (c) 2018.
+ * Metro Labs Incorporated
+ * All Rights Reserved.
+ *
+ * NOTICE: All information contained herein is, and remains
+ * the property of Metro Labs Incorporated and its suppliers,
+ * if any. The intellectual and technical concepts contained
+ * herein are proprietary to Metro Labs Incorporated
+ * and its suppliers and may be covered by U.S. and Foreign Patents,
+ * patents in process, and are protected by trade secret or copyright law.
+ * Dissemination of this information or reproduction of this material
+ * is strictly forbidden unless prior written permission is obtained
+ * from Metro Labs Incorporated.
+ */
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.noaa.IntegratedSurfaceData;
+import org.noaa.IsdArrowWriter;
+import org.noaa.IsdSeries;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+public class IsdArrowWriterTest {
+    @Test
+    public void writesSchemaDictionaryAndBatches() throws Exception {
+        IsdSeries series = IsdSeries.read(getClass().getResourceAsStream(IntegratedSurfaceDataReaderTest.STATION_FILE));
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (IsdArrowWriter writer = new IsdArrowWriter(bytes).setBatchSize(5)) {
+            writer.write("725030-14732", series);
+            writer.write("744860-94789", series.asList());
+        }
+
+        List<Message> messages = Message.readAll(ByteBuffer.wrap(bytes.toByteArray()).order(ByteOrder.LITTLE_ENDIAN));
+        int rows = series.size() * 2;
+        int batches = (rows + 4) / 5;
+
+        Assert.assertEquals(1, messages.get(0).headerType);
+        Table schema = messages.get(0).header;
+        Assert.assertEquals(2 + IntegratedSurfaceData.Field.values().length, schema.vectorLength(1));
+        Assert.assertEquals("station", schema.vectorTable(1, 0).string(0));
+        Assert.assertEquals("time", schema.vectorTable(1, 1).string(0));
+        Assert.assertEquals("air_temperature", schema.vectorTable(1, 2).string(0));
+
+        // first dictionary, first batch, then a delta for the second station when it shows up
+        List<Integer> types = new ArrayList<>();
+        long total = 0;
+        for (Message m : messages) {
+            types.add(m.headerType);
+            if (m.headerType == 3) total += m.header.getLong(0);
+        }
+        Assert.assertEquals(2, (int) types.get(1));
+        Assert.assertEquals(batches + 3, messages.size());
+        Assert.assertEquals(rows, total);
+
+        Message dictionary = messages.get(1);
+        Assert.assertEquals(0, dictionary.header.getByte(2));
+        Table dictionaryData = dictionary.header.table(1);
+        Assert.assertEquals(1, dictionaryData.getLong(0));
+        long dataOffset = dictionaryData.struct(2, 2, 0);
+        Assert.assertEquals("725030-14732", new String(dictionary.body, (int) dataOffset, 12, StandardCharsets.US_ASCII));
+
+        Message delta = null;
+        for (Message m : messages) if (m != dictionary && m.headerType == 2) delta = m;
+        Assert.assertEquals(1, delta.header.getByte(2));
+
+        // air temperature of the first batch: node, validity and values
+        Message first = messages.get(2);
+        Assert.assertEquals(3, first.headerType);
+        Table batch = first.header;
+        Assert.assertEquals(5, batch.getLong(0));
+        Assert.assertEquals(series.missingCount(IntegratedSurfaceData.Field.AIR_TEMPERATURE) > 0 ? 1 : 0,
+                batch.struct(1, 2, 1));
+
+        long validityLength = batch.struct(2, 4, 1);
+        long valueOffset = batch.struct(2, 5, 0);
+        ByteBuffer body = ByteBuffer.wrap(first.body).order(ByteOrder.LITTLE_ENDIAN);
+        for (int r = 0; r < 5; r++) {
+            double expected = series.airTemperatures()[r];
+            boolean valid = validityLength == 0 || (first.body[(int) batch.struct(2, 4, 0) + (r >>> 3)] >> (r & 7) & 1) == 1;
+            Assert.assertEquals(!Double.isNaN(expected), valid);
+            if (valid) Assert.assertEquals(expected, body.getDouble((int) valueOffset + r * 8), 0d);
+        }
+
+        long timeOffset = batch.struct(2, 3, 0);
+        Assert.assertEquals(series.getEpochHour(0) * 3600L, body.getLong((int) timeOffset));
+    }
+
+    @Test
+    public void emptyStreamHasSchemaAndEnd() throws Exception {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        new IsdArrowWriter(bytes).close();
+
+        List<Message> messages = Message.readAll(ByteBuffer.wrap(bytes.toByteArray()).order(ByteOrder.LITTLE_ENDIAN));
+        Assert.assertEquals(1, messages.size());
+        Assert.assertEquals(1, messages.get(0).headerType);
+    }
+
+    static class Message {
+        int headerType;
+        Table header;
+        byte[] body;
+
+        static List<Message> readAll(ByteBuffer in) {
+            List<Message> messages = new ArrayList<>();
+            while (true) {
+                Assert.assertEquals(-1, in.getInt());
+                int length = in.getInt();
+                if (length == 0) break;
+                Assert.assertEquals(0, (in.position() + length) % 8);
+
+                ByteBuffer metadata = in.slice().order(ByteOrder.LITTLE_ENDIAN);
+                Table root = new Table(metadata, metadata.getInt(0));
+                in.position(in.position() + length);
+
+                Message m = new Message();
+                Assert.assertEquals(4, root.getShort(0));
+                m.headerType = root.getByte(1);
+                m.header = root.table(2);
+                m.body = new byte[(int) root.getLong(3)];
+                in.get(m.body);
+                messages.add(m);
+            }
+            Assert.assertFalse(in.hasRemaining());
+            return messages;
+        }
+    }
+
+    static class Table {
+        final ByteBuffer bb;
+        final int pos;
+
+        Table(ByteBuffer bb, int pos) {
+            this.bb = bb;
+            this.pos = pos;
+        }
+
+        int field(int slot) {
+            int vtable = pos - bb.getInt(pos);
+            return 4 + slot * 2 < bb.getShort(vtable) ? bb.getShort(vtable + 4 + slot * 2) : 0;
+        }
+
+        int indirect(int at) {
+            return at + bb.getInt(at);
+        }
+
+        byte getByte(int slot) {
+            return field(slot) == 0 ? 0 : bb.get(pos + field(slot));
+        }
+
+        short getShort(int slot) {
+            return field(slot) == 0 ? 0 : bb.getShort(pos + field(slot));
+        }
+
+        long getLong(int slot) {
+            return field(slot) == 0 ? 0 : bb.getLong(pos + field(slot));
+        }
+
+        Table table(int slot) {
+            return new Table(bb, indirect(pos + field(slot)));
+        }
+
+        String string(int slot) {
+            int at = indirect(pos + field(slot));
+            byte[] bytes = new byte[bb.getInt(at)];
+            for (int i = 0; i < bytes.length; i++) bytes[i] = bb.get(at + 4 + i);
+            return new String(bytes, StandardCharsets.UTF_8);
+        }
+
+        int vectorLength(int slot) {
+            return bb.getInt(indirect(pos + field(slot)));
+        }
+
+        Table vectorTable(int slot, int index) {
+            int at = indirect(pos + field(slot)) + 4 + index * 4;
+            return new Table(bb, indirect(at));
+        }
+
+        /**
+         * Reads one long of a 16-byte struct (FieldNode or Buffer) in a vector.
+         */
+        long struct(int slot, int index, int member) {
+            int at = indirect(pos + field(slot)) + 4 + index * 16 + member * 8;
+            return bb.getLong(at);
+        }
+    }
+}
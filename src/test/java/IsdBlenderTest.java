@@ -0,0 +1,148 @@
+/*
+ * ________________________________________________________________________
+ * METRO.IO CONFIDENTIAL
+ * ________________________________________________________________________
+ *
+ * Copyright (c) 2018.
+ * Metro Labs Incorporated
+ * All Rights Reserved.
+ *
+ * NOTICE: All information contained herein is, and remains
+ * the property of Metro Labs Incorporated and its suppliers,
+ * if any. The intellectual and technical concepts contained
+ * herein are proprietary to Metro Labs Incorporated
+ * and its suppliers and may be covered by U.S. and Foreign Patents,
+ * patents in process, and are protected by trade secret or copyright law.
+ * Dissemination of this information or reproduction of this material
+ * is strictly forbidden unless prior written permission is obtained
+ * from Metro Labs Incorporated.
+ */
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.noaa.*;
+import org.noaa.IntegratedSurfaceData.DataHelper;
+import org.noaa.IntegratedSurfaceData.Field;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.net.SocketTimeoutException;
+import java.time.Clock;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class IsdBlenderTest {
+    private static final int YEAR = 2018;
+
+    private static NoaaStationHistory station(String id, double latitude, double longitude) {
+        return new NoaaStationHistory().setId(id).setLatitude(latitude).setLongitude(longitude)
+                .setInventoryStartYear(2000).setInventoryEndYear(YEAR);
+    }
+
+    /**
+     * A full year at a constant temperature and wind direction, without temperatures for the first missingHours.
+     */
+    private static IsdHourlyGrid grid(double temperature, double windDirection, int missingHours) {
+        int start = DataHelper.toEpochHour(YEAR, 1, 1, 0);
+        IsdSeries.Builder builder = new IsdSeries.Builder(8760);
+        for (int hour = 0; hour < 8760; hour++) {
+            double t = hour < missingHours ? Double.NaN : temperature;
+            builder.add(start + hour, new double[]{t, 0, 1013, windDirection, 3, 16093, 0, 0});
+        }
+        return new IsdGapFiller(GapFillPolicy.NONE).fill(builder.build(), YEAR);
+    }
+
+    @Test
+    public void blendsByDistanceAndAvailability() throws Exception {
+        NoaaStationRegistry registry = new NoaaStationRegistry(Arrays.asList(
+                station("A", 40.0, -91.0),
+                station("B", 40.0, -90.9),
+                station("BROKEN", 40.0, -90.951),
+                station("FAR", 45.0, -91.0)));
+        Map<String, AtomicInteger> loads = new ConcurrentHashMap<>();
+        NoaaMemoryCache<IsdHourlyGrid> grids = new NoaaMemoryCache<>(key -> {
+            loads.computeIfAbsent(key.getStation(), k -> new AtomicInteger()).incrementAndGet();
+            switch (key.getStation()) {
+                case "A":
+                    return grid(10, 350, 0);
+                case "B":
+                    return grid(20, 10, 876);
+                default:
+                    throw new FileNotFoundException(key.toString());
+            }
+        }, NoaaMemoryCache::estimateBytes, 1L << 30);
+        IsdBlender blender = new IsdBlender(registry, grids).setNeighbors(3).setMaxDistance(100);
+
+        IsdBlender.Blend blend = blender.blend(40.0, -90.95, YEAR);
+        Assert.assertEquals(2, blend.getNeighbors().size());
+        int a = blend.getNeighbors().get(0).getStation().getId().equals("A") ? 0 : 1;
+        Assert.assertEquals("B", blend.getNeighbors().get(1 - a).getStation().getId());
+
+        IsdHourlyGrid site = blend.getGrid();
+        Assert.assertEquals(8760, site.size());
+        Assert.assertEquals(10.0, site.airTemperatures()[0], 1e-9);
+        // equidistant, B observed 90% of the year
+        Assert.assertEquals((10 + 20 * 0.9) / 1.9, site.airTemperatures()[1000], 1e-6);
+        Assert.assertEquals(1 / 1.9, blend.getWeights(Field.AIR_TEMPERATURE)[a], 1e-6);
+        Assert.assertEquals(1013.0, site.seaLevelPressures()[5000], 1e-9);
+        double direction = site.windDirections()[1000];
+        Assert.assertTrue("direction " + direction, Math.min(direction, 360 - direction) < 1e-6);
+        Assert.assertEquals(0, site.missingCount(Field.AIR_TEMPERATURE));
+
+        // a closer site leans towards A, and reuses the cached grids and the known failure
+        IsdHourlyGrid nearA = blender.blend(40.0, -90.99, YEAR).getGrid();
+        Assert.assertTrue(nearA.airTemperatures()[1000] < 11);
+        Assert.assertEquals(1, loads.get("A").get());
+        Assert.assertEquals(1, loads.get("B").get());
+        Assert.assertEquals(1, loads.get("BROKEN").get());
+        Assert.assertNull(loads.get("FAR"));
+
+        try {
+            blender.blend(50.0, -91.0, YEAR);
+            Assert.fail();
+        }
+        catch (IOException e) {
+            // nothing within 100 km
+        }
+    }
+
+    @Test
+    public void retriesFailedStationsUnlessMissing() throws Exception {
+        NoaaStationRegistry registry = new NoaaStationRegistry(Arrays.asList(
+                station("A", 40.0, -91.0),
+                station("BAD_ROWS", 40.0, -90.99),
+                station("GONE", 40.0, -90.98),
+                station("TIMEOUT", 40.0, -90.97)));
+        Map<String, AtomicInteger> loads = new ConcurrentHashMap<>();
+        NoaaMemoryCache<IsdHourlyGrid> grids = new NoaaMemoryCache<>(key -> {
+            loads.computeIfAbsent(key.getStation(), k -> new AtomicInteger()).incrementAndGet();
+            switch (key.getStation()) {
+                case "A":
+                    return grid(10, 350, 0);
+                case "BAD_ROWS":
+                    throw new IsdParseException(new IsdRowError(2, "WND", "310,1", "too few sub-fields"), null);
+                case "GONE":
+                    throw new NoaaHttpException(404, "Not Found");
+                default:
+                    throw new SocketTimeoutException("Read timed out");
+            }
+        }, NoaaMemoryCache::estimateBytes, 1L << 30);
+        Instant now = Instant.parse("2019-03-01T00:00:00Z");
+        IsdBlender blender = new IsdBlender(registry, grids).setClock(Clock.fixed(now, ZoneOffset.UTC));
+
+        Assert.assertEquals(1, blender.blend(40.0, -90.98, YEAR).getNeighbors().size());
+        Assert.assertEquals(1, blender.blend(40.0, -90.98, YEAR).getNeighbors().size());
+        for (String station : Arrays.asList("A", "BAD_ROWS", "GONE", "TIMEOUT")) Assert.assertEquals(station, 1, loads.get(station).get());
+
+        // failures that may go away are tried again, a missing file is not
+        blender.setClock(Clock.fixed(now.plus(blender.getRetryAfter()), ZoneOffset.UTC));
+        blender.blend(40.0, -90.98, YEAR);
+        Assert.assertEquals(2, loads.get("BAD_ROWS").get());
+        Assert.assertEquals(1, loads.get("GONE").get());
+        Assert.assertEquals(2, loads.get("TIMEOUT").get());
+    }
+}
@@ -0,0 +1,94 @@
+/*
+ * ________________________________________________________________________
+ * METRO.IO CONFIDENTIAL
+ * ________________________________________________________________________
+ *
+ * Copyright (c) 2018.
+ * Metro Labs Incorporated
+ * All Rights Reserved.
+ *
+ * NOTICE: All information contained herein is, and remains
+ * the property of Metro Labs Incorporated and its suppliers,
+ * if any. The intellectual and technical concepts contained
+ * herein are proprietary to Metro Labs Incorporated
+ * and its suppliers and may be covered by U.S. and Foreign Patents,
+ * patents in process, and are protected by trade secret or copyright law.
+ * Dissemination of this information or reproduction of this material
+ * is strictly forbidden unless prior written permission is obtained
+ * from Metro Labs Incorporated.
+ */
+
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.noaa.IntegratedSurfaceData;
+import org.noaa.IntegratedSurfaceData.DataHelper;
+import org.noaa.IntegratedSurfaceDataReader;
+import org.noaa.IsdAdditionalData;
+import org.noaa.IsdColumnarReader;
+import org.noaa.IsdColumnarWriter;
+
+import java.nio.file.Path;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+public class IsdColumnarTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void roundTripsParsedObservations() throws Exception {
+        List<IntegratedSurfaceData> written = new ArrayList<>();
+        try (IntegratedSurfaceDataReader reader = new IntegratedSurfaceDataReader(
+                getClass().getResourceAsStream(IntegratedSurfaceDataReaderTest.STATION_FILE))) {
+            reader.forEachRemaining(written::add);
+        }
+        written.get(1).setSeaLevelPressure(null).setPrecipitationDepthSixHour(12.7);
+        // "-0000" in the source parses as -0.0, which compares equal to 0.0
+        written.get(2).setDewPointTemperature(-0.0);
+
+        Path path = folder.getRoot().toPath().resolve("72054500169-2018.isdc");
+        IsdColumnarWriter.write(path, written);
+
+        try (IsdColumnarReader reader = new IsdColumnarReader(path)) {
+            Assert.assertEquals(written.size(), reader.size());
+            List<IntegratedSurfaceData> read = reader.readAll();
+            for (int row = 0; row < written.size(); row++) {
+                Assert.assertEquals(written.get(row).toString(), read.get(row).toString());
+                Assert.assertEquals(written.get(row).getAirTemperatureQuality(), read.get(row).getAirTemperatureQuality());
+                Assert.assertEquals(written.get(row).getReportType(), read.get(row).getReportType());
+                Assert.assertEquals(written.get(row).getAdditionalData(), read.get(row).getAdditionalData());
+            }
+            Assert.assertTrue(reader.isMissing(IntegratedSurfaceData.Field.AIR_TEMPERATURE, 3));
+            Assert.assertTrue(reader.getDouble(IntegratedSurfaceData.Field.WIND_SPEED_RATE, 0) == 3.6);
+            Assert.assertEquals("FM-15", reader.getReportType(0));
+            Assert.assertNotNull(reader.getAdditionalData(0));
+            Assert.assertEquals("99999,9,09852,1", reader.getAdditionalData(0).getRaw(IsdAdditionalData.Section.MA1));
+            Assert.assertEquals(Double.doubleToLongBits(-0.0), Double.doubleToLongBits(read.get(2).getDewPointTemperature()));
+            Assert.assertEquals(0, reader.getScaled(IntegratedSurfaceData.Field.DEW_POINT_TEMPERATURE, 2));
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsValuesThatWouldBeRounded() throws Exception {
+        IntegratedSurfaceData i = new IntegratedSurfaceData().setObservationYear(2018).setObservationMonth(1)
+                .setObservationDay(1).setAirTemperature(-1.25);
+        IsdColumnarWriter.write(folder.getRoot().toPath().resolve("bad.isdc"), Collections.singletonList(i));
+    }
+
+    @Test
+    public void epochHourMatchesJavaTime() {
+        for (LocalDateTime t = LocalDateTime.of(1899, 12, 31, 0, 0); t.getYear() < 2101; t = t.plusHours(7)) {
+            int epochHour = (int) (t.toEpochSecond(ZoneOffset.UTC) / 3600);
+            Assert.assertEquals(epochHour, DataHelper.toEpochHour(t.getYear(), t.getMonthValue(), t.getDayOfMonth(), t.getHour()));
+
+            IntegratedSurfaceData i = DataHelper.setEpochHour(new IntegratedSurfaceData(), epochHour);
+            Assert.assertEquals(t.getDayOfMonth(), i.getObservationDay());
+            Assert.assertEquals(t.getHour(), i.getObservationHour());
+        }
+    }
+}
@@ -0,0 +1,90 @@
+/*
+ * ________________________________________________________________________
+ * METRO.IO CONFIDENTIAL
+ * ________________________________________________________________________
+ *
+ * Copyright (c) 2018.
+ * Metro Labs Incorporated
+ * All Rights Reserved.
+ *
+ * NOTICE: All information contained herein is, and remains
+ * the property of Metro Labs Incorporated and its suppliers,
+ * if any. The intellectual and technical concepts contained
+ * herein are proprietary to Metro Labs Incorporated
+ * and its suppliers and may be covered by U.S. and Foreign Patents,
+ * patents in process, and are protected by trade secret or copyright law.
+ * Dissemination of this information or reproduction of this material
+ * is strictly forbidden unless prior written permission is obtained
+ * from Metro Labs Incorporated.
+ */
+
+import org.apache.commons.csv.CSVFormat;
+import org.apache.commons.csv.CSVRecord;
+import org.junit.Assert;
+import org.junit.Test;
+import org.noaa.IntegratedSurfaceData;
+import org.noaa.IsdCsvParser;
+
+import java.io.ByteArrayInputStream;
+import java.io.StringReader;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+public class IsdCsvParserTest {
+
+    @Test
+    public void matchesCsvRecordConstructor() throws Exception {
+        String csv = new String(LocalNoaaServer.resource(IntegratedSurfaceDataReaderTest.STATION_FILE), StandardCharsets.UTF_8);
+        assertSameAsConstructor(csv);
+        assertSameAsConstructor(csv.replace("\n", "\r\n"));
+
+        // large enough to make records straddle the read buffer
+        StringBuilder large = new StringBuilder(csv);
+        String rows = csv.substring(csv.indexOf('\n') + 1);
+        while (large.length() < 300 * 1024) large.append(rows);
+        assertSameAsConstructor(large.toString());
+    }
+
+    @Test
+    public void matchesCsvRecordConstructorOnEdgeCases() throws Exception {
+        assertSameAsConstructor("DATE,TMP,DEW,SLP,WND,VIS\n" +
+                "2018-02-28T23:59,+9999,-9999,99999,\"999,9,C,0000,1\",\"-9999,1,9,9\"\n" +
+                "\n" +
+                "2016-02-29T07:00:59,\"+0000,1\",\"-0000,1\",\"10001,1\",\"001,1,N,0900,1\",\"000000,1\"\n" +
+                "2018-03-01T01:00:00.5,1.5,\"2e1,1\",\" 10070\",\"10,1,N, 36,1\",\"1000000000,1\"");
+    }
+
+    @Test
+    public void parsesPushedInput() throws Exception {
+        byte[] csv = "DATE,TMP,DEW,SLP,WND,VIS\n2018-01-01T00:15:00,\"-0150,1\",\"-0240,1\",\"99999,9\",\"310,1,N,0036,1\",\"016093,1,9,9\"".getBytes(StandardCharsets.UTF_8);
+        try (IsdCsvParser parser = new IsdCsvParser()) {
+            parser.feed(ByteBuffer.wrap(csv, 0, 40));
+            Assert.assertFalse(parser.next());
+            parser.feed(ByteBuffer.wrap(csv, 40, csv.length - 40));
+            parser.finish();
+            Assert.assertTrue(parser.next());
+            Assert.assertEquals(-15.0, parser.getValue(IntegratedSurfaceData.Field.AIR_TEMPERATURE), 0d);
+            Assert.assertFalse(parser.next());
+        }
+    }
+
+    private static void assertSameAsConstructor(String csv) throws Exception {
+        List<String> expected = new ArrayList<>();
+        for (CSVRecord record : CSVFormat.DEFAULT.withFirstRecordAsHeader().parse(new StringReader(csv))) {
+            expected.add(describe(new IntegratedSurfaceData(record)));
+        }
+
+        List<String> actual = new ArrayList<>();
+        try (IsdCsvParser parser = new IsdCsvParser(new ByteArrayInputStream(csv.getBytes(StandardCharsets.UTF_8)))) {
+            while (parser.next()) actual.add(describe(parser.toIntegratedSurfaceData()));
+        }
+
+        Assert.assertEquals(expected, actual);
+    }
+
+    private static String describe(IntegratedSurfaceData i) {
+        return i + " " + i.getAirTemperatureQuality() + " " + i.getReportType() + " " + i.getAdditionalData();
+    }
+}
@@ -0,0 +1,95 @@
+/*
+ * ________________________________________________________________________
+ * METRO.IO CONFIDENTIAL
+ * ________________________________________________________________________
+ *
+ * Copyright (c) 2018.
+ * Metro Labs Incorporated
+ * All Rights Reserved.
+ *
+ * NOTICE: All information contained herein is, and remains
+ * the property of Metro Labs Incorporated and its suppliers,
+ * if any. The intellectual and technical concepts contained
+ * herein are proprietary to Metro Labs Incorporated
+ * and its suppliers and may be covered by U.S. and Foreign Patents,
+ * patents in process, and are protected by trade secret or copyright law.
+ * Dissemination of this information or reproduction of this material
+ * is strictly forbidden unless prior written permission is obtained
+ * from Metro Labs Incorporated.
+ */
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.noaa.GapFillPolicy;
+import org.noaa.IntegratedSurfaceData.DataHelper;
+import org.noaa.IntegratedSurfaceData.Field;
+import org.noaa.IsdGapFiller;
+import org.noaa.IsdHourlyGrid;
+import org.noaa.IsdSeries;
+
+import java.util.Arrays;
+
+public class IsdGapFillerTest {
+    private static final double DELTA = 1e-9;
+
+    private IsdSeries station() throws Exception {
+        return IsdSeries.read(getClass().getResourceAsStream(IntegratedSurfaceDataReaderTest.STATION_FILE));
+    }
+
+    @Test
+    public void regularizesOntoHourlyGrid() throws Exception {
+        IsdHourlyGrid grid = new IsdGapFiller(GapFillPolicy.NONE).fill(station(), 2018);
+        Assert.assertEquals(8760, grid.size());
+        Assert.assertEquals(DataHelper.toEpochHour(2018, 1, 1, 0), grid.getEpochHour(0));
+        Assert.assertEquals(-15.0, grid.airTemperatures()[0], DELTA);
+        Assert.assertTrue(grid.isMissing(Field.AIR_TEMPERATURE, 3));
+        Assert.assertEquals(-10.0, grid.airTemperatures()[grid.row(DataHelper.toEpochHour(2018, 1, 2, 0))], DELTA);
+        Assert.assertEquals(8760 - 7, grid.missingCount(Field.AIR_TEMPERATURE));
+        Assert.assertEquals(0, grid.filledCount(Field.AIR_TEMPERATURE));
+
+        Assert.assertEquals(8784, new IsdGapFiller(GapFillPolicy.NONE).fill(station(), 2016).size());
+    }
+
+    @Test
+    public void fillsShortGapsInOnePass() throws Exception {
+        IsdHourlyGrid linear = new IsdGapFiller(GapFillPolicy.LINEAR).fill(station(), 2018);
+        double[] t = linear.airTemperatures();
+        // 02:00 is -17.0 and 05:00 is -19.0; 03:00 reported no temperature and 04:00 is absent
+        Assert.assertEquals(-17.0 - 2.0 / 3, t[3], DELTA);
+        Assert.assertEquals(-17.0 - 4.0 / 3, t[4], DELTA);
+        Assert.assertTrue(linear.isFilled(Field.AIR_TEMPERATURE, 3));
+        Assert.assertFalse(linear.isFilled(Field.AIR_TEMPERATURE, 2));
+        // 08:00 to 23:00 is longer than the default six hours
+        Assert.assertTrue(Double.isNaN(t[8]));
+        Assert.assertEquals(2, linear.filledCount(Field.AIR_TEMPERATURE));
+        // wind direction is filled by the nearest observation, never interpolated
+        Assert.assertEquals(290.0, linear.windDirections()[4], DELTA);
+
+        IsdHourlyGrid nearest = new IsdGapFiller(GapFillPolicy.NEAREST).fill(station(), 2018);
+        Assert.assertEquals(-17.0, nearest.airTemperatures()[3], DELTA);
+        Assert.assertEquals(-19.0, nearest.airTemperatures()[4], DELTA);
+
+        IsdHourlyGrid wide = new IsdGapFiller(GapFillPolicy.LINEAR).setMaxGap(16).fill(station(), 2018);
+        Assert.assertEquals(-21.0 + 11.0 * 1 / 17, wide.airTemperatures()[8], DELTA);
+    }
+
+    @Test
+    public void fallsBackToNeighborWithBias() throws Exception {
+        IsdSeries.Builder neighbor = new IsdSeries.Builder();
+        IsdHourlyGrid own = new IsdGapFiller(GapFillPolicy.NONE).fill(station(), 2018);
+        for (int row = 0; row < 48; row++) {
+            double[] values = new double[Field.values().length];
+            Arrays.fill(values, Double.NaN);
+            double t = own.airTemperatures()[row];
+            values[Field.AIR_TEMPERATURE.ordinal()] = Double.isNaN(t) ? -30.0 : t - 2.0;
+            neighbor.add(own.getEpochHour(row), values);
+        }
+
+        IsdHourlyGrid grid = new IsdGapFiller(GapFillPolicy.LINEAR).setNeighbor(neighbor.build()).fill(station(), 2018);
+        // the neighbor reads two degrees colder wherever both stations observed
+        Assert.assertEquals(-28.0, grid.airTemperatures()[10], DELTA);
+        Assert.assertTrue(grid.isFilled(Field.AIR_TEMPERATURE, 10));
+        Assert.assertEquals(-17.0 - 2.0 / 3, grid.airTemperatures()[3], DELTA);
+        Assert.assertTrue(Double.isNaN(grid.airTemperatures()[48]));
+    }
+}
@@ -0,0 +1,126 @@
+/*
+ * ________________________________________________________________________
+ * METRO.IO CONFIDENTIAL
+ * ________________________________________________________________________
+ *
+ * Copyright (c) 2018.
+ * Metro Labs Incorporated
+ * All Rights Reserved.
+ *
+ * NOTICE: All information contained herein is, and remains
+ * the property of Metro Labs Incorporated and its suppliers,
+ * if any. The intellectual and technical concepts contained
+ * herein are proprietary to Metro Labs Incorporated
+ * and its suppliers and may be covered by U.S. and Foreign Patents,
+ * patents in process, and are protected by trade secret or copyright law.
+ * Dissemination of this information or reproduction of this material
+ * is strictly forbidden unless prior written permission is obtained
+ * from Metro Labs Incorporated.
+ */
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.noaa.*;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+
+public class IsdParallelParserTest {
+    private static final String HEADER = "\"STATION\",\"DATE\",\"NAME\",\"REPORT_TYPE\",\"WND\",\"VIS\",\"TMP\",\"DEW\",\"SLP\"\n";
+
+    /**
+     * Hourly rows with a second report in every fifth hour and station names that carry quotes, commas and
+     * line breaks, so that chunk boundaries land inside quoted fields.
+     */
+    private static byte[] file(int hours, boolean shuffled) {
+        StringBuilder csv = new StringBuilder(HEADER);
+        LocalDateTime start = LocalDateTime.of(2018, 1, 1, 0, 0);
+        for (int h = 0; h < hours; h++) {
+            int hour = shuffled && h % 100 == 50 ? h - 40 : h;
+            String date = start.plusHours(hour).plusMinutes(15).toString() + ":00";
+            String name = h % 3 == 0 ? "FORT \"\"MADISON\"\",\nIA US" : "FORT MADISON, IA US";
+            row(csv, date, name, "FM-16", h % 40, h % 2 == 0 ? '1' : '2');
+            if (h % 5 == 0) row(csv, date.replace(":15:", ":53:"), name, "FM-15", h % 40 + 5, '5');
+        }
+        return csv.toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static void row(StringBuilder csv, String date, String name, String type, int temperature, char quality) {
+        csv.append(String.format("\"72054500169\",\"%s\",\"%s\",\"%s\",\"310,1,N,0036,1\",\"016093,1,9,9\",\"%+05d,%c\",\"-0240,1\",\"99999,9\"\n",
+                date, name, type, temperature * 10 - 150, quality));
+    }
+
+    @Test
+    public void matchesSequentialParse() throws Exception {
+        ForkJoinPool pool = new ForkJoinPool(4);
+        try {
+            for (boolean shuffled : new boolean[]{false, true}) {
+                byte[] data = file(5000, shuffled);
+                for (DedupPolicy policy : DedupPolicy.values()) {
+                    IsdSeries expected = IsdSeries.read(new ByteArrayInputStream(data), policy);
+                    for (int chunk : new int[]{Integer.MAX_VALUE, 64 * 1024, 4096, 333}) {
+                        IsdSeries actual = new IsdParallelParser(policy).setPool(pool).setMinChunkBytes(chunk).parse(data);
+                        Assert.assertEquals(policy + " chunk " + chunk, expected.asList().toString(), actual.asList().toString());
+                    }
+                }
+            }
+        }
+        finally {
+            pool.shutdown();
+        }
+    }
+
+    @Test
+    public void keepsOneRowPerHour() throws Exception {
+        IsdSeries series = new IsdParallelParser(DedupPolicy.PREFER_FM15).setMinChunkBytes(1000).parse(file(1000, false));
+        Assert.assertEquals(1000, series.size());
+        for (int r = 1; r < series.size(); r++) Assert.assertEquals(series.getEpochHour(r - 1) + 1, series.getEpochHour(r));
+
+        // the FM-15 report replaces the FM-16 one in every fifth hour
+        Assert.assertEquals(-5.0, series.airTemperatures()[5], 1e-9);
+    }
+
+    @Test
+    public void reportsErrorsAtTheirLineInTheFile() throws Exception {
+        // a WND with two sub-fields in the 07:00 report of every day
+        byte[] data = new String(file(2000, false), StandardCharsets.UTF_8)
+                .replaceAll("(?s)(T07:15:00\",\"[^\n]*?\",\"FM-16\",)\"310,1,N,0036,1\"", "$1\"310,1\"")
+                .getBytes(StandardCharsets.UTF_8);
+
+        List<IsdRowError> expected;
+        int rows = 0;
+        try (IntegratedSurfaceDataReader reader = new IntegratedSurfaceDataReader(new ByteArrayInputStream(data))
+                .setErrorPolicy(ErrorPolicy.SKIP_ROW)) {
+            for (; reader.hasNext(); reader.next()) rows++;
+            expected = reader.getErrors();
+        }
+        Assert.assertTrue(expected.size() > 50);
+
+        IsdParallelParser parser = new IsdParallelParser().setErrorPolicy(ErrorPolicy.SKIP_ROW).setMinChunkBytes(4096);
+        Assert.assertEquals(rows, parser.parse(data).size());
+        Assert.assertEquals(expected.size(), parser.getErrors().size());
+        for (int e = 0; e < expected.size(); e++) {
+            Assert.assertEquals(expected.get(e).getLineNumber(), parser.getErrors().get(e).getLineNumber());
+            Assert.assertEquals(expected.get(e).getColumn(), parser.getErrors().get(e).getColumn());
+            Assert.assertEquals(expected.get(e).getValue(), parser.getErrors().get(e).getValue());
+        }
+        Assert.assertEquals(expected.size(), parser.getRejectedCount());
+
+        try {
+            new IsdParallelParser().setMinChunkBytes(4096).parse(data);
+            Assert.fail();
+        }
+        catch (IsdParseException e) {
+            Assert.assertEquals(expected.get(0).getLineNumber(), e.getError().getLineNumber());
+        }
+    }
+
+    @Test
+    public void parsesHeaderOnlyAndEmptyFiles() throws Exception {
+        Assert.assertEquals(0, new IsdParallelParser().parse(HEADER.getBytes(StandardCharsets.UTF_8)).size());
+        Assert.assertEquals(0, new IsdParallelParser().parse(new byte[0]).size());
+    }
+}
@@ -0,0 +1,123 @@
+/*
+ * ________________________________________________________________________
+ * METRO.IO CONFIDENTIAL
+ * ________________________________________________________________________
+ *
+ * Copyright (c) 2018.
+ * Metro Labs Incorporated
+ * All Rights Reserved.
+ *
+ * NOTICE: All information contained herein is, and remains
+ * the property of Metro Labs Incorporated and its suppliers,
+ * if any. The intellectual and technical concepts contained
+ * herein are proprietary to Metro Labs Incorporated
+ * and its suppliers and may be covered by U.S. and Foreign Patents,
+ * patents in process, and are protected by trade secret or copyright law.
+ * Dissemination of this information or reproduction of this material
+ * is strictly forbidden unless prior written permission is obtained
+ * from Metro Labs Incorporated.
+ */
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.noaa.IsdPsychrometrics;
+import org.noaa.IsdPsychrometrics.Variable;
+import org.noaa.IsdSeries;
+
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+public class IsdPsychrometricsTest {
+
+    @Test
+    public void matchesReferenceValues() {
+        Assert.assertEquals(55.05, IsdPsychrometrics.relativeHumidity(30, 20), 0.1);
+        Assert.assertEquals(100, IsdPsychrometrics.relativeHumidity(10, 11), 0);
+        Assert.assertEquals(13.7, IsdPsychrometrics.wetBulbTemperature(20, 50), 0.1);
+        // NWS table: 90F at 60% feels like 100F
+        Assert.assertEquals(37.8, IsdPsychrometrics.heatIndex(32.22, 60), 0.5);
+        Assert.assertEquals(20, IsdPsychrometrics.heatIndex(20, 50), 1);
+        // Environment Canada table: -10C in a 20 km/h wind
+        Assert.assertEquals(-17.9, IsdPsychrometrics.windChill(-10, 20 / 3.6), 0.1);
+        Assert.assertEquals(12, IsdPsychrometrics.windChill(12, 10), 0);
+        Assert.assertEquals(-5, IsdPsychrometrics.windChill(-5, 1), 0);
+        Assert.assertEquals(50.4, IsdPsychrometrics.enthalpy(25, 13.9, IsdPsychrometrics.STANDARD_PRESSURE), 0.5);
+        Assert.assertEquals(0.0098, IsdPsychrometrics.specificHumidity(13.9, IsdPsychrometrics.STANDARD_PRESSURE), 0.0001);
+    }
+
+    @Test
+    public void propagatesMissingValues() {
+        double nan = Double.NaN;
+        double[] t = {25, nan, 25, 5, 5};
+        double[] td = {15, 15, nan, 0, 0};
+        double[] p = {1010, 1010, 1010, nan, 1000};
+        double[] v = {3, 3, 3, nan, 3};
+        IsdPsychrometrics kernel = new IsdPsychrometrics();
+
+        for (Variable variable : Variable.values()) {
+            double[] out = kernel.compute(variable, t, td, p, v);
+            Assert.assertFalse(variable.name(), Double.isNaN(out[0]));
+            Assert.assertFalse(variable.name(), Double.isNaN(out[4]));
+        }
+        for (Variable variable : new Variable[]{Variable.RELATIVE_HUMIDITY, Variable.WET_BULB_TEMPERATURE, Variable.HEAT_INDEX}) {
+            double[] out = kernel.compute(variable, t, td, null, null);
+            Assert.assertTrue(variable.name(), Double.isNaN(out[1]));
+            Assert.assertTrue(variable.name(), Double.isNaN(out[2]));
+        }
+        Assert.assertTrue(Double.isNaN(kernel.compute(Variable.SPECIFIC_HUMIDITY, null, td, p, null)[3]));
+        Assert.assertTrue(Double.isNaN(kernel.compute(Variable.ENTHALPY, t, td, p, null)[3]));
+        Assert.assertTrue(Double.isNaN(kernel.compute(Variable.WIND_CHILL, t, null, null, v)[3]));
+        Assert.assertEquals(25, kernel.compute(Variable.WIND_CHILL, t, null, null, v)[0], 0);
+
+        kernel.setMissingPressure(IsdPsychrometrics.STANDARD_PRESSURE);
+        Assert.assertEquals(IsdPsychrometrics.specificHumidity(0, IsdPsychrometrics.STANDARD_PRESSURE),
+                kernel.compute(Variable.SPECIFIC_HUMIDITY, null, td, p, null)[3], 0);
+    }
+
+    @Test
+    public void parallelMatchesSequential() {
+        Random random = new Random(7);
+        int n = 100_000;
+        double[] t = new double[n];
+        double[] td = new double[n];
+        double[] p = new double[n];
+        double[] v = new double[n];
+        for (int i = 0; i < n; i++) {
+            t[i] = random.nextInt(100) == 0 ? Double.NaN : random.nextDouble() * 70 - 30;
+            td[i] = t[i] - random.nextDouble() * 20;
+            p[i] = random.nextInt(50) == 0 ? Double.NaN : 990 + random.nextDouble() * 40;
+            v[i] = random.nextDouble() * 20;
+        }
+
+        ForkJoinPool pool = new ForkJoinPool(4);
+        try {
+            IsdPsychrometrics sequential = new IsdPsychrometrics().setMinChunkRows(Integer.MAX_VALUE);
+            IsdPsychrometrics parallel = new IsdPsychrometrics().setPool(pool).setMinChunkRows(1000);
+            for (Variable variable : Variable.values()) {
+                Assert.assertArrayEquals(variable.name(), sequential.compute(variable, t, td, p, v),
+                        parallel.compute(variable, t, td, p, v), 0);
+            }
+        }
+        finally {
+            pool.shutdown();
+        }
+    }
+
+    @Test
+    public void computesOverSeries() {
+        IsdSeries series = new IsdSeries.Builder()
+                .add(0, new double[]{30, 20, 1013, 180, 2, Double.NaN, 0, 0})
+                .add(1, new double[]{Double.NaN, 20, 1013, 180, 2, Double.NaN, 0, 0})
+                .build();
+
+        double[] rh = new IsdPsychrometrics().compute(Variable.RELATIVE_HUMIDITY, series);
+        Assert.assertEquals(2, rh.length);
+        Assert.assertEquals(IsdPsychrometrics.relativeHumidity(30, 20), rh[0], 0);
+        Assert.assertTrue(Double.isNaN(rh[1]));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsMismatchedInputs() {
+        new IsdPsychrometrics().compute(Variable.RELATIVE_HUMIDITY, new double[3], new double[2], null, null);
+    }
+}
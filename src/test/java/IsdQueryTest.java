@@ -0,0 +1,147 @@
+/*
+ * ________________________________________________________________________
+ * METRO.IO CONFIDENTIAL
+ * ________________________________________________________________________
+ *
+ * Copyright (c) 2018.
+ * Metro Labs Incorporated
+ * All Rights Reserved.
+ *
+ * NOTICE: All information contained herein is, and remains
+ * the property of Metro Labs Incorporated and its suppliers,
+ * if any. The intellectual and technical concepts contained
+ * herein are proprietary to Metro Labs Incorporated
+ * and its suppliers and may be covered by U.S. and Foreign Patents,
+ * patents in process, and are protected by trade secret or copyright law.
+ * Dissemination of this information or reproduction of this material
+ * is strictly forbidden unless prior written permission is obtained
+ * from Metro Labs Incorporated.
+ */
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.noaa.*;
+import org.noaa.IntegratedSurfaceData.Field;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.List;
+
+public class IsdQueryTest {
+    private static final String STATION = "720545-00169";
+    private static final String HEADER = "\"STATION\",\"DATE\",\"REPORT_TYPE\",\"WND\",\"VIS\",\"TMP\",\"DEW\",\"SLP\"\n";
+    private static final LocalDateTime START = LocalDateTime.of(2018, 1, 1, 0, 0);
+
+    /**
+     * One row per hour; every DEW value is garbage, so decoding it fails under {@link ErrorPolicy#FAIL_FAST}.
+     */
+    private static byte[] file(LocalDateTime start, int hours) {
+        StringBuilder csv = new StringBuilder(HEADER);
+        for (int h = 0; h < hours; h++) {
+            csv.append(String.format("\"72054500169\",\"%s:00\",\"FM-15\",\"310,1,N,0036,1\",\"016093,1,9,9\",\"%+05d,1\",\"bad\",\"99999,9\"\n",
+                    start.plusHours(h), h % 100));
+        }
+        return csv.toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static int epochHour(LocalDateTime date) {
+        return (int) (date.toEpochSecond(ZoneOffset.UTC) / 3600);
+    }
+
+    @Test
+    public void decodesOnlyTheWindowAndSelectedFields() throws Exception {
+        IsdQuery query = new IsdQuery().setEpochHours(epochHour(START.plusHours(100)), epochHour(START.plusHours(148)))
+                .select(Field.AIR_TEMPERATURE).select(IsdQuery.WIND);
+        IsdSeries series = IsdSeries.read(new ByteArrayInputStream(file(START, 1000)), DedupPolicy.FIRST_WINS, query);
+
+        Assert.assertEquals(48, series.size());
+        Assert.assertEquals(epochHour(START.plusHours(100)), series.getEpochHour(0));
+        Assert.assertEquals(epochHour(START.plusHours(147)), series.getEpochHour(47));
+        Assert.assertEquals(0.0, series.airTemperatures()[0], 0);
+        Assert.assertEquals(4.7, series.airTemperatures()[47], 1e-9);
+        Assert.assertEquals(310.0, series.windDirections()[0], 0);
+        Assert.assertEquals(3.6, series.windSpeedRates()[0], 1e-9);
+        for (Field field : new Field[]{Field.DEW_POINT_TEMPERATURE, Field.SEA_LEVEL_PRESSURE, Field.SKY_CONDITION,
+                Field.PRECIPITATION_DEPTH_ONE_HOUR}) {
+            Assert.assertEquals(field.name(), 48, series.missingCount(field));
+        }
+    }
+
+    @Test
+    public void stopsReadingOnceTheWindowHasPassed() throws Exception {
+        byte[] data = file(START, 100000);
+        int[] read = new int[1];
+        InputStream in = new ByteArrayInputStream(data) {
+            @Override
+            public synchronized int read(byte[] b, int off, int len) {
+                int n = super.read(b, off, len);
+                if (n > 0) read[0] += n;
+                return n;
+            }
+        };
+
+        IsdQuery query = new IsdQuery().setEpochHours(epochHour(START.plusHours(10)), epochHour(START.plusHours(20)))
+                .select(Field.AIR_TEMPERATURE);
+        try (IntegratedSurfaceDataReader reader = new IntegratedSurfaceDataReader(in).setQuery(query)) {
+            int rows = 0;
+            while (reader.hasNext()) {
+                IntegratedSurfaceData i = reader.next();
+                Assert.assertNotNull(i.getAirTemperature());
+                Assert.assertNull(i.getDewPointTemperature());
+                rows++;
+            }
+            Assert.assertEquals(10, rows);
+            Assert.assertEquals(11, reader.getFilteredCount());
+            Assert.assertEquals(21, reader.getRowCount());
+        }
+        Assert.assertTrue("read " + read[0] + " of " + data.length, read[0] < data.length / 10);
+    }
+
+    @Test
+    public void roundsTheWindowOutToWholeHours() {
+        IsdQuery query = IsdQuery.between(Instant.parse("2018-03-01T10:30:00Z"), Instant.parse("2018-03-01T12:00:01Z"));
+        int from = epochHour(LocalDateTime.of(2018, 3, 1, 10, 0));
+        Assert.assertEquals(from, query.getFromEpochHour());
+        Assert.assertEquals(from + 3, query.getToEpochHour());
+        Assert.assertEquals(from + 2, IsdQuery.between(Instant.parse("2018-03-01T10:30:00Z"), Instant.parse("2018-03-01T12:00:00Z")).getToEpochHour());
+        Assert.assertTrue(query.isSelected(Field.SEA_LEVEL_PRESSURE));
+        Assert.assertFalse(query.select(Field.AIR_TEMPERATURE).isSelected(Field.SEA_LEVEL_PRESSURE));
+    }
+
+    @Test
+    public void queriesAcrossYears() throws Exception {
+        try (LocalNoaaServer server = new LocalNoaaServer()) {
+            LocalDateTime newYear = LocalDateTime.of(2018, 1, 1, 0, 0);
+            server.put(2017, STATION, file(newYear.minusHours(8760), 8760));
+            server.put(2018, STATION, file(newYear, 8760));
+            NoaaClient client = new NoaaClient(server.getBaseUrl());
+
+            IsdSeries series = client.query(STATION, IsdQuery.between(newYear.minusHours(6).toInstant(ZoneOffset.UTC),
+                    newYear.plusHours(6).toInstant(ZoneOffset.UTC)).select(Field.AIR_TEMPERATURE));
+            Assert.assertEquals(12, series.size());
+            for (int row = 0; row < series.size(); row++) {
+                Assert.assertEquals(epochHour(newYear) - 6 + row, series.getEpochHour(row));
+            }
+
+            try (IntegratedSurfaceDataReader reader = client.open(2018, STATION, IsdQuery.all())) {
+                Assert.assertTrue(reader.hasNext());
+                Assert.fail("DEW should have been decoded: " + reader.next());
+            }
+            catch (IsdParseException e) {
+                Assert.assertEquals("DEW", e.getError().getColumn());
+            }
+
+            try {
+                client.query(STATION, IsdQuery.all());
+                Assert.fail();
+            }
+            catch (IllegalArgumentException e) {
+                // no window
+            }
+        }
+    }
+}
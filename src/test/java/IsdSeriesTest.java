@@ -0,0 +1,71 @@
+/*
+ * ________________________________________________________________________
+ * METRO.IO CONFIDENTIAL
+ * ________________________________________________________________________
+ *
+ * Copyright (c) 2018.
+ * Metro Labs Incorporated
+ * All Rights Reserved.
+ *
+ * NOTICE: All information contained herein is, and remains
+ * the property of Metro Labs Incorporated and its suppliers,
+ * if any. The intellectual and technical concepts contained
+ * herein are proprietary to Metro Labs Incorporated
+ * and its suppliers and may be covered by U.S. and Foreign Patents,
+ * patents in process, and are protected by trade secret or copyright law.
+ * Dissemination of this information or reproduction of this material
+ * is strictly forbidden unless prior written permission is obtained
+ * from Metro Labs Incorporated.
+ */
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.noaa.IntegratedSurfaceData;
+import org.noaa.IntegratedSurfaceDataReader;
+import org.noaa.IsdSeries;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+public class IsdSeriesTest {
+    @Test
+    public void readsSameObservationsAsReader() throws Exception {
+        List<IntegratedSurfaceData> expected = new ArrayList<>();
+        try (IntegratedSurfaceDataReader reader = new IntegratedSurfaceDataReader(
+                getClass().getResourceAsStream(IntegratedSurfaceDataReaderTest.STATION_FILE))) {
+            reader.forEachRemaining(expected::add);
+        }
+
+        IsdSeries series = IsdSeries.read(getClass().getResourceAsStream(IntegratedSurfaceDataReaderTest.STATION_FILE));
+        Assert.assertEquals(expected.size(), series.size());
+        Assert.assertEquals(expected.toString(), series.asList().toString());
+        Assert.assertEquals(expected.toString(), IsdSeries.of(expected).asList().toString());
+
+        Assert.assertTrue(Double.isNaN(series.airTemperatures()[3]));
+        Assert.assertTrue(series.isMissing(IntegratedSurfaceData.Field.AIR_TEMPERATURE, 3));
+        Assert.assertEquals(1, series.missingCount(IntegratedSurfaceData.Field.AIR_TEMPERATURE));
+        Assert.assertTrue(series.windSpeedRates()[0] == 3.6);
+    }
+
+    @Test
+    public void closesStreamWithoutHeader() throws Exception {
+        AtomicBoolean closed = new AtomicBoolean();
+        InputStream in = new ByteArrayInputStream(new byte[0]) {
+            @Override
+            public void close() {
+                closed.set(true);
+            }
+        };
+        try {
+            IsdSeries.read(in);
+            Assert.fail();
+        }
+        catch (IOException e) {
+            Assert.assertTrue(closed.get());
+        }
+    }
+}
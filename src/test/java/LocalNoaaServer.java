@@ -0,0 +1,205 @@
+/*
+ * ________________________________________________________________________
+ * METRO.IO CONFIDENTIAL
+ * ________________________________________________________________________
+ *
+ * Copyright (c) 2018.
+ * Metro Labs Incorporated
+ * All Rights Reserved.
+ *
+ * NOTICE: All information contained herein is, and remains
+ * the property of Metro Labs Incorporated and its suppliers,
+ * if any. The intellectual and technical concepts contained
+ * herein are proprietary to Metro Labs Incorporated
+ * and its suppliers and may be covered by U.S. and Foreign Patents,
+ * patents in process, and are protected by trade secret or copyright law.
+ * Dissemination of this information or reproduction of this material
+ * is strictly forbidden unless prior written permission is obtained
+ * from Metro Labs Incorporated.
+ */
+
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Local stand-in for the global-hourly archive serving canned CSVs at /&lt;year&gt;/&lt;station&gt;.csv.
+ */
+public class LocalNoaaServer implements AutoCloseable {
+    private final HttpServer server;
+    private final ExecutorService executor = Executors.newCachedThreadPool();
+    private final Map<String, byte[]> files = new ConcurrentHashMap<>();
+    private final AtomicInteger requests = new AtomicInteger();
+    private volatile long delay;
+    private volatile boolean gzip;
+    private volatile boolean ranges = true;
+    private final AtomicLong bytesSent = new AtomicLong();
+    private final AtomicInteger failures = new AtomicInteger();
+    private volatile int failureStatus;
+    private final AtomicInteger drops = new AtomicInteger();
+    private volatile int dropAfter;
+
+    public LocalNoaaServer() throws IOException {
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/", exchange -> {
+            requests.incrementAndGet();
+            try {
+                if (delay > 0) Thread.sleep(delay);
+            }
+            catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+
+            byte[] body = files.get(exchange.getRequestURI().getPath());
+            if (failures.getAndUpdate(n -> Math.max(0, n - 1)) > 0) {
+                exchange.sendResponseHeaders(failureStatus, -1);
+            }
+            else if (body == null) {
+                exchange.sendResponseHeaders(404, -1);
+            }
+            else if (etag(body).equals(exchange.getRequestHeaders().getFirst("If-None-Match"))) {
+                exchange.sendResponseHeaders(304, -1);
+            }
+            else {
+                exchange.getResponseHeaders().set("ETag", etag(body));
+                String range = exchange.getRequestHeaders().getFirst("Range");
+                String ifRange = exchange.getRequestHeaders().getFirst("If-Range");
+                if (ranges && range != null && range.matches("bytes=\\d+-") && (ifRange == null || ifRange.equals(etag(body)))) {
+                    int from = Integer.parseInt(range.substring(6, range.length() - 1));
+                    if (from >= body.length) {
+                        exchange.getResponseHeaders().set("Content-Range", "bytes */" + body.length);
+                        exchange.sendResponseHeaders(416, -1);
+                    }
+                    else {
+                        exchange.getResponseHeaders().set("Content-Range", "bytes " + from + "-" + (body.length - 1) + "/" + body.length);
+                        exchange.sendResponseHeaders(206, body.length - from);
+                        bytesSent.addAndGet(body.length - from);
+                        try (OutputStream out = exchange.getResponseBody()) {
+                            out.write(body, from, body.length - from);
+                        }
+                    }
+                    exchange.close();
+                    return;
+                }
+                bytesSent.addAndGet(body.length);
+                String accept = exchange.getRequestHeaders().getFirst("Accept-Encoding");
+                if (gzip && accept != null && accept.contains("gzip")) {
+                    exchange.getResponseHeaders().set("Content-Encoding", "gzip");
+                    exchange.sendResponseHeaders(200, 0);
+                    try (OutputStream out = new GZIPOutputStream(exchange.getResponseBody())) {
+                        out.write(body);
+                    }
+                }
+                else if (drops.getAndUpdate(n -> Math.max(0, n - 1)) > 0) {
+                    // announce the whole file, send part of it and drop the connection
+                    exchange.sendResponseHeaders(200, body.length);
+                    OutputStream out = exchange.getResponseBody();
+                    out.write(body, 0, dropAfter);
+                    out.flush();
+                    bytesSent.addAndGet(dropAfter - body.length);
+                    throw new IOException("Dropping connection after " + dropAfter + " bytes");
+                }
+                else {
+                    exchange.sendResponseHeaders(200, body.length);
+                    try (OutputStream out = exchange.getResponseBody()) {
+                        out.write(body);
+                    }
+                }
+            }
+            exchange.close();
+        });
+        server.setExecutor(executor);
+        server.start();
+    }
+
+    public String getBaseUrl() {
+        return "http://127.0.0.1:" + server.getAddress().getPort() + "/";
+    }
+
+    public LocalNoaaServer put(int year, String station, byte[] body) {
+        files.put("/" + year + "/" + station.replace("-", "") + ".csv", body);
+        return this;
+    }
+
+    public LocalNoaaServer putResource(int year, String station, String resource) throws IOException {
+        return put(year, station, resource(resource));
+    }
+
+    public LocalNoaaServer setDelay(long delay) {
+        this.delay = delay;
+        return this;
+    }
+
+    public LocalNoaaServer setGzip(boolean gzip) {
+        this.gzip = gzip;
+        return this;
+    }
+
+    /**
+     * Answers the next requests with an error status and no body.
+     */
+    public LocalNoaaServer setFailures(int count, int status) {
+        this.failureStatus = status;
+        this.failures.set(count);
+        return this;
+    }
+
+    /**
+     * Cuts the next full-file responses off after the given number of body bytes.
+     */
+    public LocalNoaaServer setDrops(int count, int afterBytes) {
+        this.dropAfter = afterBytes;
+        this.drops.set(count);
+        return this;
+    }
+
+    /**
+     * @param ranges whether byte-range requests are honored; when false the whole file is always sent
+     */
+    public LocalNoaaServer setRanges(boolean ranges) {
+        this.ranges = ranges;
+        return this;
+    }
+
+    /**
+     * @return body bytes sent for 200 and 206 responses, before compression
+     */
+    public long getBytesSent() {
+        return bytesSent.get();
+    }
+
+    public int getRequests() {
+        return requests.get();
+    }
+
+    private static String etag(byte[] body) {
+        return "\"" + Integer.toHexString(Arrays.hashCode(body)) + "\"";
+    }
+
+    public static byte[] resource(String resource) throws IOException {
+        try (InputStream in = LocalNoaaServer.class.getResourceAsStream(resource)) {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[] buffer = new byte[8192];
+            for (int n; (n = in.read(buffer)) != -1; ) out.write(buffer, 0, n);
+            return out.toByteArray();
+        }
+    }
+
+    @Override
+    public void close() {
+        server.stop(0);
+        executor.shutdownNow();
+    }
+}
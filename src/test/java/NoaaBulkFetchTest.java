@@ -0,0 +1,103 @@
+/*
+ * ________________________________________________________________________
+ * METRO.IO CONFIDENTIAL
+ * ________________________________________________________________________
+ *
+ * Copyright (c) 2018.
+ * Metro Labs Incorporated
+ * All Rights Reserved.
+ *
+ * NOTICE: All information contained herein is, and remains
+ * the property of Metro Labs Incorporated and its suppliers,
+ * if any. The intellectual and technical concepts contained
+ * herein are proprietary to Metro Labs Incorporated
+ * and its suppliers and may be covered by U.S. and Foreign Patents,
+ * patents in process, and are protected by trade secret or copyright law.
+ * Dissemination of this information or reproduction of this material
+ * is strictly forbidden unless prior written permission is obtained
+ * from Metro Labs Incorporated.
+ */
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.noaa.NoaaBulkFetch;
+import org.noaa.NoaaClient;
+import org.noaa.RetryPolicy;
+import org.noaa.StationYear;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+public class NoaaBulkFetchTest {
+    @Test
+    public void reportsPartialFailures() throws IOException {
+        List<StationYear> requests = new ArrayList<>();
+        try (LocalNoaaServer server = new LocalNoaaServer()) {
+            for (int year = 2000; year < 2020; year++) {
+                server.putResource(year, "720545-00169", "/72054500169.csv");
+                requests.add(StationYear.of("720545-00169", year));
+            }
+            requests.add(StationYear.of("999999-99999", 2018));
+
+            NoaaBulkFetch fetch = new NoaaClient(server.getBaseUrl()).bulk()
+                    .setMaxInFlight(4)
+                    .setMaxConcurrentPerHost(2);
+
+            int rows = 0;
+            try (NoaaBulkFetch.Results results = fetch.start(requests)) {
+                while (results.hasNext()) {
+                    NoaaBulkFetch.Result result = results.next();
+                    if (result.isSuccess()) rows += result.getData().size();
+                    else Assert.assertEquals(StationYear.of("999999-99999", 2018), result.getRequest());
+                }
+
+                Assert.assertEquals(20, results.getSucceeded());
+                Assert.assertEquals(1, results.getFailed());
+            }
+            Assert.assertEquals(20 * 8, rows);
+        }
+    }
+
+    @Test
+    public void timesOutSlowRequests() throws IOException {
+        try (LocalNoaaServer server = new LocalNoaaServer()) {
+            server.putResource(2018, "720545-00169", "/72054500169.csv").setDelay(2000);
+
+            NoaaBulkFetch fetch = new NoaaClient(server.getBaseUrl()).bulk()
+                    .setTaskTimeout(200, TimeUnit.MILLISECONDS);
+
+            List<StationYear> requests = new ArrayList<>();
+            requests.add(StationYear.of("720545-00169", 2018));
+            try (NoaaBulkFetch.Results results = fetch.start(requests)) {
+                NoaaBulkFetch.Result result = results.next();
+                Assert.assertFalse(result.isSuccess());
+                Assert.assertTrue(result.getError() instanceof IOException || result.getError() instanceof TimeoutException);
+            }
+        }
+    }
+
+    @Test
+    public void stopsRetryingAtTaskTimeout() throws IOException {
+        try (LocalNoaaServer server = new LocalNoaaServer()) {
+            server.putResource(2018, "720545-00169", "/72054500169.csv").setFailures(10, 503);
+
+            NoaaBulkFetch fetch = new NoaaClient(server.getBaseUrl())
+                    .setRetryPolicy(RetryPolicy.exponential(10, 1, 1, TimeUnit.SECONDS))
+                    .bulk()
+                    .setTaskTimeout(300, TimeUnit.MILLISECONDS);
+
+            List<StationYear> requests = new ArrayList<>();
+            requests.add(StationYear.of("720545-00169", 2018));
+            try (NoaaBulkFetch.Results results = fetch.start(requests)) {
+                NoaaBulkFetch.Result result = results.next();
+                Assert.assertFalse(result.isSuccess());
+                // one backoff cut short at the deadline, not nine seconds of them
+                Assert.assertTrue(result.getElapsed() < 1000);
+                Assert.assertEquals(2, server.getRequests());
+            }
+        }
+    }
+}
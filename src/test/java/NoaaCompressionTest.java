@@ -0,0 +1,224 @@
+/*
+ * ________________________________________________________________________
+ * METRO.IO CONFIDENTIAL
+ * ________________________________________________________________________
+ *
+ * Copyright (c) 2018.
+ * Metro Labs Incorporated
+ * All Rights Reserved.
+ *
+ * NOTICE: All information contained herein is, and remains
+ * the property of Metro Labs Incorporated and its suppliers,
+ * if any. The intellectual and technical concepts contained
+ * herein are proprietary to Metro Labs Incorporated
+ * and its suppliers and may be covered by U.S. and Foreign Patents,
+ * patents in process, and are protected by trade secret or copyright law.
+ * Dissemination of this information or reproduction of this material
+ * is strictly forbidden unless prior written permission is obtained
+ * from Metro Labs Incorporated.
+ */
+
+import com.github.luben.zstd.Zstd;
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.noaa.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Clock;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.zip.GZIPOutputStream;
+
+public class NoaaCompressionTest {
+    private static final String STATION = "720545-00169";
+    private static final String SMALL = "\"STATION\",\"DATE\",\"WND\",\"VIS\",\"TMP\",\"DEW\",\"SLP\"\n"
+            + "\"99999900001\",\"2018-03-01T10:00:00\",\"310,1,N,0036,1\",\"016093,1,9,9\",\"+0125,1\",\"-0010,1\",\"10132,1\"\n";
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private static byte[] gzip(byte[] data) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (GZIPOutputStream out = new GZIPOutputStream(bytes)) {
+            out.write(data);
+        }
+        return bytes.toByteArray();
+    }
+
+    private static byte[] readAll(InputStream in) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        byte[] buffer = new byte[4096];
+        for (int n; (n = in.read(buffer)) != -1; ) bytes.write(buffer, 0, n);
+        return bytes.toByteArray();
+    }
+
+    @Test
+    public void detectsFormatByMagicBytes() throws Exception {
+        byte[] csv = LocalNoaaServer.resource("/72054500169.csv");
+        byte[] zstd = Zstd.compress(csv);
+        Assert.assertTrue(NoaaCompression.isZstdSupported());
+
+        Assert.assertEquals(NoaaCompression.GZIP, NoaaCompression.detect(gzip(csv), 4));
+        Assert.assertEquals(NoaaCompression.ZSTD, NoaaCompression.detect(zstd, 4));
+        Assert.assertEquals(NoaaCompression.NONE, NoaaCompression.detect(csv, 4));
+        Assert.assertEquals(NoaaCompression.NONE, NoaaCompression.detect(new byte[1], 0));
+
+        for (byte[] data : new byte[][]{csv, gzip(csv), zstd}) {
+            Assert.assertArrayEquals(csv, readAll(NoaaCompression.decompress(new ByteArrayInputStream(data))));
+        }
+        Assert.assertEquals(0, readAll(NoaaCompression.decompress(new ByteArrayInputStream(new byte[0]))).length);
+    }
+
+    @Test
+    public void readsCompressedFiles() throws Exception {
+        byte[] csv = LocalNoaaServer.resource("/72054500169.csv");
+        Path gz = folder.getRoot().toPath().resolve("72054500169.csv.gz");
+        Path zst = folder.getRoot().toPath().resolve("72054500169.csv.zst");
+        Files.write(gz, gzip(csv));
+        Files.write(zst, Zstd.compress(csv));
+
+        NoaaClient client = new NoaaClient();
+        for (Path file : Arrays.asList(gz, zst)) {
+            try (IntegratedSurfaceDataReader reader = client.openFile(file)) {
+                List<IntegratedSurfaceData> data = new ArrayList<>();
+                reader.forEachRemaining(data::add);
+                Assert.assertEquals(file.toString(), 8, data.size());
+            }
+        }
+    }
+
+    @Test
+    public void streamsStationsOutOfYearlyBundle() throws Exception {
+        String longName = "2018/" + String.join("", Collections.nCopies(30, "deep/")) + "99999900001.csv";
+        ByteArrayOutputStream tar = new ByteArrayOutputStream();
+        entry(tar, "2018/", "", '5', new byte[0]);
+        entry(tar, "72054500169.csv", "2018", '0', LocalNoaaServer.resource("/72054500169.csv"));
+        entry(tar, "././@LongLink", "", 'L', (longName + "\0").getBytes(StandardCharsets.UTF_8));
+        entry(tar, longName.substring(0, 99), "", '0', SMALL.getBytes(StandardCharsets.UTF_8));
+        String pax = "path=2018/README.txt\n";
+        entry(tar, "PaxHeaders/x", "", 'x', ((pax.length() + 3) + " " + pax).getBytes(StandardCharsets.UTF_8));
+        entry(tar, "x.csv", "", '0', "not a station".getBytes(StandardCharsets.UTF_8));
+        tar.write(new byte[1024]);
+
+        Path bundle = folder.getRoot().toPath().resolve("2018.tar.gz");
+        Files.write(bundle, gzip(tar.toByteArray()));
+
+        List<String> stations = new ArrayList<>();
+        List<Integer> sizes = new ArrayList<>();
+        try (NoaaArchiveReader archive = new NoaaClient().openArchive(bundle)) {
+            while (archive.next()) {
+                stations.add(archive.getStation());
+                if (stations.size() == 1) {
+                    Assert.assertEquals("2018/72054500169.csv", archive.getName());
+                    continue; // skipped without reading
+                }
+
+                try (IntegratedSurfaceDataReader reader = archive.getReader()) {
+                    int rows = 0;
+                    while (reader.hasNext()) {
+                        Assert.assertEquals(12.5, reader.next().getAirTemperature(), 0);
+                        rows++;
+                    }
+                    sizes.add(rows);
+                }
+            }
+        }
+
+        Assert.assertEquals(Arrays.asList(STATION, "999999-00001"), stations);
+        Assert.assertEquals(Arrays.asList(1), sizes);
+    }
+
+    @Test(expected = IOException.class)
+    public void rejectsCorruptTarHeader() throws Exception {
+        ByteArrayOutputStream tar = new ByteArrayOutputStream();
+        entry(tar, "a.csv", "", '0', SMALL.getBytes(StandardCharsets.UTF_8));
+        byte[] bytes = tar.toByteArray();
+        bytes[3] ^= 1;
+        try (NoaaArchiveReader archive = new NoaaArchiveReader(new ByteArrayInputStream(bytes))) {
+            archive.next();
+        }
+    }
+
+    @Test
+    public void storesCacheFilesCompressed() throws Exception {
+        try (LocalNoaaServer server = new LocalNoaaServer()) {
+            byte[] csv = LocalNoaaServer.resource("/72054500169.csv");
+            server.put(2016, STATION, csv);
+            // a mirror that serves the gzipped file without Content-Encoding
+            server.put(2017, STATION, gzip(csv));
+
+            NoaaFileCache cache = new NoaaFileCache(folder.getRoot().toPath(), 1L << 20).setCompress(true)
+                    .setClock(Clock.fixed(Instant.parse("2018-06-01T00:00:00Z"), ZoneOffset.UTC));
+            NoaaClient client = new NoaaClient(server.getBaseUrl()).setCache(cache);
+
+            Assert.assertEquals(8, client.load(2016, STATION).size());
+            Assert.assertEquals(8, client.load(2016, STATION).size());
+            Assert.assertEquals(8, client.load(2017, STATION).size());
+            Assert.assertEquals(2, server.getRequests());
+
+            Path stored = folder.getRoot().toPath().resolve("2016").resolve("72054500169.csv.gz");
+            Assert.assertTrue(Files.exists(stored));
+            Assert.assertEquals(Files.size(stored) + gzip(csv).length, cache.getTotalBytes());
+            Assert.assertEquals(8, new NoaaClient(server.getBaseUrl()).setCache(new NoaaFileCache(folder.getRoot().toPath(), 1L << 20))
+                    .load(2016, STATION).size());
+            Assert.assertEquals(8, new NoaaClient(server.getBaseUrl()).load(2017, STATION).size());
+        }
+    }
+
+    @Test
+    public void decompressesPushedBodies() throws Exception {
+        try (LocalNoaaServer server = new LocalNoaaServer();
+             AsyncHttpTransport transport = new AsyncHttpTransport(1, 4, 4)) {
+            byte[] csv = LocalNoaaServer.resource("/72054500169.csv");
+            server.put(2016, STATION, csv);
+            server.put(2017, STATION, gzip(csv));
+            server.put(2018, STATION, Zstd.compress(csv));
+
+            NoaaClient client = new NoaaClient(server.getBaseUrl()).setTransport(transport);
+            List<IntegratedSurfaceData> expected = client.loadAsync(2016, STATION).get();
+            Assert.assertEquals(8, expected.size());
+            Assert.assertEquals(expected.toString(), client.loadAsync(2017, STATION).get().toString());
+            Assert.assertEquals(expected.toString(), client.loadAsync(2018, STATION).get().toString());
+        }
+    }
+
+    private static void entry(ByteArrayOutputStream tar, String name, String prefix, char type, byte[] data) throws IOException {
+        byte[] header = new byte[512];
+        put(header, 0, name);
+        put(header, 100, "0000644");
+        put(header, 108, "0000000");
+        put(header, 116, "0000000");
+        put(header, 124, String.format("%011o", data.length));
+        put(header, 136, "00000000000");
+        header[156] = (byte) type;
+        put(header, 257, "ustar");
+        put(header, 263, "00");
+        put(header, 345, prefix);
+
+        Arrays.fill(header, 148, 156, (byte) ' ');
+        int sum = 0;
+        for (byte b : header) sum += b & 0xff;
+        put(header, 148, String.format("%06o", sum));
+
+        tar.write(header);
+        tar.write(data);
+        tar.write(new byte[(512 - data.length % 512) % 512]);
+    }
+
+    private static void put(byte[] header, int offset, String value) {
+        byte[] bytes = value.getBytes(StandardCharsets.US_ASCII);
+        System.arraycopy(bytes, 0, header, offset, bytes.length);
+    }
+}
@@ -0,0 +1,111 @@
+/*
+ * ________________________________________________________________________
+ * METRO.IO CONFIDENTIAL
+ * ________________________________________________________________________
+ *
+ * Copyright (c) 2018.
+ * Metro Labs Incorporated
+ * All Rights Reserved.
+ *
+ * NOTICE: All information contained herein is, and remains
+ * the property of Metro Labs Incorporated and its suppliers,
+ * if any. The intellectual and technical concepts contained
+ * herein are proprietary to Metro Labs Incorporated
+ * and its suppliers and may be covered by U.S. and Foreign Patents,
+ * patents in process, and are protected by trade secret or copyright law.
+ * Dissemination of this information or reproduction of this material
+ * is strictly forbidden unless prior written permission is obtained
+ * from Metro Labs Incorporated.
+ */
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.noaa.NoaaBulkFetch;
+import org.noaa.NoaaClient;
+import org.noaa.NoaaFanOut;
+import org.noaa.StationYear;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.TimeoutException;
+
+public class NoaaFanOutTest {
+
+    private static List<StationYear> stations(LocalNoaaServer server, int count) throws Exception {
+        List<StationYear> requests = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            String station = String.format("720545-%05d", i);
+            server.putResource(2018, station, "/72054500169.csv");
+            requests.add(StationYear.of(station, 2018));
+        }
+        return requests;
+    }
+
+    @Test
+    public void loadsEveryStation() throws Exception {
+        try (LocalNoaaServer server = new LocalNoaaServer()) {
+            List<StationYear> requests = stations(server, 50);
+            Map<StationYear, NoaaBulkFetch.Result> results = new NoaaClient(server.getBaseUrl()).fanOut()
+                    .setFallbackThreads(8)
+                    .loadAll(requests);
+
+            Assert.assertEquals(requests, new ArrayList<>(results.keySet()));
+            for (NoaaBulkFetch.Result result : results.values()) {
+                Assert.assertTrue(result.toString(), result.isSuccess());
+                Assert.assertEquals(8, result.getData().size());
+            }
+        }
+    }
+
+    @Test
+    public void cancelsAtDeadline() throws Exception {
+        try (LocalNoaaServer server = new LocalNoaaServer()) {
+            List<StationYear> requests = stations(server, 10);
+            server.setDelay(5000);
+
+            long started = System.currentTimeMillis();
+            Map<StationYear, NoaaBulkFetch.Result> results = new NoaaClient(server.getBaseUrl()).fanOut()
+                    .setDeadline(Duration.ofMillis(300))
+                    .loadAll(requests);
+
+            Assert.assertTrue(System.currentTimeMillis() - started < 3000);
+            Assert.assertEquals(10, results.size());
+            for (NoaaBulkFetch.Result result : results.values()) {
+                Assert.assertFalse(result.isSuccess());
+                Assert.assertTrue(result.getError().toString(), result.getError() instanceof TimeoutException);
+            }
+        }
+    }
+
+    @Test
+    public void failFastCancelsSiblings() throws Exception {
+        try (LocalNoaaServer server = new LocalNoaaServer()) {
+            List<StationYear> requests = stations(server, 5);
+            requests.add(0, StationYear.of("999999-99999", 2018));
+            server.setDelay(200);
+
+            Map<StationYear, NoaaBulkFetch.Result> results = new NoaaClient(server.getBaseUrl()).fanOut()
+                    .setDeadline(Duration.ofSeconds(30))
+                    .setFailFast(true)
+                    .setFallbackThreads(1)
+                    .loadAll(requests);
+
+            Assert.assertEquals(6, results.size());
+            long cancelled = results.values().stream().filter(r -> r.getError() instanceof CancellationException).count();
+            Assert.assertEquals(5, cancelled);
+            Assert.assertFalse(results.get(StationYear.of("999999-99999", 2018)).isSuccess());
+        }
+    }
+
+    @Test
+    public void detectsVirtualThreads() {
+        boolean java21 = Runtime.class.getPackage().getSpecificationVersion() != null
+                && !Runtime.class.getPackage().getSpecificationVersion().startsWith("1.")
+                && Integer.parseInt(Runtime.class.getPackage().getSpecificationVersion()) >= 21;
+        Assert.assertEquals(java21, NoaaFanOut.isVirtualThreadsSupported());
+        Assert.assertEquals(java21, NoaaFanOut.newVirtualThreadExecutor() != null);
+    }
+}
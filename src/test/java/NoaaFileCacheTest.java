@@ -0,0 +1,118 @@
+/*
+ * ________________________________________________________________________
+ * METRO.IO CONFIDENTIAL
+ * ________________________________________________________________________
+ *
+ * Copyright (c) 2018.
+ * Metro Labs Incorporated
+ * All Rights Reserved.
+ *
+ * NOTICE: All information contained herein is, and remains
+ * the property of Metro Labs Incorporated and its suppliers,
+ * if any. The intellectual and technical concepts contained
+ * herein are proprietary to Metro Labs Incorporated
+ * and its suppliers and may be covered by U.S. and Foreign Patents,
+ * patents in process, and are protected by trade secret or copyright law.
+ * Dissemination of this information or reproduction of this material
+ * is strictly forbidden unless prior written permission is obtained
+ * from Metro Labs Incorporated.
+ */
+
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.noaa.NoaaClient;
+import org.noaa.NoaaFileCache;
+
+import java.time.Clock;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+public class NoaaFileCacheTest {
+    private static final String STATION = "720545-00169";
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void servesPastYearsFromDisk() throws Exception {
+        try (LocalNoaaServer server = new LocalNoaaServer()) {
+            server.putResource(2016, STATION, "/72054500169.csv");
+            NoaaFileCache cache = new NoaaFileCache(folder.getRoot().toPath(), Long.MAX_VALUE)
+                    .setClock(Clock.fixed(Instant.parse("2018-06-01T00:00:00Z"), ZoneOffset.UTC));
+            NoaaClient client = new NoaaClient(server.getBaseUrl()).setCache(cache);
+
+            Assert.assertEquals(8, client.load(2016, STATION).size());
+            Assert.assertEquals(8, client.load(2016, STATION).size());
+            Assert.assertEquals(1, server.getRequests());
+        }
+    }
+
+    @Test
+    public void loadsAsyncOnClientExecutor() throws Exception {
+        try (LocalNoaaServer server = new LocalNoaaServer()) {
+            server.putResource(2016, STATION, "/72054500169.csv");
+            NoaaFileCache cache = new NoaaFileCache(folder.getRoot().toPath(), Long.MAX_VALUE);
+            ExecutorService executor = Executors.newSingleThreadExecutor(r -> new Thread(r, "cache-loader"));
+            try {
+                NoaaClient client = new NoaaClient(server.getBaseUrl()).setCache(cache).setExecutor(executor);
+                Set<String> threads = ConcurrentHashMap.newKeySet();
+                client.forEachAsync(2016, STATION, i -> threads.add(Thread.currentThread().getName())).get(10, TimeUnit.SECONDS);
+                Assert.assertEquals(Collections.singleton("cache-loader"), threads);
+                Assert.assertEquals(1, server.getRequests());
+            }
+            finally {
+                executor.shutdown();
+            }
+        }
+    }
+
+    @Test
+    public void revalidatesCurrentYear() throws Exception {
+        try (LocalNoaaServer server = new LocalNoaaServer()) {
+            server.putResource(2018, STATION, "/72054500169.csv");
+            NoaaFileCache cache = new NoaaFileCache(folder.getRoot().toPath(), Long.MAX_VALUE)
+                    .setClock(Clock.fixed(Instant.parse("2018-06-01T00:00:00Z"), ZoneOffset.UTC));
+            NoaaClient client = new NoaaClient(server.getBaseUrl()).setCache(cache);
+
+            Assert.assertEquals(8, client.load(2018, STATION).size());
+            Assert.assertEquals(8, client.load(2018, STATION).size());
+            Assert.assertEquals(2, server.getRequests());
+
+            // a changed file replaces the cached copy
+            server.put(2018, STATION, "\"STATION\",\"DATE\",\"WND\",\"VIS\",\"TMP\",\"DEW\",\"SLP\"\n".getBytes());
+            Assert.assertEquals(0, client.load(2018, STATION).size());
+        }
+    }
+
+    @Test
+    public void evictsLeastRecentlyUsed() throws Exception {
+        try (LocalNoaaServer server = new LocalNoaaServer()) {
+            byte[] body = LocalNoaaServer.resource("/72054500169.csv");
+            for (int year = 2010; year < 2014; year++) server.put(year, STATION, body);
+
+            NoaaFileCache cache = new NoaaFileCache(folder.getRoot().toPath(), body.length * 2)
+                    .setClock(Clock.fixed(Instant.parse("2018-06-01T00:00:00Z"), ZoneOffset.UTC));
+            NoaaClient client = new NoaaClient(server.getBaseUrl()).setCache(cache);
+
+            client.load(2010, STATION);
+            client.load(2011, STATION);
+            client.load(2010, STATION);
+            client.load(2012, STATION);
+            Assert.assertEquals(body.length * 2, cache.getTotalBytes());
+
+            // 2011 was evicted, 2010 survived because it was used more recently
+            client.load(2010, STATION);
+            Assert.assertEquals(3, server.getRequests());
+            client.load(2011, STATION);
+            Assert.assertEquals(4, server.getRequests());
+        }
+    }
+}
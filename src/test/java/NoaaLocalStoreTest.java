@@ -0,0 +1,184 @@
+/*
+ * ________________________________________________________________________
+ * METRO.IO CONFIDENTIAL
+ * ________________________________________________________________________
+ *
+ * Copyright (c) 2018.
+ * Metro Labs Incorporated
+ * All Rights Reserved.
+ *
+ * NOTICE: All information contained herein is, and remains
+ * the property of Metro Labs Incorporated and its suppliers,
+ * if any. The intellectual and technical concepts contained
+ * herein are proprietary to Metro Labs Incorporated
+ * and its suppliers and may be covered by U.S. and Foreign Patents,
+ * patents in process, and are protected by trade secret or copyright law.
+ * Dissemination of this information or reproduction of this material
+ * is strictly forbidden unless prior written permission is obtained
+ * from Metro Labs Incorporated.
+ */
+
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.noaa.*;
+import org.noaa.IntegratedSurfaceData.DataHelper;
+import org.noaa.IntegratedSurfaceData.Field;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Clock;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+public class NoaaLocalStoreTest {
+    private static final String STATION = "720545-00169";
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private static int firstHour(int year) {
+        return (int) (LocalDate.of(year, 1, 1).toEpochDay() * 24);
+    }
+
+    private static IntegratedSurfaceData observation(int epochHour, double temperature) {
+        return DataHelper.setEpochHour(new IntegratedSurfaceData(), epochHour)
+                .setAirTemperature(temperature)
+                .setWindSpeedRate(2.5);
+    }
+
+    private static List<IntegratedSurfaceData> hours(int from, int to, double temperature) {
+        List<IntegratedSurfaceData> data = new ArrayList<>();
+        for (int hour = from; hour < to; hour++) data.add(observation(hour, temperature));
+        return data;
+    }
+
+    @Test
+    public void queriesAcrossYears() throws Exception {
+        NoaaLocalStore store = new NoaaLocalStore(folder.getRoot().toPath());
+        int newYear = firstHour(2018);
+        Assert.assertEquals(48, store.append(STATION, hours(newYear - 24, newYear + 24, 10.5)));
+        Assert.assertEquals(Arrays.asList(2017, 2018), new ArrayList<>(store.getYears(STATION)));
+
+        IsdSeries series = store.query(STATION, new IsdQuery().setEpochHours(newYear - 3, newYear + 2)
+                .select(Field.AIR_TEMPERATURE));
+        Assert.assertEquals(5, series.size());
+        Assert.assertEquals(newYear - 3, series.getEpochHour(0));
+        Assert.assertEquals(newYear + 1, series.getEpochHour(4));
+        Assert.assertEquals(10.5, series.airTemperatures()[4], 0);
+        Assert.assertEquals(5, series.missingCount(Field.WIND_SPEED_RATE));
+        Assert.assertEquals(5, series.missingCount(Field.DEW_POINT_TEMPERATURE));
+
+        Assert.assertEquals(24, store.load(2017, STATION).size());
+        Assert.assertEquals(2.5, store.load(2018, STATION).windSpeedRates()[0], 0);
+        Assert.assertEquals(48, store.query(STATION, IsdQuery.all()).size());
+        Assert.assertFalse(store.contains(2016, STATION));
+    }
+
+    @Test
+    public void laterWritesWinAndCompactionKeepsThem() throws Exception {
+        NoaaLocalStore store = new NoaaLocalStore(folder.getRoot().toPath());
+        int start = firstHour(2016);
+        store.append(STATION, hours(start, start + 100, 1.0));
+        store.append(STATION, hours(start + 50, start + 150, 2.0));
+        store.append(STATION, hours(start + 10, start + 20, 3.0));
+
+        IsdSeries before = store.load(2016, STATION);
+        Assert.assertEquals(150, before.size());
+        Assert.assertEquals(1.0, before.airTemperatures()[0], 0);
+        Assert.assertEquals(3.0, before.airTemperatures()[15], 0);
+        Assert.assertEquals(1.0, before.airTemperatures()[49], 0);
+        Assert.assertEquals(2.0, before.airTemperatures()[50], 0);
+
+        Path segment = folder.getRoot().toPath().resolve("72054500169").resolve("2016.seg");
+        long size = Files.size(segment);
+        Assert.assertTrue(store.compact(2016, STATION));
+        Assert.assertFalse(store.compact(2016, STATION));
+        Assert.assertTrue(Files.size(segment) < size);
+        Assert.assertEquals(before.asList().toString(), store.load(2016, STATION).asList().toString());
+        Assert.assertEquals(before.asList().toString(),
+                new NoaaLocalStore(folder.getRoot().toPath()).load(2016, STATION).asList().toString());
+    }
+
+    @Test
+    public void compactsOnceTooManyFrames() throws Exception {
+        NoaaLocalStore store = new NoaaLocalStore(folder.getRoot().toPath()).setMaxFrames(3);
+        int start = firstHour(2016);
+        for (int i = 0; i < 4; i++) store.append(STATION, hours(start + i, start + i + 1, i));
+
+        Assert.assertFalse(store.compact(2016, STATION));
+        Assert.assertEquals(4, store.load(2016, STATION).size());
+    }
+
+    @Test
+    public void recoversFromTornAppend() throws Exception {
+        Path root = folder.getRoot().toPath();
+        int start = firstHour(2016);
+        new NoaaLocalStore(root).append(STATION, hours(start, start + 24, 1.0));
+        new NoaaLocalStore(root).append(STATION, hours(start + 24, start + 48, 2.0));
+
+        Path segment = root.resolve("72054500169").resolve("2016.seg");
+        long complete = Files.size(segment);
+        try (FileChannel channel = FileChannel.open(segment, StandardOpenOption.WRITE)) {
+            channel.truncate(complete - 7);
+        }
+
+        NoaaLocalStore store = new NoaaLocalStore(root);
+        Assert.assertEquals(24, store.load(2016, STATION).size());
+        Assert.assertEquals(24, store.append(STATION, hours(start + 24, start + 48, 3.0)));
+        Assert.assertEquals(complete, Files.size(segment));
+
+        // a complete frame with a bad checksum is dropped too
+        try (FileChannel channel = FileChannel.open(segment, StandardOpenOption.WRITE)) {
+            channel.write(ByteBuffer.wrap(new byte[]{42}), complete - 1);
+        }
+        IsdSeries series = new NoaaLocalStore(root).load(2016, STATION);
+        Assert.assertEquals(24, series.size());
+        Assert.assertEquals(1.0, series.airTemperatures()[23], 0);
+    }
+
+    @Test
+    public void fetchesEachStationYearOnce() throws Exception {
+        try (LocalNoaaServer server = new LocalNoaaServer()) {
+            server.putResource(2018, STATION, "/72054500169.csv");
+            NoaaClient client = new NoaaClient(server.getBaseUrl());
+            NoaaLocalStore store = new NoaaLocalStore(folder.getRoot().toPath());
+
+            IsdSeries expected = client.loadSeries(2018, STATION);
+            Assert.assertEquals(expected.asList().toString(), store.fetch(client, 2018, STATION).asList().toString());
+            Assert.assertEquals(expected.asList().toString(), store.fetch(client, 2018, STATION).asList().toString());
+            Assert.assertEquals(2, server.getRequests());
+        }
+    }
+
+    @Test
+    public void refetchesCurrentYear() throws Exception {
+        try (LocalNoaaServer server = new LocalNoaaServer()) {
+            String csv = new String(LocalNoaaServer.resource(IntegratedSurfaceDataReaderTest.STATION_FILE), StandardCharsets.UTF_8);
+            // the header and the first four lines, as the file looked earlier in the day
+            String partial = String.join("\n", Arrays.copyOf(csv.split("\n"), 5)) + "\n";
+            server.put(2018, STATION, partial.getBytes(StandardCharsets.UTF_8));
+            NoaaClient client = new NoaaClient(server.getBaseUrl());
+            NoaaLocalStore store = new NoaaLocalStore(folder.getRoot().toPath())
+                    .setClock(Clock.fixed(Instant.parse("2018-06-01T00:00:00Z"), ZoneOffset.UTC));
+            Assert.assertFalse(store.isFinal(2018));
+            Assert.assertTrue(store.isFinal(2017));
+
+            IsdSeries first = store.fetch(client, 2018, STATION);
+            Assert.assertTrue(first.size() < 8);
+
+            server.putResource(2018, STATION, IntegratedSurfaceDataReaderTest.STATION_FILE);
+            IsdSeries expected = client.loadSeries(2018, STATION);
+            Assert.assertEquals(expected.asList().toString(), store.fetch(client, 2018, STATION).asList().toString());
+        }
+    }
+}
@@ -0,0 +1,137 @@
+/*
+ * ________________________________________________________________________
+ * METRO.IO CONFIDENTIAL
+ * ________________________________________________________________________
+ *
+ * Copyright (c) 2018.
+ * Metro Labs Incorporated
+ * All Rights Reserved.
+ *
+ * NOTICE: All information contained herein is, and remains
+ * the property of Metro Labs Incorporated and its suppliers,
+ * if any. The intellectual and technical concepts contained
+ * herein are proprietary to Metro Labs Incorporated
+ * and its suppliers and may be covered by U.S. and Foreign Patents,
+ * patents in process, and are protected by trade secret or copyright law.
+ * Dissemination of this information or reproduction of this material
+ * is strictly forbidden unless prior written permission is obtained
+ * from Metro Labs Incorporated.
+ */
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.noaa.*;
+
+import java.io.IOException;
+import java.time.Clock;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class NoaaMemoryCacheTest {
+    private static final String STATION = "720545-00169";
+
+    @Test
+    public void coalescesConcurrentMisses() throws Exception {
+        try (LocalNoaaServer server = new LocalNoaaServer()) {
+            server.putResource(2016, STATION, "/72054500169.csv").setDelay(200);
+            NoaaMemoryCache<List<IntegratedSurfaceData>> cache = new NoaaClient(server.getBaseUrl()).memoryCache(1L << 20);
+
+            ExecutorService pool = Executors.newFixedThreadPool(8);
+            try {
+                List<Future<List<IntegratedSurfaceData>>> futures = new ArrayList<>();
+                for (int i = 0; i < 8; i++) futures.add(pool.submit(() -> cache.get(StationYear.of(STATION, 2016))));
+
+                List<IntegratedSurfaceData> first = futures.get(0).get();
+                Assert.assertEquals(8, first.size());
+                for (Future<List<IntegratedSurfaceData>> future : futures) Assert.assertSame(first, future.get());
+            }
+            finally {
+                pool.shutdown();
+            }
+
+            Assert.assertEquals(1, server.getRequests());
+            Assert.assertEquals(1, cache.getLoads());
+            Assert.assertSame(cache.getIfPresent(StationYear.of(STATION, 2016)), cache.get(StationYear.of(STATION, 2016)));
+            Assert.assertEquals(NoaaMemoryCache.estimateBytes(cache.get(StationYear.of(STATION, 2016))), cache.getWeight());
+        }
+    }
+
+    @Test
+    public void evictsLeastRecentlyUsedByWeight() throws Exception {
+        NoaaMemoryCache<String> cache = new NoaaMemoryCache<>(StationYear::getStation, s -> 100, 250);
+        cache.get(StationYear.of("a", 2016));
+        cache.get(StationYear.of("b", 2016));
+        cache.get(StationYear.of("a", 2016));
+        cache.get(StationYear.of("c", 2016));
+
+        Assert.assertEquals(2, cache.size());
+        Assert.assertEquals(200, cache.getWeight());
+        Assert.assertNull(cache.getIfPresent(StationYear.of("b", 2016)));
+        Assert.assertEquals("a", cache.getIfPresent(StationYear.of("a", 2016)));
+        Assert.assertEquals(1, cache.getEvictions());
+
+        NoaaMemoryCache<String> tiny = new NoaaMemoryCache<>(StationYear::getStation, s -> 100, 50);
+        Assert.assertEquals("a", tiny.get(StationYear.of("a", 2016)));
+        Assert.assertEquals(0, tiny.size());
+    }
+
+    @Test
+    public void refreshesCurrentYearInBackground() throws Exception {
+        AtomicInteger loads = new AtomicInteger();
+        NoaaMemoryCache<Integer> cache = new NoaaMemoryCache<Integer>(key -> loads.incrementAndGet(), i -> 1, 10)
+                .setExecutor(Runnable::run)
+                .setClock(Clock.fixed(Instant.parse("2018-06-01T00:00:00Z"), ZoneOffset.UTC));
+
+        StationYear current = StationYear.of(STATION, 2018);
+        StationYear past = StationYear.of(STATION, 2017);
+        Assert.assertEquals(1, (int) cache.get(current));
+        Assert.assertEquals(2, (int) cache.get(past));
+        Assert.assertEquals(1, (int) cache.get(current));
+
+        cache.setClock(Clock.fixed(Instant.parse("2018-06-01T02:00:00Z"), ZoneOffset.UTC));
+        // the stale value is returned while the refresh replaces it
+        Assert.assertEquals(1, (int) cache.get(current));
+        Assert.assertEquals(3, (int) cache.get(current));
+        Assert.assertEquals(2, (int) cache.get(past));
+        Assert.assertEquals(3, loads.get());
+    }
+
+    @Test
+    public void refreshesOffTheCommonPool() throws Exception {
+        BlockingQueue<String> threads = new LinkedBlockingQueue<>();
+        NoaaMemoryCache<Integer> cache = new NoaaMemoryCache<Integer>(key -> {
+            threads.add(Thread.currentThread().getName());
+            return 1;
+        }, i -> 1, 10).setClock(Clock.fixed(Instant.parse("2018-06-01T00:00:00Z"), ZoneOffset.UTC));
+
+        StationYear current = StationYear.of(STATION, 2018);
+        cache.get(current);
+        Assert.assertEquals(Thread.currentThread().getName(), threads.take());
+
+        cache.setClock(Clock.fixed(Instant.parse("2018-06-01T02:00:00Z"), ZoneOffset.UTC));
+        cache.get(current);
+        Assert.assertEquals("noaa-refresh", threads.poll(10, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void failedLoadIsNotCached() throws Exception {
+        AtomicInteger attempts = new AtomicInteger();
+        NoaaMemoryCache<String> cache = new NoaaMemoryCache<>(key -> {
+            if (attempts.incrementAndGet() == 1) throw new IOException("down");
+            return "ok";
+        }, s -> 1, 10);
+
+        try {
+            cache.get(StationYear.of(STATION, 2016));
+            Assert.fail();
+        }
+        catch (IOException e) {
+            Assert.assertEquals("down", e.getMessage());
+        }
+        Assert.assertEquals("ok", cache.get(StationYear.of(STATION, 2016)));
+    }
+}
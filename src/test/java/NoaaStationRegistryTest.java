@@ -0,0 +1,94 @@
+/*
+ * ________________________________________________________________________
+ * METRO.IO CONFIDENTIAL
+ * ________________________________________________________________________
+ *
+ * Copyright (c) 2018.
+ * Metro Labs Incorporated
+ * All Rights Reserved.
+ *
+ * NOTICE: All information contained herein is, and remains
+ * the property of Metro Labs Incorporated and its suppliers,
+ * if any. The intellectual and technical concepts contained
+ * herein are proprietary to Metro Labs Incorporated
+ * and its suppliers and may be covered by U.S. and Foreign Patents,
+ * patents in process, and are protected by trade secret or copyright law.
+ * Dissemination of this information or reproduction of this material
+ * is strictly forbidden unless prior written permission is obtained
+ * from Metro Labs Incorporated.
+ */
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.noaa.NoaaStationHistory;
+import org.noaa.NoaaStationRegistry;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.stream.Collectors;
+
+public class NoaaStationRegistryTest {
+
+    @Test
+    public void findsNearestStationsWithDataForYear() throws Exception {
+        NoaaStationRegistry registry = NoaaStationRegistry.load(getClass().getResourceAsStream("/isd-history.csv"));
+        Assert.assertEquals(11, registry.size());
+
+        List<NoaaStationRegistry.Neighbor> any = registry.nearest(40.8, -91.1, 2);
+        Assert.assertEquals("725450-14990", any.get(0).getStation().getId());
+        Assert.assertEquals("720545-00169", any.get(1).getStation().getId());
+
+        List<NoaaStationRegistry.Neighbor> in2018 = registry.nearest(40.8, -91.1, 2, 2018);
+        Assert.assertEquals("720545-00169", in2018.get(0).getStation().getId());
+        Assert.assertEquals("725440-14923", in2018.get(1).getStation().getId());
+        Assert.assertEquals(in2018.get(0).getDistance(), NoaaStationRegistry.distance(40.8, -91.1, 40.660, -91.326), 1e-6);
+
+        // across the date line
+        Assert.assertEquals("919650-99999", registry.nearest(-13.5, 179.9, 1).get(0).getStation().getId());
+    }
+
+    @Test
+    public void treatsOnlyZeroZeroAsUnknownPosition() throws Exception {
+        String csv = "\"USAF\",\"WBAN\",\"STATION NAME\",\"CTRY\",\"STATE\",\"ICAO\",\"LAT\",\"LON\",\"ELEV(M)\",\"BEGIN\",\"END\"\n"
+                + "\"007018\",\"99999\",\"WXPOD 7018\",\"\",\"\",\"\",\"+00.000\",\"+000.000\",\"+7018.0\",\"20110309\",\"20130730\"\n"
+                + "\"637050\",\"99999\",\"ENTEBBE INTL\",\"UG\",\"\",\"HUEN\",\"+00.042\",\"+032.443\",\"+1155.0\",\"19730101\",\"20181231\"\n"
+                + "\"999999\",\"00001\",\"ON THE EQUATOR\",\"\",\"\",\"\",\"+00.000\",\"+032.500\",\"+0000.0\",\"20000101\",\"20181231\"\n"
+                + "\"999999\",\"00002\",\"UNKNOWN LONGITUDE\",\"\",\"\",\"\",\"+51.500\",\"-99999\",\"+0000.0\",\"20000101\",\"20181231\"\n";
+        NoaaStationRegistry registry = NoaaStationRegistry.load(new ByteArrayInputStream(csv.getBytes(StandardCharsets.UTF_8)));
+
+        Assert.assertNull(registry.get("007018-99999").getLatitude());
+        Assert.assertNull(registry.get("007018-99999").getLongitude());
+        Assert.assertEquals(0d, registry.get("999999-00001").getLatitude(), 0d);
+        Assert.assertEquals(32.5, registry.get("999999-00001").getLongitude(), 0d);
+        Assert.assertEquals(51.5, registry.get("999999-00002").getLatitude(), 0d);
+        Assert.assertNull(registry.get("999999-00002").getLongitude());
+        Assert.assertEquals("999999-00001", registry.nearest(0.0, 32.5, 1).get(0).getStation().getId());
+    }
+
+    @Test
+    public void matchesLinearScan() {
+        Random random = new Random(42);
+        List<NoaaStationHistory> history = new ArrayList<>();
+        for (int i = 0; i < 5000; i++) {
+            history.add(new NoaaStationHistory().setId(Integer.toString(i))
+                    .setLatitude(random.nextDouble() * 180 - 90).setLongitude(random.nextDouble() * 360 - 180)
+                    .setInventoryStartYear(1950 + random.nextInt(60)).setInventoryEndYear(2018));
+        }
+        NoaaStationRegistry registry = new NoaaStationRegistry(history);
+
+        for (int q = 0; q < 50; q++) {
+            double lat = random.nextDouble() * 180 - 90;
+            double lon = random.nextDouble() * 360 - 180;
+            int year = 1990 + random.nextInt(20);
+
+            List<String> expected = history.stream()
+                    .filter(s -> s.getInventoryStartYear() <= year)
+                    .sorted(Comparator.comparingDouble(s -> NoaaStationRegistry.distance(lat, lon, s.getLatitude(), s.getLongitude())))
+                    .limit(5).map(NoaaStationHistory::getId).collect(Collectors.toList());
+            List<String> actual = registry.nearest(lat, lon, 5, year).stream()
+                    .map(n -> n.getStation().getId()).collect(Collectors.toList());
+            Assert.assertEquals(expected, actual);
+        }
+    }
+}
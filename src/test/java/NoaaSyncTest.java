@@ -0,0 +1,200 @@
+/*
+ * ________________________________________________________________________
+ * METRO.IO CONFIDENTIAL
+ * ________________________________________________________________________
+ *
+ * Copyright (c) 2018.
+ * Metro Labs Incorporated
+ * All Rights Reserved.
+ *
+ * NOTICE: All information contained herein is, and remains
+ * the property of Metro Labs Incorporated and its suppliers,
+ * if any. The intellectual and technical concepts contained
+ * herein are proprietary to Metro Labs Incorporated
+ * and its suppliers and may be covered by U.S. and Foreign Patents,
+ * patents in process, and are protected by trade secret or copyright law.
+ * Dissemination of this information or reproduction of this material
+ * is strictly forbidden unless prior written permission is obtained
+ * from Metro Labs Incorporated.
+ */
+
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.noaa.DedupPolicy;
+import org.noaa.ErrorPolicy;
+import org.noaa.IntegratedSurfaceData;
+import org.noaa.NoaaClient;
+import org.noaa.NoaaSync;
+import org.noaa.RetryPolicy;
+import org.noaa.StationYear;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Clock;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+public class NoaaSyncTest {
+    private static final String STATION = "720545-00169";
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    /**
+     * @return the header and the first {@code rows} data lines of the fixture
+     */
+    private static byte[] lines(int rows) throws Exception {
+        String[] lines = new String(LocalNoaaServer.resource(IntegratedSurfaceDataReaderTest.STATION_FILE), StandardCharsets.UTF_8).split("\n");
+        StringBuilder out = new StringBuilder();
+        for (int i = 0; i <= rows; i++) out.append(lines[i]).append('\n');
+        return out.toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    @Test
+    public void fetchesOnlyAppendedBytes() throws Exception {
+        try (LocalNoaaServer server = new LocalNoaaServer()) {
+            NoaaClient client = new NoaaClient(server.getBaseUrl());
+            NoaaSync sync = client.sync(folder.getRoot().toPath());
+
+            server.put(2018, STATION, lines(6));
+            List<IntegratedSurfaceData> first = sync.poll(2018, STATION);
+            Assert.assertEquals(4, first.size());
+            Assert.assertEquals(3, first.get(3).getObservationHour());
+            Assert.assertEquals(lines(6).length, sync.getState(StationYear.of(STATION, 2018)).getOffset());
+
+            server.put(2018, STATION, lines(9));
+            long sent = server.getBytesSent();
+            List<IntegratedSurfaceData> second = sync.poll(2018, STATION);
+            Assert.assertEquals(3, second.size());
+            Assert.assertEquals(5, second.get(0).getObservationHour());
+            // the new lines plus the two lines of the previous newest hour, echoed to prove the file was only appended to
+            int tail = lines(6).length - lines(4).length;
+            Assert.assertEquals(lines(9).length - lines(6).length + tail, server.getBytesSent() - sent);
+
+            // unchanged file: 304 and nothing to parse
+            sent = server.getBytesSent();
+            Assert.assertEquals(0, sync.poll(2018, STATION).size());
+            Assert.assertEquals(sent, server.getBytesSent());
+
+            // a restarted sync picks up where the last one stopped
+            server.put(2018, STATION, lines(11));
+            NoaaSync restarted = client.sync(folder.getRoot().toPath());
+            List<IntegratedSurfaceData> third = restarted.poll(2018, STATION);
+            Assert.assertEquals(1, third.size());
+            Assert.assertEquals(2, third.get(0).getObservationDay());
+            Assert.assertEquals(lines(11).length, restarted.getState(StationYear.of(STATION, 2018)).getOffset());
+        }
+    }
+
+    @Test
+    public void retriesPerClientPolicy() throws Exception {
+        try (LocalNoaaServer server = new LocalNoaaServer()) {
+            NoaaSync sync = new NoaaClient(server.getBaseUrl())
+                    .setRetryPolicy(RetryPolicy.exponential(4, 1, 10, TimeUnit.MILLISECONDS)).sync();
+
+            // a 503, then a body cut off in the second line that resumes with a range
+            server.put(2018, STATION, lines(6)).setFailures(1, 503).setDrops(1, 300);
+            Assert.assertEquals(4, sync.poll(2018, STATION).size());
+            Assert.assertEquals(lines(6).length, sync.getState(StationYear.of(STATION, 2018)).getOffset());
+
+            server.put(2018, STATION, lines(9)).setFailures(1, 503);
+            Assert.assertEquals(3, sync.poll(2018, STATION).size());
+            Assert.assertEquals(lines(9).length, sync.getState(StationYear.of(STATION, 2018)).getOffset());
+            Assert.assertEquals(5, server.getRequests());
+        }
+    }
+
+    @Test
+    public void skipsSeenRowsWithoutRangeSupport() throws Exception {
+        try (LocalNoaaServer server = new LocalNoaaServer()) {
+            server.setRanges(false);
+            NoaaSync sync = new NoaaClient(server.getBaseUrl()).sync();
+
+            server.put(2018, STATION, lines(6));
+            Assert.assertEquals(4, sync.poll(2018, STATION).size());
+            Assert.assertEquals(0, sync.poll(2018, STATION).size());
+            // counted from the start of the whole file, not from the range that was asked for
+            Assert.assertEquals(lines(6).length, sync.getState(StationYear.of(STATION, 2018)).getOffset());
+
+            server.put(2018, STATION, lines(11));
+            List<IntegratedSurfaceData> next = sync.poll(2018, STATION);
+            Assert.assertEquals(4, next.size());
+            Assert.assertEquals(5, next.get(0).getObservationHour());
+            Assert.assertEquals(lines(11).length, sync.getState(StationYear.of(STATION, 2018)).getOffset());
+
+            sync.reset(StationYear.of(STATION, 2018));
+            Assert.assertEquals(8, sync.poll(2018, STATION).size());
+        }
+    }
+
+    @Test
+    public void holdsBackNewestHourOfCurrentYear() throws Exception {
+        try (LocalNoaaServer server = new LocalNoaaServer()) {
+            NoaaClient client = new NoaaClient(server.getBaseUrl()).setDedupPolicy(DedupPolicy.LAST_WINS);
+            NoaaSync sync = client.sync().setClock(Clock.fixed(Instant.parse("2018-06-01T00:00:00Z"), ZoneOffset.UTC));
+            StationYear key = StationYear.of(STATION, 2018);
+
+            // hour 3 has only its FM-15 report so far
+            server.put(2018, STATION, lines(5));
+            Assert.assertEquals(3, sync.poll(2018, STATION).size());
+            Assert.assertTrue(sync.getState(key).isHeld());
+
+            // a second report for hour 3 arrives, hour 3 is still the newest
+            server.put(2018, STATION, lines(6));
+            Assert.assertEquals(0, sync.poll(2018, STATION).size());
+
+            server.put(2018, STATION, lines(7));
+            List<IntegratedSurfaceData> next = sync.poll(2018, STATION);
+            Assert.assertEquals(1, next.size());
+            Assert.assertEquals(3, next.get(0).getObservationHour());
+            Assert.assertEquals("SY-MT", next.get(0).getReportType());
+            Assert.assertEquals(lines(7).length, sync.getState(key).getOffset());
+
+            // once the year is over the held back hour is released
+            sync.setClock(Clock.fixed(Instant.parse("2019-01-02T00:00:00Z"), ZoneOffset.UTC));
+            next = sync.poll(2018, STATION);
+            Assert.assertEquals(1, next.size());
+            Assert.assertEquals(5, next.get(0).getObservationHour());
+            Assert.assertFalse(sync.getState(key).isHeld());
+        }
+    }
+
+    @Test
+    public void skipsBadRowsPerClientPolicy() throws Exception {
+        try (LocalNoaaServer server = new LocalNoaaServer()) {
+            NoaaSync sync = new NoaaClient(server.getBaseUrl()).setErrorPolicy(ErrorPolicy.SKIP_ROW).sync();
+
+            // the 02:00 report has a WND with two sub-fields
+            byte[] bad = new String(lines(6), StandardCharsets.UTF_8).replace("\"999,9,C,0000,1\"", "\"999,9\"")
+                    .getBytes(StandardCharsets.UTF_8);
+            server.put(2018, STATION, bad);
+            Assert.assertEquals(3, sync.poll(2018, STATION).size());
+            Assert.assertEquals(bad.length, sync.getState(StationYear.of(STATION, 2018)).getOffset());
+        }
+    }
+
+    @Test
+    public void refetchesRewrittenFile() throws Exception {
+        try (LocalNoaaServer server = new LocalNoaaServer()) {
+            NoaaSync sync = new NoaaClient(server.getBaseUrl()).sync();
+
+            server.put(2018, STATION, lines(6));
+            Assert.assertEquals(4, sync.poll(2018, STATION).size());
+
+            // the echoed line no longer matches, so the file is read again from the start
+            byte[] rewritten = new String(lines(9), StandardCharsets.UTF_8)
+                    .replace("FORT MADISON MUNICIPAL AIRPORT, IA US", "FORT MADISON").getBytes(StandardCharsets.UTF_8);
+            server.put(2018, STATION, rewritten);
+            Assert.assertEquals(3, sync.poll(2018, STATION).size());
+            Assert.assertEquals(rewritten.length, sync.getState(StationYear.of(STATION, 2018)).getOffset());
+
+            // shrinking below the old offset answers 416 and is handled the same way
+            server.put(2018, STATION, lines(2));
+            Assert.assertEquals(0, sync.poll(2018, STATION).size());
+            Assert.assertEquals(lines(2).length, sync.getState(StationYear.of(STATION, 2018)).getOffset());
+        }
+    }
+}
@@ -0,0 +1,160 @@
+/*
+ * ________________________________________________________________________
+ * METRO.IO CONFIDENTIAL
+ * ________________________________________________________________________
+ *
+ * Copyright (c) 2018.
+ * Metro Labs Incorporated
+ * All Rights Reserved.
+ *
+ * NOTICE: All information contained herein is, and remains
+ * the property of Metro Labs Incorporated and its suppliers,
+ * if any. The intellectual and technical concepts contained
+ * herein are proprietary to Metro Labs Incorporated
+ * and its suppliers and may be covered by U.S. and Foreign Patents,
+ * patents in process, and are protected by trade secret or copyright law.
+ * Dissemination of this information or reproduction of this material
+ * is strictly forbidden unless prior written permission is obtained
+ * from Metro Labs Incorporated.
+ */
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.noaa.NoaaClient;
+import org.noaa.NoaaHttpException;
+import org.noaa.NoaaRequest;
+import org.noaa.NoaaResponse;
+import org.noaa.NoaaResponseConsumer;
+import org.noaa.NoaaTransport;
+import org.noaa.RetryPolicy;
+
+import java.io.ByteArrayInputStream;
+import java.util.Collections;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class RetryPolicyTest {
+    private static final String STATION = "720545-00169";
+    private static final RetryPolicy FAST = RetryPolicy.exponential(4, 1, 10, TimeUnit.MILLISECONDS);
+
+    @Test
+    public void backoffGrowsAndIsCapped() {
+        RetryPolicy policy = RetryPolicy.exponential(10, 100, 1000, TimeUnit.MILLISECONDS);
+        for (int i = 0; i < 100; i++) {
+            long first = policy.getBackoff(1);
+            Assert.assertTrue(first >= 50 && first <= 100);
+            long third = policy.getBackoff(3);
+            Assert.assertTrue(third >= 200 && third <= 400);
+            long capped = policy.getBackoff(9);
+            Assert.assertTrue(capped >= 500 && capped <= 1000);
+        }
+
+        Assert.assertTrue(policy.isRetryable(503));
+        Assert.assertFalse(policy.isRetryable(404));
+        Assert.assertEquals(1, RetryPolicy.none().getMaxAttempts());
+    }
+
+    @Test
+    public void retriesServerErrors() throws Exception {
+        try (LocalNoaaServer server = new LocalNoaaServer()) {
+            server.putResource(2018, STATION, "/72054500169.csv").setFailures(2, 503);
+            NoaaClient client = new NoaaClient(server.getBaseUrl()).setRetryPolicy(FAST);
+
+            Assert.assertEquals(8, client.load(2018, STATION).size());
+            Assert.assertEquals(3, server.getRequests());
+        }
+    }
+
+    @Test
+    public void doesNotRetryClientErrors() throws Exception {
+        try (LocalNoaaServer server = new LocalNoaaServer()) {
+            NoaaClient client = new NoaaClient(server.getBaseUrl()).setRetryPolicy(FAST);
+            try {
+                client.load(2018, STATION);
+                Assert.fail();
+            }
+            catch (NoaaHttpException e) {
+                Assert.assertEquals(404, e.getStatus());
+            }
+            Assert.assertEquals(1, server.getRequests());
+        }
+    }
+
+    @Test
+    public void givesUpAfterMaxAttempts() throws Exception {
+        try (LocalNoaaServer server = new LocalNoaaServer()) {
+            server.putResource(2018, STATION, "/72054500169.csv").setFailures(10, 500);
+            NoaaClient client = new NoaaClient(server.getBaseUrl()).setRetryPolicy(FAST);
+            try {
+                client.load(2018, STATION);
+                Assert.fail();
+            }
+            catch (NoaaHttpException e) {
+                Assert.assertEquals(500, e.getStatus());
+            }
+            Assert.assertEquals(4, server.getRequests());
+        }
+    }
+
+    @Test
+    public void resumesDroppedDownloadWithRange() throws Exception {
+        try (LocalNoaaServer server = new LocalNoaaServer()) {
+            byte[] file = LocalNoaaServer.resource("/72054500169.csv");
+            server.put(2018, STATION, file).setDrops(1, 1000);
+            NoaaClient client = new NoaaClient(server.getBaseUrl()).setRetryPolicy(FAST);
+
+            Assert.assertEquals(8, client.load(2018, STATION).size());
+            Assert.assertEquals(2, server.getRequests());
+            // the first 1000 bytes are not sent twice
+            Assert.assertEquals(file.length, server.getBytesSent());
+        }
+    }
+
+    @Test
+    public void resumesWithoutRangeSupport() throws Exception {
+        try (LocalNoaaServer server = new LocalNoaaServer()) {
+            byte[] file = LocalNoaaServer.resource("/72054500169.csv");
+            server.put(2018, STATION, file).setRanges(false).setDrops(1, 1000);
+            NoaaClient client = new NoaaClient(server.getBaseUrl()).setRetryPolicy(FAST);
+
+            Assert.assertEquals(8, client.load(2018, STATION).size());
+            Assert.assertEquals(2, server.getRequests());
+        }
+    }
+
+    @Test
+    public void closesErrorResponses() throws Exception {
+        AtomicInteger closed = new AtomicInteger();
+        NoaaTransport transport = new NoaaTransport() {
+            @Override
+            public NoaaResponse execute(NoaaRequest request) {
+                return new NoaaResponse(503, Collections.emptyMap(), new ByteArrayInputStream(new byte[0]) {
+                    @Override
+                    public void close() {
+                        closed.incrementAndGet();
+                    }
+                });
+            }
+
+            @Override
+            public <T> CompletableFuture<T> executeAsync(NoaaRequest request, NoaaResponseConsumer<T> consumer) {
+                throw new UnsupportedOperationException();
+            }
+
+            @Override
+            public void close() {
+            }
+        };
+
+        NoaaClient client = new NoaaClient("http://127.0.0.1/").setTransport(transport).setRetryPolicy(FAST);
+        try {
+            client.load(2018, STATION);
+            Assert.fail();
+        }
+        catch (NoaaHttpException e) {
+            Assert.assertEquals(503, e.getStatus());
+        }
+        Assert.assertEquals(FAST.getMaxAttempts(), closed.get());
+    }
+}
@@ -0,0 +1,101 @@
+/*
+ * ________________________________________________________________________
+ * METRO.IO CONFIDENTIAL
+ * ________________________________________________________________________
+ *
+ * Copyright (c) 2018.
+ * Metro Labs Incorporated
+ * All Rights Reserved.
+ *
+ * NOTICE: All information contained herein is, and remains
+ * the property of Metro Labs Incorporated and its suppliers,
+ * if any. The intellectual and technical concepts contained
+ * herein are proprietary to Metro Labs Incorporated
+ * and its suppliers and may be covered by U.S. and Foreign Patents,
+ * patents in process, and are protected by trade secret or copyright law.
+ * Dissemination of this information or reproduction of this material
+ * is strictly forbidden unless prior written permission is obtained
+ * from Metro Labs Incorporated.
+ */
+
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.noaa.NoaaClient;
+import org.noaa.NoaaFileCache;
+import org.noaa.NoaaMetrics;
+import org.noaa.SimpleNoaaMetrics;
+
+import java.time.Clock;
+import java.time.Instant;
+import java.time.ZoneOffset;
+
+public class SimpleNoaaMetricsTest {
+    private static final String STATION = "720545-00169";
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void recordsDownloadsAndParsing() throws Exception {
+        try (LocalNoaaServer server = new LocalNoaaServer()) {
+            server.putResource(2016, STATION, "/72054500169.csv");
+            SimpleNoaaMetrics metrics = new SimpleNoaaMetrics();
+            NoaaClient client = new NoaaClient(server.getBaseUrl()).setMetrics(metrics);
+
+            Assert.assertEquals(8, client.load(2016, STATION).size());
+            Assert.assertEquals(8, client.loadSeries(2016, STATION).size());
+            Assert.assertEquals(8, client.loadAsync(2016, STATION).get().size());
+
+            Assert.assertEquals(3, metrics.getDownloads());
+            Assert.assertEquals(server.getBytesSent(), metrics.getBytesDownloaded());
+            Assert.assertEquals(3, metrics.getDownloadLatency().getCount());
+            Assert.assertTrue(metrics.getDownloadLatency().getPercentile(0.5) > 0);
+
+            Assert.assertEquals(3, metrics.getFilesParsed());
+            Assert.assertEquals(3 * 11, metrics.getRowsParsed());
+            Assert.assertEquals(3 * 3, metrics.getDuplicates());
+            Assert.assertEquals(0, metrics.getRowsRejected());
+            Assert.assertTrue(metrics.getParseNanosPerRow() > 0);
+            Assert.assertTrue(Double.isNaN(metrics.getCacheHitRate()));
+        }
+    }
+
+    @Test
+    public void recordsCacheHitRate() throws Exception {
+        try (LocalNoaaServer server = new LocalNoaaServer()) {
+            server.putResource(2016, STATION, "/72054500169.csv");
+            NoaaFileCache cache = new NoaaFileCache(folder.getRoot().toPath(), Long.MAX_VALUE)
+                    .setClock(Clock.fixed(Instant.parse("2018-06-01T00:00:00Z"), ZoneOffset.UTC));
+            SimpleNoaaMetrics metrics = new SimpleNoaaMetrics();
+            NoaaClient client = new NoaaClient(server.getBaseUrl()).setCache(cache).setMetrics(metrics);
+
+            for (int i = 0; i < 4; i++) client.load(2016, STATION);
+
+            Assert.assertEquals(1, metrics.getCacheMisses());
+            Assert.assertEquals(3, metrics.getCacheHits());
+            Assert.assertEquals(0.75, metrics.getCacheHitRate(), 0d);
+            Assert.assertEquals(1, metrics.getDownloads());
+            Assert.assertEquals(4 * 11, metrics.getRowsParsed());
+        }
+    }
+
+    @Test
+    public void noopByDefault() {
+        Assert.assertSame(NoaaMetrics.NOOP, new NoaaClient().setMetrics(null).getMetrics());
+    }
+
+    @Test
+    public void histogramPercentiles() {
+        SimpleNoaaMetrics.Histogram histogram = new SimpleNoaaMetrics().getDownloadLatency();
+        Assert.assertEquals(0, histogram.getPercentile(0.5));
+        for (int i = 1; i <= 100; i++) histogram.record(i);
+
+        Assert.assertEquals(100, histogram.getCount());
+        Assert.assertEquals(50.5, histogram.getMean(), 1e-9);
+        Assert.assertEquals(63, histogram.getPercentile(0.5));
+        Assert.assertEquals(127, histogram.getPercentile(0.99));
+        Assert.assertEquals(1, histogram.getPercentile(0));
+    }
+}